@@ -0,0 +1,138 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sample scenario of {@link RunAverageEmissionToolOfflineExample}, prepared for the benchmarks.
+ */
+final class BenchmarkData {
+
+	static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	private BenchmarkData() {} // do not instantiate
+
+	static Config createConfig() {
+		return RunAverageEmissionToolOfflineExample.prepareConfig( null );
+	}
+
+	static Scenario loadScenario( Config config ) {
+		return ScenarioUtils.loadScenario( config );
+	}
+
+	/**
+	 * @return an events manager with an {@link EmissionModule}, as in {@link RunAverageEmissionToolOfflineExample}.
+	 */
+	static EventsManager createEmissionEventsManager( Config config, Scenario scenario ) {
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		AbstractModule module = new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( eventsManager );
+				bind( EmissionModule.class ) ;
+			}
+		};
+		Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+		return eventsManager;
+	}
+
+	static List<Event> readEvents( String eventsFile ) {
+		List<Event> events = new ArrayList<>();
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler( (BasicEventHandler) events::add );
+		new MatsimEventsReader( eventsManager ).readFile( eventsFile );
+		return events;
+	}
+
+	/**
+	 * @return the warm and cold emission events that the {@link EmissionModule} computes for the events.
+	 */
+	static List<Event> computeEmissionEvents( Config config, Scenario scenario, List<Event> events ) {
+		List<Event> emissionEvents = new ArrayList<>();
+		EventsManager eventsManager = createEmissionEventsManager( config, scenario );
+		eventsManager.addHandler( (BasicEventHandler) event -> {
+			if ( event instanceof WarmEmissionEvent || event instanceof ColdEmissionEvent ) {
+				emissionEvents.add( event );
+			}
+		} );
+		for ( Event event : events ) {
+			eventsManager.processEvent( event );
+		}
+		return emissionEvents;
+	}
+
+	/**
+	 * Writes an events file with the events of {@link #EVENTS_FILE}, repeated <code>copies</code> times, to obtain larger
+	 * volumes for the parsing benchmarks.  The copies are identical, so the file is only good for parsing, not for
+	 * emission calculations.
+	 */
+	static String replicateEvents( int copies, Path directory ) {
+		List<String> eventLines = new ArrayList<>();
+		try ( BufferedReader reader = IOUtils.getBufferedReader( EVENTS_FILE ) ) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				if ( line.trim().startsWith( "<event " ) ) {
+					eventLines.add( line );
+				}
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+
+		String filename = directory.resolve( "events-x" + copies + ".xml.gz" ).toString();
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( filename ) ) {
+			writer.write( "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n" );
+			for ( int cc = 0; cc < copies; cc++ ) {
+				for ( String line : eventLines ) {
+					writer.write( line );
+					writer.write( '\n' );
+				}
+			}
+			writer.write( "</events>\n" );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return filename;
+	}
+
+}
@@ -0,0 +1,82 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computing the emissions of all events of the sample events file, already in memory, with the
+ * {@link org.matsim.contrib.emissions.EmissionModule} of the emissions contrib (warm and cold).  Divide by the number of
+ * events, which is logged, for the time per event.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 10 )
+public class EmissionCalculationBenchmark {
+	private static final Logger log = LogManager.getLogger( EmissionCalculationBenchmark.class );
+
+	private Config config;
+	private Scenario scenario;
+	private List<Event> events;
+	private EventsManager emissionEventsManager;
+
+	@Setup
+	public void setup() {
+		config = BenchmarkData.createConfig();
+		scenario = BenchmarkData.loadScenario( config );
+		events = BenchmarkData.readEvents( BenchmarkData.EVENTS_FILE );
+		log.info( "{} events", events.size() );
+	}
+
+	@Setup( Level.Iteration )
+	public void setupIteration() {
+		// the emission module keeps state per vehicle, hence a new one for every pass:
+		emissionEventsManager = BenchmarkData.createEmissionEventsManager( config, scenario );
+	}
+
+	@Benchmark
+	public void emissionModule() {
+		for ( Event event : events ) {
+			emissionEventsManager.processEvent( event );
+		}
+	}
+
+}
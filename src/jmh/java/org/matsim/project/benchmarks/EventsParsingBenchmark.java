@@ -0,0 +1,87 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.project.events.PipelinedEventsReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the sample events file, and copies of it that are <code>copies</code> times as large, with the
+ * {@link MatsimEventsReader} and the {@link PipelinedEventsReader}.  The events go to a handler that only counts them.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+public class EventsParsingBenchmark {
+
+	@Param( { "1", "20" } )
+	public int copies;
+
+	@Param( { "4" } )
+	public int parserThreads;
+
+	private String eventsFile;
+
+	@Setup
+	public void setup() throws IOException {
+		eventsFile = copies == 1 ? BenchmarkData.EVENTS_FILE : BenchmarkData.replicateEvents( copies, Files.createTempDirectory( "events" ) );
+	}
+
+	@Benchmark
+	public long matsimEventsReader() {
+		long[] count = new long[1];
+		new MatsimEventsReader( countingEventsManager( count ) ).readFile( eventsFile );
+		return count[0];
+	}
+
+	@Benchmark
+	public long pipelinedEventsReader() {
+		long[] count = new long[1];
+		new PipelinedEventsReader( countingEventsManager( count ), parserThreads ).readFile( eventsFile );
+		return count[0];
+	}
+
+	private static EventsManager countingEventsManager( long[] count ) {
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler( (BasicEventHandler) event -> count[0]++ );
+		return eventsManager;
+	}
+
+}
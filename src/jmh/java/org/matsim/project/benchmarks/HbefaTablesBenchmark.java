@@ -0,0 +1,70 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.project.emissions.HbefaEmissionFactorIndex;
+import org.matsim.project.emissions.OfflineEmissionsUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the HBEFA tables: by the emissions contrib (as part of creating the {@link org.matsim.contrib.emissions.EmissionModule}),
+ * and into a {@link HbefaEmissionFactorIndex}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class HbefaTablesBenchmark {
+
+	private Config config;
+	private Scenario scenario;
+
+	@Setup
+	public void setup() {
+		config = BenchmarkData.createConfig();
+		scenario = BenchmarkData.loadScenario( config );
+	}
+
+	@Benchmark
+	public EventsManager emissionModule() {
+		return BenchmarkData.createEmissionEventsManager( config, scenario );
+	}
+
+	@Benchmark
+	public HbefaEmissionFactorIndex indexFromCsv() {
+		return OfflineEmissionsUtils.loadAverageHbefaIndex( config );
+	}
+
+}
@@ -0,0 +1,88 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.config.Config;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summing up the emission events of the sample scenario per link: with the {@link LinkEmissionsAggregator}, and with the
+ * emissions contrib's {@link EmissionsOnLinkEventHandler} that the runners used before.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class LinkAggregationBenchmark {
+
+	private List<Event> emissionEvents;
+
+	@Setup
+	public void setup() {
+		Config config = BenchmarkData.createConfig();
+		emissionEvents = BenchmarkData.computeEmissionEvents( config, BenchmarkData.loadScenario( config ),
+				BenchmarkData.readEvents( BenchmarkData.EVENTS_FILE ) );
+	}
+
+	@Benchmark
+	public LinkEmissionsAggregator linkEmissionsAggregator() {
+		LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+		for ( Event event : emissionEvents ) {
+			if ( event instanceof WarmEmissionEvent ) {
+				aggregator.handleEvent( (WarmEmissionEvent) event );
+			} else {
+				aggregator.handleEvent( (ColdEmissionEvent) event );
+			}
+		}
+		return aggregator;
+	}
+
+	@Benchmark
+	public EmissionsOnLinkEventHandler emissionsOnLinkEventHandler() {
+		EmissionsOnLinkEventHandler handler = new EmissionsOnLinkEventHandler( 10. );
+		for ( Event event : emissionEvents ) {
+			if ( event instanceof WarmEmissionEvent ) {
+				handler.handleEvent( (WarmEmissionEvent) event );
+			} else {
+				handler.handleEvent( (ColdEmissionEvent) event );
+			}
+		}
+		return handler;
+	}
+
+}
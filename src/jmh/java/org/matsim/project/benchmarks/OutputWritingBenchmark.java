@@ -0,0 +1,104 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.benchmarks;
+
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.config.Config;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.project.emissions.EmissionEventsBinaryWriter;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the outputs of {@link org.matsim.project.RunAverageEmissionToolOfflineExample}: the emission events as xml and
+ * as binary file, and the emissions per link as csv.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class OutputWritingBenchmark {
+
+	private List<Event> emissionEvents;
+	private LinkEmissionsAggregator aggregator;
+	private Path directory;
+
+	@Setup
+	public void setup() throws IOException {
+		Config config = BenchmarkData.createConfig();
+		emissionEvents = BenchmarkData.computeEmissionEvents( config, BenchmarkData.loadScenario( config ),
+				BenchmarkData.readEvents( BenchmarkData.EVENTS_FILE ) );
+		aggregator = new LinkEmissionsAggregator();
+		for ( Event event : emissionEvents ) {
+			if ( event instanceof WarmEmissionEvent ) {
+				aggregator.handleEvent( (WarmEmissionEvent) event );
+			} else {
+				aggregator.handleEvent( (ColdEmissionEvent) event );
+			}
+		}
+		directory = Files.createTempDirectory( "output" );
+	}
+
+	@Benchmark
+	public void emissionEventsXml() {
+		EventWriterXML writer = new EventWriterXML( directory.resolve( "emission.events.xml.gz" ).toString() );
+		for ( Event event : emissionEvents ) {
+			writer.handleEvent( event );
+		}
+		writer.closeFile();
+	}
+
+	@Benchmark
+	public void emissionEventsBinary() {
+		try ( EmissionEventsBinaryWriter writer = new EmissionEventsBinaryWriter( directory.resolve( "emission.events.bin" ).toString() ) ) {
+			for ( Event event : emissionEvents ) {
+				if ( event instanceof WarmEmissionEvent ) {
+					writer.handleEvent( (WarmEmissionEvent) event );
+				} else {
+					writer.handleEvent( (ColdEmissionEvent) event );
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void emissionsPerLinkCsv() {
+		aggregator.writeCsv( directory.resolve( "emissionsPerLink.csv" ).toString() );
+	}
+
+}
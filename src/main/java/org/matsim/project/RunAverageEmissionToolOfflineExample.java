@@ -21,12 +21,9 @@ package org.matsim.project;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.emissions.EmissionModule;
 import org.matsim.contrib.emissions.Pollutant;
-import org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler;
 import org.matsim.contrib.emissions.example.CreateEmissionConfig;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
 import org.matsim.core.api.experimental.events.EventsManager;
@@ -35,17 +32,21 @@ import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Injector;
 import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.events.algorithms.EventWriterXML;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.emissions.EmissionEventsBinaryWriter;
+import org.matsim.project.emissions.EmissionsComparison;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.matsim.project.emissions.LinkEmissionsCubeWriter;
+import org.matsim.project.emissions.OfflineEmissionsConfigGroup;
+import org.matsim.project.emissions.OfflineEmissionsMetrics;
+import org.matsim.project.emissions.OfflineEmissionsUtils;
+import org.matsim.project.scenario.ParallelScenarioLoader;
 import org.matsim.vehicles.MatsimVehicleWriter;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 /**
@@ -64,39 +65,19 @@ public final class RunAverageEmissionToolOfflineExample {
 	private static final Logger log = LogManager.getLogger(RunAverageEmissionToolOfflineExample.class);
 
 	/* package, for test */ static final String emissionEventOutputFileName = "output_5.emission.events.offline.xml.gz";
+	/* package, for test */ static final String emissionEventBinaryOutputFileName = "output_5.emission.events.offline.bin";
 
 	// =======================================================================================================
 
 	public static void main (String[] args) throws IOException {
 		// see testcase for an example
-		Config config ;
-		if ( args==null || args.length==0 || args[0]==null ) {
-			config = ConfigUtils.loadConfig( "./scenarios/sampleScenario/testv2_Vehv2/config_average.xml" );
-		} else {
-			config = ConfigUtils.loadConfig( args );
-		}
-
-		config.controler().setOutputDirectory( "output/sampleScenario/" );
-//		config.controler().setOverwriteFileSetting( OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists );
-
-		EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class );
-
-		ecg.setAverageColdEmissionFactorsFile( "../sample_EFA_ColdStart_vehcat_2020_average_withHGVetc.csv" );
-//		ecg.setAverageWarmEmissionFactorsFile( "../sample_41_EFA_HOT_vehcat_2020average.csv" );
-		ecg.setAverageWarmEmissionFactorsFile( "../EFA_HOT_Vehcat_avg_demo_all_gradients.csv" );
-
-		ecg.setDetailedVsAverageLookupBehavior( EmissionsConfigGroup.DetailedVsAverageLookupBehavior.directlyTryAverageTable );
-//		ecg.setHbefaTableConsistencyCheckingLevel( EmissionsConfigGroup.HbefaTableConsistencyCheckingLevel.none );
-
-		ecg.setNonScenarioVehicles( EmissionsConfigGroup.NonScenarioVehicles.abort );
+		Config config = prepareConfig( args );
 
-//		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.AverageSpeed );
-//		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.StopAndGoFraction );
-		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.StopAndGo2Fraction );
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
 
 		// ---
 
-		Scenario scenario = ScenarioUtils.loadScenario( config ) ;
+		Scenario scenario = ParallelScenarioLoader.loadScenario( config ) ;
 
 		// TODO Tim's work
 //		for ( Link link : scenario.getNetwork().getLinks().values() ) {
@@ -122,15 +103,30 @@ public final class RunAverageEmissionToolOfflineExample {
 
 		// ---
 
+		// optional: several computation methods and table sets side by side, in one pass over the events
+		// (--config:offlineEmissions.comparisonMethods AverageSpeed,StopAndGoFraction,StopAndGo2Fraction):
+		if ( !oecg.getComparisonMethods().isEmpty() ){
+			EmissionsComparison comparison = new EmissionsComparison( config, scenario, EmissionsComparison.getVariants( config ) );
+			comparison.readFile( eventsFile );
+			comparison.writeCsv( config.controler().getOutputDirectory() + "output.emissionsPerLink.comparison.csv" );
+			comparison.writeReport( config.controler().getOutputDirectory() + "output.emissionsReport.comparison.csv" );
+			return;
+		}
+
 		// we do not want to run the full Controler.  In consequence, we plug together the infrastructure one needs in order to run the emissions contrib:
 
 		EventsManager eventsManager = EventsUtils.createEventsManager();
 
+		// optional: events rate, time per handler, queue depths and heap, sampled into output.metrics.csv
+		// (--config:offlineEmissions.metricsInterval 10).  Without, the calls below return their arguments:
+		OfflineEmissionsMetrics metrics = new OfflineEmissionsMetrics( config, eventsManager, config.controler().getOutputDirectory() );
+		EventsManager emissionModuleEventsManager = metrics.instrumentEmissionModule( eventsManager );
+
 		AbstractModule module = new AbstractModule(){
 			@Override
 			public void install(){
 				bind( Scenario.class ).toInstance( scenario );
-				bind( EventsManager.class ).toInstance( eventsManager );
+				bind( EventsManager.class ).toInstance( emissionModuleEventsManager );
 				bind( EmissionModule.class ) ;
 			}
 		};
@@ -142,80 +138,99 @@ public final class RunAverageEmissionToolOfflineExample {
 
 		// ---
 
-		// add events writer into emissions event handler
-		final EventWriterXML eventWriterXML = new EventWriterXML( config.controler().getOutputDirectory() + emissionEventOutputFileName );
-		eventsManager.addHandler( eventWriterXML );
+		// add events writer into emissions event handler (--config:offlineEmissions.emissionEventsFormat xml|binary|both)
+		EventWriterXML eventWriterXML = null;
+		if ( oecg.getEmissionEventsFormat() != OfflineEmissionsConfigGroup.EmissionEventsFormat.binary ){
+			eventWriterXML = new EventWriterXML( config.controler().getOutputDirectory() + emissionEventOutputFileName );
+			eventsManager.addHandler( metrics.timed( "EventWriterXML", eventWriterXML ) );
+		}
+		EmissionEventsBinaryWriter emissionEventsBinaryWriter = null;
+		if ( oecg.getEmissionEventsFormat() != OfflineEmissionsConfigGroup.EmissionEventsFormat.xml ){
+			emissionEventsBinaryWriter = new EmissionEventsBinaryWriter( config.controler().getOutputDirectory() + emissionEventBinaryOutputFileName );
+			eventsManager.addHandler( metrics.timed( "EmissionEventsBinaryWriter", emissionEventsBinaryWriter ) );
+		}
 
-		// necessary for link emissions [g/m] output
-		EmissionsOnLinkEventHandler emissionsOnLinkEventHandler = new EmissionsOnLinkEventHandler(10.);
-		eventsManager.addHandler( emissionsOnLinkEventHandler );
+		// necessary for link emissions [g] output
+		LinkEmissionsAggregator linkEmissionsAggregator = new LinkEmissionsAggregator();
+		eventsManager.addHandler( metrics.timed( "LinkEmissionsAggregator", linkEmissionsAggregator ) );
+
+		// optional: emissions per link and time bin, e.g. for dispersion models (--config:offlineEmissions.writeLinkEmissionsCube true)
+		LinkEmissionsCubeWriter linkEmissionsCubeWriter = null;
+		Path linkEmissionsCubeFile = null;
+		if ( oecg.isWriteLinkEmissionsCube() ){
+			linkEmissionsCubeFile = Paths.get( config.controler().getOutputDirectory() + "output.emissionsPerLinkAndTimeBin.bin" );
+			linkEmissionsCubeWriter = new LinkEmissionsCubeWriter( linkEmissionsCubeFile,
+					scenario.getNetwork(), oecg.getLinkEmissionsCubeTimeBinSize(), oecg.getLinkEmissionsCubeEndTime(), oecg.getLinkEmissionsCubePollutants() );
+			eventsManager.addHandler( metrics.timed( "LinkEmissionsCubeWriter", linkEmissionsCubeWriter ) );
+		}
 
 		// read events file into the events reader. EmissionsModule, events writer and link emissions event handlers have been added, and will act accordingly.
-		new MatsimEventsReader(eventsManager).readFile( eventsFile );
+		OfflineEmissionsUtils.readEventsFile( oecg, eventsManager, eventsFile, metrics );
+		metrics.close();
 
-		// events writer needs to be explicitly closed, otherwise it does not work:
-		eventWriterXML.closeFile();
+		// events writers need to be explicitly closed, otherwise they do not work:
+		if ( eventWriterXML != null ){
+			eventWriterXML.closeFile();
+		}
+		if ( emissionEventsBinaryWriter != null ){
+			emissionEventsBinaryWriter.close();
+		}
+		if ( linkEmissionsCubeWriter != null ){
+			linkEmissionsCubeWriter.close();
+		}
 
 		// also write vehicles and network as a service so we have all out files in one directory:
 		new MatsimVehicleWriter( scenario.getVehicles() ).writeFile( config.controler().getOutputDirectory() + "output_vehicles.xml.gz" );
 		NetworkUtils.writeNetwork( scenario.getNetwork(), config.controler().getOutputDirectory() + "output_network.xml.gz" );
 
 
-		{ // writing emissions (per link) per meter
-			// *** tweaked for example scenario output
-
-//			String linkEmissionPerMOutputFile = config.controler().getOutputDirectory() + "output.emissionsPerLinkPerM.csv";
+		{ // writing emissions per link
 			String linkEmissionsOutputFile = config.controler().getOutputDirectory() + "output.emissionsPerLink.csv";
-//			log.info("Writing emissions per link [g/m] to: {}", linkEmissionPerMOutputFile);
 			log.info("Writing emissions per link [g] to: {}", linkEmissionsOutputFile);
-//			File file1 = new File(linkEmissionPerMOutputFile);
-			File file1 = new File(linkEmissionsOutputFile);
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(file1));
+			linkEmissionsAggregator.writeCsv( linkEmissionsOutputFile );
+			writeOutputReport( config.controler().getOutputDirectory(), linkEmissionsAggregator );
+		}
 
-			bw1.write("linkId");
+		// optional: emissions on a grid, e.g. for air quality (--config:offlineEmissions.emissionsRasterCellSize 100)
+		OfflineEmissionsUtils.writeEmissionsRaster( config, scenario.getNetwork(), linkEmissionsAggregator, linkEmissionsCubeFile );
+	}
 
-			for ( Pollutant pollutant : Pollutant.values()) {
-//				bw1.write(";" + pollutant + " [g/m]");
-				bw1.write(";" + pollutant + " [g]");
-			}
-			bw1.newLine();
+	/**
+	 * The config of this example, with the emissions settings; also used by the benchmarks.
+	 */
+	public static Config prepareConfig( String[] args ) {
+		Config config ;
+		if ( args==null || args.length==0 || args[0]==null ) {
+			config = ConfigUtils.loadConfig( "./scenarios/sampleScenario/testv2_Vehv2/config_average.xml", new OfflineEmissionsConfigGroup() );
+		} else {
+			config = ConfigUtils.loadConfig( args, new OfflineEmissionsConfigGroup() );
+		}
 
-			Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = emissionsOnLinkEventHandler.getLink2pollutants();
+		config.controler().setOutputDirectory( "output/sampleScenario/" );
+//		config.controler().setOverwriteFileSetting( OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists );
 
-			for (Id<Link> linkId : link2pollutants.keySet()) {
-				bw1.write(linkId.toString());
+		EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class );
 
-				for (Pollutant pollutant : Pollutant.values()) {
-					double linkEmissions = 0.;
-					if (link2pollutants.get(linkId).get(pollutant) != null) {
-						linkEmissions = link2pollutants.get(linkId).get(pollutant);
-					}
+		ecg.setAverageColdEmissionFactorsFile( "../sample_EFA_ColdStart_vehcat_2020_average_withHGVetc.csv" );
+//		ecg.setAverageWarmEmissionFactorsFile( "../sample_41_EFA_HOT_vehcat_2020average.csv" );
+		ecg.setAverageWarmEmissionFactorsFile( "../EFA_HOT_Vehcat_avg_demo_all_gradients.csv" );
 
-					double emissionPerM = Double.NaN;
-					Link link = scenario.getNetwork().getLinks().get(linkId);
-					if (link != null) {
-						emissionPerM = linkEmissions /  link.getLength();
-					}
+		ecg.setDetailedVsAverageLookupBehavior( EmissionsConfigGroup.DetailedVsAverageLookupBehavior.directlyTryAverageTable );
+//		ecg.setHbefaTableConsistencyCheckingLevel( EmissionsConfigGroup.HbefaTableConsistencyCheckingLevel.none );
 
-//					bw1.write(";" + emissionPerM);
-					bw1.write(";" + linkEmissions);
-				}
-				bw1.newLine();
-			}
-			bw1.close();
-			writeOutputReport( config.controler().getOutputDirectory(), link2pollutants );
-		}
+		ecg.setNonScenarioVehicles( EmissionsConfigGroup.NonScenarioVehicles.abort );
+
+//		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.AverageSpeed );
+//		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.StopAndGoFraction );
+		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.StopAndGo2Fraction );
+
+		return config;
 	}
 
-	private static void writeOutputReport( String outputDirectoryName, Map<Id<Link>, Map<Pollutant, Double>> link2pollutants ) {
-		double CO2 = 0;
-		double CO = 0;
-		double NOx = 0;
-		for ( Id<Link> link : link2pollutants.keySet() ) {
-			CO2 = CO2 + link2pollutants.get( link ).get( Pollutant.CO2_TOTAL );
-			CO = CO + link2pollutants.get( link ).get( Pollutant.CO );
-			NOx = NOx + link2pollutants.get( link ).get( Pollutant.NOx );
-		}
+	private static void writeOutputReport( String outputDirectoryName, LinkEmissionsAggregator linkEmissionsAggregator ) {
+		double CO2 = linkEmissionsAggregator.getTotal( Pollutant.CO2_TOTAL );
+		double CO = linkEmissionsAggregator.getTotal( Pollutant.CO );
+		double NOx = linkEmissionsAggregator.getTotal( Pollutant.NOx );
 		System.out.println("");
 		log.info("--------------------- REPORT --------------------");
 		log.info("CO2 [g]: " + CO2 );
@@ -23,9 +23,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
-import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.emissions.*;
-import org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler;
 import org.matsim.contrib.emissions.example.CreateEmissionConfig;
 import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
 import org.matsim.core.api.experimental.events.EventsManager;
@@ -35,21 +33,28 @@ import org.matsim.core.controler.AbstractModule;
 import org.matsim.core.controler.Injector;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.events.EventsUtils;
-import org.matsim.core.events.MatsimEventsReader;
 import org.matsim.core.events.algorithms.EventWriterXML;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.emissions.EmissionEventsBinaryWriter;
+import org.matsim.project.emissions.EmissionsComparison;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.matsim.project.emissions.LinkEmissionsCubeWriter;
+import org.matsim.project.emissions.OfflineEmissionsCheckpoints;
+import org.matsim.project.emissions.OfflineEmissionsConfigGroup;
+import org.matsim.project.emissions.OfflineEmissionsMetrics;
+import org.matsim.project.emissions.OfflineEmissionsUtils;
+import org.matsim.project.emissions.ParallelEmissionsEventsProcessor;
+import org.matsim.project.scenario.ParallelScenarioLoader;
+import org.matsim.project.scenario.ScenarioLoadingConfigGroup;
 import org.matsim.vehicles.EngineInformation;
 import org.matsim.vehicles.MatsimVehicleWriter;
 import org.matsim.vehicles.VehicleType;
 import org.matsim.vehicles.VehicleUtils;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 
 /**
@@ -68,6 +73,7 @@ public final class RunBerlinEmissionsAnalysisOffline {
 	private static final Logger log = LogManager.getLogger( RunBerlinEmissionsAnalysisOffline.class);
 
 	/* package, for test */ static final String emissionEventOutputFileName = "output_berlin-v5.5.3-1pct.xml.gz";
+	/* package, for test */ static final String emissionEventBinaryOutputFileName = "output_berlin-v5.5.3-1pct.emission.events.bin";
 
 	// =======================================================================================================
 
@@ -75,9 +81,9 @@ public final class RunBerlinEmissionsAnalysisOffline {
 		// see testcase for an example
 		Config config ;
 		if ( args==null || args.length==0 || args[0]==null ) {
-			config = ConfigUtils.loadConfig( "scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml" );
+			config = ConfigUtils.loadConfig( "scenarios/berlin-v5.5-1pct/input/berlin-v5.5-1pct.config.xml", new OfflineEmissionsConfigGroup(), new ScenarioLoadingConfigGroup() );
 		} else {
-			config = ConfigUtils.loadConfig( args );
+			config = ConfigUtils.loadConfig( args, new OfflineEmissionsConfigGroup(), new ScenarioLoadingConfigGroup() );
 		}
 
 		config.controler().setOutputDirectory( "output/berlin-v5.5.3-1pct/" );
@@ -88,6 +94,12 @@ public final class RunBerlinEmissionsAnalysisOffline {
 		config.transit().setVehiclesFile("https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/berlin/berlin-v5.5-1pct/output-berlin-v5.5-1pct/berlin-v5.5.3-1pct.output_transitVehicles.xml.gz");
 //		config.global().setCoordinateSystem("GK4");
 
+		// keep local copies of the svn inputs above, so that they are downloaded only once:
+		ScenarioLoadingConfigGroup slcg = ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class );
+		if ( slcg.getUrlCacheDirectory().isEmpty() ) {
+			slcg.setUrlCacheDirectory( "output/url-cache/" );
+		}
+
 		// TODO 31.01.23: debug this... getting error: at least FREEFLOW must be specified for efkey...
 
 		EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class );
@@ -107,20 +119,21 @@ public final class RunBerlinEmissionsAnalysisOffline {
 //		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.StopAndGo2Fraction );
 		String emissionsComputationMethod = ecg.getEmissionsComputationMethod().toString();
 
+		// number of emission workers, e.g. --config:offlineEmissions.numberOfWorkers 8 :
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+
+		// rules for the HBEFA road types of the links; the demo rules only use the road types of the demo warm table:
+		if ( oecg.getRoadTypeRulesFile().isEmpty() ) {
+			oecg.setRoadTypeRulesFile( "../../sampleScenario/hbefa_road_type_rules_demo.csv" );
+		}
+
 		// ---
 
-		Scenario scenario = ScenarioUtils.loadScenario( config ) ;
+		Scenario scenario = ParallelScenarioLoader.loadScenario( config ) ;
 
 		// network
 
-		// temporary solution because these are the only traffic situations in the demo hbefa warm file.
-		for ( Link link : scenario.getNetwork().getLinks().values() ) {
-//			var freespeed = link.getFreespeed() <= 13.888889 ? link.getFreespeed() * 2 : link.getFreespeed();
-//			if (freespeed < 17) { // ±70km/h
-//				EmissionUtils.setHbefaRoadType( link, "URB/Local/50" );
-//			} else { EmissionUtils.setHbefaRoadType( link, "RUR/Trunk/80" ); }
-			EmissionUtils.setHbefaRoadType( link, "URB/Local/50" );
-		}
+		OfflineEmissionsUtils.classifyRoadTypes( config, scenario.getNetwork() );
 
 		// TODO Tim's work
 //		for ( Link link : scenario.getNetwork().getLinks().values() ) {
@@ -160,100 +173,141 @@ public final class RunBerlinEmissionsAnalysisOffline {
 
 		// ---
 
+		// optional: several computation methods and table sets side by side, in one pass over the events
+		// (--config:offlineEmissions.comparisonMethods AverageSpeed,StopAndGoFraction,StopAndGo2Fraction):
+		if ( !oecg.getComparisonMethods().isEmpty() ){
+			EmissionsComparison comparison = new EmissionsComparison( config, scenario, EmissionsComparison.getVariants( config ) );
+			comparison.readFile( eventsFile );
+			comparison.writeCsv( config.controler().getOutputDirectory() + "output.emissionsPerLink.comparison.csv" );
+			comparison.writeReport( config.controler().getOutputDirectory() + "output.emissionsReport.comparison.csv" );
+			return;
+		}
+
 		// we do not want to run the full Controler.  In consequence, we plug together the infrastructure one needs in order to run the emissions contrib:
 
 		EventsManager eventsManager = EventsUtils.createEventsManager();
 
-		AbstractModule module = new AbstractModule(){
-			@Override
-			public void install(){
-				bind( Scenario.class ).toInstance( scenario );
-				bind( EventsManager.class ).toInstance( eventsManager );
-				bind( EmissionModule.class ) ;
-			}
-		};
+		// optional: events rate, time per handler, queue depths and heap, sampled into output.metrics.csv
+		// (--config:offlineEmissions.metricsInterval 10).  Without, the calls below return their arguments:
+		OfflineEmissionsMetrics metrics = new OfflineEmissionsMetrics( config, eventsManager, config.controler().getOutputDirectory() );
+
+		if ( oecg.getNumberOfWorkers() == 1 ){
+			EventsManager emissionModuleEventsManager = metrics.instrumentEmissionModule( eventsManager );
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( emissionModuleEventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
 
-		com.google.inject.Injector injector = Injector.createInjector( config, module );
+			com.google.inject.Injector injector = Injector.createInjector( config, module );
 
-		// the EmissionModule must be instantiated, otherwise it does not work:
-		injector.getInstance(EmissionModule.class);
+			// the EmissionModule must be instantiated, otherwise it does not work:
+			injector.getInstance(EmissionModule.class);
+		}
+		// (otherwise, the ParallelEmissionsEventsProcessor below has one EmissionModule per worker, and feeds their emission events into eventsManager)
 
 		// ---
 
-		// add events writer into emissions event handler
-		final EventWriterXML eventWriterXML = new EventWriterXML( config.controler().getOutputDirectory() + emissionEventOutputFileName );
-		eventsManager.addHandler( eventWriterXML );
+		// optional: checkpoints, from which a killed run resumes (--config:offlineEmissions.checkpointInterval 3600).  They own the link
+		// emissions aggregator and the binary writer, since these are restored from the checkpoint:
+		OfflineEmissionsCheckpoints checkpoints = null;
+		if ( oecg.getCheckpointInterval() > 0. ){
+			if ( oecg.getEmissionEventsFormat() != OfflineEmissionsConfigGroup.EmissionEventsFormat.binary || oecg.isWriteLinkEmissionsCube() ){
+				throw new IllegalArgumentException( "checkpoints need emissionEventsFormat 'binary' and no link emissions cube, "
+						+ "since the xml events and the cube cannot be resumed" );
+			}
+			String checkpointDirectory = oecg.getCheckpointDirectory().isEmpty() ? config.controler().getOutputDirectory() + "checkpoints" : oecg.getCheckpointDirectory();
+			checkpoints = new OfflineEmissionsCheckpoints( Paths.get( checkpointDirectory ), oecg.getCheckpointInterval(), eventsFile,
+					config.controler().getOutputDirectory() + emissionEventBinaryOutputFileName );
+			eventsManager.addHandler( metrics.timed( "OfflineEmissionsCheckpoints", checkpoints ) );
+		}
+
+		// add events writer into emissions event handler (--config:offlineEmissions.emissionEventsFormat xml|binary|both)
+		EventWriterXML eventWriterXML = null;
+		if ( oecg.getEmissionEventsFormat() != OfflineEmissionsConfigGroup.EmissionEventsFormat.binary ){
+			eventWriterXML = new EventWriterXML( config.controler().getOutputDirectory() + emissionEventOutputFileName );
+			eventsManager.addHandler( metrics.timed( "EventWriterXML", eventWriterXML ) );
+		}
+		EmissionEventsBinaryWriter emissionEventsBinaryWriter = null;
+		if ( checkpoints != null ){
+			emissionEventsBinaryWriter = checkpoints.getBinaryWriter();
+		} else if ( oecg.getEmissionEventsFormat() != OfflineEmissionsConfigGroup.EmissionEventsFormat.xml ){
+			emissionEventsBinaryWriter = new EmissionEventsBinaryWriter( config.controler().getOutputDirectory() + emissionEventBinaryOutputFileName );
+			eventsManager.addHandler( metrics.timed( "EmissionEventsBinaryWriter", emissionEventsBinaryWriter ) );
+		}
+
+		// necessary for link emissions [g] output
+		LinkEmissionsAggregator linkEmissionsAggregator;
+		if ( checkpoints != null ){
+			linkEmissionsAggregator = checkpoints.getLinkEmissionsAggregator();
+		} else {
+			linkEmissionsAggregator = new LinkEmissionsAggregator();
+			eventsManager.addHandler( metrics.timed( "LinkEmissionsAggregator", linkEmissionsAggregator ) );
+		}
 
-		// necessary for link emissions [g/m] output
-		EmissionsOnLinkEventHandler emissionsOnLinkEventHandler = new EmissionsOnLinkEventHandler(10.);
-		eventsManager.addHandler( emissionsOnLinkEventHandler );
+		// optional: emissions per link and time bin, e.g. for dispersion models (--config:offlineEmissions.writeLinkEmissionsCube true)
+		LinkEmissionsCubeWriter linkEmissionsCubeWriter = null;
+		Path linkEmissionsCubeFile = null;
+		if ( oecg.isWriteLinkEmissionsCube() ){
+			linkEmissionsCubeFile = Paths.get( config.controler().getOutputDirectory() + "output.emissionsPerLinkAndTimeBin.bin" );
+			linkEmissionsCubeWriter = new LinkEmissionsCubeWriter( linkEmissionsCubeFile,
+					scenario.getNetwork(), oecg.getLinkEmissionsCubeTimeBinSize(), oecg.getLinkEmissionsCubeEndTime(), oecg.getLinkEmissionsCubePollutants() );
+			eventsManager.addHandler( metrics.timed( "LinkEmissionsCubeWriter", linkEmissionsCubeWriter ) );
+		}
 
 		// read events file into the events reader. EmissionsModule, events writer and link emissions event handlers have been added, and will act accordingly.
-		new MatsimEventsReader(eventsManager).readFile( eventsFile );
+		if ( checkpoints != null ){
+			if ( oecg.getNumberOfWorkers() == 1 ){
+				checkpoints.readFile( oecg, eventsFile, eventsManager::processEvent, () -> {} );
+			} else {
+				ParallelEmissionsEventsProcessor processor = new ParallelEmissionsEventsProcessor( config, scenario, eventsManager, oecg.getNumberOfWorkers() );
+				try {
+					checkpoints.readFile( oecg, eventsFile, processor::processEvent, processor::flush );
+				} finally {
+					processor.close();
+				}
+			}
+		} else if ( oecg.getNumberOfWorkers() == 1 ){
+			OfflineEmissionsUtils.readEventsFile( oecg, eventsManager, eventsFile, metrics );
+		} else {
+			new ParallelEmissionsEventsProcessor( config, scenario, eventsManager, oecg.getNumberOfWorkers() ).readFile( eventsFile );
+		}
+		metrics.close();
 
-		// events writer needs to be explicitly closed, otherwise it does not work:
-		eventWriterXML.closeFile();
+		// events writers need to be explicitly closed, otherwise they do not work:
+		if ( eventWriterXML != null ){
+			eventWriterXML.closeFile();
+		}
+		if ( emissionEventsBinaryWriter != null ){
+			emissionEventsBinaryWriter.close();
+		}
+		if ( linkEmissionsCubeWriter != null ){
+			linkEmissionsCubeWriter.close();
+		}
 
 		// also write vehicles and network as a service so we have all out files in one directory:
 		new MatsimVehicleWriter( scenario.getVehicles() ).writeFile( config.controler().getOutputDirectory() + "output_vehicles.xml.gz" );
 		NetworkUtils.writeNetwork( scenario.getNetwork(), config.controler().getOutputDirectory() + "output_network.xml.gz" );
 
 
-		{ // writing emissions (per link) per meter
-			// *** tweaked for example scenario output
-
-//			String linkEmissionPerMOutputFile = config.controler().getOutputDirectory() + "output.emissionsPerLinkPerM.csv";
+		{ // writing emissions per link
 			String linkEmissionsOutputFile = config.controler().getOutputDirectory() + "output.emissionsPerLink.csv";
-//			log.info("Writing emissions per link [g/m] to: {}", linkEmissionPerMOutputFile);
 			log.info("Writing emissions per link [g] to: {}", linkEmissionsOutputFile);
-//			File file1 = new File(linkEmissionPerMOutputFile);
-			File file1 = new File(linkEmissionsOutputFile);
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(file1));
-
-			bw1.write("linkId");
-
-			for ( Pollutant pollutant : Pollutant.values()) {
-//				bw1.write(";" + pollutant + " [g/m]");
-				bw1.write(";" + pollutant + " [g]");
-			}
-			bw1.newLine();
-
-			Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = emissionsOnLinkEventHandler.getLink2pollutants();
-
-			for (Id<Link> linkId : link2pollutants.keySet()) {
-				bw1.write(linkId.toString());
-
-				for (Pollutant pollutant : Pollutant.values()) {
-					double linkEmissions = 0.;
-					if (link2pollutants.get(linkId).get(pollutant) != null) {
-						linkEmissions = link2pollutants.get(linkId).get(pollutant);
-					}
-
-					double emissionPerM = Double.NaN;
-					Link link = scenario.getNetwork().getLinks().get(linkId);
-					if (link != null) {
-						emissionPerM = linkEmissions /  link.getLength();
-					}
-
-//					bw1.write(";" + emissionPerM);
-					bw1.write(";" + linkEmissions);
-				}
-				bw1.newLine();
-			}
-			bw1.close();
-			writeOutputReport( config.controler().getOutputDirectory(), link2pollutants, emissionsComputationMethod );
+			linkEmissionsAggregator.writeCsv( linkEmissionsOutputFile );
+			writeOutputReport( config.controler().getOutputDirectory(), linkEmissionsAggregator, emissionsComputationMethod );
 		}
+
+		// optional: emissions on a grid, e.g. for air quality (--config:offlineEmissions.emissionsRasterCellSize 100)
+		OfflineEmissionsUtils.writeEmissionsRaster( config, scenario.getNetwork(), linkEmissionsAggregator, linkEmissionsCubeFile );
 	}
 
-	private static void writeOutputReport( String outputDirectoryName, Map<Id<Link>, Map<Pollutant, Double>> link2pollutants, String emissionsComputationMethod ) {
-		double CO2 = 0;
-		double CO = 0;
-		double NOx = 0;
-		for ( Id<Link> link : link2pollutants.keySet() ) {
-			CO2 = CO2 + link2pollutants.get( link ).get( Pollutant.CO2_TOTAL );
-			CO = CO + link2pollutants.get( link ).get( Pollutant.CO );
-			NOx = NOx + link2pollutants.get( link ).get( Pollutant.NOx );
-		}
+	private static void writeOutputReport( String outputDirectoryName, LinkEmissionsAggregator linkEmissionsAggregator, String emissionsComputationMethod ) {
+		double CO2 = linkEmissionsAggregator.getTotal( Pollutant.CO2_TOTAL );
+		double CO = linkEmissionsAggregator.getTotal( Pollutant.CO );
+		double NOx = linkEmissionsAggregator.getTotal( Pollutant.NOx );
 		System.out.println("");
 		log.info("--------------------- REPORT --------------------");
 		log.info("Emissions computation method: " + emissionsComputationMethod);
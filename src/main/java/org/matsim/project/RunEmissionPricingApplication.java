@@ -0,0 +1,103 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.application.MATSimApplication;
+import org.matsim.contrib.emissions.HbefaVehicleCategory;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.project.emissions.RoadTypeClassifier;
+import org.matsim.project.pricing.EmissionPricing;
+import org.matsim.project.pricing.EmissionPricingConfigGroup;
+import org.matsim.project.pricing.EmissionTollTable;
+import org.matsim.vehicles.EngineInformation;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import picocli.CommandLine;
+
+/**
+ * {@link RunMatsimApplication} with link tolls from the emissions of the previous iteration, see
+ * {@link EmissionTollTable}.  The emissions are computed online with the average HBEFA tables of the sample scenario, on
+ * an events manager of their own, see {@link EmissionPricing}; the links get their road types from the demo rules, and
+ * all cars are average passenger cars.
+ */
+@CommandLine.Command( header = ":: MyScenario with emission pricing ::", version = "1.0")
+public class RunEmissionPricingApplication extends RunMatsimApplication {
+
+	private static final String ROAD_TYPE_RULES = "scenarios/sampleScenario/hbefa_road_type_rules_demo.csv";
+
+	public static void main(String[] args) {
+		MATSimApplication.run(RunEmissionPricingApplication.class, args);
+	}
+
+	@Override
+	protected Config prepareConfig(Config config) {
+		super.prepareConfig( config );
+
+		config.controler().setOutputDirectory( "output/emissionPricing/" );
+		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
+
+		// relative to the config file:
+		EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class );
+		ecg.setAverageWarmEmissionFactorsFile( "../sampleScenario/EFA_HOT_Vehcat_avg_demo_all_gradients.csv" );
+		ecg.setAverageColdEmissionFactorsFile( "../sampleScenario/sample_EFA_ColdStart_vehcat_2020_average_withHGVetc.csv" );
+		ecg.setDetailedVsAverageLookupBehavior( EmissionsConfigGroup.DetailedVsAverageLookupBehavior.directlyTryAverageTable );
+		ecg.setEmissionsComputationMethod( EmissionsConfigGroup.EmissionsComputationMethod.AverageSpeed );
+		ecg.setNonScenarioVehicles( EmissionsConfigGroup.NonScenarioVehicles.ignore );
+
+		ConfigUtils.addOrGetModule( config, EmissionPricingConfigGroup.class );
+
+		// the car type below, with its HBEFA attributes:
+		config.qsim().setVehiclesSource( QSimConfigGroup.VehiclesSource.modeVehicleTypesFromVehiclesData );
+
+		return config;
+	}
+
+	@Override
+	protected void prepareScenario(Scenario scenario) {
+		super.prepareScenario( scenario );
+
+		RoadTypeClassifier.readRules( IOUtils.resolveFileOrResource( ROAD_TYPE_RULES ) ).classify( scenario.getNetwork() );
+
+		if ( !scenario.getVehicles().getVehicleTypes().containsKey( Id.create( "car", VehicleType.class ) ) ) {
+			VehicleType car = VehicleUtils.createVehicleType( Id.create( "car", VehicleType.class ) );
+			EngineInformation engineInformation = car.getEngineInformation();
+			VehicleUtils.setHbefaVehicleCategory( engineInformation, HbefaVehicleCategory.PASSENGER_CAR.toString() );
+			VehicleUtils.setHbefaTechnology( engineInformation, "average" );
+			VehicleUtils.setHbefaSizeClass( engineInformation, "average" );
+			VehicleUtils.setHbefaEmissionsConcept( engineInformation, "average" );
+			scenario.getVehicles().addVehicleType( car );
+		}
+	}
+
+	@Override
+	protected void prepareControler(Controler controler) {
+		super.prepareControler( controler );
+
+		// after the scenario is loaded, so that the toll table covers all links:
+		EmissionPricing.install( controler );
+	}
+}
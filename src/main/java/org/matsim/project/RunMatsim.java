@@ -37,8 +37,9 @@ import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 import org.matsim.core.replanning.strategies.DefaultPlanStrategiesModule;
-import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.collections.CollectionUtils;
+import org.matsim.project.events.ParallelEventHandling;
+import org.matsim.project.scenario.ParallelScenarioLoader;
 import org.matsim.vehicles.VehicleType;
 import org.matsim.vehicles.VehicleUtils;
 import org.matsim.vis.otfvis.OTFVisConfigGroup;
@@ -69,9 +70,13 @@ public class RunMatsim{
 
 		config.controler().setLastIteration( 5 );
 
+		// parallel events handling, with the same events as the serial one (or --config:parallelEventHandling.numberOfThreads 4;
+		// see RunParallelEventHandlingComparison for the wall times of both):
+//		ParallelEventHandling.configure( config, 4, false );
+
 		// ---
 		
-		Scenario scenario = ScenarioUtils.loadScenario(config) ;
+		Scenario scenario = ParallelScenarioLoader.loadScenario(config) ;
 
 		// possibly modify scenario here
 		
@@ -18,12 +18,20 @@
  * *********************************************************************** */
 package org.matsim.project;
 
-import org.apache.logging.log4j.core.tools.picocli.CommandLine;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.application.MATSimApplication;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.project.emissions.OnlineEmissions;
+import org.matsim.project.emissions.OnlineEmissionsConfigGroup;
+import org.matsim.project.events.ParallelEventHandling;
+import org.matsim.project.scenario.ParallelScenarioLoader;
+import org.matsim.project.scenario.ScenarioLoadingConfigGroup;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
 
 /**
  * @author nagel
@@ -32,6 +40,25 @@ import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 @CommandLine.Command( header = ":: MyScenario ::", version = "1.0")
 public class RunMatsimApplication extends MATSimApplication {
 
+	@CommandLine.Option( names = "--snapshot", description = "Binary snapshot of the network and population, e.g. for sweeps over the same scenario.  "
+			+ "Written if it does not exist or is out of date, read instead of the xml files otherwise." )
+	private Path snapshot;
+
+	@CommandLine.Option( names = "--events-threads", description = "If set, events are handled in parallel by this many threads, "
+			+ "see ParallelEventHandling.  The events are the same as with serial handling." )
+	private Integer eventsThreads;
+
+	@CommandLine.Option( names = "--events-thread-per-handler", description = "With --events-threads, one thread per event handler "
+			+ "instead of the handlers partitioned over the threads." )
+	private boolean eventsThreadPerHandler;
+
+	@CommandLine.Option( names = "--emissions-iterations", description = "Iterations in which the emissions are computed during the mobsim, "
+			+ "e.g. 'last' or '0,10,last', see OnlineEmissions.  Needs the emissions settings in the config." )
+	private String emissionsIterations;
+
+	@CommandLine.Option( names = "--emission-events", description = "With --emissions-iterations, where the emission events go: ${COMPLETION-CANDIDATES}." )
+	private OnlineEmissionsConfigGroup.EmissionEventsSink emissionEvents;
+
 	public RunMatsimApplication() {
 		super("scenarios/equil/config.xml");
 	}
@@ -46,6 +73,19 @@ public class RunMatsimApplication extends MATSimApplication {
 		config.controler().setOutputDirectory( "ouput/equil/" );
 		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
 
+		if ( snapshot != null ) {
+			ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).setSnapshotFile( snapshot.toString() );
+		}
+		if ( eventsThreads != null ) {
+			ParallelEventHandling.configure( config, eventsThreads, eventsThreadPerHandler );
+		}
+		if ( emissionsIterations != null ) {
+			ConfigUtils.addOrGetModule( config, OnlineEmissionsConfigGroup.class ).setIterations( emissionsIterations );
+		}
+		if ( emissionEvents != null ) {
+			ConfigUtils.addOrGetModule( config, OnlineEmissionsConfigGroup.class ).setEmissionEventsSink( emissionEvents );
+		}
+
 		// possibly modify config here
 
 		// ---
@@ -53,6 +93,11 @@ public class RunMatsimApplication extends MATSimApplication {
 		return config;
 	}
 
+	@Override
+	protected Scenario createScenario(Config config) {
+		return ParallelScenarioLoader.loadScenario( config );
+	}
+
 	@Override
 	protected void prepareScenario(Scenario scenario) {
 
@@ -65,6 +110,9 @@ public class RunMatsimApplication extends MATSimApplication {
 	@Override
 	protected void prepareControler(Controler controler) {
 
+		// only with --emissions-iterations or the onlineEmissions config group:
+		OnlineEmissions.install( controler );
+
 		// possibly modify controler here
 
 //		controler.addOverridingModule( new OTFVisLiveModule() ) ;
@@ -5,8 +5,8 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
 import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
-import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.io.IOUtils;
+import org.matsim.project.scenario.ParallelScenarioLoader;
 
 import java.net.URL;
 
@@ -23,7 +23,7 @@ class RunMatsimFromExamplesUtils{
 
 		// ---
 
-		Scenario scenario = ScenarioUtils.loadScenario( config );
+		Scenario scenario = ParallelScenarioLoader.loadScenario( config );
 
 		// ---
 
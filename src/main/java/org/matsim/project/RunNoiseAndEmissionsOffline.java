@@ -0,0 +1,129 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.noise.NoiseComputationModule;
+import org.matsim.contrib.noise.NoiseConfigGroup;
+import org.matsim.contrib.noise.NoiseTimeTracker;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.matsim.project.emissions.OfflineEmissionsConfigGroup;
+import org.matsim.project.emissions.OfflineEmissionsMetrics;
+import org.matsim.project.emissions.OfflineEmissionsUtils;
+import org.matsim.project.scenario.ParallelScenarioLoader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+
+/**
+ * Noise and emissions of the sample scenario in one pass over the events: the {@link EmissionModule} and the event
+ * handlers of the noise contrib are attached to the same {@link EventsManager}, and the events file is read once.
+ * <p>
+ * The noise immissions go to <code>noise/</code>; the emissions per link, and the raster if configured, to the output
+ * directory, as in {@link RunAverageEmissionToolOfflineExample}.
+ * <p>
+ * The receiver points and their relevant links are computed by the noise contrib itself, when its
+ * <code>NoiseContext</code> is created; it cannot be given precomputed ones, so that part of the start of a run is not
+ * shortened here.
+ */
+public final class RunNoiseAndEmissionsOffline {
+	private static final Logger log = LogManager.getLogger( RunNoiseAndEmissionsOffline.class );
+
+	private static final String eventsFile = "./scenarios/sampleScenario/5.events.xml.gz";
+
+	public static void main( String[] args ) {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( args );
+		config.controler().setOutputDirectory( "output/sampleScenario-noiseAndEmissions/" );
+		run( config, eventsFile );
+	}
+
+	static void run( Config config, String eventsFile ) {
+		ConfigUtils.addOrGetModule( config, NoiseConfigGroup.class );
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		String noiseDirectory = config.controler().getOutputDirectory() + "noise/";
+		try {
+			Files.createDirectories( Paths.get( noiseDirectory ) );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+
+		Scenario scenario = ParallelScenarioLoader.loadScenario( config );
+
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		OfflineEmissionsMetrics metrics = new OfflineEmissionsMetrics( config, eventsManager, config.controler().getOutputDirectory() );
+
+		// emissions, as in RunAverageEmissionToolOfflineExample:
+		EventsManager emissionModuleEventsManager = metrics.instrumentEmissionModule( eventsManager );
+		com.google.inject.Injector emissionsInjector = Injector.createInjector( config, new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( emissionModuleEventsManager );
+				bind( EmissionModule.class );
+			}
+		} );
+		// the EmissionModule must be instantiated, otherwise it does not work:
+		emissionsInjector.getInstance( EmissionModule.class );
+
+		// noise: the event handlers that the noise module binds, on the same events manager:
+		com.google.inject.Injector noiseInjector = Injector.createInjector( config, new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( eventsManager );
+				install( new NoiseComputationModule() );
+			}
+		} );
+		for ( EventHandler handler : noiseInjector.getInstance( Key.get( new TypeLiteral<Set<EventHandler>>(){} ) ) ) {
+			eventsManager.addHandler( metrics.timed( "noise:" + handler.getClass().getSimpleName(), handler ) );
+		}
+		NoiseTimeTracker noiseTimeTracker = noiseInjector.getInstance( NoiseTimeTracker.class );
+		noiseTimeTracker.setOutputFilePath( noiseDirectory );
+
+		LinkEmissionsAggregator linkEmissionsAggregator = new LinkEmissionsAggregator();
+		eventsManager.addHandler( metrics.timed( "LinkEmissionsAggregator", linkEmissionsAggregator ) );
+
+		// the one pass over the events:
+		OfflineEmissionsUtils.readEventsFile( oecg, eventsManager, eventsFile, metrics );
+		metrics.close();
+
+		// the last noise time bin is only computed here:
+		noiseTimeTracker.computeFinalTimeIntervals();
+
+		linkEmissionsAggregator.writeCsv( config.controler().getOutputDirectory() + "output.emissionsPerLink.csv" );
+		OfflineEmissionsUtils.writeEmissionsRaster( config, scenario.getNetwork(), linkEmissionsAggregator, null );
+		log.info( "Output written to {}", config.controler().getOutputDirectory() );
+	}
+
+}
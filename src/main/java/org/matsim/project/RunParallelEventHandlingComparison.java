@@ -0,0 +1,107 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.project.events.ParallelEventHandling;
+import org.matsim.project.scenario.ParallelScenarioLoader;
+import org.matsim.utils.eventsfilecomparison.EventsFileComparator;
+
+import java.util.Arrays;
+
+/**
+ * Runs the same scenario twice, with the serial and with the parallel events manager (see {@link ParallelEventHandling}),
+ * logs both wall times, and checks that <code>output_events.xml.gz</code> is the same.  E.g.
+ * <pre>
+ *   RunParallelEventHandlingComparison scenarios/equil/config.xml --events-threads 4 --config:controler.lastIteration 5
+ * </pre>
+ * Add <code>--events-thread-per-handler</code> for one thread per handler.  The runs go into <code>serial/</code> and
+ * <code>parallel/</code> of the configured output directory.
+ */
+public final class RunParallelEventHandlingComparison {
+	private static final Logger log = LogManager.getLogger( RunParallelEventHandlingComparison.class );
+
+	public static void main( String[] args ) {
+		int numberOfThreads = 4;
+		boolean oneThreadPerHandler = false;
+		String[] configArgs = new String[args.length];
+		int numberOfConfigArgs = 0;
+		for ( int ii = 0; ii < args.length; ii++ ) {
+			if ( "--events-threads".equals( args[ii] ) ) {
+				numberOfThreads = Integer.parseInt( args[++ii] );
+			} else if ( "--events-thread-per-handler".equals( args[ii] ) ) {
+				oneThreadPerHandler = true;
+			} else {
+				configArgs[numberOfConfigArgs++] = args[ii];
+			}
+		}
+		if ( numberOfConfigArgs == 0 ) {
+			configArgs = new String[]{ "scenarios/equil/config.xml" };
+		} else {
+			configArgs = Arrays.copyOf( configArgs, numberOfConfigArgs );
+		}
+
+		EventsFileComparator.Result result = compare( configArgs, numberOfThreads, oneThreadPerHandler );
+		if ( result != EventsFileComparator.Result.FILES_ARE_EQUAL ) {
+			throw new IllegalStateException( "the events of the parallel run differ from the serial run: " + result );
+		}
+	}
+
+	/**
+	 * @param args config file and <code>--config:...</code> overrides, as for {@link ConfigUtils#loadConfig(String[], org.matsim.core.config.ConfigGroup...)}
+	 */
+	public static EventsFileComparator.Result compare( String[] args, int numberOfThreads, boolean oneThreadPerHandler ) {
+		Config serialConfig = ConfigUtils.loadConfig( args );
+		String outputDirectory = serialConfig.controler().getOutputDirectory();
+		outputDirectory = outputDirectory.endsWith( "/" ) ? outputDirectory : outputDirectory + "/";
+		ParallelEventHandling.configureSerial( serialConfig );
+		double serialSeconds = run( serialConfig, outputDirectory + "serial/" );
+
+		Config parallelConfig = ConfigUtils.loadConfig( args );
+		ParallelEventHandling.configure( parallelConfig, numberOfThreads, oneThreadPerHandler );
+		double parallelSeconds = run( parallelConfig, outputDirectory + "parallel/" );
+
+		EventsFileComparator.Result result = EventsUtils.compareEventsFiles( outputDirectory + "serial/output_events.xml.gz",
+				outputDirectory + "parallel/output_events.xml.gz" );
+
+		log.info( "--------------------- COMPARISON ----------------" );
+		log.info( "serial events handling: {} s", String.format( "%.1f", serialSeconds ) );
+		log.info( "parallel events handling ({}): {} s", oneThreadPerHandler ? "one thread per handler" : numberOfThreads + " threads",
+				String.format( "%.1f", parallelSeconds ) );
+		log.info( "speedup: {}", String.format( "%.2f", serialSeconds / parallelSeconds ) );
+		log.info( "output_events.xml.gz: {}", result );
+		log.info( "-------------------------------------------------" );
+		return result;
+	}
+
+	private static double run( Config config, String outputDirectory ) {
+		config.controler().setOutputDirectory( outputDirectory );
+		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
+		long start = System.nanoTime();
+		new Controler( ParallelScenarioLoader.loadScenario( config ) ).run();
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+}
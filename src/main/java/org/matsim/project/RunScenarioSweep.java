@@ -0,0 +1,237 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.project.scenario.ParallelScenarioLoader;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a parameter sweep of {@link RunMatsimApplication} in one JVM: several {@link Controler}s at once, each with the
+ * config overrides of one line of the sweep file and an output directory of its own, e.g.
+ * <pre>
+ *   RunScenarioSweep scenarios/equil/sweep.csv --config scenarios/equil/config.xml --parallel-runs 3 --threads 12
+ * </pre>
+ * The sweep file is semicolon-separated, with the header <code>run;module.param;...</code>: the first column names the
+ * run and its output directory, the others are config parameters as in <code>--config:module.param</code>; an empty
+ * field leaves the parameter unchanged.  Lines starting with <code>#</code> are comments.
+ * <p>
+ * The runs share one JIT-warm JVM, and read-only inputs: runs with the same network file get the same {@link Network}
+ * object, read once.  (Time-variant networks are read per run, since their links change.)  The thread budget is split
+ * evenly over the concurrent runs, for the global and the QSim threads.
+ * <p>
+ * Only the network is shared.  Runs with online emissions (<code>onlineEmissions.iterations</code>) each create an
+ * {@link org.matsim.contrib.emissions.EmissionModule}, which parses the HBEFA tables again: the contrib reads its own
+ * tables and cannot be given parsed ones.  The population, facilities and everything else are also read per run.
+ * <p>
+ * Concurrent runs share matsim's static state, i.e. the global random number generator and the log file appender; the
+ * results are hence not reproducible run by run, and the log files of the runs are mixed.  With
+ * <code>--parallel-runs 1</code>, they are.
+ */
+@CommandLine.Command( name = "sweep", description = "Runs several configurations of RunMatsimApplication concurrently in one JVM.",
+		mixinStandardHelpOptions = true )
+public final class RunScenarioSweep implements Callable<Integer> {
+	private static final Logger log = LogManager.getLogger( RunScenarioSweep.class );
+
+	@CommandLine.Parameters( index = "0", description = "Sweep file with the header run;module.param;..." )
+	private Path sweepFile;
+
+	@CommandLine.Option( names = "--config", description = "Base config of all runs.", defaultValue = "scenarios/equil/config.xml" )
+	private String configFile;
+
+	@CommandLine.Option( names = "--output", description = "Directory with one output directory per run.", defaultValue = "output/sweep/" )
+	private String outputDirectory;
+
+	@CommandLine.Option( names = "--parallel-runs", description = "Number of runs at once.", defaultValue = "2" )
+	private int parallelRuns;
+
+	@CommandLine.Option( names = "--threads", description = "Threads of all runs together.  Default: the number of cores." )
+	private Integer threads;
+
+	private final Map<String, Network> sharedNetworks = new ConcurrentHashMap<>();
+
+	public static void main( String[] args ) {
+		System.exit( new CommandLine( new RunScenarioSweep() ).execute( args ) );
+	}
+
+	@Override
+	public Integer call() throws InterruptedException, IOException {
+		List<SweepRun> runs = readSweep( IOUtils.resolveFileOrResource( sweepFile.toString() ) );
+		int runsAtOnce = Math.max( 1, Math.min( parallelRuns, runs.size() ) );
+		int totalThreads = threads != null ? threads : Runtime.getRuntime().availableProcessors();
+		int threadsPerRun = Math.max( 1, totalThreads / runsAtOnce );
+		String output = outputDirectory.endsWith( "/" ) ? outputDirectory : outputDirectory + "/";
+		log.info( "Sweep of {} runs, {} at once, with {} threads each.", runs.size(), runsAtOnce, threadsPerRun );
+
+		ExecutorService executor = Executors.newFixedThreadPool( runsAtOnce );
+		List<Future<Double>> futures = new ArrayList<>();
+		for ( SweepRun run : runs ) {
+			futures.add( executor.submit( () -> run( run, output + run.name + "/", threadsPerRun ) ) );
+		}
+		executor.shutdown();
+
+		int failed = 0;
+		Files.createDirectories( Paths.get( output ) );
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( output + "sweep.csv" ) ) {
+			writer.write( "run;wallTime_s;status" );
+			writer.newLine();
+			log.info( "--------------------- SWEEP ---------------------" );
+			for ( int rr = 0; rr < runs.size(); rr++ ) {
+				String seconds = "";
+				String status = "ok";
+				try {
+					seconds = String.format( "%.1f", futures.get( rr ).get() );
+				} catch ( ExecutionException e ) {
+					log.error( "Run " + runs.get( rr ).name + " failed.", e.getCause() );
+					status = "failed: " + e.getCause();
+					failed++;
+				}
+				writer.write( runs.get( rr ).name + ";" + seconds + ";" + status );
+				writer.newLine();
+				log.info( "{}: {} s, {}", runs.get( rr ).name, seconds, status );
+			}
+			log.info( "-------------------------------------------------" );
+		}
+		return failed == 0 ? 0 : 1;
+	}
+
+	/**
+	 * @return the wall time of the run in seconds
+	 */
+	private double run( SweepRun run, String runOutputDirectory, int threadsPerRun ) {
+		long start = System.nanoTime();
+		List<String> args = new ArrayList<>( List.of( configFile ) );
+		args.addAll( run.overrides );
+		Config config = ConfigUtils.loadConfig( args.toArray( new String[0] ) );
+
+		// the hooks of the application, as MATSimApplication calls them:
+		RunMatsimApplication application = new RunMatsimApplication();
+		config = application.prepareConfig( config );
+		config.controler().setOutputDirectory( runOutputDirectory );
+		config.controler().setOverwriteFileSetting( OverwriteFileSetting.deleteDirectoryIfExists );
+		config.global().setNumberOfThreads( threadsPerRun );
+		config.qsim().setNumberOfThreads( threadsPerRun );
+
+		Scenario scenario = loadScenario( config );
+		application.prepareScenario( scenario );
+		Controler controler = new Controler( scenario );
+		application.prepareControler( controler );
+		controler.run();
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	/**
+	 * Loads the scenario of a run, with the shared network if it can have one.
+	 */
+	Scenario loadScenario( Config config ) {
+		String networkFile = config.network().getInputFile();
+		if ( networkFile == null || !ParallelScenarioLoader.canUseNetwork( config ) ) {
+			return ParallelScenarioLoader.loadScenario( config );
+		}
+		URL networkUrl = ConfigGroup.getInputFileURL( config.getContext(), networkFile );
+		String key = networkUrl + ";" + config.network().getInputCRS() + ";" + config.global().getCoordinateSystem();
+		Network network = sharedNetworks.computeIfAbsent( key, k -> {
+			Network read = NetworkUtils.createNetwork( config );
+			new MatsimNetworkReader( config.network().getInputCRS(), config.global().getCoordinateSystem(), read ).readURL( networkUrl );
+			return read;
+		} );
+		// the other inputs are read into a scenario that has the network already, so that the routes are resolved in it:
+		return ParallelScenarioLoader.loadScenario( config, network );
+	}
+
+	static List<SweepRun> readSweep( URL file ) {
+		List<SweepRun> runs = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		try ( BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			String[] header = null;
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				if ( line.isBlank() || line.startsWith( "#" ) ) {
+					continue;
+				}
+				if ( header == null ) {
+					header = line.split( ";", -1 );
+					if ( !"run".equals( header[0].trim() ) ) {
+						throw new IllegalArgumentException( file + " does not start with the header run;module.param;..." );
+					}
+					continue;
+				}
+				String[] fields = Arrays.copyOf( line.split( ";", -1 ), header.length );
+				String name = fields[0].trim();
+				if ( name.isEmpty() || !names.add( name ) ) {
+					throw new IllegalArgumentException( "empty or duplicate run name '" + name + "' in " + file );
+				}
+				List<String> overrides = new ArrayList<>();
+				for ( int cc = 1; cc < header.length; cc++ ) {
+					if ( fields[cc] != null && !fields[cc].isBlank() ) {
+						overrides.add( "--config:" + header[cc].trim() );
+						overrides.add( fields[cc].trim() );
+					}
+				}
+				runs.add( new SweepRun( name, overrides ) );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return runs;
+	}
+
+	static final class SweepRun {
+		final String name;
+		final List<String> overrides;
+
+		SweepRun( String name, List<String> overrides ) {
+			this.name = name;
+			this.overrides = overrides;
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a file written by {@link EmissionEventsBinaryWriter} and passes the {@link WarmEmissionEvent}s and
+ * {@link ColdEmissionEvent}s, in their original order, to an {@link EventsManager}.
+ */
+public final class EmissionEventsBinaryReader {
+
+	private final EventsManager eventsManager;
+
+	public EmissionEventsBinaryReader( EventsManager eventsManager ) {
+		this.eventsManager = eventsManager;
+	}
+
+	public void readFile( String filename ) {
+		List<Id<Link>> linkIds = new ArrayList<>();
+		List<Id<Vehicle>> vehicleIds = new ArrayList<>();
+		Inflater inflater = new Inflater();
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( Paths.get( filename ) ), 1 << 16 ) ) ) {
+			if ( in.readInt() != EmissionEventsBinaryWriter.MAGIC ) {
+				throw new IOException( filename + " is not a binary emission events file." );
+			}
+			int version = in.readInt();
+			if ( version != EmissionEventsBinaryWriter.VERSION ) {
+				throw new IOException( "Unsupported binary emission events version " + version + " in " + filename );
+			}
+			// pollutants are stored by name, so that files stay readable when the enum changes:
+			Pollutant[] pollutants = new Pollutant[in.readInt()];
+			for ( int pp = 0; pp < pollutants.length; pp++ ) {
+				pollutants[pp] = Pollutant.valueOf( in.readUTF() );
+			}
+
+			byte[] compressed = new byte[0];
+			byte[] uncompressed = new byte[0];
+			int uncompressedLength;
+			while ( (uncompressedLength = in.readInt()) != 0 ) {
+				int compressedLength = in.readInt();
+				if ( compressed.length < compressedLength ) {
+					compressed = new byte[compressedLength];
+				}
+				if ( uncompressed.length < uncompressedLength ) {
+					uncompressed = new byte[uncompressedLength];
+				}
+				in.readFully( compressed, 0, compressedLength );
+				inflater.reset();
+				inflater.setInput( compressed, 0, compressedLength );
+				int inflated = 0;
+				while ( inflated < uncompressedLength ) {
+					int nn = inflater.inflate( uncompressed, inflated, uncompressedLength - inflated );
+					if ( nn == 0 && (inflater.finished() || inflater.needsInput()) ) {
+						throw new IOException( "truncated block in " + filename );
+					}
+					inflated += nn;
+				}
+				readBlock( ByteBuffer.wrap( uncompressed, 0, uncompressedLength ), pollutants, linkIds, vehicleIds );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		} catch ( DataFormatException e ) {
+			throw new UncheckedIOException( new IOException( "corrupt block in " + filename, e ) );
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private void readBlock( ByteBuffer block, Pollutant[] pollutants, List<Id<Link>> linkIds, List<Id<Vehicle>> vehicleIds ) {
+		int size = block.getInt();
+		for ( int ii = block.getInt(); ii > 0; ii-- ) {
+			linkIds.add( Id.createLinkId( getString( block ) ) );
+		}
+		for ( int ii = block.getInt(); ii > 0; ii-- ) {
+			vehicleIds.add( Id.createVehicleId( getString( block ) ) );
+		}
+		byte[] types = new byte[size];
+		block.get( types );
+		double[] times = new double[size];
+		block.asDoubleBuffer().get( times );
+		block.position( block.position() + size * Double.BYTES );
+		int[] links = new int[size];
+		block.asIntBuffer().get( links );
+		block.position( block.position() + size * Integer.BYTES );
+		int[] vehicles = new int[size];
+		block.asIntBuffer().get( vehicles );
+		block.position( block.position() + size * Integer.BYTES );
+		long[] masks = new long[size];
+		block.asLongBuffer().get( masks );
+		block.position( block.position() + size * Long.BYTES );
+		long blockMask = block.getLong();
+		double[][] values = new double[pollutants.length][];
+		for ( int pp = 0; pp < pollutants.length; pp++ ) {
+			if ( (blockMask & (1L << pp)) != 0 ) {
+				values[pp] = new double[size];
+				block.asDoubleBuffer().get( values[pp] );
+				block.position( block.position() + size * Double.BYTES );
+			}
+		}
+
+		for ( int ii = 0; ii < size; ii++ ) {
+			Map<Pollutant, Double> emissions = new EnumMap<>( Pollutant.class );
+			for ( int pp = 0; pp < pollutants.length; pp++ ) {
+				if ( (masks[ii] & (1L << pp)) != 0 ) {
+					emissions.put( pollutants[pp], values[pp][ii] );
+				}
+			}
+			Id<Link> linkId = linkIds.get( links[ii] );
+			Id<Vehicle> vehicleId = vehicleIds.get( vehicles[ii] );
+			if ( types[ii] == EmissionEventsBinaryWriter.WARM ) {
+				eventsManager.processEvent( new WarmEmissionEvent( times[ii], linkId, vehicleId, emissions ) );
+			} else {
+				eventsManager.processEvent( new ColdEmissionEvent( times[ii], linkId, vehicleId, emissions ) );
+			}
+		}
+	}
+
+	private static String getString( ByteBuffer block ) {
+		byte[] bytes = new byte[block.getInt()];
+		block.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+}
@@ -0,0 +1,296 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEventHandler;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes warm and cold emission events into a compact binary file, as an alternative to
+ * {@link org.matsim.core.events.algorithms.EventWriterXML}.  Can be read back with {@link EmissionEventsBinaryReader}.
+ * <p>
+ * The events are collected in blocks.  Within a block, every field is stored as one column of fixed-width values (type,
+ * time, link, vehicle, a bit mask of the pollutants present, and one <code>double</code> column per pollutant that occurs
+ * in the block).  Link and vehicle ids are replaced by integer codes; the ids that are new in a block are stored at the
+ * start of the block.  Each block is deflated separately.
+ * <p>
+ * File layout:
+ * <pre>
+ *   int magic ("MEEV"), int format version, int number of pollutants, UTF pollutant names
+ *   repeated: int uncompressed length, int compressed length, deflated block
+ *   int 0
+ * </pre>
+ */
+public final class EmissionEventsBinaryWriter implements WarmEmissionEventHandler, ColdEmissionEventHandler, AutoCloseable {
+
+	static final int MAGIC = 0x4D454556;
+	static final int VERSION = 1;
+	static final byte WARM = 0;
+	static final byte COLD = 1;
+
+	private static final int BLOCK_SIZE = 65_536;
+	private static final Pollutant[] POLLUTANTS = Pollutant.values();
+
+	private final Path path;
+	private final DataOutputStream out;
+	private final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+	private ByteBuffer block = ByteBuffer.allocate( 1 << 20 );
+	private byte[] compressed = new byte[1 << 20];
+
+	private final Map<Id<Link>, Integer> linkCodes = new HashMap<>();
+	private final Map<Id<Vehicle>, Integer> vehicleCodes = new HashMap<>();
+	private final List<byte[]> newLinkIds = new ArrayList<>();
+	private final List<byte[]> newVehicleIds = new ArrayList<>();
+
+	private final byte[] types = new byte[BLOCK_SIZE];
+	private final double[] times = new double[BLOCK_SIZE];
+	private final int[] links = new int[BLOCK_SIZE];
+	private final int[] vehicles = new int[BLOCK_SIZE];
+	private final long[] masks = new long[BLOCK_SIZE];
+	private final double[][] values = new double[POLLUTANTS.length][BLOCK_SIZE];
+	private long blockMask = 0L;
+	private int size = 0;
+
+	public EmissionEventsBinaryWriter( String filename ) {
+		this( Paths.get( filename ), create( Paths.get( filename ) ) );
+	}
+
+	private EmissionEventsBinaryWriter( Path path, DataOutputStream out ) {
+		this.path = path;
+		this.out = out;
+	}
+
+	private static DataOutputStream create( Path path ) {
+		if ( POLLUTANTS.length > Long.SIZE ) {
+			throw new IllegalStateException( "the pollutant bit mask has room for " + Long.SIZE + " pollutants only" );
+		}
+		try {
+			if ( path.getParent() != null ) {
+				Files.createDirectories( path.getParent() );
+			}
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( path ), 1 << 16 ) );
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( POLLUTANTS.length );
+			for ( Pollutant pollutant : POLLUTANTS ) {
+				out.writeUTF( pollutant.name() );
+			}
+			return out;
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * Continues a file from the state that {@link #writeState} wrote; everything the file got after that is cut off.
+	 */
+	static EmissionEventsBinaryWriter resume( String filename, DataInputStream state ) throws IOException {
+		Path path = Paths.get( filename );
+		long length = state.readLong();
+		try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.WRITE ) ) {
+			if ( channel.size() < length ) {
+				throw new IOException( path + " is shorter than at the checkpoint" );
+			}
+			channel.truncate( length );
+		}
+		EmissionEventsBinaryWriter writer = new EmissionEventsBinaryWriter( path,
+				new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( path, StandardOpenOption.APPEND ), 1 << 16 ) ) );
+		for ( int ii = state.readInt(); ii > 0; ii-- ) {
+			writer.linkCodes.put( Id.createLinkId( state.readUTF() ), writer.linkCodes.size() );
+		}
+		for ( int ii = state.readInt(); ii > 0; ii-- ) {
+			writer.vehicleCodes.put( Id.createVehicleId( state.readUTF() ), writer.vehicleCodes.size() );
+		}
+		return writer;
+	}
+
+	/**
+	 * Writes the current block, and the length of the file and the id codes so far to <code>state</code>, so that the
+	 * file can be {@link #resume resumed} from here.
+	 */
+	void writeState( DataOutputStream state ) throws IOException {
+		writeBlock();
+		out.flush();
+		state.writeLong( Files.size( path ) );
+		writeIds( state, linkCodes );
+		writeIds( state, vehicleCodes );
+	}
+
+	private static void writeIds( DataOutputStream state, Map<? extends Id<?>, Integer> codes ) throws IOException {
+		String[] ids = new String[codes.size()];
+		codes.forEach( ( id, code ) -> ids[code] = id.toString() );
+		state.writeInt( ids.length );
+		for ( String id : ids ) {
+			state.writeUTF( id );
+		}
+	}
+
+	@Override
+	public void handleEvent( WarmEmissionEvent event ) {
+		add( WARM, event.getTime(), event.getLinkId(), event.getVehicleId(), event.getWarmEmissions() );
+	}
+
+	@Override
+	public void handleEvent( ColdEmissionEvent event ) {
+		add( COLD, event.getTime(), event.getLinkId(), event.getVehicleId(), event.getColdEmissions() );
+	}
+
+	private void add( byte type, double time, Id<Link> linkId, Id<Vehicle> vehicleId, Map<Pollutant, Double> emissions ) {
+		types[size] = type;
+		times[size] = time;
+		links[size] = linkCodes.computeIfAbsent( linkId, id -> {
+			newLinkIds.add( id.toString().getBytes( StandardCharsets.UTF_8 ) );
+			return linkCodes.size();
+		} );
+		vehicles[size] = vehicleCodes.computeIfAbsent( vehicleId, id -> {
+			newVehicleIds.add( id.toString().getBytes( StandardCharsets.UTF_8 ) );
+			return vehicleCodes.size();
+		} );
+		long mask = 0L;
+		for ( Map.Entry<Pollutant, Double> entry : emissions.entrySet() ) {
+			int pp = entry.getKey().ordinal();
+			mask |= 1L << pp;
+			values[pp][size] = entry.getValue();
+		}
+		masks[size] = mask;
+		blockMask |= mask;
+		size++;
+		if ( size == BLOCK_SIZE ) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() {
+		if ( size == 0 ) {
+			return;
+		}
+		int numberOfPollutantColumns = Long.bitCount( blockMask );
+		int capacity = Integer.BYTES + stringsBytes( newLinkIds ) + stringsBytes( newVehicleIds )
+				+ size * (Byte.BYTES + Double.BYTES + 2 * Integer.BYTES + Long.BYTES + numberOfPollutantColumns * Double.BYTES) + Long.BYTES;
+		if ( block.capacity() < capacity ) {
+			block = ByteBuffer.allocate( Math.max( capacity, 2 * block.capacity() ) );
+		}
+		block.clear();
+		block.putInt( size );
+		putStrings( newLinkIds );
+		putStrings( newVehicleIds );
+		block.put( types, 0, size );
+		for ( int ii = 0; ii < size; ii++ ) {
+			block.putDouble( times[ii] );
+		}
+		for ( int ii = 0; ii < size; ii++ ) {
+			block.putInt( links[ii] );
+		}
+		for ( int ii = 0; ii < size; ii++ ) {
+			block.putInt( vehicles[ii] );
+		}
+		for ( int ii = 0; ii < size; ii++ ) {
+			block.putLong( masks[ii] );
+		}
+		block.putLong( blockMask );
+		for ( int pp = 0; pp < POLLUTANTS.length; pp++ ) {
+			if ( (blockMask & (1L << pp)) != 0 ) {
+				for ( int ii = 0; ii < size; ii++ ) {
+					// absent values are written as 0 (and compress away); the record's mask tells them apart from real zeros:
+					block.putDouble( (masks[ii] & (1L << pp)) != 0 ? values[pp][ii] : 0. );
+				}
+			}
+		}
+
+		int uncompressedLength = block.position();
+		deflater.reset();
+		deflater.setInput( block.array(), 0, uncompressedLength );
+		deflater.finish();
+		int compressedLength = 0;
+		while ( !deflater.finished() ) {
+			if ( compressedLength == compressed.length ) {
+				compressed = Arrays.copyOf( compressed, 2 * compressed.length );
+			}
+			compressedLength += deflater.deflate( compressed, compressedLength, compressed.length - compressedLength );
+		}
+		try {
+			out.writeInt( uncompressedLength );
+			out.writeInt( compressedLength );
+			out.write( compressed, 0, compressedLength );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		newLinkIds.clear();
+		newVehicleIds.clear();
+		blockMask = 0L;
+		size = 0;
+	}
+
+	private static int stringsBytes( List<byte[]> strings ) {
+		int bytes = Integer.BYTES;
+		for ( byte[] string : strings ) {
+			bytes += Integer.BYTES + string.length;
+		}
+		return bytes;
+	}
+
+	private void putStrings( List<byte[]> strings ) {
+		block.putInt( strings.size() );
+		for ( byte[] string : strings ) {
+			block.putInt( string.length );
+			block.put( string );
+		}
+	}
+
+	/**
+	 * Writes the last block and closes the file.  Must be called after the last event.
+	 */
+	@Override
+	public void close() {
+		writeBlock();
+		try {
+			out.writeInt( 0 );
+			out.close();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		deflater.end();
+	}
+
+}
@@ -0,0 +1,342 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.EmissionsComputationMethod;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the emissions of several variants (computation methods and HBEFA table sets) side by side, in one pass over
+ * the events, e.g. for method sensitivity studies.  Reading and parsing the events file, which usually takes most of
+ * the time, is hence done once for all variants instead of once per variant.
+ * <p>
+ * Every variant has its own config, with the computation method and tables of the variant, its own scenario, which
+ * shares the network and the vehicles, its own {@link EmissionModule} on its own {@link EventsManager}, and its own {@link LinkEmissionsAggregator}.  The events are
+ * read in blocks; the variants handle each block concurrently.  The variants are set in the
+ * {@link OfflineEmissionsConfigGroup}: every computation method is combined with every table set.
+ */
+public final class EmissionsComparison {
+	private static final Logger log = LogManager.getLogger( EmissionsComparison.class );
+
+	private static final int BLOCK_SIZE = 100_000;
+	private static final Pollutant[] REPORTED_POLLUTANTS = { Pollutant.CO2_TOTAL, Pollutant.CO, Pollutant.NOx };
+
+	private final OfflineEmissionsConfigGroup oecg;
+	private final List<Variant> variants;
+	private final List<EventsManager> eventsManagers = new ArrayList<>();
+	private final List<LinkEmissionsAggregator> aggregators = new ArrayList<>();
+	private final List<Event> block = new ArrayList<>( BLOCK_SIZE );
+	private ExecutorService executor;
+	private long eventCounter = 0;
+
+	public EmissionsComparison( Config config, Scenario scenario, List<Variant> variants ) {
+		if ( variants.isEmpty() ) {
+			throw new IllegalArgumentException( "no variants to compare" );
+		}
+		this.oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		this.variants = new ArrayList<>( variants );
+		// the emission modules are created one after the other since they read the hbefa tables and touch the scenario:
+		for ( Variant variant : variants ) {
+			Config variantConfig = copy( config );
+			EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( variantConfig, EmissionsConfigGroup.class );
+			ecg.setEmissionsComputationMethod( variant.method );
+			if ( variant.warmTable != null ) {
+				ecg.setAverageWarmEmissionFactorsFile( variant.warmTable );
+			}
+			if ( variant.coldTable != null ) {
+				ecg.setAverageColdEmissionFactorsFile( variant.coldTable );
+			}
+			// the EmissionModule takes its settings from the config of the scenario, hence each variant needs its own scenario:
+			Scenario variantScenario = scenario( variantConfig, scenario );
+
+			EventsManager eventsManager = EventsUtils.createEventsManager();
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( variantScenario );
+					bind( EventsManager.class ).toInstance( eventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			com.google.inject.Injector injector = Injector.createInjector( variantConfig, module );
+			// the EmissionModule must be instantiated, otherwise it does not work:
+			injector.getInstance( EmissionModule.class );
+
+			LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+			eventsManager.addHandler( aggregator );
+			eventsManagers.add( eventsManager );
+			aggregators.add( aggregator );
+		}
+		log.info( "Comparing {} emission variants: {}", variants.size(), variants );
+	}
+
+	/**
+	 * @return a new config with the groups the emission module of a variant reads, i.e. the global settings and a copy
+	 * of the emissions config group, so that each variant can have its own.
+	 */
+	private static Config copy( Config config ) {
+		// relative file names are resolved against the context, as in the original:
+		Config copy = ConfigUtils.createConfig( config.getContext() );
+		copyParams( config.global(), copy.global() );
+		copyParams( ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class ), ConfigUtils.addOrGetModule( copy, EmissionsConfigGroup.class ) );
+		return copy;
+	}
+
+	private static void copyParams( ConfigGroup from, ConfigGroup to ) {
+		for ( Map.Entry<String, String> param : from.getParams().entrySet() ) {
+			if ( param.getValue() != null ) {
+				to.addParam( param.getKey(), param.getValue() );
+			}
+		}
+	}
+
+	/**
+	 * @return a scenario with the given config that shares the network and the vehicles of the given scenario, which is
+	 * all the emission module reads from it.
+	 */
+	private static Scenario scenario( Config config, Scenario scenario ) {
+		MutableScenario copy = ScenarioUtils.createMutableScenario( config );
+		copy.setNetwork( scenario.getNetwork() );
+		copy( scenario.getVehicles(), copy.getVehicles() );
+		copy( scenario.getTransitVehicles(), copy.getTransitVehicles() );
+		return copy;
+	}
+
+	private static void copy( Vehicles from, Vehicles to ) {
+		from.getVehicleTypes().values().forEach( to::addVehicleType );
+		from.getVehicles().values().forEach( to::addVehicle );
+	}
+
+	/**
+	 * @return the variants of the {@link OfflineEmissionsConfigGroup}: each computation method with each table set, or
+	 * with the tables of the {@link EmissionsConfigGroup} if there are no table sets.
+	 */
+	public static List<Variant> getVariants( Config config ) {
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		List<Variant> variants = new ArrayList<>();
+		for ( String method : oecg.getComparisonMethods().split( "," ) ) {
+			EmissionsComputationMethod computationMethod = EmissionsComputationMethod.valueOf( method.trim() );
+			if ( oecg.getComparisonTableSets().isEmpty() ) {
+				variants.add( new Variant( computationMethod.name(), computationMethod, null, null ) );
+				continue;
+			}
+			for ( String tableSet : oecg.getComparisonTableSets().split( ";" ) ) {
+				// name=warmTable|coldTable
+				String[] nameAndTables = tableSet.split( "=", 2 );
+				String[] tables = nameAndTables.length == 2 ? nameAndTables[1].split( "\\|", -1 ) : new String[0];
+				if ( tables.length != 2 ) {
+					throw new IllegalArgumentException( "table set '" + tableSet + "' is not of the form name=warmTable|coldTable" );
+				}
+				variants.add( new Variant( computationMethod.name() + "/" + nameAndTables[0].trim(), computationMethod,
+						tables[0].isBlank() ? null : tables[0].trim(), tables[1].isBlank() ? null : tables[1].trim() ) );
+			}
+		}
+		return variants;
+	}
+
+	public void readFile( String eventsFile ) {
+		long start = System.nanoTime();
+		EventsManager readerEventsManager = EventsUtils.createEventsManager();
+		readerEventsManager.addHandler( (BasicEventHandler) event -> {
+			block.add( event );
+			if ( block.size() == BLOCK_SIZE ) {
+				processBlock();
+			}
+		} );
+
+		executor = Executors.newFixedThreadPool( Math.min( variants.size(), Runtime.getRuntime().availableProcessors() ) );
+		try {
+			OfflineEmissionsUtils.readEventsFile( oecg, readerEventsManager, eventsFile );
+			processBlock();
+		} finally {
+			executor.shutdown();
+			executor = null;
+		}
+		log.info( "Computed {} emission variants for {} events in {} s.", variants.size(), eventCounter,
+				String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+	}
+
+	private void processBlock() {
+		if ( block.isEmpty() ) {
+			return;
+		}
+		// the events are only read by the emission modules, hence all variants can handle the same event objects:
+		List<Future<?>> futures = new ArrayList<>();
+		for ( EventsManager eventsManager : eventsManagers ) {
+			futures.add( executor.submit( () -> {
+				for ( Event event : block ) {
+					eventsManager.processEvent( event );
+				}
+			} ) );
+		}
+		for ( Future<?> future : futures ) {
+			try {
+				future.get();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			} catch ( ExecutionException e ) {
+				throw new RuntimeException( "emission variant failed", e.getCause() );
+			}
+		}
+		eventCounter += block.size();
+		block.clear();
+	}
+
+	public List<Variant> getVariants() {
+		return new ArrayList<>( variants );
+	}
+
+	public LinkEmissionsAggregator getLinkEmissionsAggregator( int variant ) {
+		return aggregators.get( variant );
+	}
+
+	/**
+	 * Writes one line per link that has received emissions in any variant, with one column per variant and
+	 * {@link Pollutant}, e.g. <code>AverageSpeed:CO2_TOTAL [g]</code>.
+	 */
+	public void writeCsv( String filename ) {
+		BitSet links = new BitSet();
+		for ( LinkEmissionsAggregator aggregator : aggregators ) {
+			links.or( aggregator.getLinksWithEmissions() );
+		}
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( filename ) ) {
+			writer.write( "linkId" );
+			for ( Variant variant : variants ) {
+				for ( Pollutant pollutant : Pollutant.values() ) {
+					writer.write( ";" + variant.name + ":" + pollutant + " [g]" );
+				}
+			}
+			writer.newLine();
+			for ( int linkIndex = links.nextSetBit( 0 ); linkIndex >= 0; linkIndex = links.nextSetBit( linkIndex + 1 ) ) {
+				Id<Link> linkId = Id.get( linkIndex, Link.class );
+				writer.write( linkId.toString() );
+				for ( LinkEmissionsAggregator aggregator : aggregators ) {
+					for ( Pollutant pollutant : Pollutant.values() ) {
+						writer.write( ';' );
+						writer.write( Double.toString( aggregator.getEmission( linkId, pollutant ) ) );
+					}
+				}
+				writer.newLine();
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * Logs the totals of the main pollutants per variant, like the report of the runners, and writes them as a table with
+	 * one line per variant.
+	 */
+	public void writeReport( String filename ) {
+		log.info( "--------------------- REPORT --------------------" );
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( filename ) ) {
+			writer.write( "variant;emissionsComputationMethod;warmTable;coldTable" );
+			for ( Pollutant pollutant : REPORTED_POLLUTANTS ) {
+				writer.write( ";" + pollutant + " [g]" );
+			}
+			writer.newLine();
+			for ( int vv = 0; vv < variants.size(); vv++ ) {
+				Variant variant = variants.get( vv );
+				StringBuilder line = new StringBuilder( variant.name + ";" + variant.method + ";" + (variant.warmTable == null ? "" : variant.warmTable)
+						+ ";" + (variant.coldTable == null ? "" : variant.coldTable) );
+				StringBuilder logLine = new StringBuilder( variant.name + ":" );
+				for ( Pollutant pollutant : REPORTED_POLLUTANTS ) {
+					double total = aggregators.get( vv ).getTotal( pollutant );
+					line.append( ';' ).append( total );
+					logLine.append( ' ' ).append( pollutant ).append( " [g]: " ).append( total );
+				}
+				writer.write( line.toString() );
+				writer.newLine();
+				log.info( logLine );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		log.info( "Report written to {}", filename );
+		log.info( "-------------------------------------------------" );
+	}
+
+	/**
+	 * A computation method with a table set.
+	 */
+	public static final class Variant {
+		private final String name;
+		private final EmissionsComputationMethod method;
+		private final String warmTable;
+		private final String coldTable;
+
+		/**
+		 * @param warmTable average warm table, relative to the config; <code>null</code> for the one of the config
+		 * @param coldTable average cold table, relative to the config; <code>null</code> for the one of the config
+		 */
+		public Variant( String name, EmissionsComputationMethod method, String warmTable, String coldTable ) {
+			this.name = name;
+			this.method = method;
+			this.warmTable = warmTable;
+			this.coldTable = coldTable;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public EmissionsComputationMethod getMethod() {
+			return method;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+}
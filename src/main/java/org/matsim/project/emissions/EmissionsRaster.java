@@ -0,0 +1,272 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Emissions per grid cell, per time bin and pollutant, spread from the links with {@link LinkCellWeights}: from the
+ * totals of a {@link LinkEmissionsAggregator} (one time bin), or from every time bin of a {@link LinkEmissionsCube}.
+ * <p>
+ * File layout (big endian, gzip-compressed if the file name ends with <code>.gz</code>):
+ * <pre>
+ *   int    magic ("MEMR")
+ *   int    format version
+ *   int    number of columns
+ *   int    number of rows
+ *   int    number of time bins
+ *   int    number of pollutants
+ *   double x and y of the lower left corner of the grid
+ *   double cell size
+ *   double time bin size [s]; 0 for totals
+ *   UTF    pollutant names, one per pollutant
+ *   float  data[timeBin][pollutant][row][column] in [g]
+ * </pre>
+ * The values are floats, and most cells of a network's bounding box are empty, so that the compressed file is small.
+ */
+public final class EmissionsRaster {
+	private static final Logger log = LogManager.getLogger( EmissionsRaster.class );
+
+	static final int MAGIC = 0x4D454D52;
+	static final int VERSION = 1;
+
+	private final int numberOfColumns;
+	private final int numberOfRows;
+	private final int numberOfTimeBins;
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final double timeBinSize;
+	private final List<Pollutant> pollutants;
+	private final float[][] data; // [timeBin * pollutants + pollutant][cell]
+
+	private EmissionsRaster( int numberOfColumns, int numberOfRows, int numberOfTimeBins, double minX, double minY, double cellSize, double timeBinSize,
+							 List<Pollutant> pollutants, float[][] data ) {
+		this.numberOfColumns = numberOfColumns;
+		this.numberOfRows = numberOfRows;
+		this.numberOfTimeBins = numberOfTimeBins;
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.timeBinSize = timeBinSize;
+		this.pollutants = pollutants;
+		this.data = data;
+	}
+
+	/**
+	 * @return the totals per cell, as one time bin.
+	 */
+	public static EmissionsRaster rasterize( LinkCellWeights weights, LinkEmissionsAggregator aggregator, List<Pollutant> pollutants ) {
+		float[][] data = new float[pollutants.size()][];
+		for ( int pp = 0; pp < data.length; pp++ ) {
+			Pollutant pollutant = pollutants.get( pp );
+			data[pp] = toFloats( weights.rasterize( linkIndex -> aggregator.getEmission( Id.get( linkIndex, Link.class ), pollutant ) ) );
+		}
+		return new EmissionsRaster( weights.getNumberOfColumns(), weights.getNumberOfRows(), 1, weights.getMinX(), weights.getMinY(),
+				weights.getCellSize(), 0., new ArrayList<>( pollutants ), data );
+	}
+
+	/**
+	 * @return one time bin per time bin of the cube, with the pollutants of the cube that are in <code>pollutants</code>.
+	 */
+	public static EmissionsRaster rasterize( LinkCellWeights weights, LinkEmissionsCube cube, List<Pollutant> pollutants ) {
+		List<Pollutant> rasterPollutants = new ArrayList<>( cube.getPollutants() );
+		rasterPollutants.retainAll( pollutants );
+		// from the rows of the cube to the link indices, and back:
+		List<Id<Link>> linkIds = cube.getLinkIds();
+		int[] rowByLinkIndex = new int[Id.getNumberOfIds( Link.class )];
+		Arrays.fill( rowByLinkIndex, -1 );
+		for ( int row = 0; row < linkIds.size(); row++ ) {
+			rowByLinkIndex[linkIds.get( row ).index()] = row;
+		}
+		float[][] data = new float[cube.getNumberOfTimeBins() * rasterPollutants.size()][];
+		// the slices one after the other, each spread in parallel:
+		for ( int bin = 0; bin < cube.getNumberOfTimeBins(); bin++ ) {
+			for ( int pp = 0; pp < rasterPollutants.size(); pp++ ) {
+				double[] slice = cube.getTimeSlice( bin, rasterPollutants.get( pp ) );
+				data[bin * rasterPollutants.size() + pp] = toFloats( weights.rasterize( linkIndex -> {
+					int row = linkIndex < rowByLinkIndex.length ? rowByLinkIndex[linkIndex] : -1;
+					return row < 0 ? 0. : slice[row];
+				} ) );
+			}
+		}
+		return new EmissionsRaster( weights.getNumberOfColumns(), weights.getNumberOfRows(), cube.getNumberOfTimeBins(), weights.getMinX(),
+				weights.getMinY(), weights.getCellSize(), cube.getTimeBinSize(), rasterPollutants, data );
+	}
+
+	private static float[] toFloats( double[] values ) {
+		float[] floats = new float[values.length];
+		for ( int ii = 0; ii < values.length; ii++ ) {
+			floats[ii] = (float) values[ii];
+		}
+		return floats;
+	}
+
+	/**
+	 * Writes the raster to a temporary file first, so that an interrupted run does not leave a truncated file.
+	 */
+	public void write( String filename ) {
+		Path file = Paths.get( filename );
+		Path temporary = file.resolveSibling( file.getFileName() + ".tmp" + (filename.endsWith( ".gz" ) ? ".gz" : "") );
+		try {
+			if ( file.getParent() != null ) {
+				Files.createDirectories( file.getParent() );
+			}
+			try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( IOUtils.getOutputStream( temporary.toUri().toURL(), false ) ) ) ) {
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( numberOfColumns );
+				out.writeInt( numberOfRows );
+				out.writeInt( numberOfTimeBins );
+				out.writeInt( pollutants.size() );
+				out.writeDouble( minX );
+				out.writeDouble( minY );
+				out.writeDouble( cellSize );
+				out.writeDouble( timeBinSize );
+				for ( Pollutant pollutant : pollutants ) {
+					out.writeUTF( pollutant.name() );
+				}
+				for ( float[] values : data ) {
+					for ( float value : values ) {
+						out.writeFloat( value );
+					}
+				}
+			}
+			Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		log.info( "Wrote emissions raster with {} x {} cells x {} time bins x {} pollutants to {}", numberOfColumns, numberOfRows,
+				numberOfTimeBins, pollutants.size(), filename );
+	}
+
+	public static EmissionsRaster read( String filename ) {
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( IOUtils.getInputStream( IOUtils.resolveFileOrResource( filename ) ) ) ) ) {
+			if ( in.readInt() != MAGIC ) {
+				throw new IOException( filename + " is not an emissions raster." );
+			}
+			int version = in.readInt();
+			if ( version != VERSION ) {
+				throw new IOException( "Unsupported emissions raster version " + version + " in " + filename );
+			}
+			int numberOfColumns = in.readInt();
+			int numberOfRows = in.readInt();
+			int numberOfTimeBins = in.readInt();
+			int numberOfPollutants = in.readInt();
+			double minX = in.readDouble();
+			double minY = in.readDouble();
+			double cellSize = in.readDouble();
+			double timeBinSize = in.readDouble();
+			List<Pollutant> pollutants = new ArrayList<>( numberOfPollutants );
+			for ( int ii = 0; ii < numberOfPollutants; ii++ ) {
+				pollutants.add( Pollutant.valueOf( in.readUTF() ) );
+			}
+			float[][] data = new float[numberOfTimeBins * numberOfPollutants][numberOfColumns * numberOfRows];
+			for ( float[] values : data ) {
+				for ( int cc = 0; cc < values.length; cc++ ) {
+					values[cc] = in.readFloat();
+				}
+			}
+			return new EmissionsRaster( numberOfColumns, numberOfRows, numberOfTimeBins, minX, minY, cellSize, timeBinSize, pollutants, data );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * @return the emissions [g] in a cell; 0 for pollutants that are not in the raster.
+	 */
+	public double get( int timeBin, Pollutant pollutant, int column, int row ) {
+		int pp = pollutants.indexOf( pollutant );
+		return pp < 0 ? 0. : data[timeBin * pollutants.size() + pp][row * numberOfColumns + column];
+	}
+
+	/**
+	 * @return the sum of a pollutant over all cells and time bins.
+	 */
+	public double getTotal( Pollutant pollutant ) {
+		int pp = pollutants.indexOf( pollutant );
+		if ( pp < 0 ) {
+			return 0.;
+		}
+		return IntStream.range( 0, numberOfTimeBins ).mapToDouble( bin -> {
+			double sum = 0.;
+			for ( float value : data[bin * pollutants.size() + pp] ) {
+				sum += value;
+			}
+			return sum;
+		} ).sum();
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	public int getNumberOfTimeBins() {
+		return numberOfTimeBins;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @return 0 for totals.
+	 */
+	public double getTimeBinSize() {
+		return timeBinSize;
+	}
+
+	public List<Pollutant> getPollutants() {
+		return pollutants;
+	}
+
+}
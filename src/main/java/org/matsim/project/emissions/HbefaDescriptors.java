@@ -0,0 +1,264 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.EmissionUtils;
+import org.matsim.vehicles.EngineInformation;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.util.Arrays;
+
+/**
+ * The HBEFA attributes of the links and vehicle types, resolved once to the codes of a {@link HbefaEmissionFactorIndex}
+ * and kept in arrays by {@link Id#index()}.  With these, computing emissions for an event needs no attribute maps and no
+ * string parsing: the link index gives the road type, gradient and length, and the vehicle index gives the segment.
+ * <p>
+ * Links take their road type from {@link EmissionUtils#getHbefaRoadType(Link)}, and their gradient from the
+ * {@link RoadTypeClassifier#ROAD_GRADE} attribute, see {@link #resolveGradient}; links without one are flat.  Vehicle types take their segment from the
+ * HBEFA attributes of their {@link EngineInformation}: the detailed segment if the index has it, otherwise the average
+ * segment of the vehicle category.  Hence, the attributes must be set before {@link #resolve}.
+ * <p>
+ * The runners compute their emissions with the {@link org.matsim.contrib.emissions.EmissionModule}, which cannot be given
+ * the descriptors; they are used by the {@link SyntheticEventsGenerator}, to give the synthetic vehicles HBEFA segments.
+ */
+public final class HbefaDescriptors {
+	private static final Logger log = LogManager.getLogger( HbefaDescriptors.class );
+
+	/**
+	 * Code of a road type or segment that the index does not have, or of a link or vehicle that was not resolved.
+	 */
+	public static final int UNKNOWN = -1;
+	/**
+	 * Segment code of vehicles of the {@link org.matsim.contrib.emissions.HbefaVehicleCategory#NON_HBEFA_VEHICLE} category.
+	 */
+	public static final int NON_HBEFA = -2;
+
+	private static final String DEFAULT_GRADIENT = "0%";
+
+	private final int[] linkRoadTypes;
+	private final int[] linkGradients;
+	private final double[] linkLengths;
+	private final int[] vehicleTypeSegments;
+	private final int[] vehicleTypes;
+
+	private HbefaDescriptors( int[] linkRoadTypes, int[] linkGradients, double[] linkLengths, int[] vehicleTypeSegments, int[] vehicleTypes ) {
+		this.linkRoadTypes = linkRoadTypes;
+		this.linkGradients = linkGradients;
+		this.linkLengths = linkLengths;
+		this.vehicleTypeSegments = vehicleTypeSegments;
+		this.vehicleTypes = vehicleTypes;
+	}
+
+	/**
+	 * @param vehicles e.g. the scenario's vehicles and transit vehicles
+	 */
+	public static HbefaDescriptors resolve( HbefaEmissionFactorIndex index, Network network, Vehicles... vehicles ) {
+		int[] linkRoadTypes = filled( Id.getNumberOfIds( Link.class ), UNKNOWN );
+		int[] linkGradients = filled( Id.getNumberOfIds( Link.class ), UNKNOWN );
+		double[] linkLengths = new double[Id.getNumberOfIds( Link.class )];
+		int flat = index.getGradientCode( DEFAULT_GRADIENT );
+		int unknownRoadTypes = 0;
+		int unknownGradients = 0;
+		for ( Link link : network.getLinks().values() ) {
+			String roadType = EmissionUtils.getHbefaRoadType( link );
+			int code = roadType == null ? UNKNOWN : index.getRoadTypeCode( roadType );
+			if ( code == UNKNOWN ) {
+				unknownRoadTypes++;
+			}
+			linkRoadTypes[link.getId().index()] = code;
+			Object roadGrade = link.getAttributes().getAttribute( RoadTypeClassifier.ROAD_GRADE );
+			int gradient = roadGrade == null ? flat : resolveGradient( index, roadGrade );
+			if ( gradient == UNKNOWN ) {
+				unknownGradients++;
+				gradient = flat;
+			}
+			linkGradients[link.getId().index()] = gradient;
+			linkLengths[link.getId().index()] = link.getLength();
+		}
+
+		int[] vehicleTypeSegments = filled( Id.getNumberOfIds( VehicleType.class ), UNKNOWN );
+		int[] vehicleTypes = filled( Id.getNumberOfIds( Vehicle.class ), UNKNOWN );
+		int unknownSegments = 0;
+		for ( Vehicles container : vehicles ) {
+			for ( VehicleType type : container.getVehicleTypes().values() ) {
+				int segment = resolveSegment( index, type.getEngineInformation() );
+				if ( segment == UNKNOWN ) {
+					unknownSegments++;
+				}
+				vehicleTypeSegments[type.getId().index()] = segment;
+			}
+			for ( Vehicle vehicle : container.getVehicles().values() ) {
+				vehicleTypes[vehicle.getId().index()] = vehicle.getType().getId().index();
+			}
+		}
+
+		if ( unknownRoadTypes > 0 ) {
+			log.warn( "{} links have no road type of the HBEFA tables.", unknownRoadTypes );
+		}
+		if ( unknownGradients > 0 ) {
+			log.warn( "{} links have a {} that is no gradient of the HBEFA tables; they are taken as flat.", unknownGradients, RoadTypeClassifier.ROAD_GRADE );
+		}
+		if ( unknownSegments > 0 ) {
+			log.warn( "{} vehicle types have no segment of the HBEFA tables.", unknownSegments );
+		}
+		return new HbefaDescriptors( linkRoadTypes, linkGradients, linkLengths, vehicleTypeSegments, vehicleTypes );
+	}
+
+	/**
+	 * @param roadGrade a {@link RoadTypeClassifier#ROAD_GRADE} attribute: a gradient of the tables, e.g. <code>+/-2%</code>,
+	 *                  or a grade in percent, as a number or a string like <code>-5.2%</code>
+	 * @return the code of the gradient of the tables, or of the nearest directed gradient (<code>-6%</code> to
+	 * <code>+6%</code> in steps of 2) or, if the tables have none, the nearest undirected one (<code>+/-2%</code> etc.);
+	 * {@link #UNKNOWN} if there is none or the attribute cannot be parsed.
+	 */
+	static int resolveGradient( HbefaEmissionFactorIndex index, Object roadGrade ) {
+		if ( roadGrade instanceof String ) {
+			int code = index.getGradientCode( ((String) roadGrade).trim() );
+			if ( code != UNKNOWN ) {
+				return code;
+			}
+		}
+		double grade = parseGrade( roadGrade );
+		if ( Double.isNaN( grade ) ) {
+			return UNKNOWN;
+		}
+		long magnitude = Math.min( 6, 2 * Math.round( Math.abs( grade ) / 2. ) );
+		if ( magnitude == 0 ) {
+			return index.getGradientCode( DEFAULT_GRADIENT );
+		}
+		int code = index.getGradientCode( (grade > 0. ? "+" : "-") + magnitude + "%" );
+		return code != UNKNOWN ? code : index.getGradientCode( "+/-" + magnitude + "%" );
+	}
+
+	/**
+	 * @param roadGrade a number in percent, or a string like <code>-6%</code>, <code>2.5</code> or <code>+/-2%</code>
+	 * @return the grade in percent; for undirected HBEFA gradients like <code>+/-2%</code> the magnitude; NaN if it cannot
+	 * be parsed.
+	 */
+	static double parseGrade( Object roadGrade ) {
+		if ( roadGrade instanceof Number ) {
+			return ((Number) roadGrade).doubleValue();
+		}
+		if ( !(roadGrade instanceof String) ) {
+			return Double.NaN;
+		}
+		String grade = ((String) roadGrade).trim();
+		if ( grade.startsWith( "+/-" ) ) {
+			grade = grade.substring( "+/-".length() );
+		}
+		if ( grade.endsWith( "%" ) ) {
+			grade = grade.substring( 0, grade.length() - 1 ).trim();
+		}
+		try {
+			return Double.parseDouble( grade );
+		} catch ( NumberFormatException e ) {
+			return Double.NaN;
+		}
+	}
+
+	private static int resolveSegment( HbefaEmissionFactorIndex index, EngineInformation engineInformation ) {
+		String category = VehicleUtils.getHbefaVehicleCategory( engineInformation );
+		if ( category == null ) {
+			return UNKNOWN;
+		}
+		String tableCategory = toTableCategory( category );
+		if ( tableCategory == null ) {
+			return NON_HBEFA;
+		}
+		int segment = index.getSegmentCode( tableCategory, VehicleUtils.getHbefaTechnology( engineInformation ),
+				VehicleUtils.getHbefaSizeClass( engineInformation ), VehicleUtils.getHbefaEmissionsConcept( engineInformation ) );
+		return segment != UNKNOWN ? segment : index.getAverageSegmentCode( tableCategory );
+	}
+
+	/**
+	 * @param category the name of a {@link org.matsim.contrib.emissions.HbefaVehicleCategory}, as stored in the engine information
+	 * @return the vehicle category as in the <code>VehCat</code> column of the HBEFA tables, or <code>null</code> for
+	 * {@link org.matsim.contrib.emissions.HbefaVehicleCategory#NON_HBEFA_VEHICLE}.
+	 */
+	static String toTableCategory( String category ) {
+		switch ( category ) {
+			case "PASSENGER_CAR":
+				return "pass. car";
+			case "LIGHT_COMMERCIAL_VEHICLE":
+				return "LCV";
+			case "HEAVY_GOODS_VEHICLE":
+				return "HGV";
+			case "URBAN_BUS":
+				return "urban bus";
+			case "COACH":
+				return "coach";
+			case "MOTORCYCLE":
+				return "motorcycle";
+			case "NON_HBEFA_VEHICLE":
+				return null;
+			default:
+				throw new IllegalArgumentException( "Unknown HBEFA vehicle category " + category );
+		}
+	}
+
+	private static int[] filled( int length, int value ) {
+		int[] array = new int[length];
+		Arrays.fill( array, value );
+		return array;
+	}
+
+	/**
+	 * @return the road type code of a link, or {@link #UNKNOWN}.
+	 */
+	public int getRoadType( int linkIndex ) {
+		return linkIndex < linkRoadTypes.length ? linkRoadTypes[linkIndex] : UNKNOWN;
+	}
+
+	public int getGradient( int linkIndex ) {
+		return linkIndex < linkGradients.length ? linkGradients[linkIndex] : UNKNOWN;
+	}
+
+	/**
+	 * @return the length of a link, or 0 for links that were created after {@link #resolve}.
+	 */
+	public double getLength( int linkIndex ) {
+		return linkIndex < linkLengths.length ? linkLengths[linkIndex] : 0.;
+	}
+
+	/**
+	 * @return the segment code of a vehicle's type, {@link #NON_HBEFA}, or {@link #UNKNOWN}.
+	 */
+	public int getSegment( int vehicleIndex ) {
+		if ( vehicleIndex >= vehicleTypes.length || vehicleTypes[vehicleIndex] == UNKNOWN ) {
+			return UNKNOWN;
+		}
+		return vehicleTypeSegments[vehicleTypes[vehicleIndex]];
+	}
+
+	/**
+	 * @return the segment code of a vehicle type, {@link #NON_HBEFA}, or {@link #UNKNOWN}.
+	 */
+	public int getVehicleTypeSegment( int vehicleTypeIndex ) {
+		return vehicleTypeIndex < vehicleTypeSegments.length ? vehicleTypeSegments[vehicleTypeIndex] : UNKNOWN;
+	}
+
+}
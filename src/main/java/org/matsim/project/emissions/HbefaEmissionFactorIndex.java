@@ -0,0 +1,457 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HBEFA warm and cold emission factor tables, precompiled for fast lookups.
+ * <p>
+ * Every key dimension of the tables (vehicle segment, component, road type, traffic situation, gradient, ambient
+ * condition) is interned to a small <code>int</code> code when the tables are read.  The factors are stored in flat
+ * <code>double</code> arrays, so that a lookup with codes is array arithmetic only, without building or hashing key
+ * objects:
+ * <pre>
+ *   int row = index.getWarmRow( segment, roadType, gradient );
+ *   double gPerKm = index.getWarmFactor( row, trafficSituation, component );
+ * </pre>
+ * The codes are resolved once, e.g. per link or per vehicle type, with the <code>get...Code</code> methods.
+ * <p>
+ * Both the average tables (one segment per <code>VehCat</code>, with technology, size class and emission concept set to
+ * {@link #AVERAGE}) and the detailed tables (one segment per <code>VehCat</code>, <code>Technology</code>,
+ * <code>SizeClasse</code> and <code>EmConcept</code>) can be read; the columns are found by their names in the header.
+ * <p>
+ * Layout: the warm table has one row per segment, road type and gradient that occurs in the file, addressed through a dense
+ * <code>int</code> array of row offsets.  A row holds, per traffic situation, the speed and then one factor per component.
+ * The cold table is dense over segment, component and ambient condition.  Missing factors are {@link Double#NaN}.
+ */
+public final class HbefaEmissionFactorIndex {
+	private static final Logger log = LogManager.getLogger( HbefaEmissionFactorIndex.class );
+
+	/**
+	 * Technology, size class and emission concept of the segments in the average tables.
+	 */
+	public static final String AVERAGE = "average";
+
+	private final Dictionary segments;
+	private final Dictionary components;
+	private final Dictionary roadTypes;
+	private final Dictionary trafficSituations;
+	private final Dictionary gradients;
+	private final Dictionary ambientConditions;
+
+	private final int[] warmRows;
+	private final double[] warmValues;
+	private final double[] coldValues;
+
+	private final int warmRowSize;
+
+	HbefaEmissionFactorIndex( Dictionary segments, Dictionary components, Dictionary roadTypes, Dictionary trafficSituations,
+					  Dictionary gradients, Dictionary ambientConditions, int[] warmRows, double[] warmValues, double[] coldValues ) {
+		this.segments = segments;
+		this.components = components;
+		this.roadTypes = roadTypes;
+		this.trafficSituations = trafficSituations;
+		this.gradients = gradients;
+		this.ambientConditions = ambientConditions;
+		this.warmRows = warmRows;
+		this.warmValues = warmValues;
+		this.coldValues = coldValues;
+		this.warmRowSize = trafficSituations.size() * (1 + components.size());
+	}
+
+	/**
+	 * Reads a warm and a cold HBEFA table, as configured with e.g.
+	 * {@link org.matsim.contrib.emissions.utils.EmissionsConfigGroup#setAverageWarmEmissionFactorsFile(String)} and
+	 * {@link org.matsim.contrib.emissions.utils.EmissionsConfigGroup#setAverageColdEmissionFactorsFile(String)}.
+	 * Either file may be <code>null</code>.
+	 *
+	 * @throws IllegalArgumentException if a file lacks a required column, or has two different factors for the same key.
+	 */
+	public static HbefaEmissionFactorIndex readFiles( String warmFile, String coldFile ) {
+		return readFiles( warmFile == null ? null : IOUtils.resolveFileOrResource( warmFile ),
+				coldFile == null ? null : IOUtils.resolveFileOrResource( coldFile ) );
+	}
+
+	/**
+	 * @see #readFiles(String, String)
+	 */
+	public static HbefaEmissionFactorIndex readFiles( URL warmFile, URL coldFile ) {
+		long start = System.nanoTime();
+		Builder builder = new Builder();
+		if ( warmFile != null ) {
+			builder.readWarm( warmFile );
+		}
+		if ( coldFile != null ) {
+			builder.readCold( coldFile );
+		}
+		HbefaEmissionFactorIndex index = builder.build();
+		log.info( "Indexed {} warm and {} cold emission factors of {} segments and {} components in {} s.", builder.warmRecords.size(),
+				builder.coldRecords.size(), index.segments.size(), index.components.size(), String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+		return index;
+	}
+
+	// --- codes ---
+
+	/**
+	 * @return the code of a segment of the detailed tables, or -1 if the tables do not have it.
+	 */
+	public int getSegmentCode( String vehicleCategory, String technology, String sizeClass, String emissionsConcept ) {
+		return segments.get( segmentKey( vehicleCategory, technology, sizeClass, emissionsConcept ) );
+	}
+
+	/**
+	 * @return the code of a segment of the average tables, or -1 if the tables do not have it.
+	 */
+	public int getAverageSegmentCode( String vehicleCategory ) {
+		return getSegmentCode( vehicleCategory, AVERAGE, AVERAGE, AVERAGE );
+	}
+
+	/**
+	 * @param component as in the <code>Component</code> column, e.g. <code>CO2(total)</code>
+	 */
+	public int getComponentCode( String component ) {
+		return components.get( component );
+	}
+
+	/**
+	 * @param roadType the road type part of the <code>TrafficSit</code> column, e.g. <code>URB/Local/50</code>
+	 */
+	public int getRoadTypeCode( String roadType ) {
+		return roadTypes.get( roadType );
+	}
+
+	/**
+	 * @param trafficSituation the last part of the <code>TrafficSit</code> column, e.g. <code>Freeflow</code> or <code>St+Go</code>
+	 */
+	public int getTrafficSituationCode( String trafficSituation ) {
+		return trafficSituations.get( trafficSituation );
+	}
+
+	/**
+	 * @param gradient as in the <code>Gradient</code> column, e.g. <code>0%</code>
+	 */
+	public int getGradientCode( String gradient ) {
+		return gradients.get( gradient );
+	}
+
+	/**
+	 * @param ambientCondition as in the <code>AmbientCondPattern</code> column of the cold table, e.g. <code>TØ,0-1h,0-1km</code>
+	 */
+	public int getAmbientConditionCode( String ambientCondition ) {
+		return ambientConditions.get( ambientCondition );
+	}
+
+	public List<String> getComponents() {
+		return components.names();
+	}
+
+	public List<String> getTrafficSituations() {
+		return trafficSituations.names();
+	}
+
+	public List<String> getRoadTypes() {
+		return roadTypes.names();
+	}
+
+	public List<String> getAmbientConditions() {
+		return ambientConditions.names();
+	}
+
+	public int getNumberOfSegments() {
+		return segments.size();
+	}
+
+	// --- lookups ---
+
+	/**
+	 * @return the warm table row of a segment, road type and gradient, or -1 if there is none or one of the codes is -1.
+	 */
+	public int getWarmRow( int segment, int roadType, int gradient ) {
+		if ( segment < 0 || roadType < 0 || gradient < 0 ) {
+			return -1;
+		}
+		return warmRows[(segment * roadTypes.size() + roadType) * gradients.size() + gradient];
+	}
+
+	/**
+	 * @return the average speed in km/h of a traffic situation in a warm table row, or NaN if the table does not have it.
+	 */
+	public double getWarmSpeed( int row, int trafficSituation ) {
+		return warmValues[row * warmRowSize + trafficSituation * (1 + components.size())];
+	}
+
+	/**
+	 * @return the warm emission factor in g/km, or NaN if the table does not have it.
+	 */
+	public double getWarmFactor( int row, int trafficSituation, int component ) {
+		return warmValues[row * warmRowSize + trafficSituation * (1 + components.size()) + 1 + component];
+	}
+
+	/**
+	 * @return the cold start emission factor in g per start, or NaN if the table does not have it.
+	 */
+	public double getColdFactor( int segment, int component, int ambientCondition ) {
+		return coldValues[(segment * components.size() + component) * ambientConditions.size() + ambientCondition];
+	}
+
+	static String segmentKey( String vehicleCategory, String technology, String sizeClass, String emissionsConcept ) {
+		// ';' is the column separator, so it cannot occur within the names:
+		return vehicleCategory + ';' + technology + ';' + sizeClass + ';' + emissionsConcept;
+	}
+
+	/**
+	 * Interns strings to consecutive codes, starting at 0.
+	 */
+	static final class Dictionary {
+		private final Map<String, Integer> codes = new HashMap<>();
+		private final List<String> names = new ArrayList<>();
+
+		int intern( String name ) {
+			Integer code = codes.get( name );
+			if ( code == null ) {
+				code = names.size();
+				codes.put( name, code );
+				names.add( name );
+			}
+			return code;
+		}
+
+		int get( String name ) {
+			Integer code = codes.get( name );
+			return code == null ? -1 : code;
+		}
+
+		int size() {
+			return names.size();
+		}
+
+		List<String> names() {
+			return Collections.unmodifiableList( names );
+		}
+	}
+
+	private static final class Builder {
+		private final Dictionary segments = new Dictionary();
+		private final Dictionary components = new Dictionary();
+		private final Dictionary roadTypes = new Dictionary();
+		private final Dictionary trafficSituations = new Dictionary();
+		private final Dictionary gradients = new Dictionary();
+		private final Dictionary ambientConditions = new Dictionary();
+
+		private final List<WarmRecord> warmRecords = new ArrayList<>();
+		private final List<ColdRecord> coldRecords = new ArrayList<>();
+
+		void readWarm( URL url ) {
+			String filename = url.toString();
+			try ( BufferedReader reader = IOUtils.getBufferedReader( url ) ) {
+				Columns columns = new Columns( reader.readLine(), filename );
+				int trafficSit = columns.require( "TrafficSit" );
+				int gradient = columns.find( "Gradient" );
+				int speed = columns.require( columns.isDetailed() ? "V" : "V_weighted" );
+				int factor = columns.require( columns.isDetailed() ? "EFA" : "EFA_weighted" );
+				String line;
+				while ( (line = reader.readLine()) != null ) {
+					if ( line.isEmpty() ) {
+						continue;
+					}
+					String[] row = line.split( ";", -1 );
+					String situation = row[trafficSit];
+					int slash = situation.lastIndexOf( '/' );
+					if ( slash < 0 ) {
+						throw new IllegalArgumentException( "TrafficSit '" + situation + "' in " + filename + " has no road type" );
+					}
+					WarmRecord record = new WarmRecord();
+					record.segment = segments.intern( columns.segmentKey( row ) );
+					record.component = components.intern( row[columns.component] );
+					record.roadType = roadTypes.intern( situation.substring( 0, slash ) );
+					record.trafficSituation = trafficSituations.intern( situation.substring( slash + 1 ) );
+					record.gradient = gradients.intern( gradient < 0 ? "0%" : row[gradient] );
+					record.speed = parse( row[speed] );
+					record.factor = parse( row[factor] );
+					warmRecords.add( record );
+				}
+			} catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		}
+
+		void readCold( URL url ) {
+			String filename = url.toString();
+			try ( BufferedReader reader = IOUtils.getBufferedReader( url ) ) {
+				Columns columns = new Columns( reader.readLine(), filename );
+				int ambient = columns.require( "AmbientCondPattern" );
+				int factor = columns.require( columns.isDetailed() ? "EFA" : "EFA_weighted" );
+				String line;
+				while ( (line = reader.readLine()) != null ) {
+					if ( line.isEmpty() ) {
+						continue;
+					}
+					String[] row = line.split( ";", -1 );
+					ColdRecord record = new ColdRecord();
+					record.segment = segments.intern( columns.segmentKey( row ) );
+					record.component = components.intern( row[columns.component] );
+					record.ambientCondition = ambientConditions.intern( row[ambient] );
+					record.factor = parse( row[factor] );
+					coldRecords.add( record );
+				}
+			} catch ( IOException e ) {
+				throw new UncheckedIOException( e );
+			}
+		}
+
+		HbefaEmissionFactorIndex build() {
+			int numberOfComponents = components.size();
+			int numberOfSituations = trafficSituations.size();
+			int warmRowSize = numberOfSituations * (1 + numberOfComponents);
+
+			int[] warmRows = new int[segments.size() * roadTypes.size() * gradients.size()];
+			Arrays.fill( warmRows, -1 );
+			int numberOfWarmRows = 0;
+			for ( WarmRecord record : warmRecords ) {
+				int slot = (record.segment * roadTypes.size() + record.roadType) * gradients.size() + record.gradient;
+				if ( warmRows[slot] < 0 ) {
+					warmRows[slot] = numberOfWarmRows++;
+				}
+			}
+			double[] warmValues = new double[numberOfWarmRows * warmRowSize];
+			Arrays.fill( warmValues, Double.NaN );
+			for ( WarmRecord record : warmRecords ) {
+				int slot = (record.segment * roadTypes.size() + record.roadType) * gradients.size() + record.gradient;
+				int offset = warmRows[slot] * warmRowSize + record.trafficSituation * (1 + numberOfComponents);
+				if ( Double.isNaN( warmValues[offset] ) ) {
+					// the speed of a traffic situation is the same for all components; keep the first one
+					warmValues[offset] = record.speed;
+				}
+				set( warmValues, offset + 1 + record.component, record.factor, "warm", record.segment, record.component );
+			}
+
+			double[] coldValues = new double[segments.size() * numberOfComponents * ambientConditions.size()];
+			Arrays.fill( coldValues, Double.NaN );
+			for ( ColdRecord record : coldRecords ) {
+				int offset = (record.segment * numberOfComponents + record.component) * ambientConditions.size() + record.ambientCondition;
+				set( coldValues, offset, record.factor, "cold", record.segment, record.component );
+			}
+
+			return new HbefaEmissionFactorIndex( segments, components, roadTypes, trafficSituations, gradients, ambientConditions,
+					warmRows, warmValues, coldValues );
+		}
+
+		private void set( double[] values, int offset, double factor, String table, int segment, int component ) {
+			if ( !Double.isNaN( values[offset] ) && values[offset] != factor ) {
+				throw new IllegalArgumentException( "The " + table + " table has two different factors for segment '"
+						+ segments.names().get( segment ) + "' and component '" + components.names().get( component ) + "': "
+						+ values[offset] + " and " + factor );
+			}
+			values[offset] = factor;
+		}
+
+		private static double parse( String value ) {
+			return value.isEmpty() ? Double.NaN : Double.parseDouble( value );
+		}
+	}
+
+	/**
+	 * Positions of the key columns in a table header.
+	 */
+	private static final class Columns {
+		private final Map<String, Integer> positions = new HashMap<>();
+		private final String filename;
+		private final int vehicleCategory;
+		private final int component;
+		private final int technology;
+		private final int sizeClass;
+		private final int emissionsConcept;
+
+		Columns( String header, String filename ) {
+			if ( header == null ) {
+				throw new IllegalArgumentException( filename + " is empty" );
+			}
+			this.filename = filename;
+			String[] names = header.replace( "\uFEFF", "" ).split( ";", -1 );
+			for ( int ii = 0; ii < names.length; ii++ ) {
+				positions.put( names[ii].trim(), ii );
+			}
+			this.vehicleCategory = require( "VehCat" );
+			this.component = require( "Component" );
+			// only in the detailed tables:
+			this.technology = find( "Technology" );
+			this.sizeClass = find( "SizeClasse" );
+			this.emissionsConcept = find( "EmConcept" );
+		}
+
+		/**
+		 * In the detailed tables, the <code>..._weighted</code> columns hold the average over the vehicle category; the
+		 * values of the segment itself are in the plain columns.
+		 */
+		boolean isDetailed() {
+			return technology >= 0;
+		}
+
+		int find( String name ) {
+			return positions.getOrDefault( name, -1 );
+		}
+
+		int require( String name ) {
+			int position = find( name );
+			if ( position < 0 ) {
+				throw new IllegalArgumentException( filename + " has no column " + name );
+			}
+			return position;
+		}
+
+		String segmentKey( String[] row ) {
+			return HbefaEmissionFactorIndex.segmentKey( row[vehicleCategory],
+					technology < 0 ? AVERAGE : row[technology],
+					sizeClass < 0 ? AVERAGE : row[sizeClass],
+					emissionsConcept < 0 ? AVERAGE : row[emissionsConcept] );
+		}
+	}
+
+	private static final class WarmRecord {
+		int segment;
+		int component;
+		int roadType;
+		int trafficSituation;
+		int gradient;
+		double speed;
+		double factor;
+	}
+
+	private static final class ColdRecord {
+		int segment;
+		int component;
+		int ambientCondition;
+		double factor;
+	}
+
+}
@@ -0,0 +1,331 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A regular grid over a network, and for every link the cells it crosses with the share of its length in each cell.
+ * With these weights, emissions per link are spread over the cells (see {@link #rasterize}) without any geometry.
+ * <p>
+ * A link is the straight line between its nodes.  With a smoothing radius, the share of every cell is spread further
+ * over the cells around it, with a Gaussian kernel of standard deviation <code>radius / 2</code>, cut off at the radius.
+ * The weights of a link always add up to 1, and the grid is large enough for the kernel, so the emissions on the grid add
+ * up to those on the links.
+ * <p>
+ * The weights are built once per network, in parallel, and kept in three arrays: the weights of the link with
+ * {@link Id#index()} <code>i</code> are at the positions <code>offsets[i]</code> to <code>offsets[i + 1]</code> of
+ * <code>cells</code> and <code>weights</code>.
+ */
+public final class LinkCellWeights {
+	private static final Logger log = LogManager.getLogger( LinkCellWeights.class );
+
+	private static final int LINKS_PER_TASK = 4096;
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int numberOfColumns;
+	private final int numberOfRows;
+	private final int[] linkIndices;
+	private final int[] offsets;
+	private final int[] cells;
+	private final float[] weights;
+
+	private LinkCellWeights( double minX, double minY, double cellSize, int numberOfColumns, int numberOfRows, int[] linkIndices, int[] offsets,
+							 int[] cells, float[] weights ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.numberOfColumns = numberOfColumns;
+		this.numberOfRows = numberOfRows;
+		this.linkIndices = linkIndices;
+		this.offsets = offsets;
+		this.cells = cells;
+		this.weights = weights;
+	}
+
+	/**
+	 * @param cellSize        edge length of a cell, in the units of the network's coordinates
+	 * @param smoothingRadius in the units of the network's coordinates; 0 means no smoothing
+	 */
+	public static LinkCellWeights build( Network network, double cellSize, double smoothingRadius ) {
+		if ( cellSize <= 0. || smoothingRadius < 0. ) {
+			throw new IllegalArgumentException( "The cell size must be positive and the smoothing radius must not be negative." );
+		}
+		long start = System.nanoTime();
+		double[] box = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for ( Node node : network.getNodes().values() ) {
+			box[0] = Math.min( box[0], node.getCoord().getX() );
+			box[1] = Math.min( box[1], node.getCoord().getY() );
+			box[2] = Math.max( box[2], node.getCoord().getX() );
+			box[3] = Math.max( box[3], node.getCoord().getY() );
+		}
+		if ( network.getNodes().isEmpty() ) {
+			Arrays.fill( box, 0. );
+		}
+		// one cell and the kernel of margin, aligned to the cell size:
+		double margin = cellSize + smoothingRadius;
+		double minX = Math.floor( (box[0] - margin) / cellSize ) * cellSize;
+		double minY = Math.floor( (box[1] - margin) / cellSize ) * cellSize;
+		int numberOfColumns = (int) Math.ceil( (box[2] + margin - minX) / cellSize );
+		int numberOfRows = (int) Math.ceil( (box[3] + margin - minY) / cellSize );
+		if ( (long) numberOfColumns * numberOfRows > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( "A grid of " + numberOfColumns + " x " + numberOfRows + " cells is too large; use larger cells." );
+		}
+		Kernel kernel = smoothingRadius > 0. ? new Kernel( cellSize, smoothingRadius ) : null;
+
+		Link[] links = network.getLinks().values().toArray( new Link[0] );
+		@SuppressWarnings( "unchecked" )
+		Map<Integer, Double>[] linkWeights = new Map[links.length];
+		IntStream.range( 0, links.length ).parallel().forEach( ll -> {
+			Map<Integer, Double> lineWeights = splitLine( links[ll].getFromNode().getCoord(), links[ll].getToNode().getCoord(),
+					minX, minY, cellSize, numberOfColumns );
+			linkWeights[ll] = kernel == null ? lineWeights : kernel.smooth( lineWeights, numberOfColumns, numberOfRows );
+		} );
+
+		int[] linkIndices = new int[links.length];
+		int[] offsets = new int[Id.getNumberOfIds( Link.class ) + 1];
+		int size = 0;
+		for ( int ll = 0; ll < links.length; ll++ ) {
+			linkIndices[ll] = links[ll].getId().index();
+			size += linkWeights[ll].size();
+		}
+		Arrays.sort( linkIndices );
+		int[] positions = new int[offsets.length - 1];
+		Arrays.fill( positions, -1 );
+		for ( int ll = 0; ll < links.length; ll++ ) {
+			positions[links[ll].getId().index()] = ll;
+		}
+		int[] cells = new int[size];
+		float[] weights = new float[size];
+		int position = 0;
+		for ( int linkIndex = 0; linkIndex < positions.length; linkIndex++ ) {
+			offsets[linkIndex] = position;
+			if ( positions[linkIndex] >= 0 ) {
+				for ( Map.Entry<Integer, Double> entry : linkWeights[positions[linkIndex]].entrySet() ) {
+					cells[position] = entry.getKey();
+					weights[position] = entry.getValue().floatValue();
+					position++;
+				}
+			}
+		}
+		offsets[positions.length] = position;
+
+		log.info( "Link cell weights of {} links on {} x {} cells of {}, smoothing radius {}: {} weights ({} MB) in {} s",
+				links.length, numberOfColumns, numberOfRows, cellSize, smoothingRadius, size, (size * 8L + offsets.length * 4L) / 1024 / 1024,
+				String.format( "%.2f", (System.nanoTime() - start) / 1e9 ) );
+		return new LinkCellWeights( minX, minY, cellSize, numberOfColumns, numberOfRows, linkIndices, offsets, cells, weights );
+	}
+
+	/**
+	 * @return the cells the line crosses, with the share of its length in each.  The cell of a line's midpoint of two
+	 * crossings of grid lines is the cell between them.
+	 */
+	static Map<Integer, Double> splitLine( Coord from, Coord to, double minX, double minY, double cellSize, int numberOfColumns ) {
+		double dx = to.getX() - from.getX();
+		double dy = to.getY() - from.getY();
+		Map<Integer, Double> shares = new LinkedHashMap<>();
+		if ( dx == 0. && dy == 0. ) {
+			shares.put( cell( from.getX(), from.getY(), minX, minY, cellSize, numberOfColumns ), 1. );
+			return shares;
+		}
+		// the crossings of the line with the grid lines, as fractions of the line:
+		int xCrossings = crossings( from.getX(), to.getX(), minX, cellSize );
+		int yCrossings = crossings( from.getY(), to.getY(), minY, cellSize );
+		double[] fractions = new double[xCrossings + yCrossings + 2];
+		int ff = 0;
+		fractions[ff++] = 0.;
+		ff = addCrossings( from.getX(), dx, minX, cellSize, fractions, ff );
+		ff = addCrossings( from.getY(), dy, minY, cellSize, fractions, ff );
+		fractions[ff++] = 1.;
+		Arrays.sort( fractions, 0, ff );
+		for ( int ii = 1; ii < ff; ii++ ) {
+			double share = fractions[ii] - fractions[ii - 1];
+			if ( share > 0. ) {
+				double middle = (fractions[ii] + fractions[ii - 1]) / 2.;
+				shares.merge( cell( from.getX() + middle * dx, from.getY() + middle * dy, minX, minY, cellSize, numberOfColumns ), share, Double::sum );
+			}
+		}
+		return shares;
+	}
+
+	private static int crossings( double from, double to, double min, double cellSize ) {
+		return Math.abs( (int) Math.floor( (to - min) / cellSize ) - (int) Math.floor( (from - min) / cellSize ) );
+	}
+
+	private static int addCrossings( double from, double delta, double min, double cellSize, double[] fractions, int ff ) {
+		if ( delta == 0. ) {
+			return ff;
+		}
+		int first = (int) Math.floor( (from - min) / cellSize );
+		int last = (int) Math.floor( (from + delta - min) / cellSize );
+		int step = delta > 0. ? 1 : -1;
+		for ( int line = first; line != last; line += step ) {
+			// the grid line between this cell and the next one:
+			double gridLine = min + (step > 0 ? line + 1 : line) * cellSize;
+			fractions[ff++] = Math.min( 1., Math.max( 0., (gridLine - from) / delta ) );
+		}
+		return ff;
+	}
+
+	private static int cell( double x, double y, double minX, double minY, double cellSize, int numberOfColumns ) {
+		return (int) Math.floor( (y - minY) / cellSize ) * numberOfColumns + (int) Math.floor( (x - minX) / cellSize );
+	}
+
+	/**
+	 * Spreads emissions per link over the cells, in parallel over chunks of links.
+	 *
+	 * @param emissionsByLinkIndex the emissions of the link with the given {@link Id#index()}
+	 * @return the emissions per cell, by <code>row * numberOfColumns + column</code>.
+	 */
+	public double[] rasterize( IntToDoubleFunction emissionsByLinkIndex ) {
+		int numberOfTasks = (linkIndices.length + LINKS_PER_TASK - 1) / LINKS_PER_TASK;
+		return IntStream.range( 0, numberOfTasks ).parallel().mapToObj( task -> {
+			double[] raster = new double[numberOfColumns * numberOfRows];
+			int end = Math.min( linkIndices.length, (task + 1) * LINKS_PER_TASK );
+			for ( int ll = task * LINKS_PER_TASK; ll < end; ll++ ) {
+				int linkIndex = linkIndices[ll];
+				double emissions = emissionsByLinkIndex.applyAsDouble( linkIndex );
+				if ( emissions != 0. ) {
+					for ( int ww = offsets[linkIndex]; ww < offsets[linkIndex + 1]; ww++ ) {
+						raster[cells[ww]] += emissions * weights[ww];
+					}
+				}
+			}
+			return raster;
+		} ).reduce( ( a, b ) -> {
+			for ( int cc = 0; cc < a.length; cc++ ) {
+				a[cc] += b[cc];
+			}
+			return a;
+		} ).orElseGet( () -> new double[numberOfColumns * numberOfRows] );
+	}
+
+	/**
+	 * @return the weights of a link, by cell; empty for links that are not in the network.
+	 */
+	public Map<Integer, Double> getWeights( Id<Link> linkId ) {
+		Map<Integer, Double> result = new LinkedHashMap<>();
+		int linkIndex = linkId.index();
+		if ( linkIndex + 1 < offsets.length ) {
+			for ( int ww = offsets[linkIndex]; ww < offsets[linkIndex + 1]; ww++ ) {
+				result.put( cells[ww], (double) weights[ww] );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cell of a coordinate, by <code>row * numberOfColumns + column</code>, or -1 outside the grid.
+	 */
+	public int getCell( Coord coord ) {
+		int column = (int) Math.floor( (coord.getX() - minX) / cellSize );
+		int row = (int) Math.floor( (coord.getY() - minY) / cellSize );
+		return column < 0 || row < 0 || column >= numberOfColumns || row >= numberOfRows ? -1 : row * numberOfColumns + column;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public int getNumberOfColumns() {
+		return numberOfColumns;
+	}
+
+	public int getNumberOfRows() {
+		return numberOfRows;
+	}
+
+	/**
+	 * A truncated Gaussian over the cells around a cell, with weights that add up to 1.
+	 */
+	private static final class Kernel {
+		private final int[] columnOffsets;
+		private final int[] rowOffsets;
+		private final double[] weights;
+
+		Kernel( double cellSize, double radius ) {
+			int reach = (int) Math.ceil( radius / cellSize );
+			double sigma = radius / 2.;
+			int size = (2 * reach + 1) * (2 * reach + 1);
+			int[] columnOffsets = new int[size];
+			int[] rowOffsets = new int[size];
+			double[] weights = new double[size];
+			int kk = 0;
+			double sum = 0.;
+			for ( int dr = -reach; dr <= reach; dr++ ) {
+				for ( int dc = -reach; dc <= reach; dc++ ) {
+					double distance = Math.sqrt( dr * dr + dc * dc ) * cellSize;
+					if ( distance <= radius ) {
+						columnOffsets[kk] = dc;
+						rowOffsets[kk] = dr;
+						weights[kk] = Math.exp( -distance * distance / (2 * sigma * sigma) );
+						sum += weights[kk];
+						kk++;
+					}
+				}
+			}
+			this.columnOffsets = Arrays.copyOf( columnOffsets, kk );
+			this.rowOffsets = Arrays.copyOf( rowOffsets, kk );
+			this.weights = Arrays.copyOf( weights, kk );
+			for ( int ii = 0; ii < kk; ii++ ) {
+				this.weights[ii] /= sum;
+			}
+		}
+
+		Map<Integer, Double> smooth( Map<Integer, Double> shares, int numberOfColumns, int numberOfRows ) {
+			Map<Integer, Double> smoothed = new LinkedHashMap<>();
+			for ( Map.Entry<Integer, Double> entry : shares.entrySet() ) {
+				int column = entry.getKey() % numberOfColumns;
+				int row = entry.getKey() / numberOfColumns;
+				for ( int kk = 0; kk < weights.length; kk++ ) {
+					int targetColumn = column + columnOffsets[kk];
+					int targetRow = row + rowOffsets[kk];
+					// the grid has a margin of the radius, so the kernel only leaves it for links outside the grid:
+					if ( targetColumn >= 0 && targetRow >= 0 && targetColumn < numberOfColumns && targetRow < numberOfRows ) {
+						smoothed.merge( targetRow * numberOfColumns + targetColumn, entry.getValue() * weights[kk], Double::sum );
+					}
+				}
+			}
+			return smoothed;
+		}
+	}
+
+}
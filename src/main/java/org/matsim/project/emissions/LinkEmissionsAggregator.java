@@ -0,0 +1,173 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEventHandler;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.BiConsumer;
+
+/**
+ * Sums up warm and cold emissions per link, like
+ * {@link org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler#getLink2pollutants()}, but into one dense
+ * <code>double</code> table with one row per {@link Id#index() link index} and one column per {@link Pollutant}.
+ * Handling an event does not allocate; there are no boxed values and no nested maps.
+ */
+public final class LinkEmissionsAggregator implements WarmEmissionEventHandler, ColdEmissionEventHandler {
+
+	private static final Pollutant[] POLLUTANTS = Pollutant.values();
+	private static final int NUMBER_OF_POLLUTANTS = POLLUTANTS.length;
+
+	private double[] values;
+	private final BitSet linksWithEmissions = new BitSet();
+
+	private int currentOffset;
+	private final BiConsumer<Pollutant, Double> adder = ( pollutant, value ) -> values[currentOffset + pollutant.ordinal()] += value;
+
+	public LinkEmissionsAggregator() {
+		this.values = new double[Math.max( 1, Id.getNumberOfIds( Link.class ) ) * NUMBER_OF_POLLUTANTS];
+	}
+
+	@Override
+	public void handleEvent( WarmEmissionEvent event ) {
+		prepare( event.getLinkId() );
+		event.getWarmEmissions().forEach( adder );
+	}
+
+	@Override
+	public void handleEvent( ColdEmissionEvent event ) {
+		prepare( event.getLinkId() );
+		event.getColdEmissions().forEach( adder );
+	}
+
+	private void prepare( Id<Link> linkId ) {
+		int linkIndex = linkId.index();
+		currentOffset = linkIndex * NUMBER_OF_POLLUTANTS;
+		if ( currentOffset + NUMBER_OF_POLLUTANTS > values.length ) {
+			// links that were created after construction, e.g. when the network is loaded later:
+			int newNumberOfLinks = Math.max( linkIndex + 1, Id.getNumberOfIds( Link.class ) );
+			values = Arrays.copyOf( values, Math.max( newNumberOfLinks, 2 * values.length / NUMBER_OF_POLLUTANTS ) * NUMBER_OF_POLLUTANTS );
+		}
+		linksWithEmissions.set( linkIndex );
+	}
+
+	@Override
+	public void reset( int iteration ) {
+		Arrays.fill( values, 0. );
+		linksWithEmissions.clear();
+	}
+
+	/**
+	 * Writes the sums so far, e.g. for a checkpoint; see {@link #readState}.
+	 */
+	void writeState( DataOutputStream state ) throws IOException {
+		state.writeInt( NUMBER_OF_POLLUTANTS );
+		state.writeInt( linksWithEmissions.cardinality() );
+		for ( int linkIndex = linksWithEmissions.nextSetBit( 0 ); linkIndex >= 0; linkIndex = linksWithEmissions.nextSetBit( linkIndex + 1 ) ) {
+			state.writeUTF( Id.get( linkIndex, Link.class ).toString() );
+			for ( int ii = 0; ii < NUMBER_OF_POLLUTANTS; ii++ ) {
+				state.writeDouble( values[linkIndex * NUMBER_OF_POLLUTANTS + ii] );
+			}
+		}
+	}
+
+	/**
+	 * Replaces the sums by those that {@link #writeState} wrote.
+	 */
+	void readState( DataInputStream state ) throws IOException {
+		if ( state.readInt() != NUMBER_OF_POLLUTANTS ) {
+			throw new IOException( "The state was written with another set of pollutants." );
+		}
+		reset( 0 );
+		for ( int ll = state.readInt(); ll > 0; ll-- ) {
+			prepare( Id.createLinkId( state.readUTF() ) );
+			for ( int ii = 0; ii < NUMBER_OF_POLLUTANTS; ii++ ) {
+				values[currentOffset + ii] = state.readDouble();
+			}
+		}
+	}
+
+	public double getEmission( Id<Link> linkId, Pollutant pollutant ) {
+		int offset = linkId.index() * NUMBER_OF_POLLUTANTS;
+		return offset < values.length ? values[offset + pollutant.ordinal()] : 0.;
+	}
+
+	/**
+	 * @return the sum of the given pollutant over all links.
+	 */
+	public double getTotal( Pollutant pollutant ) {
+		double sum = 0.;
+		for ( int linkIndex = linksWithEmissions.nextSetBit( 0 ); linkIndex >= 0; linkIndex = linksWithEmissions.nextSetBit( linkIndex + 1 ) ) {
+			sum += values[linkIndex * NUMBER_OF_POLLUTANTS + pollutant.ordinal()];
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the {@link Id#index() indices} of the links that have received emissions.
+	 */
+	BitSet getLinksWithEmissions() {
+		return (BitSet) linksWithEmissions.clone();
+	}
+
+	public int getNumberOfLinksWithEmissions() {
+		return linksWithEmissions.cardinality();
+	}
+
+	/**
+	 * Writes one line per link that has received emissions, with one column per {@link Pollutant} in [g].  Same format
+	 * as the <code>output.emissionsPerLink.csv</code> the runners used to write from
+	 * {@link org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler#getLink2pollutants()}.
+	 */
+	public void writeCsv( String filename ) {
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( filename ) ) {
+			writer.write( "linkId" );
+			for ( Pollutant pollutant : POLLUTANTS ) {
+				writer.write( ";" + pollutant + " [g]" );
+			}
+			writer.newLine();
+
+			for ( int linkIndex = linksWithEmissions.nextSetBit( 0 ); linkIndex >= 0; linkIndex = linksWithEmissions.nextSetBit( linkIndex + 1 ) ) {
+				writer.write( Id.get( linkIndex, Link.class ).toString() );
+				int offset = linkIndex * NUMBER_OF_POLLUTANTS;
+				for ( int ii = 0; ii < NUMBER_OF_POLLUTANTS; ii++ ) {
+					writer.write( ';' );
+					writer.write( Double.toString( values[offset + ii] ) );
+				}
+				writer.newLine();
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.Pollutant;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read access to a link &times; time bin &times; pollutant emissions cube as written by {@link LinkEmissionsCubeWriter}.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ *   int    magic ("MEMC")
+ *   int    format version
+ *   int    number of links
+ *   int    number of time bins
+ *   int    number of pollutants
+ *   long   offset of the data section
+ *   double time bin size [s]
+ *   UTF    pollutant names, one per pollutant
+ *   UTF    link ids, one per link
+ *   ...    padding up to the data offset (multiple of 8)
+ *   double data[timeBin][link][pollutant] in [g]
+ * </pre>
+ * One time bin is contiguous, so that a time slice of the whole network can be read without touching the others.  The
+ * data section is memory-mapped; nothing is parsed except the header.
+ */
+public final class LinkEmissionsCube implements AutoCloseable {
+
+	static final int MAGIC = 0x4D454D43;
+	static final int VERSION = 1;
+	private static final int DATA_OFFSET_POSITION = 20;
+
+	/**
+	 * Upper bound for the size of one mapping; the data section is mapped in segments of whole time bins.
+	 */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	private final FileChannel channel;
+	private final int numberOfTimeBins;
+	private final double timeBinSize;
+	private final List<Pollutant> pollutants;
+	private final List<Id<Link>> linkIds;
+	private final Map<Id<Link>, Integer> linkRows = new HashMap<>();
+	private final int[] pollutantColumns = new int[Pollutant.values().length];
+	private final Segments segments;
+
+	private LinkEmissionsCube( FileChannel channel, int numberOfTimeBins, double timeBinSize, List<Pollutant> pollutants,
+						  List<Id<Link>> linkIds, long dataOffset ) throws IOException {
+		this.channel = channel;
+		this.numberOfTimeBins = numberOfTimeBins;
+		this.timeBinSize = timeBinSize;
+		this.pollutants = Collections.unmodifiableList( pollutants );
+		this.linkIds = Collections.unmodifiableList( linkIds );
+		for ( int row = 0; row < linkIds.size(); row++ ) {
+			linkRows.put( linkIds.get( row ), row );
+		}
+		Arrays.fill( pollutantColumns, -1 );
+		for ( int column = 0; column < pollutants.size(); column++ ) {
+			pollutantColumns[pollutants.get( column ).ordinal()] = column;
+		}
+		this.segments = new Segments( channel, FileChannel.MapMode.READ_ONLY, dataOffset, linkIds.size(), numberOfTimeBins, pollutants.size() );
+	}
+
+	public static LinkEmissionsCube open( Path file ) {
+		try {
+			FileChannel channel = FileChannel.open( file, StandardOpenOption.READ );
+			try {
+				return open( file, channel );
+			} catch ( IOException | RuntimeException e ) {
+				closeOnFailure( channel, e );
+				throw e;
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static LinkEmissionsCube open( Path file, FileChannel channel ) throws IOException {
+		// the stream is not closed, since that would close the channel:
+		InputStream stream = new BufferedInputStream( Channels.newInputStream( channel ) );
+		DataInputStream in = new DataInputStream( stream );
+		if ( in.readInt() != MAGIC ) {
+			throw new IOException( file + " is not a link emissions cube." );
+		}
+		int version = in.readInt();
+		if ( version != VERSION ) {
+			throw new IOException( "Unsupported link emissions cube version " + version + " in " + file );
+		}
+		int numberOfLinks = in.readInt();
+		int numberOfTimeBins = in.readInt();
+		int numberOfPollutants = in.readInt();
+		long dataOffset = in.readLong();
+		double timeBinSize = in.readDouble();
+		List<Pollutant> pollutants = new ArrayList<>( numberOfPollutants );
+		for ( int ii = 0; ii < numberOfPollutants; ii++ ) {
+			pollutants.add( Pollutant.valueOf( in.readUTF() ) );
+		}
+		List<Id<Link>> linkIds = new ArrayList<>( numberOfLinks );
+		for ( int ii = 0; ii < numberOfLinks; ii++ ) {
+			linkIds.add( Id.createLinkId( in.readUTF() ) );
+		}
+		// the channel position has moved with the buffered stream, but the mappings below are absolute
+		return new LinkEmissionsCube( channel, numberOfTimeBins, timeBinSize, pollutants, linkIds, dataOffset );
+	}
+
+	/**
+	 * Closes the channel of a cube that could not be opened or created, so that the file is not held open.  A failure to
+	 * close is added to the original failure as suppressed.
+	 */
+	static void closeOnFailure( FileChannel channel, Exception failure ) {
+		try {
+			channel.close();
+		} catch ( IOException e ) {
+			failure.addSuppressed( e );
+		}
+	}
+
+	public int getNumberOfTimeBins() {
+		return numberOfTimeBins;
+	}
+
+	public double getTimeBinSize() {
+		return timeBinSize;
+	}
+
+	public List<Pollutant> getPollutants() {
+		return pollutants;
+	}
+
+	public List<Id<Link>> getLinkIds() {
+		return linkIds;
+	}
+
+	/**
+	 * @return the emissions [g] of the given pollutant on the given link in the given time bin; 0 if link or pollutant
+	 * are not contained in the cube.
+	 */
+	public double get( Id<Link> linkId, int timeBin, Pollutant pollutant ) {
+		Integer row = linkRows.get( linkId );
+		int column = pollutantColumns[pollutant.ordinal()];
+		if ( row == null || column < 0 ) {
+			return 0.;
+		}
+		return segments.get( timeBin, row, column );
+	}
+
+	/**
+	 * @return the emissions [g] of one pollutant on all links in one time bin, in the order of {@link #getLinkIds()}.
+	 */
+	public double[] getTimeSlice( int timeBin, Pollutant pollutant ) {
+		int column = requireColumn( pollutant );
+		double[] slice = new double[linkIds.size()];
+		for ( int row = 0; row < slice.length; row++ ) {
+			slice[row] = segments.get( timeBin, row, column );
+		}
+		return slice;
+	}
+
+	/**
+	 * @return the emissions [g] of one pollutant on one link, one value per time bin.
+	 */
+	public double[] getTimeSeries( Id<Link> linkId, Pollutant pollutant ) {
+		int column = requireColumn( pollutant );
+		Integer row = linkRows.get( linkId );
+		double[] series = new double[numberOfTimeBins];
+		if ( row != null ) {
+			for ( int bin = 0; bin < numberOfTimeBins; bin++ ) {
+				series[bin] = segments.get( bin, row, column );
+			}
+		}
+		return series;
+	}
+
+	private int requireColumn( Pollutant pollutant ) {
+		int column = pollutantColumns[pollutant.ordinal()];
+		if ( column < 0 ) {
+			throw new IllegalArgumentException( pollutant + " is not contained in this cube; available: " + pollutants );
+		}
+		return column;
+	}
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	/**
+	 * @return the header bytes, padded to a multiple of 8, with the data offset filled in.
+	 */
+	static byte[] createHeader( List<Id<Link>> linkIds, int numberOfTimeBins, double timeBinSize, List<Pollutant> pollutants ) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( linkIds.size() );
+		out.writeInt( numberOfTimeBins );
+		out.writeInt( pollutants.size() );
+		out.writeLong( 0L ); // data offset, see below
+		out.writeDouble( timeBinSize );
+		for ( Pollutant pollutant : pollutants ) {
+			out.writeUTF( pollutant.name() );
+		}
+		for ( Id<Link> linkId : linkIds ) {
+			out.writeUTF( linkId.toString() );
+		}
+		while ( out.size() % Double.BYTES != 0 ) {
+			out.writeByte( 0 );
+		}
+		out.flush();
+		byte[] header = bytes.toByteArray();
+		ByteBuffer.wrap( header ).putLong( DATA_OFFSET_POSITION, header.length );
+		return header;
+	}
+
+	/**
+	 * The data section, mapped in segments of whole time bins.
+	 */
+	static final class Segments {
+		private final MappedByteBuffer[] mappings;
+		private final DoubleBuffer[] buffers;
+		private final int binsPerSegment;
+		private final int numberOfLinks;
+		private final int numberOfPollutants;
+
+		Segments( FileChannel channel, FileChannel.MapMode mode, long dataOffset, int numberOfLinks, int numberOfTimeBins, int numberOfPollutants ) throws IOException {
+			this.numberOfLinks = numberOfLinks;
+			this.numberOfPollutants = numberOfPollutants;
+			long binBytes = (long) numberOfLinks * numberOfPollutants * Double.BYTES;
+			if ( binBytes > MAX_SEGMENT_BYTES ) {
+				throw new IllegalArgumentException( "one time bin needs " + binBytes + " bytes, which is more than can be mapped at once" );
+			}
+			this.binsPerSegment = (int) Math.max( 1, Math.min( numberOfTimeBins, MAX_SEGMENT_BYTES / Math.max( 1, binBytes ) ) );
+			int numberOfSegments = (numberOfTimeBins + binsPerSegment - 1) / binsPerSegment;
+			this.mappings = new MappedByteBuffer[numberOfSegments];
+			this.buffers = new DoubleBuffer[numberOfSegments];
+			for ( int segment = 0; segment < numberOfSegments; segment++ ) {
+				int bins = Math.min( binsPerSegment, numberOfTimeBins - segment * binsPerSegment );
+				mappings[segment] = channel.map( mode, dataOffset + segment * binsPerSegment * binBytes, bins * binBytes );
+				buffers[segment] = mappings[segment].asDoubleBuffer();
+			}
+		}
+
+		private int index( int timeBin, int row, int column ) {
+			return ((timeBin % binsPerSegment) * numberOfLinks + row) * numberOfPollutants + column;
+		}
+
+		double get( int timeBin, int row, int column ) {
+			return buffers[timeBin / binsPerSegment].get( index( timeBin, row, column ) );
+		}
+
+		void add( int timeBin, int row, int column, double value ) {
+			DoubleBuffer buffer = buffers[timeBin / binsPerSegment];
+			int index = index( timeBin, row, column );
+			buffer.put( index, buffer.get( index ) + value );
+		}
+
+		void force() {
+			for ( MappedByteBuffer mapping : mappings ) {
+				mapping.force();
+			}
+		}
+	}
+
+}
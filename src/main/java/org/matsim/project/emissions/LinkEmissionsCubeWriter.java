@@ -0,0 +1,161 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEventHandler;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sums up warm and cold emissions per link and time bin, directly into a memory-mapped file that can afterwards be read
+ * with {@link LinkEmissionsCube}.  The sums live off-heap, so that e.g. 15 min bins over 30 h on a large network do not
+ * need to fit into the java heap.
+ * <p>
+ * Emissions after the end of the last time bin are added to the last time bin.  Emissions on links that are not in the
+ * network are not counted.
+ */
+public final class LinkEmissionsCubeWriter implements WarmEmissionEventHandler, ColdEmissionEventHandler, AutoCloseable {
+	private static final Logger log = LogManager.getLogger( LinkEmissionsCubeWriter.class );
+
+	private final Path file;
+	private final FileChannel channel;
+	private final LinkEmissionsCube.Segments segments;
+	private final double timeBinSize;
+	private final int numberOfTimeBins;
+
+	private final int[] linkIndex2row;
+	private final int[] pollutantColumns = new int[Pollutant.values().length];
+
+	private long eventsAfterLastTimeBin = 0;
+	private long eventsOnUnknownLinks = 0;
+
+	/**
+	 * @param pollutants the pollutants to keep; all others are ignored.  Leaving out pollutants one does not need makes
+	 *                   the file correspondingly smaller.
+	 */
+	public LinkEmissionsCubeWriter( Path file, Network network, double timeBinSize, double endTime, List<Pollutant> pollutants ) {
+		this.file = file;
+		this.timeBinSize = timeBinSize;
+		this.numberOfTimeBins = (int) Math.ceil( endTime / timeBinSize );
+
+		List<Id<Link>> linkIds = new ArrayList<>( network.getLinks().keySet() );
+		this.linkIndex2row = new int[Id.getNumberOfIds( Link.class )];
+		Arrays.fill( linkIndex2row, -1 );
+		for ( int row = 0; row < linkIds.size(); row++ ) {
+			linkIndex2row[linkIds.get( row ).index()] = row;
+		}
+		Arrays.fill( pollutantColumns, -1 );
+		for ( int column = 0; column < pollutants.size(); column++ ) {
+			pollutantColumns[pollutants.get( column ).ordinal()] = column;
+		}
+
+		try {
+			byte[] header = LinkEmissionsCube.createHeader( linkIds, numberOfTimeBins, timeBinSize, pollutants );
+			if ( file.getParent() != null ) {
+				Files.createDirectories( file.getParent() );
+			}
+			this.channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE );
+			try {
+				channel.write( ByteBuffer.wrap( header ), 0 );
+				this.segments = new LinkEmissionsCube.Segments( channel, FileChannel.MapMode.READ_WRITE, header.length,
+						linkIds.size(), numberOfTimeBins, pollutants.size() );
+			} catch ( IOException | RuntimeException e ) {
+				LinkEmissionsCube.closeOnFailure( channel, e );
+				throw e;
+			}
+			// the data section is zero, since the file is created sparse:
+			long dataBytes = (long) numberOfTimeBins * linkIds.size() * pollutants.size() * Double.BYTES;
+			log.info( "Writing link emissions cube with {} links x {} time bins x {} pollutants ({} MB) to {}",
+					linkIds.size(), numberOfTimeBins, pollutants.size(), dataBytes / 1024 / 1024, file );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public void handleEvent( WarmEmissionEvent event ) {
+		add( event.getTime(), event.getLinkId(), event.getWarmEmissions() );
+	}
+
+	@Override
+	public void handleEvent( ColdEmissionEvent event ) {
+		add( event.getTime(), event.getLinkId(), event.getColdEmissions() );
+	}
+
+	private void add( double time, Id<Link> linkId, Map<Pollutant, Double> emissions ) {
+		int linkIndex = linkId.index();
+		int row = linkIndex < linkIndex2row.length ? linkIndex2row[linkIndex] : -1;
+		if ( row < 0 ) {
+			eventsOnUnknownLinks++;
+			return;
+		}
+		int timeBin = (int) (time / timeBinSize);
+		if ( timeBin >= numberOfTimeBins ) {
+			eventsAfterLastTimeBin++;
+			timeBin = numberOfTimeBins - 1;
+		}
+		for ( Map.Entry<Pollutant, Double> entry : emissions.entrySet() ) {
+			int column = pollutantColumns[entry.getKey().ordinal()];
+			if ( column >= 0 ) {
+				segments.add( timeBin, row, column, entry.getValue() );
+			}
+		}
+	}
+
+	/**
+	 * Flushes the cube to disk.  Must be called after the last event.
+	 */
+	@Override
+	public void close() {
+		try {
+			segments.force();
+			channel.close();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		if ( eventsAfterLastTimeBin > 0 ) {
+			log.warn( "{} emission events after the end of the last time bin were added to the last time bin.", eventsAfterLastTimeBin );
+		}
+		if ( eventsOnUnknownLinks > 0 ) {
+			log.warn( "{} emission events on links that are not in the network were not counted.", eventsOnUnknownLinks );
+		}
+		log.info( "Link emissions cube written to {}", file );
+	}
+
+}
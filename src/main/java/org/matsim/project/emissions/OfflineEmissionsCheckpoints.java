@@ -0,0 +1,317 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Lets an offline emissions run resume after it was killed, instead of starting again from the first event.
+ * <p>
+ * Whenever the simulation time of the input events passes a multiple of the checkpoint interval, a checkpoint is written
+ * into the checkpoint directory: the number of input events handled so far, the {@link LinkEmissionsAggregator} sums,
+ * the position and id codes of the {@link EmissionEventsBinaryWriter}, and the state of the emission calculation.  The
+ * emission module does not expose its state (pending link enters, parking durations for the cold starts, distances since
+ * the start), but that state only depends on the events of each vehicle since it last left traffic.  Hence, a checkpoint
+ * keeps these events, and a resumed run replays them into a fresh emission module, with the outputs muted, before it
+ * continues after the last handled input event.  The outputs are then the same as those of an uninterrupted run.
+ * <p>
+ * The xml events writer and the link emissions cube cannot be cut back to a checkpoint, so they cannot be used with
+ * checkpoints.  The checkpoints are deleted when the events file has been read completely.
+ * <p>
+ * Usage: take the aggregator and the binary writer from here, add this object as a handler to the output events manager,
+ * and read the events with {@link #readFile} instead of reading them into the emission calculation directly.
+ */
+public final class OfflineEmissionsCheckpoints implements BasicEventHandler {
+	private static final Logger log = LogManager.getLogger( OfflineEmissionsCheckpoints.class );
+
+	static final int MAGIC = 0x4D454350;
+	static final int VERSION = 1;
+	private static final String STATE_FILE = "checkpoint.bin";
+	private static final String EVENTS_FILE_PREFIX = "checkpoint-";
+	private static final String EVENTS_FILE_SUFFIX = ".events.xml.gz";
+
+	private final Path directory;
+	private final double interval;
+	private final String key;
+	private final LinkEmissionsAggregator linkEmissionsAggregator = new LinkEmissionsAggregator();
+	private final EmissionEventsBinaryWriter binaryWriter;
+
+	private final Map<Id<Vehicle>, List<Event>> vehicleEvents = new HashMap<>();
+	private List<Event> replayEvents = Collections.emptyList();
+	private boolean replaying = false;
+
+	private int checkpointNumber = 0;
+	private long numberOfEventsToSkip = 0;
+	private double nextCheckpointTime;
+
+	/**
+	 * Resumes from the checkpoint in the directory, if there is one for the same events file.
+	 *
+	 * @param interval         simulation time [s] between checkpoints
+	 * @param binaryEventsFile file for the {@link EmissionEventsBinaryWriter}, or <code>null</code> for none
+	 */
+	public OfflineEmissionsCheckpoints( Path directory, double interval, String eventsFile, String binaryEventsFile ) {
+		if ( interval <= 0. ) {
+			throw new IllegalArgumentException( "the checkpoint interval must be positive, but was " + interval );
+		}
+		this.directory = directory;
+		this.interval = interval;
+		this.nextCheckpointTime = interval;
+		this.key = key( eventsFile );
+
+		EmissionEventsBinaryWriter resumedWriter = null;
+		Path stateFile = directory.resolve( STATE_FILE );
+		if ( Files.exists( stateFile ) ) {
+			try ( DataInputStream state = new DataInputStream( new BufferedInputStream( Files.newInputStream( stateFile ) ) ) ) {
+				if ( state.readInt() != MAGIC || state.readInt() != VERSION || !key.equals( state.readUTF() ) ) {
+					log.warn( "{} was written for another events file or by another version; starting from the first event.", stateFile );
+				} else {
+					checkpointNumber = state.readInt();
+					numberOfEventsToSkip = state.readLong();
+					nextCheckpointTime = state.readDouble();
+					linkEmissionsAggregator.readState( state );
+					boolean hasBinaryWriter = state.readBoolean();
+					if ( hasBinaryWriter != (binaryEventsFile != null) ) {
+						throw new IllegalStateException( "The checkpoint in " + directory + " was written " + (hasBinaryWriter ? "with" : "without")
+								+ " binary emission events; resume with the same output settings, or delete the checkpoint." );
+					}
+					if ( hasBinaryWriter ) {
+						resumedWriter = EmissionEventsBinaryWriter.resume( binaryEventsFile, state );
+					}
+					replayEvents = readEvents( eventsFile( checkpointNumber ) );
+					log.info( "Resuming from checkpoint {} after {} events; replaying {} events of the vehicles into the emission calculation.",
+							checkpointNumber, numberOfEventsToSkip, replayEvents.size() );
+				}
+			} catch ( IOException e ) {
+				throw new UncheckedIOException( "could not resume from " + stateFile, e );
+			}
+		}
+		if ( resumedWriter != null ) {
+			this.binaryWriter = resumedWriter;
+		} else {
+			this.binaryWriter = binaryEventsFile == null ? null : new EmissionEventsBinaryWriter( binaryEventsFile );
+		}
+	}
+
+	private static String key( String eventsFile ) {
+		Path path = Paths.get( eventsFile ).toAbsolutePath().normalize();
+		try {
+			return path + ";" + (Files.exists( path ) ? Files.size( path ) : -1L);
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public LinkEmissionsAggregator getLinkEmissionsAggregator() {
+		return linkEmissionsAggregator;
+	}
+
+	/**
+	 * @return the binary emission events writer, or <code>null</code> if there is none.  Must be closed after {@link #readFile}.
+	 */
+	public EmissionEventsBinaryWriter getBinaryWriter() {
+		return binaryWriter;
+	}
+
+	/**
+	 * Passes the emission events to the aggregator and the binary writer, except while the emission calculation is being
+	 * brought back to the state of the checkpoint.
+	 */
+	@Override
+	public void handleEvent( Event event ) {
+		if ( replaying ) {
+			return;
+		}
+		if ( event instanceof WarmEmissionEvent ) {
+			linkEmissionsAggregator.handleEvent( (WarmEmissionEvent) event );
+			if ( binaryWriter != null ) {
+				binaryWriter.handleEvent( (WarmEmissionEvent) event );
+			}
+		} else if ( event instanceof ColdEmissionEvent ) {
+			linkEmissionsAggregator.handleEvent( (ColdEmissionEvent) event );
+			if ( binaryWriter != null ) {
+				binaryWriter.handleEvent( (ColdEmissionEvent) event );
+			}
+		}
+	}
+
+	/**
+	 * Reads the events file from the checkpoint on, or from the start, and writes checkpoints on the way.
+	 *
+	 * @param emissionCalculation takes the input events, and passes them and their emission events to the output events
+	 *                            manager, e.g. <code>eventsManager::processEvent</code> with the emission module on
+	 *                            <code>eventsManager</code>, or {@link ParallelEmissionsEventsProcessor#processEvent}
+	 * @param flush               makes sure the output events manager has seen all events so far, e.g.
+	 *                            {@link ParallelEmissionsEventsProcessor#flush}
+	 */
+	public void readFile( OfflineEmissionsConfigGroup oecg, String eventsFile, Consumer<Event> emissionCalculation, Runnable flush ) {
+		// these events have been handled before the checkpoint, and their emission events are in the outputs already:
+		replaying = true;
+		for ( Event event : replayEvents ) {
+			record( event );
+			emissionCalculation.accept( event );
+		}
+		flush.run();
+		replaying = false;
+		replayEvents = Collections.emptyList();
+
+		long[] numberOfEvents = { 0 };
+		EventsManager readerEventsManager = EventsUtils.createEventsManager();
+		readerEventsManager.addHandler( (BasicEventHandler) event -> {
+			if ( numberOfEvents[0]++ < numberOfEventsToSkip ) {
+				return;
+			}
+			if ( event.getTime() >= nextCheckpointTime ) {
+				flush.run();
+				while ( nextCheckpointTime <= event.getTime() ) {
+					nextCheckpointTime += interval;
+				}
+				writeCheckpoint( numberOfEvents[0] - 1 );
+			}
+			record( event );
+			emissionCalculation.accept( event );
+		} );
+		OfflineEmissionsUtils.readEventsFile( oecg, readerEventsManager, eventsFile );
+		flush.run();
+		deleteCheckpoints();
+	}
+
+	/**
+	 * Keeps the events of each vehicle since it last left traffic, which is what the emission calculation needs to know
+	 * about the vehicle.
+	 */
+	private void record( Event event ) {
+		Id<Vehicle> vehicleId = ParallelEmissionsEventsProcessor.getVehicleId( event );
+		if ( vehicleId == null ) {
+			return;
+		}
+		List<Event> events = vehicleEvents.computeIfAbsent( vehicleId, id -> new ArrayList<>() );
+		if ( event instanceof VehicleLeavesTrafficEvent ) {
+			events.clear();
+		}
+		events.add( event );
+	}
+
+	private void writeCheckpoint( long numberOfHandledEvents ) {
+		long start = System.nanoTime();
+		int number = checkpointNumber + 1;
+		try {
+			Files.createDirectories( directory );
+
+			// the events of all vehicles, in their original order per vehicle:
+			List<Event> events = new ArrayList<>();
+			vehicleEvents.values().forEach( events::addAll );
+			events.sort( Comparator.comparingDouble( Event::getTime ) );
+			EventWriterXML writer = new EventWriterXML( eventsFile( number ).toString() );
+			events.forEach( writer::handleEvent );
+			writer.closeFile();
+
+			Path stateFile = directory.resolve( STATE_FILE );
+			Path temporary = Files.createTempFile( directory, STATE_FILE, ".tmp" );
+			try {
+				try ( DataOutputStream state = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ) ) ) ) {
+					state.writeInt( MAGIC );
+					state.writeInt( VERSION );
+					state.writeUTF( key );
+					state.writeInt( number );
+					state.writeLong( numberOfHandledEvents );
+					state.writeDouble( nextCheckpointTime );
+					linkEmissionsAggregator.writeState( state );
+					state.writeBoolean( binaryWriter != null );
+					if ( binaryWriter != null ) {
+						binaryWriter.writeState( state );
+					}
+				}
+				try {
+					Files.move( temporary, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+				} catch ( AtomicMoveNotSupportedException e ) {
+					Files.move( temporary, stateFile, StandardCopyOption.REPLACE_EXISTING );
+				}
+			} finally {
+				Files.deleteIfExists( temporary );
+			}
+			Files.deleteIfExists( eventsFile( checkpointNumber ) );
+			checkpointNumber = number;
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( "could not write checkpoint " + number + " to " + directory, e );
+		}
+		log.info( "Wrote checkpoint {} after {} events, with {} vehicle events, in {} s.", number, numberOfHandledEvents,
+				vehicleEvents.values().stream().mapToInt( List::size ).sum(), String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+	}
+
+	private Path eventsFile( int number ) {
+		return directory.resolve( EVENTS_FILE_PREFIX + number + EVENTS_FILE_SUFFIX );
+	}
+
+	private static List<Event> readEvents( Path file ) {
+		List<Event> events = new ArrayList<>();
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler( (BasicEventHandler) events::add );
+		new MatsimEventsReader( eventsManager ).readFile( file.toString() );
+		return events;
+	}
+
+	private void deleteCheckpoints() {
+		try {
+			Files.deleteIfExists( directory.resolve( STATE_FILE ) );
+			if ( Files.isDirectory( directory ) ) {
+				try ( DirectoryStream<Path> files = Files.newDirectoryStream( directory, EVENTS_FILE_PREFIX + "*" + EVENTS_FILE_SUFFIX ) ) {
+					for ( Path file : files ) {
+						Files.delete( file );
+					}
+				}
+			}
+		} catch ( IOException e ) {
+			log.warn( "Could not delete the checkpoints in {}", directory, e );
+		}
+	}
+
+}
@@ -0,0 +1,308 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of the offline emissions runners that are not part of the emissions contrib's own
+ * {@link org.matsim.contrib.emissions.utils.EmissionsConfigGroup}.  Can be set in the config file or from the command
+ * line, e.g. <code>--config:offlineEmissions.numberOfWorkers 8</code>.
+ */
+public final class OfflineEmissionsConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "offlineEmissions";
+
+	public enum EmissionEventsFormat { xml, binary, both }
+
+	private static final String NUMBER_OF_WORKERS = "numberOfWorkers";
+	private static final String NUMBER_OF_EVENTS_PARSER_THREADS = "numberOfEventsParserThreads";
+	private static final String EMISSION_EVENTS_FORMAT = "emissionEventsFormat";
+	private static final String WRITE_LINK_EMISSIONS_CUBE = "writeLinkEmissionsCube";
+	private static final String CUBE_TIME_BIN_SIZE = "linkEmissionsCubeTimeBinSize";
+	private static final String CUBE_END_TIME = "linkEmissionsCubeEndTime";
+	private static final String CUBE_POLLUTANTS = "linkEmissionsCubePollutants";
+	private static final String ROAD_TYPE_RULES_FILE = "roadTypeRulesFile";
+	private static final String CHECKPOINT_INTERVAL = "checkpointInterval";
+	private static final String CHECKPOINT_DIRECTORY = "checkpointDirectory";
+	private static final String COMPARISON_METHODS = "comparisonMethods";
+	private static final String COMPARISON_TABLE_SETS = "comparisonTableSets";
+	private static final String METRICS_INTERVAL = "metricsInterval";
+	private static final String RASTER_CELL_SIZE = "emissionsRasterCellSize";
+	private static final String RASTER_SMOOTHING_RADIUS = "emissionsRasterSmoothingRadius";
+	private static final String RASTER_POLLUTANTS = "emissionsRasterPollutants";
+
+	private int numberOfWorkers = 1;
+	private int numberOfEventsParserThreads = 0;
+	private EmissionEventsFormat emissionEventsFormat = EmissionEventsFormat.xml;
+	private boolean writeLinkEmissionsCube = false;
+	private double linkEmissionsCubeTimeBinSize = 900.;
+	private double linkEmissionsCubeEndTime = 30 * 3600.;
+	private String linkEmissionsCubePollutants = "";
+	private String roadTypeRulesFile = "";
+	private double checkpointInterval = 0.;
+	private String checkpointDirectory = "";
+	private String comparisonMethods = "";
+	private String comparisonTableSets = "";
+	private double metricsInterval = 0.;
+	private double emissionsRasterCellSize = 0.;
+	private double emissionsRasterSmoothingRadius = 0.;
+	private String emissionsRasterPollutants = "";
+
+	public OfflineEmissionsConfigGroup() {
+		super( GROUP_NAME );
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put( NUMBER_OF_WORKERS, "Number of worker threads the events are partitioned over (by vehicle id).  "
+				+ "Each worker has its own EmissionModule.  1 means the plain sequential pass.  Default: 1." );
+		map.put( NUMBER_OF_EVENTS_PARSER_THREADS, "If larger than 0, the input events file is read with the PipelinedEventsReader: one thread "
+				+ "inflates, this many threads parse, and the events are handled on the main thread.  0 means the plain MatsimEventsReader.  Default: 0." );
+		map.put( EMISSION_EVENTS_FORMAT, "Format of the emission events output.  'xml' writes all events with EventWriterXML, "
+				+ "'binary' writes the emission events only with EmissionEventsBinaryWriter, 'both' does both.  Default: xml." );
+		map.put( WRITE_LINK_EMISSIONS_CUBE, "If true, emissions per link and time bin are written to the binary, memory-mapped "
+				+ "file output.emissionsPerLinkAndTimeBin.bin, see LinkEmissionsCube.  Default: false." );
+		map.put( CUBE_TIME_BIN_SIZE, "Time bin size [s] of the link emissions cube.  Default: 900." );
+		map.put( CUBE_END_TIME, "End time [s] of the last time bin of the link emissions cube.  Later emissions go into the last bin.  Default: 108000 (30h)." );
+		map.put( CUBE_POLLUTANTS, "Comma-separated pollutants to keep in the link emissions cube, e.g. 'CO2_TOTAL,NOx,PM'.  Empty means all.  Default: empty." );
+		map.put( ROAD_TYPE_RULES_FILE, "Csv file with the rules that set the HBEFA road types of the links, see RoadTypeClassifier.  "
+				+ "Relative to the config file.  Empty means the road types in the network are used as they are.  Default: empty." );
+		map.put( CHECKPOINT_INTERVAL, "Simulation time [s] between checkpoints, from which a killed run resumes when it is started again; "
+				+ "see OfflineEmissionsCheckpoints.  Needs emissionEventsFormat 'binary' and no link emissions cube.  0 means no checkpoints.  Default: 0." );
+		map.put( CHECKPOINT_DIRECTORY, "Directory of the checkpoints.  Empty means 'checkpoints' in the output directory.  Default: empty." );
+		map.put( COMPARISON_METHODS, "Comma-separated emissions computation methods, e.g. 'AverageSpeed,StopAndGoFraction,StopAndGo2Fraction'.  "
+				+ "If set, the runners compute all of them side by side in one pass over the events, see EmissionsComparison, and write "
+				+ "per-link and report tables instead of emission events.  Empty means the method of the emissions config group only.  Default: empty." );
+		map.put( COMPARISON_TABLE_SETS, "Semicolon-separated average HBEFA table sets to compare, each of the form name=warmTable|coldTable, "
+				+ "relative to the config file.  Every comparison method is combined with every table set.  Empty means the tables "
+				+ "of the emissions config group.  Default: empty." );
+		map.put( METRICS_INTERVAL, "Wall-clock time [s] between the samples of output.metrics.csv, which has the events rate, the time per "
+				+ "handler, queue depths and heap usage; see OfflineEmissionsMetrics.  0 means no metrics.  Default: 0." );
+		map.put( RASTER_CELL_SIZE, "If larger than 0, the emissions per link are spread over a grid of cells of this size, in the units of the "
+				+ "network's coordinates, and written to output.emissionsRaster.bin.gz, see EmissionsRaster.  With a link emissions cube, the "
+				+ "raster has its time bins; otherwise it has the totals.  0 means no raster.  Default: 0." );
+		map.put( RASTER_SMOOTHING_RADIUS, "Radius of the Gaussian kernel that smooths the emissions raster, in the units of the network's "
+				+ "coordinates.  0 means that every link only gives emissions to the cells it crosses.  Default: 0." );
+		map.put( RASTER_POLLUTANTS, "Comma-separated pollutants of the emissions raster, e.g. 'NOx,PM'.  Empty means all.  Default: empty." );
+		return map;
+	}
+
+	@StringGetter( NUMBER_OF_WORKERS )
+	public int getNumberOfWorkers() {
+		return numberOfWorkers;
+	}
+
+	@StringSetter( NUMBER_OF_WORKERS )
+	public void setNumberOfWorkers( int numberOfWorkers ) {
+		if ( numberOfWorkers < 1 ) {
+			throw new IllegalArgumentException( NUMBER_OF_WORKERS + " must be at least 1, but was " + numberOfWorkers );
+		}
+		this.numberOfWorkers = numberOfWorkers;
+	}
+
+	@StringGetter( NUMBER_OF_EVENTS_PARSER_THREADS )
+	public int getNumberOfEventsParserThreads() {
+		return numberOfEventsParserThreads;
+	}
+
+	@StringSetter( NUMBER_OF_EVENTS_PARSER_THREADS )
+	public void setNumberOfEventsParserThreads( int numberOfEventsParserThreads ) {
+		this.numberOfEventsParserThreads = numberOfEventsParserThreads;
+	}
+
+	@StringGetter( EMISSION_EVENTS_FORMAT )
+	public EmissionEventsFormat getEmissionEventsFormat() {
+		return emissionEventsFormat;
+	}
+
+	@StringSetter( EMISSION_EVENTS_FORMAT )
+	public void setEmissionEventsFormat( EmissionEventsFormat emissionEventsFormat ) {
+		this.emissionEventsFormat = emissionEventsFormat;
+	}
+
+	@StringGetter( WRITE_LINK_EMISSIONS_CUBE )
+	public boolean isWriteLinkEmissionsCube() {
+		return writeLinkEmissionsCube;
+	}
+
+	@StringSetter( WRITE_LINK_EMISSIONS_CUBE )
+	public void setWriteLinkEmissionsCube( boolean writeLinkEmissionsCube ) {
+		this.writeLinkEmissionsCube = writeLinkEmissionsCube;
+	}
+
+	@StringGetter( CUBE_TIME_BIN_SIZE )
+	public double getLinkEmissionsCubeTimeBinSize() {
+		return linkEmissionsCubeTimeBinSize;
+	}
+
+	@StringSetter( CUBE_TIME_BIN_SIZE )
+	public void setLinkEmissionsCubeTimeBinSize( double linkEmissionsCubeTimeBinSize ) {
+		this.linkEmissionsCubeTimeBinSize = linkEmissionsCubeTimeBinSize;
+	}
+
+	@StringGetter( CUBE_END_TIME )
+	public double getLinkEmissionsCubeEndTime() {
+		return linkEmissionsCubeEndTime;
+	}
+
+	@StringSetter( CUBE_END_TIME )
+	public void setLinkEmissionsCubeEndTime( double linkEmissionsCubeEndTime ) {
+		this.linkEmissionsCubeEndTime = linkEmissionsCubeEndTime;
+	}
+
+	@StringGetter( CUBE_POLLUTANTS )
+	public String getLinkEmissionsCubePollutantsAsString() {
+		return linkEmissionsCubePollutants;
+	}
+
+	@StringSetter( CUBE_POLLUTANTS )
+	public void setLinkEmissionsCubePollutants( String linkEmissionsCubePollutants ) {
+		this.linkEmissionsCubePollutants = linkEmissionsCubePollutants == null ? "" : linkEmissionsCubePollutants.trim();
+	}
+
+	@StringGetter( ROAD_TYPE_RULES_FILE )
+	public String getRoadTypeRulesFile() {
+		return roadTypeRulesFile;
+	}
+
+	@StringSetter( ROAD_TYPE_RULES_FILE )
+	public void setRoadTypeRulesFile( String roadTypeRulesFile ) {
+		this.roadTypeRulesFile = roadTypeRulesFile == null ? "" : roadTypeRulesFile.trim();
+	}
+
+	@StringGetter( CHECKPOINT_INTERVAL )
+	public double getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	@StringSetter( CHECKPOINT_INTERVAL )
+	public void setCheckpointInterval( double checkpointInterval ) {
+		if ( checkpointInterval < 0. ) {
+			throw new IllegalArgumentException( CHECKPOINT_INTERVAL + " must not be negative, but was " + checkpointInterval );
+		}
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	@StringGetter( CHECKPOINT_DIRECTORY )
+	public String getCheckpointDirectory() {
+		return checkpointDirectory;
+	}
+
+	@StringSetter( CHECKPOINT_DIRECTORY )
+	public void setCheckpointDirectory( String checkpointDirectory ) {
+		this.checkpointDirectory = checkpointDirectory == null ? "" : checkpointDirectory.trim();
+	}
+
+	@StringGetter( COMPARISON_METHODS )
+	public String getComparisonMethods() {
+		return comparisonMethods;
+	}
+
+	@StringSetter( COMPARISON_METHODS )
+	public void setComparisonMethods( String comparisonMethods ) {
+		this.comparisonMethods = comparisonMethods == null ? "" : comparisonMethods.trim();
+	}
+
+	@StringGetter( COMPARISON_TABLE_SETS )
+	public String getComparisonTableSets() {
+		return comparisonTableSets;
+	}
+
+	@StringSetter( COMPARISON_TABLE_SETS )
+	public void setComparisonTableSets( String comparisonTableSets ) {
+		this.comparisonTableSets = comparisonTableSets == null ? "" : comparisonTableSets.trim();
+	}
+
+	public List<Pollutant> getLinkEmissionsCubePollutants() {
+		return parsePollutants( linkEmissionsCubePollutants );
+	}
+
+	private static List<Pollutant> parsePollutants( String names ) {
+		if ( names.isEmpty() ) {
+			return Arrays.asList( Pollutant.values() );
+		}
+		List<Pollutant> pollutants = new ArrayList<>();
+		for ( String name : names.split( "," ) ) {
+			pollutants.add( Pollutant.valueOf( name.trim() ) );
+		}
+		return pollutants;
+	}
+
+	@StringGetter( METRICS_INTERVAL )
+	public double getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	@StringSetter( METRICS_INTERVAL )
+	public void setMetricsInterval( double metricsInterval ) {
+		if ( metricsInterval < 0. ) {
+			throw new IllegalArgumentException( METRICS_INTERVAL + " must not be negative, but was " + metricsInterval );
+		}
+		this.metricsInterval = metricsInterval;
+	}
+
+	@StringGetter( RASTER_CELL_SIZE )
+	public double getEmissionsRasterCellSize() {
+		return emissionsRasterCellSize;
+	}
+
+	@StringSetter( RASTER_CELL_SIZE )
+	public void setEmissionsRasterCellSize( double emissionsRasterCellSize ) {
+		if ( emissionsRasterCellSize < 0. ) {
+			throw new IllegalArgumentException( RASTER_CELL_SIZE + " must not be negative, but was " + emissionsRasterCellSize );
+		}
+		this.emissionsRasterCellSize = emissionsRasterCellSize;
+	}
+
+	@StringGetter( RASTER_SMOOTHING_RADIUS )
+	public double getEmissionsRasterSmoothingRadius() {
+		return emissionsRasterSmoothingRadius;
+	}
+
+	@StringSetter( RASTER_SMOOTHING_RADIUS )
+	public void setEmissionsRasterSmoothingRadius( double emissionsRasterSmoothingRadius ) {
+		if ( emissionsRasterSmoothingRadius < 0. ) {
+			throw new IllegalArgumentException( RASTER_SMOOTHING_RADIUS + " must not be negative, but was " + emissionsRasterSmoothingRadius );
+		}
+		this.emissionsRasterSmoothingRadius = emissionsRasterSmoothingRadius;
+	}
+
+	@StringGetter( RASTER_POLLUTANTS )
+	public String getEmissionsRasterPollutantsAsString() {
+		return emissionsRasterPollutants;
+	}
+
+	@StringSetter( RASTER_POLLUTANTS )
+	public void setEmissionsRasterPollutants( String emissionsRasterPollutants ) {
+		this.emissionsRasterPollutants = emissionsRasterPollutants == null ? "" : emissionsRasterPollutants.trim();
+	}
+
+	public List<Pollutant> getEmissionsRasterPollutants() {
+		return parsePollutants( emissionsRasterPollutants );
+	}
+
+}
@@ -0,0 +1,307 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.events.handler.EventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Instrumentation of the events &rarr; emissions pipeline of the offline runners, so that one can see where the time
+ * goes in a production run without a profiler.  Measures:
+ * <ul>
+ *     <li>input events and emission events, and input events per second;</li>
+ *     <li>the time spent in each {@link #timed timed} handler and in the {@link #instrumentEmissionModule emission
+ *     module}, exclusive of the handlers that are called from within it;</li>
+ *     <li>gauges such as queue depths, see {@link #addGauge};</li>
+ *     <li>heap usage and garbage collections.</li>
+ * </ul>
+ * Every <code>offlineEmissions.metricsInterval</code> seconds, a line with these values is appended to
+ * <code>output.metrics.csv</code>; {@link #close()} writes the totals to <code>output.metrics.summary.csv</code> and logs
+ * them.  With an interval of 0, nothing is measured: {@link #timed} and {@link #instrumentEmissionModule} return their
+ * arguments, so that the runners need no separate code path.
+ * <p>
+ * The timed handlers must be called on one thread, which is the case for the output events manager of the runners.
+ */
+public final class OfflineEmissionsMetrics implements AutoCloseable {
+	private static final Logger log = LogManager.getLogger( OfflineEmissionsMetrics.class );
+
+	private static final int MAX_TIMERS = 32;
+	private static final String EMISSION_MODULE = "EmissionModule";
+
+	private final boolean enabled;
+	private final String outputDirectory;
+	private final long intervalMillis;
+
+	// written on the events thread, read by the sampler:
+	private final AtomicLong inputEvents = new AtomicLong();
+	private final AtomicLong emissionEvents = new AtomicLong();
+	private final List<String> timerNames = new ArrayList<>();
+	private final AtomicLongArray timerNanos = new AtomicLongArray( MAX_TIMERS );
+	private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+	// time spent in timed handlers that were called from within the current timed handler:
+	private long nestedNanos = 0;
+
+	private ScheduledExecutorService sampler;
+	private BufferedWriter timeSeries;
+	private int numberOfSampledTimers;
+	private List<String> sampledGauges;
+	private long startNanos;
+	private long previousSampleNanos;
+	private long previousInputEvents;
+	private long maxHeapUsed = 0;
+
+	/**
+	 * @param eventsManager the events manager of the outputs, which sees the input events and the emission events.  The
+	 *                      counters of the metrics are added to it here; they do not depend on the order of the handlers.
+	 */
+	public OfflineEmissionsMetrics( Config config, EventsManager eventsManager, String outputDirectory ) {
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		this.enabled = oecg.getMetricsInterval() > 0.;
+		this.outputDirectory = outputDirectory;
+		this.intervalMillis = (long) (oecg.getMetricsInterval() * 1000.);
+		if ( !enabled ) {
+			return;
+		}
+
+		eventsManager.addHandler( (BasicEventHandler) event -> {
+			if ( event instanceof WarmEmissionEvent || event instanceof ColdEmissionEvent ) {
+				emissionEvents.lazySet( emissionEvents.get() + 1 );
+			} else {
+				if ( sampler == null ) {
+					start();
+				}
+				inputEvents.lazySet( inputEvents.get() + 1 );
+			}
+		} );
+	}
+
+	/**
+	 * @return the events manager the emission module is to be bound to.  If metrics are enabled, this is a separate one,
+	 * whose emission events are passed on to <code>eventsManager</code>, so that the module's time can be measured;
+	 * otherwise <code>eventsManager</code> itself.  Must be called before the handlers of the outputs are added to
+	 * <code>eventsManager</code>, so that they see the emission events before the input event that caused them, as usual.
+	 * (The counters that the constructor added before count either way.)
+	 */
+	public EventsManager instrumentEmissionModule( EventsManager eventsManager ) {
+		if ( !enabled ) {
+			return eventsManager;
+		}
+		EventsManager emissionModuleEventsManager = EventsUtils.createEventsManager();
+		emissionModuleEventsManager.addHandler( (BasicEventHandler) event -> {
+			if ( event instanceof WarmEmissionEvent || event instanceof ColdEmissionEvent ) {
+				eventsManager.processEvent( event );
+			}
+		} );
+		int timer = registerTimer( EMISSION_MODULE );
+		eventsManager.addHandler( (BasicEventHandler) event -> {
+			// the emission events come from the module, and need not go back:
+			if ( !(event instanceof WarmEmissionEvent || event instanceof ColdEmissionEvent) ) {
+				time( timer, emissionModuleEventsManager, event );
+			}
+		} );
+		return emissionModuleEventsManager;
+	}
+
+	/**
+	 * @return a handler to add to the events manager instead of <code>handler</code>, which measures the time
+	 * <code>handler</code> needs; <code>handler</code> itself if metrics are disabled.
+	 */
+	public EventHandler timed( String name, EventHandler handler ) {
+		if ( !enabled ) {
+			return handler;
+		}
+		EventsManager handlerEventsManager = EventsUtils.createEventsManager();
+		handlerEventsManager.addHandler( handler );
+		int timer = registerTimer( name );
+		return (BasicEventHandler) event -> time( timer, handlerEventsManager, event );
+	}
+
+	/**
+	 * Adds a value that is sampled with the others, e.g. a queue depth.  Gauges that are added after the first input
+	 * event are not sampled.
+	 */
+	public synchronized void addGauge( String name, LongSupplier gauge ) {
+		if ( enabled ) {
+			gauges.put( name, gauge );
+		}
+	}
+
+	private int registerTimer( String name ) {
+		if ( timerNames.size() == MAX_TIMERS ) {
+			throw new IllegalStateException( "no more than " + MAX_TIMERS + " timers" );
+		}
+		timerNames.add( name );
+		return timerNames.size() - 1;
+	}
+
+	private void time( int timer, EventsManager eventsManager, Event event ) {
+		long start = System.nanoTime();
+		long outerNestedNanos = nestedNanos;
+		nestedNanos = 0;
+		eventsManager.processEvent( event );
+		long elapsed = System.nanoTime() - start;
+		timerNanos.lazySet( timer, timerNanos.get( timer ) + elapsed - nestedNanos );
+		nestedNanos = outerNestedNanos + elapsed;
+	}
+
+	private synchronized void start() {
+		startNanos = System.nanoTime();
+		previousSampleNanos = startNanos;
+		numberOfSampledTimers = timerNames.size();
+		sampledGauges = new ArrayList<>( gauges.keySet() );
+		timeSeries = IOUtils.getBufferedWriter( outputDirectory + "output.metrics.csv" );
+		List<String> columns = new ArrayList<>( List.of( "wallTime_s", "inputEvents", "inputEventsPerSecond", "emissionEvents" ) );
+		for ( int tt = 0; tt < numberOfSampledTimers; tt++ ) {
+			columns.add( timerNames.get( tt ) + "_s" );
+		}
+		columns.addAll( sampledGauges );
+		columns.addAll( List.of( "heapUsed_MB", "heapCommitted_MB", "heapMax_MB", "gcCount", "gcTime_s" ) );
+		write( String.join( ";", columns ) );
+
+		sampler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+			Thread thread = new Thread( runnable, "emissions-metrics" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		sampler.scheduleAtFixedRate( this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS );
+	}
+
+	private synchronized void sample() {
+		long now = System.nanoTime();
+		long events = inputEvents.get();
+		StringBuilder line = new StringBuilder();
+		line.append( String.format( "%.1f", (now - startNanos) / 1e9 ) );
+		line.append( ';' ).append( events );
+		line.append( ';' ).append( (long) ((events - previousInputEvents) / Math.max( 1e-9, (now - previousSampleNanos) / 1e9 )) );
+		line.append( ';' ).append( emissionEvents.get() );
+		for ( int tt = 0; tt < numberOfSampledTimers; tt++ ) {
+			line.append( ';' ).append( String.format( "%.3f", timerNanos.get( tt ) / 1e9 ) );
+		}
+		for ( String gauge : sampledGauges ) {
+			line.append( ';' ).append( gauges.get( gauge ).getAsLong() );
+		}
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		maxHeapUsed = Math.max( maxHeapUsed, heap.getUsed() );
+		line.append( ';' ).append( heap.getUsed() >> 20 ).append( ';' ).append( heap.getCommitted() >> 20 ).append( ';' ).append( heap.getMax() >> 20 );
+		line.append( ';' ).append( gcCount() ).append( ';' ).append( String.format( "%.3f", gcMillis() / 1e3 ) );
+		write( line.toString() );
+		previousSampleNanos = now;
+		previousInputEvents = events;
+	}
+
+	private void write( String line ) {
+		try {
+			timeSeries.write( line );
+			timeSeries.newLine();
+			timeSeries.flush();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			count += Math.max( 0, gc.getCollectionCount() );
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) {
+			millis += Math.max( 0, gc.getCollectionTime() );
+		}
+		return millis;
+	}
+
+	/**
+	 * Writes the last sample and the summary.  To be called after the events file has been read.
+	 */
+	@Override
+	public synchronized void close() {
+		if ( !enabled || sampler == null ) {
+			return;
+		}
+		sampler.shutdownNow();
+		sample();
+		try {
+			timeSeries.close();
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		sampler = null;
+
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		Map<String, String> summary = new LinkedHashMap<>();
+		summary.put( "wallTime_s", String.format( "%.1f", seconds ) );
+		summary.put( "inputEvents", Long.toString( inputEvents.get() ) );
+		summary.put( "inputEventsPerSecond", Long.toString( (long) (inputEvents.get() / seconds) ) );
+		summary.put( "emissionEvents", Long.toString( emissionEvents.get() ) );
+		for ( int tt = 0; tt < timerNames.size(); tt++ ) {
+			summary.put( timerNames.get( tt ) + "_s", String.format( "%.3f", timerNanos.get( tt ) / 1e9 ) );
+			summary.put( timerNames.get( tt ) + "_share", String.format( "%.3f", timerNanos.get( tt ) / 1e9 / seconds ) );
+		}
+		summary.put( "maxSampledHeapUsed_MB", Long.toString( maxHeapUsed >> 20 ) );
+		summary.put( "gcCount", Long.toString( gcCount() ) );
+		summary.put( "gcTime_s", String.format( "%.3f", gcMillis() / 1e3 ) );
+
+		log.info( "--------------------- METRICS -------------------" );
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( outputDirectory + "output.metrics.summary.csv" ) ) {
+			writer.write( "metric;value" );
+			writer.newLine();
+			for ( Map.Entry<String, String> entry : summary.entrySet() ) {
+				writer.write( entry.getKey() + ";" + entry.getValue() );
+				writer.newLine();
+				log.info( "{}: {}", entry.getKey(), entry.getValue() );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		log.info( "-------------------------------------------------" );
+	}
+
+}
@@ -0,0 +1,115 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.project.events.PipelinedEventsReader;
+
+import java.net.URL;
+import java.nio.file.Path;
+
+/**
+ * Helpers shared by the offline emissions runners.
+ */
+public final class OfflineEmissionsUtils {
+
+	private OfflineEmissionsUtils() {} // do not instantiate
+
+	/**
+	 * Reads the events file into the events manager, with the reader that is configured in the
+	 * {@link OfflineEmissionsConfigGroup}.
+	 */
+	public static void readEventsFile( OfflineEmissionsConfigGroup oecg, EventsManager eventsManager, String eventsFile ) {
+		if ( oecg.getNumberOfEventsParserThreads() > 0 ) {
+			new PipelinedEventsReader( eventsManager, oecg.getNumberOfEventsParserThreads() ).readFile( eventsFile );
+		} else {
+			new MatsimEventsReader( eventsManager ).readFile( eventsFile );
+		}
+	}
+
+	/**
+	 * Like {@link #readEventsFile(OfflineEmissionsConfigGroup, EventsManager, String)}, and adds the depth of the
+	 * {@link PipelinedEventsReader}'s queue of parsed chunks to the metrics.
+	 */
+	public static void readEventsFile( OfflineEmissionsConfigGroup oecg, EventsManager eventsManager, String eventsFile, OfflineEmissionsMetrics metrics ) {
+		if ( oecg.getNumberOfEventsParserThreads() > 0 ) {
+			PipelinedEventsReader reader = new PipelinedEventsReader( eventsManager, oecg.getNumberOfEventsParserThreads() );
+			metrics.addGauge( "parsedChunksQueued", reader::getQueueDepth );
+			reader.readFile( eventsFile );
+		} else {
+			new MatsimEventsReader( eventsManager ).readFile( eventsFile );
+		}
+	}
+
+	/**
+	 * Reads the average warm and cold HBEFA tables of the {@link EmissionsConfigGroup} into a
+	 * {@link HbefaEmissionFactorIndex}.
+	 */
+	public static HbefaEmissionFactorIndex loadAverageHbefaIndex( Config config ) {
+		EmissionsConfigGroup ecg = ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class );
+		return HbefaEmissionFactorIndex.readFiles( resolve( config, ecg.getAverageWarmEmissionFactorsFile() ),
+				resolve( config, ecg.getAverageColdEmissionFactorsFile() ) );
+	}
+
+	/**
+	 * Sets the HBEFA road types of the links with the {@link RoadTypeClassifier} rules of the
+	 * {@link OfflineEmissionsConfigGroup}, if there are any.
+	 */
+	public static void classifyRoadTypes( Config config, Network network ) {
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		if ( !oecg.getRoadTypeRulesFile().isEmpty() ) {
+			RoadTypeClassifier.readRules( resolve( config, oecg.getRoadTypeRulesFile() ) ).classify( network );
+		}
+	}
+
+	/**
+	 * Spreads the emissions per link over the grid of the {@link OfflineEmissionsConfigGroup}, if there is one, and
+	 * writes <code>output.emissionsRaster.bin.gz</code>: per time bin of the link emissions cube if it was written,
+	 * otherwise the totals of the aggregator.
+	 *
+	 * @param linkEmissionsCubeFile the closed cube file, or <code>null</code>
+	 */
+	public static void writeEmissionsRaster( Config config, Network network, LinkEmissionsAggregator aggregator, Path linkEmissionsCubeFile ) {
+		OfflineEmissionsConfigGroup oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		if ( oecg.getEmissionsRasterCellSize() <= 0. ) {
+			return;
+		}
+		LinkCellWeights weights = LinkCellWeights.build( network, oecg.getEmissionsRasterCellSize(), oecg.getEmissionsRasterSmoothingRadius() );
+		EmissionsRaster raster;
+		if ( linkEmissionsCubeFile != null ) {
+			try ( LinkEmissionsCube cube = LinkEmissionsCube.open( linkEmissionsCubeFile ) ) {
+				raster = EmissionsRaster.rasterize( weights, cube, oecg.getEmissionsRasterPollutants() );
+			}
+		} else {
+			raster = EmissionsRaster.rasterize( weights, aggregator, oecg.getEmissionsRasterPollutants() );
+		}
+		raster.write( config.controler().getOutputDirectory() + "output.emissionsRaster.bin.gz" );
+	}
+
+	private static URL resolve( Config config, String filename ) {
+		return filename == null || filename.isEmpty() ? null : ConfigGroup.getInputFileURL( config.getContext(), filename );
+	}
+
+}
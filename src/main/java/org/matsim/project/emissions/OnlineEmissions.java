@@ -0,0 +1,183 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+/**
+ * Computes the emissions during the mobsim of selected iterations, instead of reading the events file of a run again
+ * offline.  The events of these iterations are passed on to an {@link EmissionModule} with an events manager of its own,
+ * so that the emission events neither go into the run's events file nor reach the run's other handlers.  There, they
+ * are summed up per link in a {@link LinkEmissionsAggregator} and passed to the sink of the
+ * {@link OnlineEmissionsConfigGroup}.  The emissions per link go into the iteration's <code>emissionsPerLink.csv</code>.
+ * <p>
+ * The {@link EmissionModule} is only created, and the HBEFA tables are only read, at the first of these iterations.
+ */
+public final class OnlineEmissions implements BasicEventHandler, IterationStartsListener, IterationEndsListener {
+	private static final Logger log = LogManager.getLogger( OnlineEmissions.class );
+
+	private final Scenario scenario;
+	private final OnlineEmissionsConfigGroup config;
+	private final LinkEmissionsAggregator linkEmissionsAggregator = new LinkEmissionsAggregator();
+
+	private EventsManager emissionEventsManager;
+	private EventWriterXML eventWriterXML;
+	private EmissionEventsBinaryWriter emissionEventsBinaryWriter;
+	private boolean active = false;
+
+	public OnlineEmissions( Scenario scenario ) {
+		this.scenario = scenario;
+		this.config = ConfigUtils.addOrGetModule( scenario.getConfig(), OnlineEmissionsConfigGroup.class );
+	}
+
+	/**
+	 * Adds the online emissions to a controler, if the config selects any iterations.
+	 */
+	public static void install( Controler controler ) {
+		if ( ConfigUtils.addOrGetModule( controler.getConfig(), OnlineEmissionsConfigGroup.class ).getIterations().isEmpty() ) {
+			return;
+		}
+		OnlineEmissions onlineEmissions = new OnlineEmissions( controler.getScenario() );
+		controler.addOverridingModule( new AbstractModule(){
+			@Override
+			public void install(){
+				addEventHandlerBinding().toInstance( onlineEmissions );
+				addControlerListenerBinding().toInstance( onlineEmissions );
+			}
+		} );
+	}
+
+	@Override
+	public void notifyIterationStarts( IterationStartsEvent event ) {
+		if ( config.isEmissionsIteration( event.getIteration(), scenario.getConfig().controler().getLastIteration() ) ) {
+			OutputDirectoryHierarchy io = event.getServices().getControlerIO();
+			switch ( config.getEmissionEventsSink() ) {
+				case xml:
+					start( event.getIteration(), io.getIterationFilename( event.getIteration(), "emission.events.xml.gz" ) );
+					break;
+				case binary:
+					start( event.getIteration(), io.getIterationFilename( event.getIteration(), "emission.events.bin" ) );
+					break;
+				default:
+					start( event.getIteration(), null );
+			}
+		}
+	}
+
+	@Override
+	public void notifyIterationEnds( IterationEndsEvent event ) {
+		if ( active ) {
+			finish( event.getServices().getControlerIO().getIterationFilename( event.getIteration(), "emissionsPerLink.csv" ) );
+		}
+	}
+
+	/**
+	 * Starts passing on the events.
+	 *
+	 * @param emissionEventsFile for the emission events, or <code>null</code> for none
+	 */
+	void start( int iteration, String emissionEventsFile ) {
+		if ( emissionEventsManager == null ) {
+			emissionEventsManager = EventsUtils.createEventsManager();
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( emissionEventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			// the EmissionModule adds its handlers to the events manager:
+			Injector.createInjector( scenario.getConfig(), module ).getInstance( EmissionModule.class );
+			emissionEventsManager.addHandler( linkEmissionsAggregator );
+		}
+		emissionEventsManager.resetHandlers( iteration );
+		if ( emissionEventsFile != null ) {
+			if ( config.getEmissionEventsSink() == OnlineEmissionsConfigGroup.EmissionEventsSink.binary ) {
+				emissionEventsBinaryWriter = new EmissionEventsBinaryWriter( emissionEventsFile );
+				emissionEventsManager.addHandler( emissionEventsBinaryWriter );
+			} else {
+				eventWriterXML = new EventWriterXML( emissionEventsFile );
+				emissionEventsManager.addHandler( eventWriterXML );
+			}
+		}
+		emissionEventsManager.initProcessing();
+		active = true;
+		log.info( "Computing the emissions of iteration {} online.", iteration );
+	}
+
+	@Override
+	public void handleEvent( Event event ) {
+		if ( active ) {
+			emissionEventsManager.processEvent( event );
+		}
+	}
+
+	/**
+	 * Stops passing on the events, closes the emission events file, and writes the emissions per link.
+	 */
+	void finish( String linkEmissionsFile ) {
+		active = false;
+		emissionEventsManager.finishProcessing();
+		if ( eventWriterXML != null ) {
+			emissionEventsManager.removeHandler( eventWriterXML );
+			eventWriterXML.closeFile();
+			eventWriterXML = null;
+		}
+		if ( emissionEventsBinaryWriter != null ) {
+			emissionEventsManager.removeHandler( emissionEventsBinaryWriter );
+			emissionEventsBinaryWriter.close();
+			emissionEventsBinaryWriter = null;
+		}
+		linkEmissionsAggregator.writeCsv( linkEmissionsFile );
+
+		log.info( "--------------------- ONLINE EMISSIONS --------------------" );
+		log.info( "CO2 [g]: " + linkEmissionsAggregator.getTotal( Pollutant.CO2_TOTAL ) );
+		log.info( "CO [g]: " + linkEmissionsAggregator.getTotal( Pollutant.CO ) );
+		log.info( "NOx [g]: " + linkEmissionsAggregator.getTotal( Pollutant.NOx ) );
+		log.info( "Emissions per link written to " + linkEmissionsFile );
+		log.info( "-----------------------------------------------------------" );
+	}
+
+	/**
+	 * @return the emissions per link of the current or last iteration with emissions.
+	 */
+	public LinkEmissionsAggregator getLinkEmissions() {
+		return linkEmissionsAggregator;
+	}
+
+}
@@ -0,0 +1,98 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Map;
+
+/**
+ * Settings of the {@link OnlineEmissions}.  Can be set in the config file or from the command line, e.g.
+ * <code>--config:onlineEmissions.iterations 0,last</code>.
+ */
+public final class OnlineEmissionsConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "onlineEmissions";
+
+	public enum EmissionEventsSink { none, xml, binary }
+
+	private static final String ITERATIONS = "iterations";
+	private static final String EMISSION_EVENTS_SINK = "emissionEventsSink";
+	private static final String LAST = "last";
+
+	private String iterations = "";
+	private EmissionEventsSink emissionEventsSink = EmissionEventsSink.xml;
+
+	public OnlineEmissionsConfigGroup() {
+		super( GROUP_NAME );
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put( ITERATIONS, "Comma-separated iterations in which the emissions are computed during the mobsim, e.g. '0,10,last'.  "
+				+ "Empty means never.  Default: empty." );
+		map.put( EMISSION_EVENTS_SINK, "Where the emission events of these iterations go: none (only the emissions per link are written), "
+				+ "xml or binary (see EmissionEventsBinaryWriter).  Default: xml." );
+		return map;
+	}
+
+	@StringGetter( ITERATIONS )
+	public String getIterations() {
+		return iterations;
+	}
+
+	@StringSetter( ITERATIONS )
+	public void setIterations( String iterations ) {
+		String trimmed = iterations == null ? "" : iterations.trim();
+		for ( String iteration : split( trimmed ) ) {
+			if ( !iteration.equals( LAST ) && !iteration.matches( "\\d+" ) ) {
+				throw new IllegalArgumentException( ITERATIONS + " must be iteration numbers or '" + LAST + "', but was " + iterations );
+			}
+		}
+		this.iterations = trimmed;
+	}
+
+	/**
+	 * @return whether the emissions are computed in an iteration.
+	 */
+	public boolean isEmissionsIteration( int iteration, int lastIteration ) {
+		for ( String selected : split( iterations ) ) {
+			if ( selected.equals( LAST ) ? iteration == lastIteration : iteration == Integer.parseInt( selected ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String[] split( String iterations ) {
+		return iterations.isEmpty() ? new String[0] : iterations.split( "\\s*,\\s*" );
+	}
+
+	@StringGetter( EMISSION_EVENTS_SINK )
+	public EmissionEventsSink getEmissionEventsSink() {
+		return emissionEventsSink;
+	}
+
+	@StringSetter( EMISSION_EVENTS_SINK )
+	public void setEmissionEventsSink( EmissionEventsSink emissionEventsSink ) {
+		this.emissionEventsSink = emissionEventsSink;
+	}
+
+}
@@ -0,0 +1,302 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.PersonEntersVehicleEvent;
+import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the offline emissions calculation on several threads.
+ * <p>
+ * The input events are read in blocks.  Every event that carries a vehicle id is handed to exactly one worker (chosen
+ * by the vehicle id), so that all link enter/leave and traffic enter/leave state of a vehicle, including its cold-start
+ * state, lives in one {@link EmissionModule}.  Events without a vehicle are handed to all workers.  Each worker has its
+ * own {@link EventsManager} and its own {@link EmissionModule}.
+ * <p>
+ * After a block is done, the events the workers have produced (i.e. the emission events) are merged back in input
+ * order and passed, together with the input events, to the output {@link EventsManager}.  The output events manager
+ * hence sees exactly the same event sequence as in the sequential setup where the {@link EmissionModule} is attached
+ * before the writers and aggregators; events file and link sums are identical to the sequential run.
+ */
+public final class ParallelEmissionsEventsProcessor {
+	private static final Logger log = LogManager.getLogger( ParallelEmissionsEventsProcessor.class );
+
+	private static final int BLOCK_SIZE = 100_000;
+
+	private final EventsManager outputEventsManager;
+	private final OfflineEmissionsConfigGroup oecg;
+	private final Worker[] workers;
+	private final int blockSize;
+
+	private final List<Event> block;
+	private final int[] owners;
+	private ExecutorService executor;
+	private long eventCounter = 0;
+
+	/**
+	 * @param outputEventsManager receives the input events together with the emission events, in sequential order.
+	 *                            Must <i>not</i> have an {@link EmissionModule} attached.
+	 */
+	public ParallelEmissionsEventsProcessor( Config config, Scenario scenario, EventsManager outputEventsManager, int numberOfWorkers ) {
+		this( config, scenario, outputEventsManager, numberOfWorkers, BLOCK_SIZE );
+	}
+
+	/* package, for tests with small blocks */ ParallelEmissionsEventsProcessor( Config config, Scenario scenario, EventsManager outputEventsManager,
+			int numberOfWorkers, int blockSize ) {
+		this.outputEventsManager = outputEventsManager;
+		this.blockSize = blockSize;
+		this.block = new ArrayList<>( blockSize );
+		this.owners = new int[blockSize];
+		this.oecg = ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class );
+		this.workers = new Worker[numberOfWorkers];
+		// the emission modules are created one after the other since they read the hbefa tables and touch the scenario:
+		for ( int ii = 0; ii < numberOfWorkers; ii++ ) {
+			workers[ii] = new Worker( ii, config, scenario );
+		}
+		log.info( "Created {} emission workers.", numberOfWorkers );
+	}
+
+	public void readFile( String eventsFile ) {
+		EventsManager readerEventsManager = EventsUtils.createEventsManager();
+		readerEventsManager.addHandler( (BasicEventHandler) this::processEvent );
+		try {
+			OfflineEmissionsUtils.readEventsFile( oecg, readerEventsManager, eventsFile );
+			flush();
+		} finally {
+			close();
+		}
+		log.info( "Processed {} events on {} workers.", eventCounter, workers.length );
+	}
+
+	/**
+	 * Adds an input event to the current block.  The output events manager gets it, and its emission events, when the
+	 * block is full or at the next {@link #flush()}.
+	 */
+	public void processEvent( Event event ) {
+		block.add( event );
+		if ( block.size() == blockSize ) {
+			processBlock();
+		}
+	}
+
+	/**
+	 * Processes the current block, so that the output events manager has seen all input events so far.
+	 */
+	public void flush() {
+		processBlock();
+	}
+
+	/**
+	 * Stops the worker threads.  Needed only when the events are passed in by {@link #processEvent}.
+	 */
+	public void close() {
+		if ( executor != null ) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	private void processBlock() {
+		if ( block.isEmpty() ) {
+			return;
+		}
+
+		// partition:
+		for ( Worker worker : workers ) {
+			worker.clear();
+		}
+		for ( int ii = 0; ii < block.size(); ii++ ) {
+			Id<Vehicle> vehicleId = getVehicleId( block.get( ii ) );
+			if ( vehicleId == null ) {
+				for ( Worker worker : workers ) {
+					worker.inputIndices.add( ii );
+				}
+				owners[ii] = 0;
+			} else {
+				owners[ii] = Math.floorMod( vehicleId.index(), workers.length );
+				workers[owners[ii]].inputIndices.add( ii );
+			}
+		}
+
+		// compute:
+		if ( executor == null ) {
+			executor = Executors.newFixedThreadPool( workers.length );
+		}
+		List<Future<Void>> futures = new ArrayList<>();
+		for ( Worker worker : workers ) {
+			futures.add( executor.submit( worker ) );
+		}
+		for ( Future<Void> future : futures ) {
+			try {
+				future.get();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			} catch ( ExecutionException e ) {
+				throw new RuntimeException( "emission worker failed", e.getCause() );
+			}
+		}
+
+		// merge, in input order.  Events produced while handling an input event come before the input event itself, as
+		// they would in a single events manager where the emission module is registered first:
+		int[] pointers = new int[workers.length];
+		for ( int ii = 0; ii < block.size(); ii++ ) {
+			Worker worker = workers[owners[ii]];
+			int pp = pointers[owners[ii]];
+			while ( pp < worker.outputIndices.size() && worker.outputIndices.get( pp ) == ii ) {
+				outputEventsManager.processEvent( worker.outputEvents.get( pp ) );
+				pp++;
+			}
+			pointers[owners[ii]] = pp;
+			outputEventsManager.processEvent( block.get( ii ) );
+		}
+
+		eventCounter += block.size();
+		block.clear();
+	}
+
+	static Id<Vehicle> getVehicleId( Event event ) {
+		if ( event instanceof LinkEnterEvent ) {
+			return ((LinkEnterEvent) event).getVehicleId();
+		} else if ( event instanceof LinkLeaveEvent ) {
+			return ((LinkLeaveEvent) event).getVehicleId();
+		} else if ( event instanceof VehicleEntersTrafficEvent ) {
+			return ((VehicleEntersTrafficEvent) event).getVehicleId();
+		} else if ( event instanceof VehicleLeavesTrafficEvent ) {
+			return ((VehicleLeavesTrafficEvent) event).getVehicleId();
+		} else if ( event instanceof PersonEntersVehicleEvent ) {
+			return ((PersonEntersVehicleEvent) event).getVehicleId();
+		} else if ( event instanceof PersonLeavesVehicleEvent ) {
+			return ((PersonLeavesVehicleEvent) event).getVehicleId();
+		}
+		return null;
+	}
+
+	private final class Worker implements Callable<Void>, BasicEventHandler {
+		private final int index;
+		private final EventsManager eventsManager = EventsUtils.createEventsManager();
+
+		private final IntList inputIndices = new IntList();
+		private final IntList outputIndices = new IntList();
+		private final List<Event> outputEvents = new ArrayList<>();
+
+		private Event currentInputEvent;
+		private int currentInputIndex;
+
+		Worker( int index, Config config, Scenario scenario ) {
+			this.index = index;
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( eventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			com.google.inject.Injector injector = Injector.createInjector( config, module );
+
+			// the EmissionModule must be instantiated, otherwise it does not work:
+			injector.getInstance( EmissionModule.class );
+
+			// registered after the emission module, so that we see the emission events before the event that triggered them:
+			eventsManager.addHandler( this );
+		}
+
+		void clear() {
+			inputIndices.clear();
+			outputIndices.clear();
+			outputEvents.clear();
+		}
+
+		@Override
+		public Void call() {
+			for ( int ii = 0; ii < inputIndices.size(); ii++ ) {
+				currentInputIndex = inputIndices.get( ii );
+				currentInputEvent = block.get( currentInputIndex );
+				eventsManager.processEvent( currentInputEvent );
+			}
+			currentInputEvent = null;
+			return null;
+		}
+
+		@Override
+		public void handleEvent( Event event ) {
+			// events that are handed to all workers are only owned by one of them; the others' results are dropped:
+			if ( event != currentInputEvent && owners[currentInputIndex] == index ) {
+				outputIndices.add( currentInputIndex );
+				outputEvents.add( event );
+			}
+		}
+	}
+
+	/**
+	 * Growable int array, to avoid boxing millions of indices per block.
+	 */
+	private static final class IntList {
+		private int[] values = new int[1024];
+		private int size = 0;
+
+		void add( int value ) {
+			if ( size == values.length ) {
+				values = Arrays.copyOf( values, 2 * size );
+			}
+			values[size++] = value;
+		}
+
+		int get( int index ) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+}
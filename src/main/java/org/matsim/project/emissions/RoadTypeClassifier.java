@@ -0,0 +1,267 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.emissions.EmissionUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Sets the HBEFA road type of every link (see {@link EmissionUtils#setHbefaRoadType(Link, String)}) from a list of
+ * rules.  Each {@link Rule} has a road type and optional conditions on the link's OSM type, freespeed, capacity, number of
+ * lanes and grade; the first rule whose conditions all hold wins.  Links that no rule matches keep their road type.
+ * <p>
+ * The rules are usually read from a csv file, see {@link #readRules(URL)}.  The links are classified in parallel.
+ */
+public final class RoadTypeClassifier {
+	private static final Logger log = LogManager.getLogger( RoadTypeClassifier.class );
+
+	/**
+	 * Link attribute with the grade, as a number in percent or as a string like <code>-6%</code>.  For undirected HBEFA
+	 * gradients like <code>+/-2%</code>, the rules see the magnitude.
+	 */
+	public static final String ROAD_GRADE = "road_grade";
+
+	private static final String UNCLASSIFIED = "(unclassified)";
+
+	private final List<Rule> rules;
+
+	public RoadTypeClassifier( List<Rule> rules ) {
+		this.rules = new ArrayList<>( rules );
+	}
+
+	/**
+	 * Reads rules from a semicolon-separated file with the header
+	 * <pre>
+	 *   roadType;osmTypes;minFreespeed_kmh;maxFreespeed_kmh;minCapacity;maxCapacity;minLanes;maxLanes;minGrade;maxGrade
+	 * </pre>
+	 * <code>osmTypes</code> is a <code>|</code>-separated list, e.g. <code>motorway|trunk</code>.  The bounds are inclusive.
+	 * An empty field is no condition, so a row with a road type only matches every link.  Lines starting with
+	 * <code>#</code> are comments.
+	 */
+	public static RoadTypeClassifier readRules( URL file ) {
+		List<Rule> rules = new ArrayList<>();
+		try ( BufferedReader reader = IOUtils.getBufferedReader( file ) ) {
+			String header = null;
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				if ( line.isBlank() || line.startsWith( "#" ) ) {
+					continue;
+				}
+				if ( header == null ) {
+					header = line;
+					if ( !header.startsWith( "roadType;" ) ) {
+						throw new IllegalArgumentException( file + " does not start with the header roadType;osmTypes;..." );
+					}
+					continue;
+				}
+				String[] fields = Arrays.copyOf( line.split( ";", -1 ), 10 );
+				Rule rule = new Rule( fields[0].trim() );
+				if ( !isEmpty( fields[1] ) ) {
+					rule.setOsmTypes( fields[1].split( "\\|" ) );
+				}
+				rule.setFreespeed_kmh( parse( fields[2], Double.NEGATIVE_INFINITY ), parse( fields[3], Double.POSITIVE_INFINITY ) );
+				rule.setCapacity( parse( fields[4], Double.NEGATIVE_INFINITY ), parse( fields[5], Double.POSITIVE_INFINITY ) );
+				rule.setLanes( parse( fields[6], Double.NEGATIVE_INFINITY ), parse( fields[7], Double.POSITIVE_INFINITY ) );
+				if ( !isEmpty( fields[8] ) || !isEmpty( fields[9] ) ) {
+					rule.setGrade( parse( fields[8], Double.NEGATIVE_INFINITY ), parse( fields[9], Double.POSITIVE_INFINITY ) );
+				}
+				rules.add( rule );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return new RoadTypeClassifier( rules );
+	}
+
+	private static boolean isEmpty( String field ) {
+		return field == null || field.isBlank();
+	}
+
+	private static double parse( String field, double ifEmpty ) {
+		return isEmpty( field ) ? ifEmpty : Double.parseDouble( field.trim() );
+	}
+
+	/**
+	 * Classifies all links of the network, in parallel, and sets their HBEFA road types.
+	 *
+	 * @return the number of links per road type, in the order of the rules, and of the links that no rule matched.
+	 */
+	public Map<String, Integer> classify( Network network ) {
+		long start = System.nanoTime();
+		Link[] links = network.getLinks().values().toArray( new Link[0] );
+		int[] matches = new int[links.length];
+		IntStream.range( 0, links.length ).parallel().forEach( ii -> {
+			// every link has its own attributes, hence the links can be changed concurrently:
+			matches[ii] = match( links[ii] );
+			if ( matches[ii] >= 0 ) {
+				EmissionUtils.setHbefaRoadType( links[ii], rules.get( matches[ii] ).roadType );
+			}
+		} );
+
+		Map<String, Integer> counts = new LinkedHashMap<>();
+		for ( Rule rule : rules ) {
+			counts.put( rule.roadType, 0 );
+		}
+		counts.put( UNCLASSIFIED, 0 );
+		for ( int match : matches ) {
+			counts.merge( match >= 0 ? rules.get( match ).roadType : UNCLASSIFIED, 1, Integer::sum );
+		}
+		int invalidGrades = 0;
+		for ( Link link : links ) {
+			if ( link.getAttributes().getAttribute( ROAD_GRADE ) != null && Double.isNaN( getGrade( link ) ) ) {
+				invalidGrades++;
+			}
+		}
+		log.info( "Classified {} links in {} s:", links.length, String.format( "%.2f", (System.nanoTime() - start) / 1e9 ) );
+		counts.forEach( ( roadType, count ) -> log.info( "  {}: {} links", roadType, count ) );
+		if ( counts.get( UNCLASSIFIED ) > 0 ) {
+			log.warn( "{} links match no rule and keep their road type.", counts.get( UNCLASSIFIED ) );
+		}
+		if ( invalidGrades > 0 ) {
+			log.warn( "{} links have a {} that is no number; they match no rule with a grade condition.", invalidGrades, ROAD_GRADE );
+		}
+		return counts;
+	}
+
+	/**
+	 * @return the position of the first matching rule, or -1.
+	 */
+	int match( Link link ) {
+		String osmType = NetworkUtils.getType( link );
+		if ( osmType != null && osmType.startsWith( "highway." ) ) {
+			osmType = osmType.substring( "highway.".length() );
+		}
+		double freespeed_kmh = link.getFreespeed() * 3.6;
+		double grade = getGrade( link );
+		for ( int rr = 0; rr < rules.size(); rr++ ) {
+			if ( rules.get( rr ).matches( osmType, freespeed_kmh, link.getCapacity(), link.getNumberOfLanes(), grade ) ) {
+				return rr;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the grade in percent, see {@link HbefaDescriptors#parseGrade}; NaN if there is none or it cannot be parsed.
+	 */
+	private static double getGrade( Link link ) {
+		return HbefaDescriptors.parseGrade( link.getAttributes().getAttribute( ROAD_GRADE ) );
+	}
+
+	/**
+	 * One road type, and the conditions a link must fulfil to get it.  Without conditions, the rule matches every link.
+	 */
+	public static final class Rule {
+		private final String roadType;
+		private Set<String> osmTypes = Collections.emptySet();
+		private double minFreespeed_kmh = Double.NEGATIVE_INFINITY;
+		private double maxFreespeed_kmh = Double.POSITIVE_INFINITY;
+		private double minCapacity = Double.NEGATIVE_INFINITY;
+		private double maxCapacity = Double.POSITIVE_INFINITY;
+		private double minLanes = Double.NEGATIVE_INFINITY;
+		private double maxLanes = Double.POSITIVE_INFINITY;
+		private double minGrade = Double.NaN;
+		private double maxGrade = Double.NaN;
+
+		/**
+		 * @param roadType as in the HBEFA tables, e.g. <code>URB/Local/50</code>
+		 */
+		public Rule( String roadType ) {
+			this.roadType = roadType;
+		}
+
+		public Rule setOsmTypes( String... osmTypes ) {
+			this.osmTypes = new HashSet<>();
+			for ( String osmType : osmTypes ) {
+				this.osmTypes.add( osmType.trim() );
+			}
+			return this;
+		}
+
+		public Rule setFreespeed_kmh( double min, double max ) {
+			this.minFreespeed_kmh = min;
+			this.maxFreespeed_kmh = max;
+			return this;
+		}
+
+		public Rule setCapacity( double min, double max ) {
+			this.minCapacity = min;
+			this.maxCapacity = max;
+			return this;
+		}
+
+		public Rule setLanes( double min, double max ) {
+			this.minLanes = min;
+			this.maxLanes = max;
+			return this;
+		}
+
+		/**
+		 * Only links with a {@link #ROAD_GRADE} attribute can match a rule with a grade condition.
+		 */
+		public Rule setGrade( double min, double max ) {
+			this.minGrade = min;
+			this.maxGrade = max;
+			return this;
+		}
+
+		public String getRoadType() {
+			return roadType;
+		}
+
+		boolean matches( String osmType, double freespeed_kmh, double capacity, double lanes, double grade ) {
+			if ( !osmTypes.isEmpty() && (osmType == null || !osmTypes.contains( osmType )) ) {
+				return false;
+			}
+			if ( freespeed_kmh < minFreespeed_kmh || freespeed_kmh > maxFreespeed_kmh ) {
+				return false;
+			}
+			if ( capacity < minCapacity || capacity > maxCapacity ) {
+				return false;
+			}
+			if ( lanes < minLanes || lanes > maxLanes ) {
+				return false;
+			}
+			if ( !Double.isNaN( minGrade ) ) {
+				return !Double.isNaN( grade ) && grade >= minGrade && grade <= maxGrade;
+			}
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,515 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.emissions.EmissionUtils;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.events.algorithms.EventWriterXML;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+import org.matsim.vehicles.MatsimVehicleWriter;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Generates the traffic of many synthetic vehicles on a network, as the events the emissions contrib reads:
+ * <code>vehicle enters traffic</code>, <code>left link</code> and <code>entered link</code>, and <code>vehicle leaves
+ * traffic</code>.  This makes inputs of any size for load tests of the offline emissions, from the network and vehicles of
+ * a small scenario.
+ * <p>
+ * Every vehicle makes a number of trips; a trip is a random walk over the network, without u-turns where possible, and the
+ * next trip starts on the link where the previous one ended.  The vehicles are of the types of a vehicles container,
+ * drawn by how often each type is used there; {@link #createVehicles()} returns the vehicles, which the emissions need
+ * with the events.  With a {@link HbefaEmissionFactorIndex}, the vehicles only drive on links with a road type of the
+ * index, and the time on a link follows the speed of a random traffic situation of the warm table, so that the average
+ * speed method sees all traffic situations; without, a vehicle drives at between half and full freespeed.  Times are
+ * whole seconds, as in the mobsim.
+ * <p>
+ * The events are generated in time order, with a heap of the vehicles by the time of their next event, and streamed to
+ * a {@link Consumer}, an {@link EventsManager} or an events file; the memory grows with the number of vehicles only.  A
+ * trip of <i>n</i> links has <i>2n</i> events, hence e.g. 1 million vehicles with 4 trips of 5 to 45 links make about
+ * 200 million events.  The same seed gives the same events.
+ * <pre>
+ *   SyntheticEventsGenerator [numberOfVehicles] [tripsPerVehicle] [seed] [outputDirectory]
+ * </pre>
+ */
+public final class SyntheticEventsGenerator {
+	private static final Logger log = LogManager.getLogger( SyntheticEventsGenerator.class );
+
+	private static final String VEHICLE_ID_PREFIX = "synthetic_";
+	private static final String[] TRAFFIC_SITUATIONS = { "Freeflow", "Heavy", "Satur.", "St+Go", "St+Go2" };
+	private static final double[] TRAFFIC_SITUATION_SHARES = { 0.6, 0.2, 0.1, 0.07, 0.03 };
+	private static final String DEFAULT_GRADIENT = "0%";
+	private static final long LOG_INTERVAL = 10_000_000;
+
+	private final long seed;
+	private final Link[] links;
+	private final int[][] nextLinks;
+	private final VehicleType[] vehicleTypes;
+	private final double[] cumulativeTypeShares;
+
+	// only with an index:
+	private final HbefaEmissionFactorIndex index;
+	private final int[] linkRoadTypes;
+	private final int[] typeSegments;
+	private final int[] trafficSituations;
+	private final int gradient;
+
+	private int numberOfVehicles = 1000;
+	private int tripsPerVehicle = 3;
+	private int minLinksPerTrip = 5;
+	private int maxLinksPerTrip = 45;
+	private double firstDepartureStart = 5 * 3600.;
+	private double firstDepartureEnd = 10 * 3600.;
+	private double minActivityDuration = 1800.;
+	private double maxActivityDuration = 4 * 3600.;
+
+	/**
+	 * @param vehicles the vehicle types and how often they are used; the vehicles themselves are not driven
+	 * @param index    may be <code>null</code>
+	 */
+	public SyntheticEventsGenerator( Network network, Vehicles vehicles, HbefaEmissionFactorIndex index, long seed ) {
+		this.seed = seed;
+		this.index = index;
+
+		// sorted by id, so that the events do not depend on the order of the network file:
+		List<Link> eligible = new ArrayList<>();
+		for ( Link link : network.getLinks().values() ) {
+			if ( link.getAllowedModes().contains( TransportMode.car ) && link.getLength() > 0. && link.getFreespeed() > 0.
+					&& (index == null || getRoadType( index, link ) >= 0) ) {
+				eligible.add( link );
+			}
+		}
+		eligible.sort( Comparator.comparing( link -> link.getId().toString() ) );
+		if ( eligible.isEmpty() ) {
+			throw new IllegalArgumentException( "The network has no car links" + (index == null ? "." : " with a road type of the HBEFA tables.") );
+		}
+		this.links = eligible.toArray( new Link[0] );
+		Map<Id<Link>, Integer> positions = new HashMap<>();
+		for ( int ll = 0; ll < links.length; ll++ ) {
+			positions.put( links[ll].getId(), ll );
+		}
+		this.nextLinks = new int[links.length][];
+		for ( int ll = 0; ll < links.length; ll++ ) {
+			List<Integer> forward = new ArrayList<>();
+			List<Integer> uTurns = new ArrayList<>();
+			for ( Link next : links[ll].getToNode().getOutLinks().values() ) {
+				Integer position = positions.get( next.getId() );
+				if ( position != null ) {
+					(next.getToNode() == links[ll].getFromNode() ? uTurns : forward).add( position );
+				}
+			}
+			List<Integer> candidates = forward.isEmpty() ? uTurns : forward;
+			this.nextLinks[ll] = candidates.stream().sorted().mapToInt( Integer::intValue ).toArray();
+		}
+
+		// the types by how often they are used, or all alike if no vehicles use them:
+		List<VehicleType> types = new ArrayList<>();
+		for ( VehicleType type : vehicles.getVehicleTypes().values() ) {
+			if ( index == null || isHbefaSegment( index, type ) ) {
+				types.add( type );
+			}
+		}
+		types.sort( Comparator.comparing( type -> type.getId().toString() ) );
+		if ( types.isEmpty() ) {
+			throw new IllegalArgumentException( "There are no vehicle types" + (index == null ? "." : " with a segment of the HBEFA tables.") );
+		}
+		this.vehicleTypes = types.toArray( new VehicleType[0] );
+		double[] shares = new double[vehicleTypes.length];
+		for ( Vehicle vehicle : vehicles.getVehicles().values() ) {
+			int position = types.indexOf( vehicle.getType() );
+			if ( position >= 0 ) {
+				shares[position]++;
+			}
+		}
+		double total = 0.;
+		for ( double share : shares ) {
+			total += share;
+		}
+		this.cumulativeTypeShares = new double[vehicleTypes.length];
+		double cumulative = 0.;
+		for ( int tt = 0; tt < vehicleTypes.length; tt++ ) {
+			cumulative += total > 0. ? shares[tt] / total : 1. / vehicleTypes.length;
+			cumulativeTypeShares[tt] = cumulative;
+		}
+
+		if ( index == null ) {
+			this.linkRoadTypes = null;
+			this.typeSegments = null;
+			this.trafficSituations = null;
+			this.gradient = HbefaDescriptors.UNKNOWN;
+		} else {
+			this.linkRoadTypes = new int[links.length];
+			for ( int ll = 0; ll < links.length; ll++ ) {
+				linkRoadTypes[ll] = getRoadType( index, links[ll] );
+			}
+			HbefaDescriptors descriptors = HbefaDescriptors.resolve( index, network, vehicles );
+			this.typeSegments = new int[vehicleTypes.length];
+			for ( int tt = 0; tt < vehicleTypes.length; tt++ ) {
+				typeSegments[tt] = descriptors.getVehicleTypeSegment( vehicleTypes[tt].getId().index() );
+			}
+			this.trafficSituations = new int[TRAFFIC_SITUATIONS.length];
+			for ( int ss = 0; ss < TRAFFIC_SITUATIONS.length; ss++ ) {
+				trafficSituations[ss] = index.getTrafficSituationCode( TRAFFIC_SITUATIONS[ss] );
+			}
+			this.gradient = index.getGradientCode( DEFAULT_GRADIENT );
+		}
+	}
+
+	private static int getRoadType( HbefaEmissionFactorIndex index, Link link ) {
+		String roadType = EmissionUtils.getHbefaRoadType( link );
+		return roadType == null ? HbefaDescriptors.UNKNOWN : index.getRoadTypeCode( roadType );
+	}
+
+	private static boolean isHbefaSegment( HbefaEmissionFactorIndex index, VehicleType type ) {
+		String category = VehicleUtils.getHbefaVehicleCategory( type.getEngineInformation() );
+		String tableCategory = category == null ? null : HbefaDescriptors.toTableCategory( category );
+		if ( tableCategory == null ) {
+			return false;
+		}
+		return index.getAverageSegmentCode( tableCategory ) >= 0 || index.getSegmentCode( tableCategory,
+				VehicleUtils.getHbefaTechnology( type.getEngineInformation() ), VehicleUtils.getHbefaSizeClass( type.getEngineInformation() ),
+				VehicleUtils.getHbefaEmissionsConcept( type.getEngineInformation() ) ) >= 0;
+	}
+
+	public SyntheticEventsGenerator setNumberOfVehicles( int numberOfVehicles ) {
+		if ( numberOfVehicles < 0 ) {
+			throw new IllegalArgumentException( "numberOfVehicles must not be negative." );
+		}
+		this.numberOfVehicles = numberOfVehicles;
+		return this;
+	}
+
+	public SyntheticEventsGenerator setTripsPerVehicle( int tripsPerVehicle ) {
+		if ( tripsPerVehicle < 0 ) {
+			throw new IllegalArgumentException( "tripsPerVehicle must not be negative." );
+		}
+		this.tripsPerVehicle = tripsPerVehicle;
+		return this;
+	}
+
+	/**
+	 * A trip ends earlier if it reaches a link without next links.
+	 */
+	public SyntheticEventsGenerator setLinksPerTrip( int min, int max ) {
+		if ( min < 1 || max < min ) {
+			throw new IllegalArgumentException( "The links per trip must be at least 1, and max at least min." );
+		}
+		this.minLinksPerTrip = min;
+		this.maxLinksPerTrip = max;
+		return this;
+	}
+
+	/**
+	 * The first trip of every vehicle starts at a random time between these.
+	 */
+	public SyntheticEventsGenerator setFirstDepartureTimes( double start, double end ) {
+		if ( start < 0. || end < start ) {
+			throw new IllegalArgumentException( "The first departure times must not be negative, and end at least start." );
+		}
+		this.firstDepartureStart = start;
+		this.firstDepartureEnd = end;
+		return this;
+	}
+
+	/**
+	 * The time between the trips of a vehicle, i.e. its parking duration, is random between these.
+	 */
+	public SyntheticEventsGenerator setActivityDurations( double min, double max ) {
+		if ( min < 0. || max < min ) {
+			throw new IllegalArgumentException( "The activity durations must not be negative, and max at least min." );
+		}
+		this.minActivityDuration = min;
+		this.maxActivityDuration = max;
+		return this;
+	}
+
+	/**
+	 * @return the synthetic vehicles, with their types, in a new container.
+	 */
+	public Vehicles createVehicles() {
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		for ( VehicleType type : vehicleTypes ) {
+			vehicles.addVehicleType( type );
+		}
+		int[] types = drawVehicleTypes();
+		for ( int vv = 0; vv < numberOfVehicles; vv++ ) {
+			vehicles.addVehicle( VehicleUtils.createVehicle( Id.createVehicleId( VEHICLE_ID_PREFIX + vv ), vehicleTypes[types[vv]] ) );
+		}
+		return vehicles;
+	}
+
+	private int[] drawVehicleTypes() {
+		SplittableRandom random = new SplittableRandom( seed );
+		int[] types = new int[numberOfVehicles];
+		for ( int vv = 0; vv < numberOfVehicles; vv++ ) {
+			double draw = random.nextDouble();
+			int tt = 0;
+			while ( tt < cumulativeTypeShares.length - 1 && draw >= cumulativeTypeShares[tt] ) {
+				tt++;
+			}
+			types[vv] = tt;
+		}
+		return types;
+	}
+
+	/**
+	 * Writes the events to an xml events file.
+	 *
+	 * @return the number of events.
+	 */
+	public long writeFile( String eventsFile ) {
+		EventWriterXML writer = new EventWriterXML( eventsFile );
+		try {
+			return generate( writer::handleEvent );
+		} finally {
+			writer.closeFile();
+		}
+	}
+
+	/**
+	 * Passes the events to {@link EventsManager#processEvent}.
+	 *
+	 * @return the number of events.
+	 */
+	public long generate( EventsManager eventsManager ) {
+		return generate( eventsManager::processEvent );
+	}
+
+	/**
+	 * @return the number of events.
+	 */
+	public long generate( Consumer<Event> sink ) {
+		long start = System.nanoTime();
+		int[] types = drawVehicleTypes();
+		// another stream than the types, so that the types do not depend on the trips:
+		SplittableRandom random = new SplittableRandom( seed ).split();
+
+		List<Id<Vehicle>> vehicleIds = new ArrayList<>( numberOfVehicles );
+		List<Id<Person>> personIds = new ArrayList<>( numberOfVehicles );
+		double[] nextTimes = new double[numberOfVehicles];
+		int[] currentLinks = new int[numberOfVehicles];
+		int[] remainingLinks = new int[numberOfVehicles];
+		int[] remainingTrips = new int[numberOfVehicles];
+		VehicleHeap heap = new VehicleHeap( nextTimes );
+		for ( int vv = 0; vv < numberOfVehicles; vv++ ) {
+			vehicleIds.add( Id.createVehicleId( VEHICLE_ID_PREFIX + vv ) );
+			personIds.add( Id.createPersonId( VEHICLE_ID_PREFIX + vv ) );
+			currentLinks[vv] = random.nextInt( links.length );
+			remainingLinks[vv] = -1; // parked
+			remainingTrips[vv] = tripsPerVehicle;
+			nextTimes[vv] = Math.floor( firstDepartureStart + random.nextDouble() * (firstDepartureEnd - firstDepartureStart) );
+			if ( tripsPerVehicle > 0 ) {
+				heap.add( vv );
+			}
+		}
+
+		long events = 0;
+		long nextLog = LOG_INTERVAL;
+		while ( !heap.isEmpty() ) {
+			int vv = heap.poll();
+			double time = nextTimes[vv];
+			Link link = links[currentLinks[vv]];
+			if ( remainingLinks[vv] < 0 ) {
+				// like the mobsim, the vehicle starts at the end of its link and leaves it one second later:
+				sink.accept( new VehicleEntersTrafficEvent( time, personIds.get( vv ), link.getId(), vehicleIds.get( vv ), TransportMode.car, 1.0 ) );
+				events++;
+				remainingLinks[vv] = minLinksPerTrip - 1 + random.nextInt( maxLinksPerTrip - minLinksPerTrip + 1 );
+				nextTimes[vv] = time + 1.;
+				heap.add( vv );
+			} else if ( remainingLinks[vv] > 0 && nextLinks[currentLinks[vv]].length > 0 ) {
+				int[] candidates = nextLinks[currentLinks[vv]];
+				int next = candidates[random.nextInt( candidates.length )];
+				sink.accept( new LinkLeaveEvent( time, vehicleIds.get( vv ), link.getId() ) );
+				sink.accept( new LinkEnterEvent( time, vehicleIds.get( vv ), links[next].getId() ) );
+				events += 2;
+				currentLinks[vv] = next;
+				remainingLinks[vv]--;
+				nextTimes[vv] = time + getTravelTime( next, types[vv], random );
+				heap.add( vv );
+			} else {
+				sink.accept( new VehicleLeavesTrafficEvent( time, personIds.get( vv ), link.getId(), vehicleIds.get( vv ), TransportMode.car, 1.0 ) );
+				events++;
+				remainingLinks[vv] = -1;
+				remainingTrips[vv]--;
+				if ( remainingTrips[vv] > 0 ) {
+					nextTimes[vv] = time + Math.floor( minActivityDuration + random.nextDouble() * (maxActivityDuration - minActivityDuration) );
+					heap.add( vv );
+				}
+			}
+			if ( events >= nextLog ) {
+				log.info( "{} events, at time {}", events, time );
+				nextLog += LOG_INTERVAL;
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		log.info( "--------------------- SYNTHETIC EVENTS -------------------" );
+		log.info( "vehicles: {}, trips per vehicle: {}, links: {}, vehicle types: {}", numberOfVehicles, tripsPerVehicle, links.length, vehicleTypes.length );
+		log.info( "events: {} in {} s ({} events/s)", events, String.format( "%.1f", seconds ), String.format( "%.0f", events / Math.max( seconds, 1e-9 ) ) );
+		log.info( "-----------------------------------------------------------" );
+		return events;
+	}
+
+	/**
+	 * @return whole seconds, at least 1.
+	 */
+	private double getTravelTime( int linkPosition, int type, SplittableRandom random ) {
+		Link link = links[linkPosition];
+		double speed_ms;
+		if ( index == null ) {
+			speed_ms = link.getFreespeed() * (0.5 + 0.5 * random.nextDouble());
+		} else {
+			speed_ms = link.getFreespeed();
+			int situation = trafficSituations[drawTrafficSituation( random )];
+			int row = typeSegments[type] < 0 ? -1 : index.getWarmRow( typeSegments[type], linkRoadTypes[linkPosition], gradient );
+			if ( row >= 0 && situation >= 0 ) {
+				double situationSpeed_kmh = index.getWarmSpeed( row, situation );
+				if ( !Double.isNaN( situationSpeed_kmh ) && situationSpeed_kmh > 0. ) {
+					speed_ms = Math.min( speed_ms, situationSpeed_kmh / 3.6 );
+				}
+			}
+		}
+		return Math.max( 1., Math.ceil( link.getLength() / speed_ms ) );
+	}
+
+	private static int drawTrafficSituation( SplittableRandom random ) {
+		double draw = random.nextDouble();
+		int ss = 0;
+		while ( ss < TRAFFIC_SITUATION_SHARES.length - 1 && draw >= TRAFFIC_SITUATION_SHARES[ss] ) {
+			draw -= TRAFFIC_SITUATION_SHARES[ss];
+			ss++;
+		}
+		return ss;
+	}
+
+	/**
+	 * A binary min-heap of vehicle indices by their next event time, and by index for the same time, so that the order of
+	 * the events is deterministic.
+	 */
+	private static final class VehicleHeap {
+		private final double[] times;
+		private int[] heap = new int[16];
+		private int size = 0;
+
+		VehicleHeap( double[] times ) {
+			this.times = times;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add( int vehicle ) {
+			if ( size == heap.length ) {
+				heap = Arrays.copyOf( heap, 2 * size );
+			}
+			int position = size++;
+			while ( position > 0 ) {
+				int parent = (position - 1) / 2;
+				if ( !before( vehicle, heap[parent] ) ) {
+					break;
+				}
+				heap[position] = heap[parent];
+				position = parent;
+			}
+			heap[position] = vehicle;
+		}
+
+		int poll() {
+			int first = heap[0];
+			int last = heap[--size];
+			int position = 0;
+			while ( 2 * position + 1 < size ) {
+				int child = 2 * position + 1;
+				if ( child + 1 < size && before( heap[child + 1], heap[child] ) ) {
+					child++;
+				}
+				if ( !before( heap[child], last ) ) {
+					break;
+				}
+				heap[position] = heap[child];
+				position = child;
+			}
+			heap[position] = last;
+			return first;
+		}
+
+		private boolean before( int a, int b ) {
+			return times[a] < times[b] || (times[a] == times[b] && a < b);
+		}
+	}
+
+	public static void main( String[] args ) {
+		int numberOfVehicles = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+		int tripsPerVehicle = args.length > 1 ? Integer.parseInt( args[1] ) : 3;
+		long seed = args.length > 2 ? Long.parseLong( args[2] ) : 4711;
+		String outputDirectory = args.length > 3 ? args[3] : "output/synthetic/";
+		if ( !outputDirectory.endsWith( "/" ) ) {
+			outputDirectory += "/";
+		}
+
+		// the network, vehicles and HBEFA tables of the sample scenario:
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+		HbefaEmissionFactorIndex index = OfflineEmissionsUtils.loadAverageHbefaIndex( config );
+
+		SyntheticEventsGenerator generator = new SyntheticEventsGenerator( scenario.getNetwork(), scenario.getVehicles(), index, seed )
+				.setNumberOfVehicles( numberOfVehicles )
+				.setTripsPerVehicle( tripsPerVehicle );
+		try {
+			Files.createDirectories( Paths.get( outputDirectory ) );
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		generator.writeFile( outputDirectory + "synthetic.events.xml.gz" );
+		new MatsimVehicleWriter( generator.createVehicles() ).writeFile( outputDirectory + "synthetic.vehicles.xml.gz" );
+		log.info( "Output written to {}", outputDirectory );
+	}
+
+}
@@ -0,0 +1,447 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.utils.eventsfilecomparison.EventsFileComparator;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Compares xml events files like {@link EventsFileComparator}, i.e. the events of every time step as a multiset, but
+ * streaming: both files are parsed at the same time, on threads of their own, into time steps, which are compared as
+ * they come and dropped afterwards.  The memory needed is hence bounded by a few time steps, and the comparison stops at
+ * the first difference, with the time step and the events that differ.
+ * <p>
+ * The events are not turned into {@link org.matsim.api.core.v01.events.Event} objects; an event is the set of its xml
+ * attributes, so custom event types need no mappers.
+ * <p>
+ * Instead of a second events file, the events can be compared to a digest of a reference run (see {@link #writeDigest}):
+ * per time bin, the number of events and a hash over the time steps and their events.  This stops at the first time bin
+ * that differs.
+ * <pre>
+ *   EventsFileStreamComparator compare expected.events.xml.gz actual.events.xml.gz
+ *   EventsFileStreamComparator digest output_events.xml.gz 3600 reference.digest.csv
+ *   EventsFileStreamComparator check output_events.xml.gz reference.digest.csv
+ * </pre>
+ */
+public final class EventsFileStreamComparator {
+	private static final Logger log = LogManager.getLogger( EventsFileStreamComparator.class );
+
+	private static final int QUEUED_TIME_STEPS = 1024;
+	private static final int MAX_REPORTED_EVENTS = 10;
+	private static final String DIGEST_HEADER = "bin;startTime;events;hash";
+
+	private static final TimeStep END = new TimeStep( Double.NaN, Collections.emptyList() );
+
+	private EventsFileStreamComparator() {} // do not instantiate
+
+	public static void main( String[] args ) {
+		Result result;
+		if ( args.length == 3 && "compare".equals( args[0] ) ) {
+			result = compare( args[1], args[2] );
+		} else if ( args.length == 4 && "digest".equals( args[0] ) ) {
+			writeDigest( args[1], Double.parseDouble( args[2] ), args[3] );
+			return;
+		} else if ( args.length == 3 && "check".equals( args[0] ) ) {
+			result = compareToDigest( args[1], args[2] );
+		} else {
+			throw new IllegalArgumentException( "usage: compare <expected events> <actual events> | digest <events> <bin size [s]> <digest file> "
+					+ "| check <events> <digest file>" );
+		}
+		if ( !result.isEqual() ) {
+			System.exit( 1 );
+		}
+	}
+
+	public static Result compare( String expectedFile, String actualFile ) {
+		long start = System.nanoTime();
+		try ( TimeStepReader expected = new TimeStepReader( expectedFile ); TimeStepReader actual = new TimeStepReader( actualFile ) ) {
+			long events = 0;
+			while ( true ) {
+				TimeStep expectedStep = expected.next();
+				TimeStep actualStep = actual.next();
+				if ( expectedStep == END || actualStep == END ) {
+					if ( expectedStep != actualStep ) {
+						TimeStep remaining = expectedStep == END ? actualStep : expectedStep;
+						return report( EventsFileComparator.Result.DIFFERENT_NUMBER_OF_TIMESTEPS, remaining.time,
+								(expectedStep == END ? expectedFile : actualFile) + " ends before time step " + remaining.time );
+					}
+					log.info( "{} events are equal; compared in {} s.", events, String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+					return new Result( EventsFileComparator.Result.FILES_ARE_EQUAL, Double.NaN, "" );
+				}
+				if ( expectedStep.time != actualStep.time ) {
+					return report( EventsFileComparator.Result.DIFFERENT_TIMESTEPS, Math.min( expectedStep.time, actualStep.time ),
+							"time step " + expectedStep.time + " expected, but " + actualStep.time + " found" );
+				}
+				if ( expectedStep.events.size() != actualStep.events.size() ) {
+					return report( EventsFileComparator.Result.WRONG_EVENT_COUNT, expectedStep.time, expectedStep.events.size()
+							+ " events expected, but " + actualStep.events.size() + " found" + describeDifference( expectedStep, actualStep ) );
+				}
+				String difference = describeDifference( expectedStep, actualStep );
+				if ( !difference.isEmpty() ) {
+					return report( EventsFileComparator.Result.MISSING_EVENT, expectedStep.time, "other events" + difference );
+				}
+				events += expectedStep.events.size();
+			}
+		}
+	}
+
+	/**
+	 * @return the events that are only in one of the time steps, or an empty string if there are none
+	 */
+	private static String describeDifference( TimeStep expected, TimeStep actual ) {
+		Map<String, Integer> counts = new HashMap<>();
+		for ( String event : expected.events ) {
+			counts.merge( event, 1, Integer::sum );
+		}
+		for ( String event : actual.events ) {
+			counts.merge( event, -1, Integer::sum );
+		}
+		List<String> missing = new ArrayList<>();
+		List<String> unexpected = new ArrayList<>();
+		counts.forEach( ( event, count ) -> {
+			for ( int ii = 0; ii < Math.abs( count ); ii++ ) {
+				(count > 0 ? missing : unexpected).add( event );
+			}
+		} );
+		if ( missing.isEmpty() && unexpected.isEmpty() ) {
+			return "";
+		}
+		Collections.sort( missing );
+		Collections.sort( unexpected );
+		return "; missing: " + missing.subList( 0, Math.min( missing.size(), MAX_REPORTED_EVENTS ) )
+				+ "; unexpected: " + unexpected.subList( 0, Math.min( unexpected.size(), MAX_REPORTED_EVENTS ) );
+	}
+
+	private static Result report( EventsFileComparator.Result code, double time, String message ) {
+		log.warn( "{} at time {}: {}", code, time, message );
+		return new Result( code, time, message );
+	}
+
+	// ---
+
+	/**
+	 * Writes the number of events and a hash of every time bin that has events.
+	 */
+	public static void writeDigest( String eventsFile, double binSize, String digestFile ) {
+		try ( TimeStepReader reader = new TimeStepReader( eventsFile ); BufferedWriter writer = IOUtils.getBufferedWriter( digestFile ) ) {
+			writer.write( "# events digest of " + eventsFile + "; binSize=" + binSize );
+			writer.newLine();
+			writer.write( DIGEST_HEADER );
+			writer.newLine();
+			Bin bin;
+			while ( (bin = readBin( reader, binSize )) != null ) {
+				writer.write( bin.toString( binSize ) );
+				writer.newLine();
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	public static Result compareToDigest( String eventsFile, String digestFile ) {
+		List<String> expectedBins = new ArrayList<>();
+		double binSize = Double.NaN;
+		try ( BufferedReader reader = IOUtils.getBufferedReader( digestFile ) ) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				if ( line.startsWith( "#" ) && line.contains( "binSize=" ) ) {
+					binSize = Double.parseDouble( line.substring( line.lastIndexOf( "binSize=" ) + "binSize=".length() ).trim() );
+				} else if ( !line.isBlank() && !line.equals( DIGEST_HEADER ) ) {
+					expectedBins.add( line );
+				}
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		if ( Double.isNaN( binSize ) ) {
+			throw new IllegalArgumentException( digestFile + " has no binSize" );
+		}
+
+		try ( TimeStepReader reader = new TimeStepReader( eventsFile ) ) {
+			for ( String expected : expectedBins ) {
+				Bin bin = readBin( reader, binSize );
+				String[] fields = expected.split( ";" );
+				double startTime = Double.parseDouble( fields[1] );
+				if ( bin == null ) {
+					return report( EventsFileComparator.Result.DIFFERENT_NUMBER_OF_TIMESTEPS, startTime, eventsFile + " ends before time bin " + expected );
+				}
+				String actual = bin.toString( binSize );
+				if ( !actual.equals( expected ) ) {
+					EventsFileComparator.Result code;
+					if ( startTime != bin.index * binSize ) {
+						code = EventsFileComparator.Result.DIFFERENT_TIMESTEPS;
+					} else if ( Long.parseLong( fields[2] ) != bin.events ) {
+						code = EventsFileComparator.Result.WRONG_EVENT_COUNT;
+					} else {
+						code = EventsFileComparator.Result.MISSING_EVENT;
+					}
+					return report( code, Math.min( startTime, bin.index * binSize ), "time bin " + expected + " expected, but " + actual + " found" );
+				}
+			}
+			Bin extra = readBin( reader, binSize );
+			if ( extra != null ) {
+				return report( EventsFileComparator.Result.DIFFERENT_NUMBER_OF_TIMESTEPS, extra.index * binSize, "time bin " + extra.toString( binSize )
+						+ " is not in " + digestFile );
+			}
+		}
+		return new Result( EventsFileComparator.Result.FILES_ARE_EQUAL, Double.NaN, "" );
+	}
+
+	/**
+	 * @return the next time bin with events, or <code>null</code> at the end of the file.
+	 */
+	private static Bin readBin( TimeStepReader reader, double binSize ) {
+		TimeStep step = reader.peek();
+		if ( step == END ) {
+			return null;
+		}
+		Bin bin = new Bin( (long) Math.floor( step.time / binSize ) );
+		while ( step != END && (long) Math.floor( step.time / binSize ) == bin.index ) {
+			reader.next();
+			// the events of a time step in any order, the time steps in order:
+			long stepHash = mix( Double.doubleToLongBits( step.time ) );
+			for ( String event : step.events ) {
+				stepHash += mix( fnv( event ) );
+			}
+			bin.hash = bin.hash * 0x9E3779B97F4A7C15L + stepHash;
+			bin.events += step.events.size();
+			step = reader.peek();
+		}
+		return bin;
+	}
+
+	private static long fnv( String string ) {
+		long hash = 0xcbf29ce484222325L;
+		for ( int ii = 0; ii < string.length(); ii++ ) {
+			hash ^= string.charAt( ii );
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private static long mix( long value ) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return value ^ (value >>> 31);
+	}
+
+	private static final class Bin {
+		private final long index;
+		private long events = 0;
+		private long hash = 0;
+
+		Bin( long index ) {
+			this.index = index;
+		}
+
+		String toString( double binSize ) {
+			return index + ";" + index * binSize + ";" + events + ";" + Long.toHexString( hash );
+		}
+	}
+
+	// ---
+
+	private static final class TimeStep {
+		private final double time;
+		private final List<String> events;
+
+		TimeStep( double time, List<String> events ) {
+			this.time = time;
+			this.events = events;
+		}
+	}
+
+	/**
+	 * Parses an events file on a thread of its own into time steps, which it queues.  An event is written as its type
+	 * and its other attributes, sorted by name.
+	 */
+	private static final class TimeStepReader extends DefaultHandler implements AutoCloseable {
+		private final String file;
+		private final BlockingQueue<TimeStep> queue = new ArrayBlockingQueue<>( QUEUED_TIME_STEPS );
+		private final Thread thread;
+		private volatile RuntimeException failure = null;
+		private TimeStep peeked = null;
+
+		// on the parser thread:
+		private double time = Double.NaN;
+		private List<String> events = new ArrayList<>();
+
+		TimeStepReader( String file ) {
+			this.file = file;
+			this.thread = new Thread( this::parse, "compare-" + file );
+			this.thread.setDaemon( true );
+			this.thread.start();
+		}
+
+		private void parse() {
+			try ( InputStream in = IOUtils.getInputStream( IOUtils.resolveFileOrResource( file ) ) ) {
+				SAXParserFactory factory = SAXParserFactory.newInstance();
+				factory.setValidating( false );
+				factory.newSAXParser().parse( in, this );
+				if ( !events.isEmpty() ) {
+					queue.put( new TimeStep( time, events ) );
+				}
+			} catch ( IOException | SAXException | ParserConfigurationException | RuntimeException e ) {
+				if ( !(e instanceof Stopped) && !(e.getCause() instanceof Stopped) ) {
+					failure = new RuntimeException( "cannot read " + file, e );
+				}
+			} catch ( InterruptedException e ) {
+				return;
+			}
+			try {
+				queue.put( END );
+			} catch ( InterruptedException e ) {
+				// closed
+			}
+		}
+
+		@Override
+		public void startElement( String uri, String localName, String qName, Attributes attributes ) {
+			if ( !"event".equals( qName ) ) {
+				return;
+			}
+			double eventTime = Double.NaN;
+			String type = null;
+			String[] others = new String[attributes.getLength()];
+			int numberOfOthers = 0;
+			for ( int ii = 0; ii < attributes.getLength(); ii++ ) {
+				String name = attributes.getQName( ii );
+				if ( "time".equals( name ) ) {
+					eventTime = Double.parseDouble( attributes.getValue( ii ) );
+				} else if ( "type".equals( name ) ) {
+					type = attributes.getValue( ii );
+				} else {
+					others[numberOfOthers++] = name + "=" + attributes.getValue( ii );
+				}
+			}
+			if ( eventTime != time && !events.isEmpty() ) {
+				try {
+					queue.put( new TimeStep( time, events ) );
+				} catch ( InterruptedException e ) {
+					throw new Stopped();
+				}
+				events = new ArrayList<>();
+			}
+			time = eventTime;
+			Arrays.sort( others, 0, numberOfOthers );
+			StringBuilder event = new StringBuilder( type == null ? "" : type );
+			for ( int ii = 0; ii < numberOfOthers; ii++ ) {
+				event.append( ' ' ).append( others[ii] );
+			}
+			events.add( event.toString() );
+		}
+
+		TimeStep peek() {
+			if ( peeked == null ) {
+				try {
+					peeked = queue.take();
+				} catch ( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException( e );
+				}
+				if ( peeked == END && failure != null ) {
+					throw failure;
+				}
+			}
+			return peeked;
+		}
+
+		TimeStep next() {
+			TimeStep step = peek();
+			if ( step != END ) {
+				peeked = null;
+			}
+			return step;
+		}
+
+		@Override
+		public void close() {
+			thread.interrupt();
+		}
+	}
+
+	private static final class Stopped extends RuntimeException {
+		Stopped() {
+			super( null, null, false, false );
+		}
+	}
+
+	// ---
+
+	public static final class Result {
+		private final EventsFileComparator.Result code;
+		private final double time;
+		private final String message;
+
+		Result( EventsFileComparator.Result code, double time, String message ) {
+			this.code = code;
+			this.time = time;
+			this.message = message;
+		}
+
+		/**
+		 * @return the result as of {@link EventsFileComparator}
+		 */
+		public EventsFileComparator.Result getCode() {
+			return code;
+		}
+
+		public boolean isEqual() {
+			return code == EventsFileComparator.Result.FILES_ARE_EQUAL;
+		}
+
+		/**
+		 * @return the time step or the start of the time bin of the first difference, or NaN if there is none.
+		 */
+		public double getTime() {
+			return time;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return isEqual() ? code.toString() : code + " at time " + time + ": " + message;
+		}
+	}
+
+}
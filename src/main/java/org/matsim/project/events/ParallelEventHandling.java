@@ -0,0 +1,63 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.groups.ParallelEventHandlingConfigGroup;
+
+/**
+ * Switches the events manager of a {@link org.matsim.core.controler.Controler} run between the serial one and the
+ * parallel one of matsim.  With the parallel one, the event handlers (events writer, travel time calculator, scoring,
+ * analysis) run on their own threads instead of on the QSim thread; every handler still sees all events in order, so
+ * <code>output_events.xml.gz</code> is the same as with the serial one.
+ * <p>
+ * The handlers are partitioned over the threads round robin, or with one thread per handler.  The former suits runs
+ * where few handlers do most of the work; the latter runs with many similar handlers, if there are cores for them.
+ */
+public final class ParallelEventHandling {
+	private static final Logger log = LogManager.getLogger( ParallelEventHandling.class );
+
+	private ParallelEventHandling() {} // do not instantiate
+
+	/**
+	 * @param numberOfThreads threads of the events manager; ignored with <code>oneThreadPerHandler</code>
+	 */
+	public static void configure( Config config, int numberOfThreads, boolean oneThreadPerHandler ) {
+		if ( numberOfThreads < 1 ) {
+			throw new IllegalArgumentException( "the number of events threads must be at least 1, but was " + numberOfThreads );
+		}
+		ParallelEventHandlingConfigGroup pehcg = config.parallelEventHandling();
+		pehcg.setNumberOfThreads( numberOfThreads );
+		pehcg.setOneThreadPerHandler( oneThreadPerHandler );
+		// the QSim must wait for the handlers at the end of each time step, since e.g. the travel times are read back in:
+		pehcg.setSynchronizeOnSimSteps( true );
+		log.info( "Parallel events handling with {}.", oneThreadPerHandler ? "one thread per handler" : numberOfThreads + " threads" );
+	}
+
+	/**
+	 * Switches back to the serial events manager, e.g. for the reference run of a comparison.
+	 */
+	public static void configureSerial( Config config ) {
+		config.parallelEventHandling().setNumberOfThreads( null );
+		config.parallelEventHandling().setOneThreadPerHandler( false );
+	}
+
+}
@@ -0,0 +1,261 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.events;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.groups.ControlerConfigGroup;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an xml events file like {@link MatsimEventsReader}, but in a pipeline of threads:
+ * <ol>
+ *     <li>one thread reads and inflates the file, and cuts the text into chunks of whole lines;</li>
+ *     <li>a pool of parser threads turns each chunk into a list of {@link Event}s;</li>
+ *     <li>the calling thread takes the parsed chunks, in file order, from a bounded queue and passes the events to the
+ *     {@link EventsManager}.</li>
+ * </ol>
+ * The {@link EventsManager} hence sees the same events in the same order, and on the same thread, as with
+ * {@link MatsimEventsReader}.  The bounded queue limits the number of parsed but not yet handled events in memory.
+ * <p>
+ * This relies on the usual layout of MATSim events files, where every <code>event</code> element is on a line of its own.
+ * Only standard event types are supported, i.e. no custom event mappers.
+ */
+public final class PipelinedEventsReader {
+	private static final Logger log = LogManager.getLogger( PipelinedEventsReader.class );
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final byte[] EVENTS_START_TAG = "<events".getBytes( StandardCharsets.UTF_8 );
+	private static final byte[] EVENTS_END_TAG = "</events>".getBytes( StandardCharsets.UTF_8 );
+	private static final byte[] CHUNK_PREFIX = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n".getBytes( StandardCharsets.UTF_8 );
+	private static final byte[] CHUNK_SUFFIX = "\n</events>\n".getBytes( StandardCharsets.UTF_8 );
+
+	private static final Future<List<Event>> END = CompletableFuture.completedFuture( null );
+
+	private final EventsManager eventsManager;
+	private final int numberOfParserThreads;
+	private final int chunkSize;
+
+	private long numberOfEvents = 0;
+	private double eventsPerSecond = Double.NaN;
+	private volatile BlockingQueue<Future<List<Event>>> parsed = null;
+
+	public PipelinedEventsReader( EventsManager eventsManager, int numberOfParserThreads ) {
+		this( eventsManager, numberOfParserThreads, CHUNK_SIZE );
+	}
+
+	/* package, for tests of the chunk boundaries */ PipelinedEventsReader( EventsManager eventsManager, int numberOfParserThreads, int chunkSize ) {
+		if ( numberOfParserThreads < 1 ) {
+			throw new IllegalArgumentException( "need at least one parser thread, but got " + numberOfParserThreads );
+		}
+		this.eventsManager = eventsManager;
+		this.numberOfParserThreads = numberOfParserThreads;
+		this.chunkSize = chunkSize;
+	}
+
+	public void readFile( String filename ) {
+		long start = System.nanoTime();
+		numberOfEvents = 0;
+
+		ExecutorService parsers = Executors.newFixedThreadPool( numberOfParserThreads );
+		BlockingQueue<Future<List<Event>>> parsed = new ArrayBlockingQueue<>( 4 * numberOfParserThreads );
+		this.parsed = parsed;
+		Thread inflater = new Thread( () -> inflate( filename, parsers, parsed ), "events-inflater" );
+		inflater.setDaemon( true );
+		inflater.start();
+
+		try {
+			long nextReport = System.nanoTime() + 10_000_000_000L;
+			Future<List<Event>> future;
+			while ( (future = parsed.take()) != END ) {
+				List<Event> events = future.get();
+				for ( Event event : events ) {
+					eventsManager.processEvent( event );
+				}
+				numberOfEvents += events.size();
+				if ( System.nanoTime() > nextReport ) {
+					log.info( "{} events read, {} events/s", numberOfEvents, (long) (numberOfEvents / ((System.nanoTime() - start) / 1e9)) );
+					nextReport = System.nanoTime() + 10_000_000_000L;
+				}
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof UncheckedIOException ) {
+				throw (UncheckedIOException) e.getCause();
+			}
+			throw new RuntimeException( "could not read " + filename, e.getCause() );
+		} finally {
+			parsers.shutdownNow();
+			inflater.interrupt();
+			this.parsed = null;
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		eventsPerSecond = numberOfEvents / seconds;
+		log.info( "Read {} events from {} in {} s with {} parser threads: {} events/s", numberOfEvents, filename,
+				String.format( "%.1f", seconds ), numberOfParserThreads, (long) eventsPerSecond );
+	}
+
+	/**
+	 * @return the number of chunks that are being parsed or wait for the events manager; may be called from other threads.
+	 * If it stays at its maximum, the events manager is the bottleneck; if it stays near 0, reading and parsing are.
+	 */
+	public int getQueueDepth() {
+		BlockingQueue<Future<List<Event>>> queue = parsed;
+		return queue == null ? 0 : queue.size();
+	}
+
+	public long getNumberOfEvents() {
+		return numberOfEvents;
+	}
+
+	/**
+	 * @return the throughput of the last {@link #readFile(String)}, including the time the {@link EventsManager} needed.
+	 */
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	private void inflate( String filename, ExecutorService parsers, BlockingQueue<Future<List<Event>>> parsed ) {
+		try {
+			try ( InputStream in = IOUtils.getInputStream( IOUtils.resolveFileOrResource( filename ) ) ) {
+				byte[] buffer = new byte[chunkSize];
+				int filled = 0;
+				boolean first = true;
+				boolean eof = false;
+				while ( !eof ) {
+					filled += in.readNBytes( buffer, filled, buffer.length - filled );
+					// readNBytes only returns less than requested at the end of the stream.  If the rest of the file fills the
+					// buffer exactly, this is only noticed at the next, empty read:
+					eof = filled < buffer.length;
+
+					int from = first ? skipPrologue( buffer, filled ) : 0;
+					first = false;
+					int consumed;
+					if ( eof ) {
+						consumed = filled;
+					} else {
+						// cut after the last complete line; the rest goes into the next chunk:
+						consumed = filled;
+						while ( consumed > from && buffer[consumed - 1] != '\n' ) {
+							consumed--;
+						}
+						if ( consumed == from ) {
+							throw new IOException( "found no line break within " + chunkSize + " bytes in " + filename );
+						}
+					}
+					// the end tag is on a line of its own, hence it is in one chunk, which need not be the last one:
+					int to = cutEndTag( buffer, from, consumed );
+					byte[] chunk = Arrays.copyOfRange( buffer, from, to );
+					parsed.put( parsers.submit( () -> parse( chunk ) ) );
+
+					System.arraycopy( buffer, consumed, buffer, 0, filled - consumed );
+					filled -= consumed;
+				}
+			}
+			parsed.put( END );
+		} catch ( InterruptedException e ) {
+			// the consumer has stopped
+		} catch ( IOException | RuntimeException e ) {
+			CompletableFuture<List<Event>> failed = new CompletableFuture<>();
+			failed.completeExceptionally( e instanceof IOException ? new UncheckedIOException( (IOException) e ) : e );
+			try {
+				parsed.put( failed );
+			} catch ( InterruptedException ee ) {
+				// the consumer has stopped
+			}
+		}
+	}
+
+	private static List<Event> parse( byte[] chunk ) {
+		if ( chunk.length == 0 ) {
+			return Collections.emptyList();
+		}
+		List<Event> events = new ArrayList<>();
+		EventsManager collector = EventsUtils.createEventsManager();
+		collector.addHandler( (BasicEventHandler) events::add );
+		InputStream stream = new SequenceInputStream( Collections.enumeration( Arrays.asList(
+				new ByteArrayInputStream( CHUNK_PREFIX ), new ByteArrayInputStream( chunk ), new ByteArrayInputStream( CHUNK_SUFFIX ) ) ) );
+		new MatsimEventsReader( collector ).readStream( stream, ControlerConfigGroup.EventsFileFormat.xml );
+		return events;
+	}
+
+	/**
+	 * @return the position after the <code>&lt;events ...&gt;</code> start tag.
+	 */
+	private static int skipPrologue( byte[] buffer, int length ) throws IOException {
+		int start = indexOf( buffer, 0, length, EVENTS_START_TAG );
+		if ( start < 0 ) {
+			throw new IOException( "no <events> element at the start of the file" );
+		}
+		for ( int ii = start; ii < length; ii++ ) {
+			if ( buffer[ii] == '>' ) {
+				return ii + 1;
+			}
+		}
+		throw new IOException( "unterminated <events> start tag" );
+	}
+
+	/**
+	 * @return the position of the <code>&lt;/events&gt;</code> end tag, or <code>length</code> if there is none.
+	 */
+	private static int cutEndTag( byte[] buffer, int from, int length ) {
+		int end = indexOf( buffer, from, length, EVENTS_END_TAG );
+		return end < 0 ? length : end;
+	}
+
+	private static int indexOf( byte[] buffer, int from, int length, byte[] pattern ) {
+		outer:
+		for ( int ii = from; ii <= length - pattern.length; ii++ ) {
+			for ( int jj = 0; jj < pattern.length; jj++ ) {
+				if ( buffer[ii + jj] != pattern[jj] ) {
+					continue outer;
+				}
+			}
+			return ii;
+		}
+		return -1;
+	}
+
+}
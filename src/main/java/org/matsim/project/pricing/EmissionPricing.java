@@ -0,0 +1,107 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.pricing;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.roadpricing.RoadPricingModule;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+
+/**
+ * Feeds an {@link EmissionTollTable} from the events of every iteration, and updates it at the end of the iteration.
+ * As in {@link org.matsim.project.emissions.OnlineEmissions}, the events are passed on to an {@link EmissionModule} with
+ * an events manager of its own, on which the toll table is the only other handler; the emission events hence neither go
+ * into the run's events files nor reach the run's other handlers.
+ * <p>
+ * The {@link EmissionModule} is only created, and the HBEFA tables are only read, at the first iteration.
+ */
+public final class EmissionPricing implements BasicEventHandler, IterationStartsListener, IterationEndsListener {
+
+	private final Scenario scenario;
+	private final EmissionTollTable tollTable;
+
+	private EventsManager emissionEventsManager;
+
+	public EmissionPricing( Scenario scenario, EmissionTollTable tollTable ) {
+		this.scenario = scenario;
+		this.tollTable = tollTable;
+	}
+
+	/**
+	 * Adds the emission tolls to a controler: the toll table as the scheme of the road pricing, fed by an emission pricing.
+	 * To be called after the scenario is loaded, so that the table covers all links.
+	 */
+	public static void install( Controler controler ) {
+		EmissionTollTable tollTable = new EmissionTollTable( ConfigUtils.addOrGetModule( controler.getConfig(), EmissionPricingConfigGroup.class ) );
+		EmissionPricing emissionPricing = new EmissionPricing( controler.getScenario(), tollTable );
+		controler.addOverridingModule( new RoadPricingModule( tollTable ) );
+		controler.addOverridingModule( new AbstractModule(){
+			@Override
+			public void install(){
+				addEventHandlerBinding().toInstance( emissionPricing );
+				addControlerListenerBinding().toInstance( emissionPricing );
+			}
+		} );
+	}
+
+	@Override
+	public void notifyIterationStarts( IterationStartsEvent event ) {
+		if ( emissionEventsManager == null ) {
+			emissionEventsManager = EventsUtils.createEventsManager();
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( emissionEventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			// the EmissionModule adds its handlers to the events manager:
+			Injector.createInjector( scenario.getConfig(), module ).getInstance( EmissionModule.class );
+			emissionEventsManager.addHandler( tollTable );
+		}
+		emissionEventsManager.resetHandlers( event.getIteration() );
+		emissionEventsManager.initProcessing();
+	}
+
+	@Override
+	public void handleEvent( Event event ) {
+		if ( emissionEventsManager != null ) {
+			emissionEventsManager.processEvent( event );
+		}
+	}
+
+	@Override
+	public void notifyIterationEnds( IterationEndsEvent event ) {
+		emissionEventsManager.finishProcessing();
+		tollTable.update();
+	}
+
+}
@@ -0,0 +1,144 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.pricing;
+
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Map;
+
+/**
+ * Settings of the {@link EmissionTollTable}.  Can be set in the config file or from the command line, e.g.
+ * <code>--config:emissionPricing.costRates CO2_TOTAL=0.0002,NOx=0.02</code>.
+ */
+public final class EmissionPricingConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "emissionPricing";
+
+	private static final String TIME_BIN_SIZE = "timeBinSize";
+	private static final String END_TIME = "endTime";
+	private static final String COST_RATES = "costRates";
+	private static final String TOLL_FACTOR = "tollFactor";
+	private static final String LEARNING_RATE = "learningRate";
+
+	private double timeBinSize = 3600.;
+	private double endTime = 30 * 3600.;
+	private String costRates = "CO2_TOTAL=0.0002,NOx=0.0156,PM=0.1142";
+	private double tollFactor = 1.;
+	private double learningRate = 1.;
+
+	public EmissionPricingConfigGroup() {
+		super( GROUP_NAME );
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put( TIME_BIN_SIZE, "Time bin size [s] of the tolls.  Default: 3600." );
+		map.put( END_TIME, "End time [s] of the last time bin of the tolls.  Later emissions and trips are not counted, and there are no tolls "
+				+ "after it.  Default: 108000 (30h)." );
+		map.put( COST_RATES, "Comma-separated costs per g of pollutant, in money units, e.g. 'CO2_TOTAL=0.0002,NOx=0.0156'.  "
+				+ "Pollutants without a rate cost nothing.  Default: CO2_TOTAL=0.0002,NOx=0.0156,PM=0.1142." );
+		map.put( TOLL_FACTOR, "Factor on the emission costs of a link traversal, e.g. to internalize only a part of them.  Default: 1." );
+		map.put( LEARNING_RATE, "Weight of the last iteration's emission costs in the tolls; the rest is the tolls so far.  "
+				+ "1 means the tolls of the last iteration only, smaller values damp oscillations.  Default: 1." );
+		return map;
+	}
+
+	@StringGetter( TIME_BIN_SIZE )
+	public double getTimeBinSize() {
+		return timeBinSize;
+	}
+
+	@StringSetter( TIME_BIN_SIZE )
+	public void setTimeBinSize( double timeBinSize ) {
+		if ( timeBinSize <= 0. ) {
+			throw new IllegalArgumentException( TIME_BIN_SIZE + " must be positive, but was " + timeBinSize );
+		}
+		this.timeBinSize = timeBinSize;
+	}
+
+	@StringGetter( END_TIME )
+	public double getEndTime() {
+		return endTime;
+	}
+
+	@StringSetter( END_TIME )
+	public void setEndTime( double endTime ) {
+		if ( endTime <= 0. ) {
+			throw new IllegalArgumentException( END_TIME + " must be positive, but was " + endTime );
+		}
+		this.endTime = endTime;
+	}
+
+	@StringGetter( COST_RATES )
+	public String getCostRatesAsString() {
+		return costRates;
+	}
+
+	@StringSetter( COST_RATES )
+	public void setCostRates( String costRates ) {
+		this.costRates = costRates == null ? "" : costRates.trim();
+	}
+
+	/**
+	 * @return the cost per g, by {@link Pollutant#ordinal()}.
+	 */
+	public double[] getCostRates() {
+		double[] rates = new double[Pollutant.values().length];
+		if ( costRates.isEmpty() ) {
+			return rates;
+		}
+		for ( String entry : costRates.split( "," ) ) {
+			String[] parts = entry.split( "=" );
+			if ( parts.length != 2 ) {
+				throw new IllegalArgumentException( "Cannot parse the cost rate '" + entry + "'; expected e.g. NOx=0.0156." );
+			}
+			rates[Pollutant.valueOf( parts[0].trim() ).ordinal()] = Double.parseDouble( parts[1].trim() );
+		}
+		return rates;
+	}
+
+	@StringGetter( TOLL_FACTOR )
+	public double getTollFactor() {
+		return tollFactor;
+	}
+
+	@StringSetter( TOLL_FACTOR )
+	public void setTollFactor( double tollFactor ) {
+		if ( tollFactor < 0. ) {
+			throw new IllegalArgumentException( TOLL_FACTOR + " must not be negative, but was " + tollFactor );
+		}
+		this.tollFactor = tollFactor;
+	}
+
+	@StringGetter( LEARNING_RATE )
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	@StringSetter( LEARNING_RATE )
+	public void setLearningRate( double learningRate ) {
+		if ( learningRate <= 0. || learningRate > 1. ) {
+			throw new IllegalArgumentException( LEARNING_RATE + " must be in (0, 1], but was " + learningRate );
+		}
+		this.learningRate = learningRate;
+	}
+
+}
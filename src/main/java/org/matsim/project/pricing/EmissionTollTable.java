@@ -0,0 +1,239 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.pricing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.ColdEmissionEventHandler;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEventHandler;
+import org.matsim.contrib.roadpricing.RoadPricingScheme;
+import org.matsim.contrib.roadpricing.RoadPricingSchemeImpl;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link RoadPricingScheme} of link tolls per time bin, from the emissions of the previous iteration: the toll of a
+ * link in a time bin is the cost of the emissions on the link in that bin (grams times the cost rates of the
+ * {@link EmissionPricingConfigGroup}) divided by the number of vehicles that left the link in that bin.  The emissions
+ * and the vehicles are binned by the time of their events, i.e. when the vehicles leave the link.  There are no tolls
+ * after the {@link EmissionPricingConfigGroup#getEndTime() end time}: emissions and traffic after it are not counted,
+ * and links have no toll then.
+ * <p>
+ * Everything is kept in arrays by <code>link {@link Id#index() index} * time bins + time bin</code>, and the toll of
+ * every tolled cell is a ready {@link RoadPricingSchemeImpl.Cost}, so that a toll lookup of the router is two array
+ * reads, without maps or allocations.  At the end of an iteration, only the cells that had traffic in the iteration or
+ * had a toll before are updated, with the {@link EmissionPricingConfigGroup#getLearningRate() learning rate}.
+ * <p>
+ * It is fed and updated by an {@link EmissionPricing}, which also makes it the scheme of the road pricing.
+ */
+public final class EmissionTollTable implements RoadPricingScheme, WarmEmissionEventHandler, ColdEmissionEventHandler, LinkLeaveEventHandler {
+	private static final Logger log = LogManager.getLogger( EmissionTollTable.class );
+
+	/**
+	 * Smaller tolls are dropped, so that the tolls of cells without traffic do not decay forever.
+	 */
+	static final double MIN_TOLL = 1e-6;
+
+	private final double timeBinSize;
+	private final int numberOfTimeBins;
+	private final int numberOfLinks;
+	private final double[] costRates;
+	private final double tollFactor;
+	private final double learningRate;
+
+	// by cell, for the current iteration:
+	private final double[] costs;
+	private final int[] traversals;
+	private final BitSet cellsWithTraffic = new BitSet();
+
+	// by cell, the tolls so far:
+	private final double[] tolls;
+	private final RoadPricingSchemeImpl.Cost[] tollCosts;
+	private final BitSet tolledCells = new BitSet();
+	private Set<Id<Link>> tolledLinkIds = Collections.emptySet();
+
+	private int currentCell;
+	private final BiConsumer<Pollutant, Double> adder = ( pollutant, grams ) -> costs[currentCell] += costRates[pollutant.ordinal()] * grams;
+
+	public EmissionTollTable( EmissionPricingConfigGroup config ) {
+		this.timeBinSize = config.getTimeBinSize();
+		this.numberOfTimeBins = (int) Math.ceil( config.getEndTime() / timeBinSize );
+		this.numberOfLinks = Math.max( 1, Id.getNumberOfIds( Link.class ) );
+		this.costRates = config.getCostRates();
+		this.tollFactor = config.getTollFactor();
+		this.learningRate = config.getLearningRate();
+		long numberOfCells = (long) numberOfLinks * numberOfTimeBins;
+		if ( numberOfCells > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( numberOfLinks + " links x " + numberOfTimeBins + " time bins are too many; use larger time bins." );
+		}
+		this.costs = new double[(int) numberOfCells];
+		this.traversals = new int[(int) numberOfCells];
+		this.tolls = new double[(int) numberOfCells];
+		this.tollCosts = new RoadPricingSchemeImpl.Cost[(int) numberOfCells];
+	}
+
+	/**
+	 * @return the cell of a link and time, or -1 for links that were created after this table and for times after the end
+	 * of the last time bin.
+	 */
+	private int cell( Id<Link> linkId, double time ) {
+		int linkIndex = linkId.index();
+		int timeBin = Math.max( 0, (int) (time / timeBinSize) );
+		if ( linkIndex >= numberOfLinks || timeBin >= numberOfTimeBins ) {
+			return -1;
+		}
+		return linkIndex * numberOfTimeBins + timeBin;
+	}
+
+	@Override
+	public void handleEvent( WarmEmissionEvent event ) {
+		currentCell = cell( event.getLinkId(), event.getTime() );
+		if ( currentCell >= 0 ) {
+			event.getWarmEmissions().forEach( adder );
+		}
+	}
+
+	@Override
+	public void handleEvent( ColdEmissionEvent event ) {
+		currentCell = cell( event.getLinkId(), event.getTime() );
+		if ( currentCell >= 0 ) {
+			event.getColdEmissions().forEach( adder );
+		}
+	}
+
+	@Override
+	public void handleEvent( LinkLeaveEvent event ) {
+		int cell = cell( event.getLinkId(), event.getTime() );
+		if ( cell >= 0 ) {
+			traversals[cell]++;
+			cellsWithTraffic.set( cell );
+		}
+	}
+
+	/**
+	 * Moves the tolls towards the emission costs of the iteration, and starts the next one.
+	 */
+	void update() {
+		BitSet cells = (BitSet) cellsWithTraffic.clone();
+		cells.or( tolledCells );
+		double sum = 0.;
+		double max = 0.;
+		for ( int cell = cells.nextSetBit( 0 ); cell >= 0; cell = cells.nextSetBit( cell + 1 ) ) {
+			double latest = traversals[cell] > 0 ? tollFactor * costs[cell] / traversals[cell] : 0.;
+			tolls[cell] = (1. - learningRate) * tolls[cell] + learningRate * latest;
+			if ( tolls[cell] >= MIN_TOLL ) {
+				int timeBin = cell % numberOfTimeBins;
+				tollCosts[cell] = new RoadPricingSchemeImpl.Cost( timeBin * timeBinSize, (timeBin + 1) * timeBinSize, tolls[cell] );
+				tolledCells.set( cell );
+				sum += tolls[cell] * traversals[cell];
+				max = Math.max( max, tolls[cell] );
+			} else {
+				tolls[cell] = 0.;
+				tollCosts[cell] = null;
+				tolledCells.clear( cell );
+			}
+			costs[cell] = 0.;
+			traversals[cell] = 0;
+		}
+		cellsWithTraffic.clear();
+
+		Set<Id<Link>> linkIds = new HashSet<>();
+		for ( int cell = tolledCells.nextSetBit( 0 ); cell >= 0; cell = tolledCells.nextSetBit( cell + 1 ) ) {
+			linkIds.add( Id.get( cell / numberOfTimeBins, Link.class ) );
+		}
+		tolledLinkIds = Collections.unmodifiableSet( linkIds );
+		log.info( "Emission tolls: {} links with {} tolled time bins, {} cells updated; max toll {}, tolls of the last iteration's traffic {}",
+				tolledLinkIds.size(), tolledCells.cardinality(), cells.cardinality(), max, sum );
+	}
+
+	/**
+	 * @return the toll of a link in the time bin of the given time; 0 for links without a toll and after the end time.
+	 */
+	public double getToll( Id<Link> linkId, double time ) {
+		int cell = cell( linkId, time );
+		return cell < 0 ? 0. : tolls[cell];
+	}
+
+	@Override
+	public String getName() {
+		return "emission tolls";
+	}
+
+	@Override
+	public String getType() {
+		return RoadPricingScheme.TOLL_TYPE_LINK;
+	}
+
+	@Override
+	public String getDescription() {
+		return "link tolls from the emission costs of the previous iteration";
+	}
+
+	@Override
+	public Set<Id<Link>> getTolledLinkIds() {
+		return tolledLinkIds;
+	}
+
+	@Override
+	public RoadPricingSchemeImpl.Cost getLinkCostInfo( Id<Link> linkId, double time, Id<Person> personId, Id<Vehicle> vehicleId ) {
+		return getTypicalLinkCostInfo( linkId, time );
+	}
+
+	@Override
+	public RoadPricingSchemeImpl.Cost getTypicalLinkCostInfo( Id<Link> linkId, double time ) {
+		int cell = cell( linkId, time );
+		return cell < 0 ? null : tollCosts[cell];
+	}
+
+	@Override
+	public Iterable<RoadPricingSchemeImpl.Cost> getTypicalCosts() {
+		List<RoadPricingSchemeImpl.Cost> result = new ArrayList<>();
+		for ( int cell = tolledCells.nextSetBit( 0 ); cell >= 0; cell = tolledCells.nextSetBit( cell + 1 ) ) {
+			result.add( tollCosts[cell] );
+		}
+		return result;
+	}
+
+	@Override
+	public Map<Id<Link>, List<RoadPricingSchemeImpl.Cost>> getTypicalCostsForLink() {
+		Map<Id<Link>, List<RoadPricingSchemeImpl.Cost>> result = new LinkedHashMap<>();
+		for ( int cell = tolledCells.nextSetBit( 0 ); cell >= 0; cell = tolledCells.nextSetBit( cell + 1 ) ) {
+			result.computeIfAbsent( Id.get( cell / numberOfTimeBins, Link.class ), linkId -> new ArrayList<>() ).add( tollCosts[cell] );
+		}
+		return result;
+	}
+
+}
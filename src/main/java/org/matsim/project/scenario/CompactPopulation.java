@@ -0,0 +1,689 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.core.replanning.selectors.RandomPlanSelector;
+import org.matsim.core.router.StageActivityTypeIdentifier;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link Population} that keeps only the selected plan of every person as plan objects.  The other plans are packed:
+ * their elements are written as primitives, with ids as their {@link Id#index()} and strings (activity types, modes,
+ * attribute names) as numbers of a table shared by the population, and deflated into one byte array per person.  They
+ * are expanded into plan objects again when {@link Person#getPlans()} is called for the first time, which replanning
+ * and writing the population do.  The mode hence suits jobs that mostly look at the selected plans, and it keeps the
+ * heap small while the population is read.
+ * <p>
+ * Persons with one plan, and persons with plan elements or attribute values other than activities, legs, strings,
+ * numbers and booleans, are kept as they are.
+ * <p>
+ * Enabled by <code>scenarioLoading.compactPopulation</code>: the {@link ParallelScenarioLoader} then reads the plans
+ * file into a compact population, or compacts the population after reading it.  It logs the size of the packed plans
+ * and an estimate of the size of the same plans as objects.
+ */
+public final class CompactPopulation implements Population {
+	private static final Logger log = LogManager.getLogger( CompactPopulation.class );
+
+	private static final byte ACTIVITY = 0;
+	private static final byte LEG = 1;
+
+	private static final byte STRING = 0;
+	private static final byte DOUBLE = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte BOOLEAN = 4;
+
+	// estimated sizes of the plan objects on a 64 bit JVM with compressed references, including their attributes and
+	// (for activities) coordinates; list entries and attribute entries come on top:
+	private static final int PLAN_BYTES = 120;
+	private static final int ACTIVITY_BYTES = 128;
+	private static final int LEG_BYTES = 72;
+	private static final int ROUTE_BYTES = 64;
+	private static final int REFERENCE_BYTES = 4;
+	private static final int ATTRIBUTE_BYTES = 40;
+	private static final int ARRAY_HEADER_BYTES = 16;
+
+	private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial( () -> new Deflater( Deflater.BEST_SPEED ) );
+
+	private final Population delegate;
+	private final StringTable strings = new StringTable();
+
+	private final AtomicLong packedPersons = new AtomicLong();
+	private final AtomicLong packedPlans = new AtomicLong();
+	private final AtomicLong packedBytes = new AtomicLong();
+	private final AtomicLong estimatedObjectBytes = new AtomicLong();
+
+	/**
+	 * @param delegate holds the persons and provides the factory; the persons it already has are compacted.
+	 */
+	public CompactPopulation( Population delegate ) {
+		this.delegate = delegate;
+		for ( Person person : new ArrayList<>( delegate.getPersons().values() ) ) {
+			Person compact = pack( person );
+			if ( compact != person ) {
+				delegate.removePerson( person.getId() );
+				delegate.addPerson( compact );
+			}
+		}
+	}
+
+	/**
+	 * Replaces the population of the scenario by a compact one, unless it is compact already, and logs the memory saved.
+	 */
+	public static void compact( Scenario scenario ) {
+		CompactPopulation population;
+		if ( scenario.getPopulation() instanceof CompactPopulation ) {
+			population = (CompactPopulation) scenario.getPopulation();
+		} else {
+			population = new CompactPopulation( scenario.getPopulation() );
+			((MutableScenario) scenario).setPopulation( population );
+		}
+		population.logStatistics();
+	}
+
+	/**
+	 * @return whether the plans of the person other than the selected one are packed.
+	 */
+	public static boolean isPacked( Person person ) {
+		return person instanceof CompactPerson && ((CompactPerson) person).packed != null;
+	}
+
+	/**
+	 * @return the plans of the person, with the selected plan itself and copies of the packed plans, which are not kept.
+	 * Hence, looking at all plans does not expand the person for good.
+	 */
+	public static List<? extends Plan> getPlansWithoutExpanding( Person person ) {
+		if ( !isPacked( person ) ) {
+			return person.getPlans();
+		}
+		CompactPerson compact = (CompactPerson) person;
+		return compact.population.unpack( compact );
+	}
+
+	@Override
+	public void addPerson( Person person ) {
+		delegate.addPerson( pack( person ) );
+	}
+
+	@Override
+	public Person removePerson( Id<Person> personId ) {
+		return delegate.removePerson( personId );
+	}
+
+	@Override
+	public Map<Id<Person>, ? extends Person> getPersons() {
+		return delegate.getPersons();
+	}
+
+	@Override
+	public PopulationFactory getFactory() {
+		return delegate.getFactory();
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+	@Override
+	public void setName( String name ) {
+		delegate.setName( name );
+	}
+
+	@Override
+	public Attributes getAttributes() {
+		return delegate.getAttributes();
+	}
+
+	public long getNumberOfPackedPlans() {
+		return packedPlans.get();
+	}
+
+	/**
+	 * @return the size of the packed plans, in bytes.
+	 */
+	public long getPackedBytes() {
+		return packedBytes.get();
+	}
+
+	/**
+	 * @return an estimate of the size of the packed plans as plan objects, in bytes.
+	 */
+	public long getEstimatedObjectBytes() {
+		return estimatedObjectBytes.get();
+	}
+
+	public void logStatistics() {
+		log.info( "Packed {} plans of {} persons into {} MB, instead of about {} MB as objects; about {} MB saved.", packedPlans.get(),
+				packedPersons.get(), mb( packedBytes.get() ), mb( estimatedObjectBytes.get() ), mb( estimatedObjectBytes.get() - packedBytes.get() ) );
+	}
+
+	private static String mb( long bytes ) {
+		return String.format( "%.1f", bytes / 1024. / 1024. );
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+
+	private Person pack( Person person ) {
+		if ( person instanceof CompactPerson || person.getPlans().size() < 2 || person.getSelectedPlan() == null ) {
+			return person;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		long objectBytes = 0;
+		try ( DataOutputStream out = new DataOutputStream( bytes ) ) {
+			out.writeInt( person.getPlans().size() - 1 );
+			for ( Plan plan : person.getPlans() ) {
+				if ( plan != person.getSelectedPlan() ) {
+					objectBytes += writePlan( out, plan );
+				}
+			}
+		} catch ( IOException e ) {
+			// plan elements or attributes that cannot be packed; the person stays as it is
+			return person;
+		}
+
+		byte[] packed = deflate( bytes.toByteArray() );
+		packedPersons.incrementAndGet();
+		packedPlans.addAndGet( person.getPlans().size() - 1 );
+		packedBytes.addAndGet( ARRAY_HEADER_BYTES + packed.length );
+		estimatedObjectBytes.addAndGet( objectBytes );
+		return new CompactPerson( this, person, packed );
+	}
+
+	private static byte[] deflate( byte[] raw ) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput( raw );
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream( raw.length / 2 + 16 );
+		byte[] buffer = new byte[4096];
+		while ( !deflater.finished() ) {
+			int nn = deflater.deflate( buffer );
+			out.write( buffer, 0, nn );
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate( byte[] packed ) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput( packed );
+			ByteArrayOutputStream out = new ByteArrayOutputStream( packed.length * 3 );
+			byte[] buffer = new byte[4096];
+			while ( !inflater.finished() ) {
+				int nn = inflater.inflate( buffer );
+				if ( nn == 0 && inflater.needsInput() ) {
+					throw new IllegalStateException( "truncated plans" );
+				}
+				out.write( buffer, 0, nn );
+			}
+			return out.toByteArray();
+		} catch ( DataFormatException e ) {
+			throw new IllegalStateException( e );
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return the plans of a packed person, as new objects, with the selected plan at its position
+	 */
+	private List<Plan> unpack( CompactPerson person ) {
+		try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( inflate( person.packed ) ) ) ) {
+			List<Plan> plans = new ArrayList<>();
+			for ( int ii = in.readInt(); ii > 0; ii-- ) {
+				Plan plan = readPlan( in );
+				plan.setPerson( person );
+				plans.add( plan );
+			}
+			plans.add( person.selectedIndex, person.selectedPlan );
+			return plans;
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	// ---
+
+	/**
+	 * @return the estimated size of the plan as objects
+	 */
+	private long writePlan( DataOutputStream out, Plan plan ) throws IOException {
+		long objectBytes = PLAN_BYTES + ARRAY_HEADER_BYTES + REFERENCE_BYTES * (long) plan.getPlanElements().size();
+		writeString( out, plan.getType() );
+		out.writeBoolean( plan.getScore() != null );
+		if ( plan.getScore() != null ) {
+			out.writeDouble( plan.getScore() );
+		}
+		objectBytes += writeAttributes( out, plan.getAttributes() );
+		out.writeInt( plan.getPlanElements().size() );
+		for ( PlanElement element : plan.getPlanElements() ) {
+			if ( element instanceof Activity ) {
+				objectBytes += writeActivity( out, (Activity) element );
+			} else if ( element instanceof Leg ) {
+				objectBytes += writeLeg( out, (Leg) element );
+			} else {
+				throw new IOException( "cannot pack plan elements of " + element.getClass() );
+			}
+		}
+		return objectBytes;
+	}
+
+	private long writeActivity( DataOutputStream out, Activity activity ) throws IOException {
+		out.writeByte( ACTIVITY );
+		writeString( out, activity.getType() );
+		writeId( out, activity.getLinkId() );
+		writeId( out, activity.getFacilityId() );
+		Coord coord = activity.getCoord();
+		out.writeBoolean( coord != null );
+		if ( coord != null ) {
+			out.writeDouble( coord.getX() );
+			out.writeDouble( coord.getY() );
+			out.writeDouble( coord.hasZ() ? coord.getZ() : Double.NaN );
+		}
+		writeTime( out, activity.getStartTime() );
+		writeTime( out, activity.getEndTime() );
+		writeTime( out, activity.getMaximumDuration() );
+		return ACTIVITY_BYTES + writeAttributes( out, activity.getAttributes() );
+	}
+
+	private long writeLeg( DataOutputStream out, Leg leg ) throws IOException {
+		out.writeByte( LEG );
+		writeString( out, leg.getMode() );
+		writeTime( out, leg.getDepartureTime() );
+		writeTime( out, leg.getTravelTime() );
+		long objectBytes = LEG_BYTES + writeAttributes( out, leg.getAttributes() );
+		Route route = leg.getRoute();
+		out.writeBoolean( route != null );
+		if ( route == null ) {
+			return objectBytes;
+		}
+		objectBytes += ROUTE_BYTES;
+		writeString( out, route.getRouteType() );
+		writeId( out, route.getStartLinkId() );
+		writeId( out, route.getEndLinkId() );
+		writeTime( out, route.getTravelTime() );
+		out.writeDouble( route.getDistance() );
+		out.writeBoolean( route instanceof NetworkRoute );
+		if ( route instanceof NetworkRoute ) {
+			NetworkRoute networkRoute = (NetworkRoute) route;
+			writeId( out, networkRoute.getVehicleId() );
+			out.writeInt( networkRoute.getLinkIds().size() );
+			for ( Id<Link> linkId : networkRoute.getLinkIds() ) {
+				out.writeInt( linkId.index() );
+			}
+			objectBytes += ARRAY_HEADER_BYTES + REFERENCE_BYTES * (long) networkRoute.getLinkIds().size();
+		} else {
+			// descriptions are mostly unique, hence not in the string table:
+			String description = route.getRouteDescription();
+			out.writeBoolean( description != null );
+			if ( description != null ) {
+				out.writeUTF( description );
+				objectBytes += ARRAY_HEADER_BYTES + description.length();
+			}
+		}
+		return objectBytes;
+	}
+
+	private void writeTime( DataOutputStream out, OptionalTime time ) throws IOException {
+		out.writeDouble( time.isDefined() ? time.seconds() : Double.NaN );
+	}
+
+	private void writeId( DataOutputStream out, Id<?> id ) throws IOException {
+		out.writeInt( id == null ? -1 : id.index() );
+	}
+
+	private long writeAttributes( DataOutputStream out, Attributes attributes ) throws IOException {
+		Map<String, Object> map = attributes.getAsMap();
+		out.writeInt( map.size() );
+		for ( Map.Entry<String, Object> entry : map.entrySet() ) {
+			writeString( out, entry.getKey() );
+			Object value = entry.getValue();
+			if ( value instanceof String ) {
+				out.writeByte( STRING );
+				writeString( out, (String) value );
+			} else if ( value instanceof Double ) {
+				out.writeByte( DOUBLE );
+				out.writeDouble( (Double) value );
+			} else if ( value instanceof Integer ) {
+				out.writeByte( INTEGER );
+				out.writeInt( (Integer) value );
+			} else if ( value instanceof Long ) {
+				out.writeByte( LONG );
+				out.writeLong( (Long) value );
+			} else if ( value instanceof Boolean ) {
+				out.writeByte( BOOLEAN );
+				out.writeBoolean( (Boolean) value );
+			} else {
+				throw new IOException( "cannot pack the value of attribute " + entry.getKey() + ", a " + value.getClass() );
+			}
+		}
+		return ATTRIBUTE_BYTES * (long) map.size();
+	}
+
+	private void writeString( DataOutputStream out, String string ) throws IOException {
+		out.writeInt( string == null ? -1 : strings.getNumber( string ) );
+	}
+
+	private Plan readPlan( DataInputStream in ) throws IOException {
+		PopulationFactory factory = delegate.getFactory();
+		Plan plan = factory.createPlan();
+		plan.setType( readString( in ) );
+		if ( in.readBoolean() ) {
+			plan.setScore( in.readDouble() );
+		}
+		readAttributes( in, plan.getAttributes() );
+		for ( int ii = in.readInt(); ii > 0; ii-- ) {
+			byte kind = in.readByte();
+			if ( kind == ACTIVITY ) {
+				plan.addActivity( readActivity( in, factory ) );
+			} else if ( kind == LEG ) {
+				plan.addLeg( readLeg( in, factory ) );
+			} else {
+				throw new IOException( "Unknown plan element " + kind );
+			}
+		}
+		return plan;
+	}
+
+	private Activity readActivity( DataInputStream in, PopulationFactory factory ) throws IOException {
+		String type = readString( in );
+		Id<Link> linkId = readId( in, Link.class );
+		Id<ActivityFacility> facilityId = readId( in, ActivityFacility.class );
+		Coord coord = null;
+		if ( in.readBoolean() ) {
+			double x = in.readDouble();
+			double y = in.readDouble();
+			double z = in.readDouble();
+			coord = Double.isNaN( z ) ? new Coord( x, y ) : new Coord( x, y, z );
+		}
+		Activity activity;
+		if ( StageActivityTypeIdentifier.isStageActivity( type ) ) {
+			activity = coord != null ? factory.createInteractionActivityFromCoord( type, coord ) : factory.createInteractionActivityFromLinkId( type, linkId );
+		} else {
+			activity = coord != null ? factory.createActivityFromCoord( type, coord ) : factory.createActivityFromLinkId( type, linkId );
+		}
+		activity.setLinkId( linkId );
+		activity.setFacilityId( facilityId );
+		double startTime = in.readDouble();
+		double endTime = in.readDouble();
+		double maximumDuration = in.readDouble();
+		if ( !Double.isNaN( startTime ) ) {
+			activity.setStartTime( startTime );
+		}
+		if ( !Double.isNaN( endTime ) ) {
+			activity.setEndTime( endTime );
+		}
+		if ( !Double.isNaN( maximumDuration ) ) {
+			activity.setMaximumDuration( maximumDuration );
+		}
+		readAttributes( in, activity.getAttributes() );
+		return activity;
+	}
+
+	private Leg readLeg( DataInputStream in, PopulationFactory factory ) throws IOException {
+		Leg leg = factory.createLeg( readString( in ) );
+		double departureTime = in.readDouble();
+		double travelTime = in.readDouble();
+		if ( !Double.isNaN( departureTime ) ) {
+			leg.setDepartureTime( departureTime );
+		}
+		if ( !Double.isNaN( travelTime ) ) {
+			leg.setTravelTime( travelTime );
+		}
+		readAttributes( in, leg.getAttributes() );
+		if ( !in.readBoolean() ) {
+			return leg;
+		}
+		String routeType = readString( in );
+		Id<Link> startLinkId = readId( in, Link.class );
+		Id<Link> endLinkId = readId( in, Link.class );
+		double routeTravelTime = in.readDouble();
+		double distance = in.readDouble();
+		RouteFactories routeFactories = factory.getRouteFactories();
+		Route route = routeFactories.createRoute( routeFactories.getRouteClassForType( routeType ), startLinkId, endLinkId );
+		if ( in.readBoolean() ) {
+			NetworkRoute networkRoute = (NetworkRoute) route;
+			Id<Vehicle> vehicleId = readId( in, Vehicle.class );
+			int size = in.readInt();
+			List<Id<Link>> linkIds = new ArrayList<>( size );
+			for ( int ii = 0; ii < size; ii++ ) {
+				linkIds.add( Id.get( in.readInt(), Link.class ) );
+			}
+			networkRoute.setLinkIds( startLinkId, linkIds, endLinkId );
+			networkRoute.setVehicleId( vehicleId );
+		} else if ( in.readBoolean() ) {
+			route.setRouteDescription( in.readUTF() );
+		}
+		if ( !Double.isNaN( routeTravelTime ) ) {
+			route.setTravelTime( routeTravelTime );
+		}
+		route.setDistance( distance );
+		leg.setRoute( route );
+		return leg;
+	}
+
+	private void readAttributes( DataInputStream in, Attributes attributes ) throws IOException {
+		for ( int ii = in.readInt(); ii > 0; ii-- ) {
+			String name = readString( in );
+			byte type = in.readByte();
+			switch ( type ) {
+				case STRING:
+					attributes.putAttribute( name, readString( in ) );
+					break;
+				case DOUBLE:
+					attributes.putAttribute( name, in.readDouble() );
+					break;
+				case INTEGER:
+					attributes.putAttribute( name, in.readInt() );
+					break;
+				case LONG:
+					attributes.putAttribute( name, in.readLong() );
+					break;
+				case BOOLEAN:
+					attributes.putAttribute( name, in.readBoolean() );
+					break;
+				default:
+					throw new IOException( "Unknown attribute type " + type );
+			}
+		}
+	}
+
+	private static <T> Id<T> readId( DataInputStream in, Class<T> type ) throws IOException {
+		int index = in.readInt();
+		return index < 0 ? null : Id.get( index, type );
+	}
+
+	private String readString( DataInputStream in ) throws IOException {
+		int number = in.readInt();
+		return number < 0 ? null : strings.getString( number );
+	}
+
+	/**
+	 * The strings of the packed plans, by number.  Written while the population is read, and read by the threads that
+	 * expand persons, e.g. in replanning.
+	 */
+	private static final class StringTable {
+		private final Map<String, Integer> numbers = new HashMap<>();
+		private String[] strings = new String[64];
+
+		synchronized int getNumber( String string ) {
+			Integer number = numbers.get( string );
+			if ( number == null ) {
+				number = numbers.size();
+				if ( number == strings.length ) {
+					strings = Arrays.copyOf( strings, 2 * number );
+				}
+				strings[number] = string;
+				numbers.put( string, number );
+			}
+			return number;
+		}
+
+		synchronized String getString( int number ) {
+			return strings[number];
+		}
+	}
+
+	/**
+	 * A person whose plans other than the selected one are packed until {@link #getPlans()} is called.
+	 */
+	private static final class CompactPerson implements Person {
+		private final CompactPopulation population;
+		private final Id<Person> id;
+		private final Attributes attributes;
+		private Map<String, Object> customAttributes = null;
+
+		private Plan selectedPlan;
+		// either the packed plans and the position of the selected plan among all plans, or the plans:
+		private byte[] packed;
+		private int selectedIndex;
+		private List<Plan> plans = null;
+
+		CompactPerson( CompactPopulation population, Person person, byte[] packed ) {
+			this.population = population;
+			this.id = person.getId();
+			this.attributes = person.getAttributes();
+			if ( !person.getCustomAttributes().isEmpty() ) {
+				this.customAttributes = new LinkedHashMap<>( person.getCustomAttributes() );
+			}
+			this.selectedPlan = person.getSelectedPlan();
+			this.selectedPlan.setPerson( this );
+			this.selectedIndex = person.getPlans().indexOf( selectedPlan );
+			this.packed = packed;
+		}
+
+		@Override
+		public Id<Person> getId() {
+			return id;
+		}
+
+		@Override
+		public List<Plan> getPlans() {
+			if ( packed != null ) {
+				plans = population.unpack( this );
+				packed = null;
+			}
+			return plans;
+		}
+
+		@Override
+		public boolean addPlan( Plan plan ) {
+			plan.setPerson( this );
+			if ( selectedPlan == null ) {
+				selectedPlan = plan;
+			}
+			return getPlans().add( plan );
+		}
+
+		@Override
+		public boolean removePlan( Plan plan ) {
+			boolean result = getPlans().remove( plan );
+			if ( selectedPlan == plan && result ) {
+				setSelectedPlan( new RandomPlanSelector<Plan, Person>().selectPlan( this ) );
+			}
+			return result;
+		}
+
+		@Override
+		public Plan getSelectedPlan() {
+			return selectedPlan;
+		}
+
+		@Override
+		public void setSelectedPlan( Plan selectedPlan ) {
+			if ( selectedPlan != null && selectedPlan != this.selectedPlan && !getPlans().contains( selectedPlan ) ) {
+				throw new IllegalStateException( "The plan to be set as selected is not null nor stored in the person's plans" );
+			}
+			this.selectedPlan = selectedPlan;
+		}
+
+		@Override
+		public Plan createCopyOfSelectedPlanAndMakeSelected() {
+			if ( selectedPlan == null ) {
+				return null;
+			}
+			Plan copy = PopulationUtils.createPlan( this );
+			PopulationUtils.copyFromTo( selectedPlan, copy );
+			getPlans().add( copy );
+			setSelectedPlan( copy );
+			return copy;
+		}
+
+		@Override
+		public Map<String, Object> getCustomAttributes() {
+			if ( customAttributes == null ) {
+				customAttributes = new LinkedHashMap<>( 4 );
+			}
+			return customAttributes;
+		}
+
+		@Override
+		public Attributes getAttributes() {
+			return attributes;
+		}
+
+		@Override
+		public String toString() {
+			return "[id=" + id + "][packed=" + (packed != null) + "][selectedPlan=" + selectedPlan + "]";
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.FacilitiesConfigGroup;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitScheduleReader;
+import org.matsim.vehicles.MatsimVehicleReader;
+
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Loads a scenario like {@link ScenarioUtils#loadScenario(Config)}, but reads the network, vehicles, transit schedule and
+ * transit vehicles concurrently, since they are independent files.  The population is read concurrently with the vehicles
+ * and the transit inputs, but only after the network, since its reader resolves the routes in the network.  Afterwards, it checks that the links and
+ * vehicles they refer to exist, and it logs how long every file took.
+ * <p>
+ * If a {@link UrlInputCache} directory is configured in the {@link ScenarioLoadingConfigGroup}, http(s) inputs are read
+ * from their local copies, which replace the urls in the config.  If a snapshot file is configured, the network and
+ * population come from a {@link ScenarioSnapshot}.  If the population is to be compact, the plans file is read into a
+ * {@link CompactPopulation}, or the population is compacted after it was read.
+ * <p>
+ * Scenarios with other inputs (facilities, households, lanes, network change events) are passed on to
+ * {@link ScenarioUtils#loadScenario(Config)}, as is everything if {@link ScenarioLoadingConfigGroup#isParallel()} is false.
+ * <p>
+ * With {@link #loadScenario(Config, Network)}, the scenario gets a given network instead of the network file, e.g. one
+ * network that is shared by several scenarios; the population is then read into it.
+ */
+public final class ParallelScenarioLoader {
+	private static final Logger log = LogManager.getLogger( ParallelScenarioLoader.class );
+
+	private static final int MAX_REPORTED_REFERENCES = 10;
+
+	private ParallelScenarioLoader() {} // do not instantiate
+
+	public static Scenario loadScenario( Config config ) {
+		return loadScenario( config, null );
+	}
+
+	/**
+	 * Loads the scenario with the given network instead of the network file of the config, which is not read.  The
+	 * network is in the scenario before the population is read, so that the routes are resolved in it.  See
+	 * {@link #canUseNetwork(Config)} for the configs this works with.
+	 *
+	 * @param network the network of the scenario; <code>null</code> to read the network file
+	 */
+	public static Scenario loadScenario( Config config, Network network ) {
+		if ( network != null && !canUseNetwork( config ) ) {
+			throw new IllegalArgumentException( "cannot load the scenario with a given network, since it has a snapshot or inputs that "
+					+ "depend on the network file: " + getOtherInputs( config ) );
+		}
+		long start = System.nanoTime();
+		ScenarioLoadingConfigGroup slcg = ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class );
+		List<Input> inputs = getInputs( config, network == null );
+
+		if ( !slcg.getUrlCacheDirectory().isEmpty() ) {
+			UrlInputCache cache = new UrlInputCache( Paths.get( slcg.getUrlCacheDirectory() ) );
+			// downloads, if any, in parallel:
+			runConcurrently( inputs, "caching", input -> {
+				URL url = ConfigGroup.getInputFileURL( config.getContext(), input.getter.get() );
+				URL local = cache.get( url );
+				if ( !local.equals( url ) ) {
+					input.setter.accept( local.toString() );
+				}
+			} );
+		}
+
+		Scenario scenario;
+		if ( !slcg.getSnapshotFile().isEmpty() ) {
+			scenario = ScenarioSnapshot.loadScenario( config, Paths.get( slcg.getSnapshotFile() ) );
+		} else {
+			scenario = read( config, network );
+		}
+		if ( slcg.isCompactPopulation() ) {
+			CompactPopulation.compact( scenario );
+		}
+		log.info( "Loaded the scenario in {} s.", String.format( "%.1f", seconds( start ) ) );
+		return scenario;
+	}
+
+	/**
+	 * @return whether {@link #loadScenario(Config, Network)} can load the scenario of the config with a given network, i.e.
+	 * whether it has no snapshot, no time-variant network and no inputs besides the network, population, vehicles and
+	 * transit.
+	 */
+	public static boolean canUseNetwork( Config config ) {
+		return ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).getSnapshotFile().isEmpty() && getOtherInputs( config ).isEmpty();
+	}
+
+	/**
+	 * Reads the inputs of the config, concurrently if possible, without the url cache and the snapshot.
+	 */
+	static Scenario read( Config config ) {
+		return read( config, null );
+	}
+
+	private static Scenario read( Config config, Network network ) {
+		boolean parallel = ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).isParallel();
+		if ( network == null && (!parallel || !canReadConcurrently( config )) ) {
+			return ScenarioUtils.loadScenario( config );
+		}
+
+		MutableScenario scenario = ScenarioUtils.createMutableScenario( config );
+		if ( network != null ) {
+			// before the population is read, since its reader resolves the routes in it:
+			scenario.setNetwork( network );
+		}
+		if ( ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).isCompactPopulation() ) {
+			// the persons are compacted one by one as they are read:
+			scenario.setPopulation( new CompactPopulation( scenario.getPopulation() ) );
+		}
+		String targetCRS = config.global().getCoordinateSystem();
+		List<Input> inputs = getInputs( config, network == null );
+		Input networkInput = null;
+		for ( Input input : inputs ) {
+			URL url = ConfigGroup.getInputFileURL( config.getContext(), input.getter.get() );
+			switch ( input.name ) {
+				case "network":
+					networkInput = input;
+					input.reader = () -> new MatsimNetworkReader( config.network().getInputCRS(), targetCRS, scenario.getNetwork() ).readURL( url );
+					break;
+				case "population":
+					// the population reader looks up the links of the routes (and the nodes of v4 routes) in the network:
+					input.after = networkInput;
+					input.reader = () -> new PopulationReader( config.plans().getInputCRS(), targetCRS, scenario ).readURL( url );
+					break;
+				case "vehicles":
+					input.reader = () -> new MatsimVehicleReader( scenario.getVehicles() ).readURL( url );
+					break;
+				case "transit schedule":
+					input.reader = () -> new TransitScheduleReader( config.transit().getInputScheduleCRS(), targetCRS, scenario ).readURL( url );
+					break;
+				case "transit vehicles":
+					input.reader = () -> new MatsimVehicleReader( scenario.getTransitVehicles() ).readURL( url );
+					break;
+				default:
+					throw new IllegalStateException( "no reader for " + input.name );
+			}
+		}
+		if ( parallel ) {
+			// every reader fills a container of its own; only the population reader also reads one, the network, and waits for it:
+			runConcurrently( inputs, "reading", input -> input.reader.run() );
+		} else {
+			// (only with a given network)
+			inputs.forEach( input -> input.reader.run() );
+		}
+
+		checkReferences( scenario );
+		return scenario;
+	}
+
+	/**
+	 * @return the inputs that are set in the config, in the order of {@link ScenarioUtils#loadScenario(Config)}.
+	 */
+	private static List<Input> getInputs( Config config, boolean withNetwork ) {
+		List<Input> inputs = new ArrayList<>();
+		if ( withNetwork ) {
+			addIfSet( inputs, "network", config.network()::getInputFile, config.network()::setInputFile );
+		}
+		addIfSet( inputs, "population", config.plans()::getInputFile, config.plans()::setInputFile );
+		addIfSet( inputs, "vehicles", config.vehicles()::getVehiclesFile, config.vehicles()::setVehiclesFile );
+		if ( config.transit().isUseTransit() ) {
+			addIfSet( inputs, "transit schedule", config.transit()::getTransitScheduleFile, config.transit()::setTransitScheduleFile );
+			addIfSet( inputs, "transit vehicles", config.transit()::getVehiclesFile, config.transit()::setVehiclesFile );
+		}
+		return inputs;
+	}
+
+	private static void addIfSet( List<Input> inputs, String name, Supplier<String> getter, Consumer<String> setter ) {
+		if ( getter.get() != null && !getter.get().isEmpty() ) {
+			inputs.add( new Input( name, getter, setter ) );
+		}
+	}
+
+	private static boolean canReadConcurrently( Config config ) {
+		List<String> others = getOtherInputs( config );
+		if ( !others.isEmpty() ) {
+			log.info( "The scenario has {}; reading it sequentially.", others );
+		}
+		return others.isEmpty();
+	}
+
+	private static List<String> getOtherInputs( Config config ) {
+		List<String> others = new ArrayList<>();
+		if ( config.facilities().getInputFile() != null || (config.facilities().getFacilitiesSource() != FacilitiesConfigGroup.FacilitiesSource.none
+				&& config.facilities().getFacilitiesSource() != FacilitiesConfigGroup.FacilitiesSource.fromFile) ) {
+			others.add( "facilities" );
+		}
+		if ( config.households().getInputFile() != null ) {
+			others.add( "households" );
+		}
+		if ( config.network().getLaneDefinitionsFile() != null ) {
+			others.add( "lanes" );
+		}
+		if ( config.network().isTimeVariantNetwork() ) {
+			others.add( "network change events" );
+		}
+		return others;
+	}
+
+	private static void runConcurrently( List<Input> inputs, String what, Consumer<Input> task ) {
+		if ( inputs.isEmpty() ) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool( inputs.size() );
+		try {
+			Map<Input, Future<Double>> futures = new LinkedHashMap<>();
+			for ( Input input : inputs ) {
+				// (an input comes after the input it waits for, see getInputs)
+				Future<Double> before = input.after == null ? null : futures.get( input.after );
+				futures.put( input, executor.submit( () -> {
+					if ( before != null ) {
+						before.get();
+					}
+					long start = System.nanoTime();
+					task.accept( input );
+					return seconds( start );
+				} ) );
+			}
+			for ( Map.Entry<Input, Future<Double>> entry : futures.entrySet() ) {
+				double seconds = entry.getValue().get();
+				log.info( "{} the {} ({}) took {} s.", what, entry.getKey().name, entry.getKey().getter.get(), String.format( "%.1f", seconds ) );
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Checks, in parallel over the persons, that the links of the activities and routes, and of the transit routes and
+	 * stops, are in the network, and that the transit vehicles of the departures exist.
+	 *
+	 * @return the number of references to missing links or vehicles; they are logged as warnings.
+	 */
+	static int checkReferences( Scenario scenario ) {
+		Network network = scenario.getNetwork();
+		AtomicInteger missing = new AtomicInteger();
+		Queue<String> examples = new ConcurrentLinkedQueue<>();
+		Consumer<String> report = message -> {
+			if ( missing.incrementAndGet() <= MAX_REPORTED_REFERENCES ) {
+				examples.add( message );
+			}
+		};
+
+		if ( !network.getLinks().isEmpty() ) {
+			scenario.getPopulation().getPersons().values().parallelStream().forEach( person -> {
+				for ( Plan plan : CompactPopulation.getPlansWithoutExpanding( person ) ) {
+					for ( PlanElement element : plan.getPlanElements() ) {
+						if ( element instanceof Activity ) {
+							checkLink( network, ((Activity) element).getLinkId(), "activity of person " + person.getId(), report );
+						} else if ( element instanceof Leg ) {
+							checkRoute( network, ((Leg) element).getRoute(), "route of person " + person.getId(), report );
+						}
+					}
+				}
+			} );
+			for ( TransitLine line : scenario.getTransitSchedule().getTransitLines().values() ) {
+				for ( TransitRoute route : line.getRoutes().values() ) {
+					String what = "transit route " + line.getId() + "/" + route.getId();
+					checkRoute( network, route.getRoute(), what, report );
+					for ( TransitRouteStop stop : route.getStops() ) {
+						checkLink( network, stop.getStopFacility().getLinkId(), "stop of " + what, report );
+					}
+					for ( Departure departure : route.getDepartures().values() ) {
+						if ( departure.getVehicleId() != null && !scenario.getTransitVehicles().getVehicles().isEmpty()
+								&& !scenario.getTransitVehicles().getVehicles().containsKey( departure.getVehicleId() ) ) {
+							report.accept( "unknown vehicle " + departure.getVehicleId() + " in departure of " + what );
+						}
+					}
+				}
+			}
+		}
+
+		if ( missing.get() > 0 ) {
+			log.warn( "{} references to unknown links or vehicles, e.g.:", missing.get() );
+			examples.forEach( log::warn );
+		}
+		return missing.get();
+	}
+
+	private static void checkRoute( Network network, Route route, String what, Consumer<String> report ) {
+		if ( route == null ) {
+			return;
+		}
+		checkLink( network, route.getStartLinkId(), what, report );
+		checkLink( network, route.getEndLinkId(), what, report );
+		if ( route instanceof NetworkRoute ) {
+			for ( Id<Link> linkId : ((NetworkRoute) route).getLinkIds() ) {
+				checkLink( network, linkId, what, report );
+			}
+		}
+	}
+
+	private static void checkLink( Network network, Id<Link> linkId, String what, Consumer<String> report ) {
+		if ( linkId != null && !network.getLinks().containsKey( linkId ) ) {
+			report.accept( "unknown link " + linkId + " in " + what );
+		}
+	}
+
+	private static double seconds( long start ) {
+		return (System.nanoTime() - start) / 1e9;
+	}
+
+	private static final class Input {
+		private final String name;
+		private final Supplier<String> getter;
+		private final Consumer<String> setter;
+		private Runnable reader;
+		/**
+		 * The input that must have been read before this one, or <code>null</code>.
+		 */
+		private Input after;
+
+		Input( String name, Supplier<String> getter, Consumer<String> setter ) {
+			this.name = name;
+			this.getter = getter;
+			this.setter = setter;
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.matsim.core.config.ReflectiveConfigGroup;
+
+import java.util.Map;
+
+/**
+ * Settings of the {@link ParallelScenarioLoader}.  Can be set in the config file or from the command line, e.g.
+ * <code>--config:scenarioLoading.urlCacheDirectory ~/.cache/matsim</code>.
+ */
+public final class ScenarioLoadingConfigGroup extends ReflectiveConfigGroup {
+
+	public static final String GROUP_NAME = "scenarioLoading";
+
+	private static final String PARALLEL = "parallel";
+	private static final String URL_CACHE_DIRECTORY = "urlCacheDirectory";
+	private static final String SNAPSHOT_FILE = "snapshotFile";
+	private static final String SNAPSHOT_CHECKSUM = "snapshotChecksum";
+	private static final String COMPACT_POPULATION = "compactPopulation";
+
+	private boolean parallel = true;
+	private String urlCacheDirectory = "";
+	private String snapshotFile = "";
+	private boolean snapshotChecksum = false;
+	private boolean compactPopulation = false;
+
+	public ScenarioLoadingConfigGroup() {
+		super( GROUP_NAME );
+	}
+
+	@Override
+	public Map<String, String> getComments() {
+		Map<String, String> map = super.getComments();
+		map.put( PARALLEL, "If true, the network, vehicles, transit schedule and transit vehicles are read concurrently, and the population as soon as "
+				+ "the network is read.  "
+				+ "Scenarios with other inputs (facilities, households, lanes, network change events) are always read sequentially.  Default: true." );
+		map.put( URL_CACHE_DIRECTORY, "Directory in which http(s) inputs are kept, uncompressed, after the first download; see UrlInputCache.  "
+				+ "Delete a file there to download it again.  Empty means no cache.  Default: empty." );
+		map.put( SNAPSHOT_FILE, "Binary snapshot of the network and population; see ScenarioSnapshot.  Written if it does not exist or "
+				+ "is out of date, read instead of the xml files otherwise.  Empty means no snapshot.  Default: empty." );
+		map.put( SNAPSHOT_CHECKSUM, "If true, the snapshot is also checked against CRC32 checksums of the network and plans files, which "
+				+ "reads them in full on every load.  Otherwise only their sizes and last-modified times are compared.  Default: false." );
+		map.put( COMPACT_POPULATION, "If true, the plans of the persons other than the selected ones are kept packed until they are "
+				+ "needed, e.g. by replanning; see CompactPopulation.  Saves heap in jobs that mostly look at the selected plans.  Default: false." );
+		return map;
+	}
+
+	@StringGetter( PARALLEL )
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	@StringSetter( PARALLEL )
+	public void setParallel( boolean parallel ) {
+		this.parallel = parallel;
+	}
+
+	@StringGetter( URL_CACHE_DIRECTORY )
+	public String getUrlCacheDirectory() {
+		return urlCacheDirectory;
+	}
+
+	@StringSetter( URL_CACHE_DIRECTORY )
+	public void setUrlCacheDirectory( String urlCacheDirectory ) {
+		this.urlCacheDirectory = urlCacheDirectory == null ? "" : urlCacheDirectory.trim();
+	}
+
+	@StringGetter( SNAPSHOT_FILE )
+	public String getSnapshotFile() {
+		return snapshotFile;
+	}
+
+	@StringSetter( SNAPSHOT_FILE )
+	public void setSnapshotFile( String snapshotFile ) {
+		this.snapshotFile = snapshotFile == null ? "" : snapshotFile.trim();
+	}
+
+	@StringGetter( SNAPSHOT_CHECKSUM )
+	public boolean isSnapshotChecksum() {
+		return snapshotChecksum;
+	}
+
+	@StringSetter( SNAPSHOT_CHECKSUM )
+	public void setSnapshotChecksum( boolean snapshotChecksum ) {
+		this.snapshotChecksum = snapshotChecksum;
+	}
+
+	@StringGetter( COMPACT_POPULATION )
+	public boolean isCompactPopulation() {
+		return compactPopulation;
+	}
+
+	@StringSetter( COMPACT_POPULATION )
+	public void setCompactPopulation( boolean compactPopulation ) {
+		this.compactPopulation = compactPopulation;
+	}
+
+}
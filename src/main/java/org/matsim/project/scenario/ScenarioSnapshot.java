@@ -0,0 +1,704 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteFactories;
+import org.matsim.core.router.StageActivityTypeIdentifier;
+import org.matsim.core.utils.misc.OptionalTime;
+import org.matsim.facilities.ActivityFacility;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the network and the population of a loaded scenario in a binary file, so that repeated runs on the same scenario
+ * need not parse the xml files again.  The first {@link #loadScenario} reads the xml files and writes the snapshot; later
+ * calls read the snapshot instead, and the other inputs (vehicles, transit, ...) as usual.
+ * <p>
+ * The nodes and links are stored as arrays of their fields, with the coordinates and link properties as primitive
+ * doubles.  All strings (ids, activity types, modes, attribute names) are interned: a string is written once, at its first
+ * occurrence, and referred to by its number afterwards.  Attribute values may be strings, doubles, integers, longs and
+ * booleans; a scenario with other attribute values is not snapshot.
+ * <p>
+ * A snapshot is keyed by the urls, sizes and last-modified times of the network and plans files, and by the coordinate
+ * systems.  When one of them changes, or the snapshot was written by another format version, the xml files are read
+ * again and the snapshot is replaced.  Since the key only looks at the metadata of the files, a snapshot is not noticed
+ * to be out of date if a file is replaced by one of the same size with its time stamp kept; with
+ * {@link ScenarioLoadingConfigGroup#setSnapshotChecksum(boolean)}, the key also has the CRC32 checksums of the files,
+ * at the cost of reading them in full on every load.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ *   int magic ("MSNP"), int format version, the key
+ *   network: name, capacity period, effective cell size and lane width, attributes
+ *   int number of nodes; ids, x[], y[], z[] (NaN if none), attributes
+ *   int number of mode sets, mode sets; int number of links; ids, from[], to[], length[], freespeed[], capacity[],
+ *     lanes[], mode set[], attributes
+ *   population: attributes, int number of persons, for each: id, attributes, plans, index of the selected plan
+ * </pre>
+ */
+public final class ScenarioSnapshot {
+	private static final Logger log = LogManager.getLogger( ScenarioSnapshot.class );
+
+	static final int MAGIC = 0x4D534E50;
+	/**
+	 * To be increased whenever the file layout changes.
+	 */
+	static final int VERSION = 1;
+
+	private static final byte ACTIVITY = 0;
+	private static final byte LEG = 1;
+
+	private static final byte STRING = 0;
+	private static final byte DOUBLE = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte BOOLEAN = 4;
+
+	private ScenarioSnapshot() {} // do not instantiate
+
+	/**
+	 * @return the scenario of the config, with the network and population from the snapshot if it is up to date.
+	 */
+	public static Scenario loadScenario( Config config, Path file ) {
+		if ( config.network().isTimeVariantNetwork() ) {
+			log.warn( "Snapshots do not support time variant networks; reading the scenario without {}.", file );
+			return ParallelScenarioLoader.read( config );
+		}
+		String key = key( config );
+
+		if ( Files.exists( file ) ) {
+			long start = System.nanoTime();
+			String networkFile = config.network().getInputFile();
+			String plansFile = config.plans().getInputFile();
+			Scenario scenario = null;
+			try {
+				// the other inputs as usual, and then the network and population from the snapshot:
+				config.network().setInputFile( null );
+				config.plans().setInputFile( null );
+				try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ), 1 << 16 ) ) ) {
+					if ( in.readInt() == MAGIC && in.readInt() == VERSION && key.equals( in.readUTF() ) ) {
+						scenario = ParallelScenarioLoader.read( config );
+						new Reader( in ).read( scenario );
+					}
+				}
+			} catch ( IOException | RuntimeException e ) {
+				log.warn( "Could not read {}; reading the scenario again.", file, e );
+				scenario = null;
+			} finally {
+				config.network().setInputFile( networkFile );
+				config.plans().setInputFile( plansFile );
+			}
+			if ( scenario != null ) {
+				log.info( "Loaded the scenario with the network and population of {} in {} s.", file, String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+				return scenario;
+			}
+			log.info( "{} is out of date; reading the scenario again.", file );
+		}
+
+		Scenario scenario = ParallelScenarioLoader.read( config );
+		try {
+			write( file, scenario, key );
+			log.info( "Wrote the network and population to {}", file );
+		} catch ( IOException e ) {
+			// the snapshot only saves time; a run does not fail because of it
+			log.warn( "Could not write {}", file, e );
+		}
+		return scenario;
+	}
+
+	/**
+	 * @return the sources of the network and population, and the coordinate systems they were transformed with.
+	 */
+	static String key( Config config ) {
+		boolean checksum = ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).isSnapshotChecksum();
+		return String.join( "\n", sourceKey( config, config.network().getInputFile(), checksum ),
+				sourceKey( config, config.plans().getInputFile(), checksum ),
+				Objects.toString( config.global().getCoordinateSystem() ), Objects.toString( config.network().getInputCRS() ),
+				Objects.toString( config.plans().getInputCRS() ) );
+	}
+
+	private static String sourceKey( Config config, String fileName, boolean checksum ) {
+		if ( fileName == null || fileName.isEmpty() ) {
+			return "";
+		}
+		URL url = ConfigGroup.getInputFileURL( config.getContext(), fileName );
+		return checksum ? url + ";" + checksum( url ) : url + ";" + metadata( url );
+	}
+
+	/**
+	 * @return the size and last-modified time of the source, without reading it; for http(s) from the headers, where the
+	 * time is 0 if the server does not send it.
+	 */
+	private static String metadata( URL url ) {
+		try {
+			URLConnection connection = url.openConnection();
+			if ( connection instanceof HttpURLConnection ) {
+				((HttpURLConnection) connection).setRequestMethod( "HEAD" );
+			}
+			try {
+				return connection.getContentLengthLong() + ";" + connection.getLastModified();
+			} finally {
+				if ( connection instanceof HttpURLConnection ) {
+					((HttpURLConnection) connection).disconnect();
+				} else {
+					// e.g. a file connection, which opens the file to find its size:
+					connection.getInputStream().close();
+				}
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	private static String checksum( URL url ) {
+		CRC32 crc = new CRC32();
+		long size = 0;
+		byte[] buffer = new byte[1 << 16];
+		try ( InputStream in = url.openStream() ) {
+			int nn;
+			while ( (nn = in.read( buffer )) > 0 ) {
+				crc.update( buffer, 0, nn );
+				size += nn;
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return size + ";" + Long.toHexString( crc.getValue() );
+	}
+
+	static void write( Path file, Scenario scenario, String key ) throws IOException {
+		Files.createDirectories( file.toAbsolutePath().getParent() );
+		Path temporary = Files.createTempFile( file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp" );
+		try {
+			try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ), 1 << 16 ) ) ) {
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeUTF( key );
+				new Writer( out ).write( scenario );
+			}
+			try {
+				Files.move( temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			} catch ( AtomicMoveNotSupportedException e ) {
+				Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			Files.deleteIfExists( temporary );
+		}
+	}
+
+	private static final class Writer {
+		private final DataOutputStream out;
+		private final Map<String, Integer> strings = new HashMap<>();
+
+		Writer( DataOutputStream out ) {
+			this.out = out;
+		}
+
+		void write( Scenario scenario ) throws IOException {
+			Network network = scenario.getNetwork();
+			writeString( network.getName() );
+			out.writeDouble( network.getCapacityPeriod() );
+			out.writeDouble( network.getEffectiveCellSize() );
+			out.writeDouble( network.getEffectiveLaneWidth() );
+			writeAttributes( network.getAttributes() );
+
+			Node[] nodes = network.getNodes().values().toArray( new Node[0] );
+			Map<Id<Node>, Integer> nodeNumbers = new HashMap<>();
+			out.writeInt( nodes.length );
+			for ( Node node : nodes ) {
+				nodeNumbers.put( node.getId(), nodeNumbers.size() );
+				writeString( node.getId().toString() );
+			}
+			for ( Node node : nodes ) {
+				out.writeDouble( node.getCoord().getX() );
+			}
+			for ( Node node : nodes ) {
+				out.writeDouble( node.getCoord().getY() );
+			}
+			for ( Node node : nodes ) {
+				out.writeDouble( node.getCoord().hasZ() ? node.getCoord().getZ() : Double.NaN );
+			}
+			for ( Node node : nodes ) {
+				writeAttributes( node.getAttributes() );
+			}
+
+			Link[] links = network.getLinks().values().toArray( new Link[0] );
+			Map<Set<String>, Integer> modeSets = new LinkedHashMap<>();
+			for ( Link link : links ) {
+				modeSets.putIfAbsent( link.getAllowedModes(), modeSets.size() );
+			}
+			out.writeInt( modeSets.size() );
+			for ( Set<String> modes : modeSets.keySet() ) {
+				out.writeInt( modes.size() );
+				// sorted, so that equal sets are written equally:
+				for ( String mode : new TreeSet<>( modes ) ) {
+					writeString( mode );
+				}
+			}
+			out.writeInt( links.length );
+			for ( Link link : links ) {
+				writeString( link.getId().toString() );
+			}
+			for ( Link link : links ) {
+				out.writeInt( nodeNumbers.get( link.getFromNode().getId() ) );
+			}
+			for ( Link link : links ) {
+				out.writeInt( nodeNumbers.get( link.getToNode().getId() ) );
+			}
+			for ( Link link : links ) {
+				out.writeDouble( link.getLength() );
+			}
+			for ( Link link : links ) {
+				out.writeDouble( link.getFreespeed() );
+			}
+			for ( Link link : links ) {
+				out.writeDouble( link.getCapacity() );
+			}
+			for ( Link link : links ) {
+				out.writeDouble( link.getNumberOfLanes() );
+			}
+			for ( Link link : links ) {
+				out.writeInt( modeSets.get( link.getAllowedModes() ) );
+			}
+			for ( Link link : links ) {
+				writeAttributes( link.getAttributes() );
+			}
+
+			Population population = scenario.getPopulation();
+			writeAttributes( population.getAttributes() );
+			out.writeInt( population.getPersons().size() );
+			for ( Person person : population.getPersons().values() ) {
+				writeString( person.getId().toString() );
+				writeAttributes( person.getAttributes() );
+				// (without expanding the persons of a compact population for good:)
+				List<? extends Plan> plans = CompactPopulation.getPlansWithoutExpanding( person );
+				out.writeInt( plans.size() );
+				for ( Plan plan : plans ) {
+					writePlan( plan );
+				}
+				out.writeInt( plans.indexOf( person.getSelectedPlan() ) );
+			}
+		}
+
+		private void writePlan( Plan plan ) throws IOException {
+			writeString( plan.getType() );
+			out.writeBoolean( plan.getScore() != null );
+			if ( plan.getScore() != null ) {
+				out.writeDouble( plan.getScore() );
+			}
+			writeAttributes( plan.getAttributes() );
+			out.writeInt( plan.getPlanElements().size() );
+			for ( PlanElement element : plan.getPlanElements() ) {
+				if ( element instanceof Activity ) {
+					writeActivity( (Activity) element );
+				} else if ( element instanceof Leg ) {
+					writeLeg( (Leg) element );
+				} else {
+					throw new IOException( "Snapshots do not support plan elements of " + element.getClass() );
+				}
+			}
+		}
+
+		private void writeActivity( Activity activity ) throws IOException {
+			out.writeByte( ACTIVITY );
+			writeString( activity.getType() );
+			writeString( Objects.toString( activity.getLinkId(), null ) );
+			writeString( Objects.toString( activity.getFacilityId(), null ) );
+			Coord coord = activity.getCoord();
+			out.writeBoolean( coord != null );
+			if ( coord != null ) {
+				out.writeDouble( coord.getX() );
+				out.writeDouble( coord.getY() );
+				out.writeDouble( coord.hasZ() ? coord.getZ() : Double.NaN );
+			}
+			writeTime( activity.getStartTime() );
+			writeTime( activity.getEndTime() );
+			writeTime( activity.getMaximumDuration() );
+			writeAttributes( activity.getAttributes() );
+		}
+
+		private void writeLeg( Leg leg ) throws IOException {
+			out.writeByte( LEG );
+			writeString( leg.getMode() );
+			writeTime( leg.getDepartureTime() );
+			writeTime( leg.getTravelTime() );
+			writeAttributes( leg.getAttributes() );
+			Route route = leg.getRoute();
+			out.writeBoolean( route != null );
+			if ( route == null ) {
+				return;
+			}
+			writeString( route.getRouteType() );
+			writeString( Objects.toString( route.getStartLinkId(), null ) );
+			writeString( Objects.toString( route.getEndLinkId(), null ) );
+			writeTime( route.getTravelTime() );
+			out.writeDouble( route.getDistance() );
+			out.writeBoolean( route instanceof NetworkRoute );
+			if ( route instanceof NetworkRoute ) {
+				NetworkRoute networkRoute = (NetworkRoute) route;
+				writeString( Objects.toString( networkRoute.getVehicleId(), null ) );
+				out.writeInt( networkRoute.getLinkIds().size() );
+				for ( Id<Link> linkId : networkRoute.getLinkIds() ) {
+					writeString( linkId.toString() );
+				}
+			} else {
+				writeString( route.getRouteDescription() );
+			}
+		}
+
+		private void writeTime( OptionalTime time ) throws IOException {
+			out.writeDouble( time.isDefined() ? time.seconds() : Double.NaN );
+		}
+
+		private void writeAttributes( Attributes attributes ) throws IOException {
+			Map<String, Object> map = attributes.getAsMap();
+			out.writeInt( map.size() );
+			for ( Map.Entry<String, Object> entry : map.entrySet() ) {
+				writeString( entry.getKey() );
+				Object value = entry.getValue();
+				if ( value instanceof String ) {
+					out.writeByte( STRING );
+					writeString( (String) value );
+				} else if ( value instanceof Double ) {
+					out.writeByte( DOUBLE );
+					out.writeDouble( (Double) value );
+				} else if ( value instanceof Integer ) {
+					out.writeByte( INTEGER );
+					out.writeInt( (Integer) value );
+				} else if ( value instanceof Long ) {
+					out.writeByte( LONG );
+					out.writeLong( (Long) value );
+				} else if ( value instanceof Boolean ) {
+					out.writeByte( BOOLEAN );
+					out.writeBoolean( (Boolean) value );
+				} else {
+					throw new IOException( "Snapshots do not support the value of attribute " + entry.getKey() + ", a " + value.getClass() );
+				}
+			}
+		}
+
+		/**
+		 * -2 for <code>null</code>, the number of a known string, or -1 and the string at its first occurrence.
+		 */
+		private void writeString( String string ) throws IOException {
+			if ( string == null ) {
+				out.writeInt( -2 );
+				return;
+			}
+			Integer number = strings.get( string );
+			if ( number != null ) {
+				out.writeInt( number );
+				return;
+			}
+			strings.put( string, strings.size() );
+			byte[] bytes = string.getBytes( StandardCharsets.UTF_8 );
+			out.writeInt( -1 );
+			out.writeInt( bytes.length );
+			out.write( bytes );
+		}
+	}
+
+	private static final class Reader {
+		private final DataInputStream in;
+		private final List<String> strings = new ArrayList<>();
+
+		Reader( DataInputStream in ) {
+			this.in = in;
+		}
+
+		void read( Scenario scenario ) throws IOException {
+			Network network = scenario.getNetwork();
+			NetworkFactory networkFactory = network.getFactory();
+			network.setName( readString() );
+			network.setCapacityPeriod( in.readDouble() );
+			network.setEffectiveCellSize( in.readDouble() );
+			network.setEffectiveLaneWidth( in.readDouble() );
+			readAttributes( network.getAttributes() );
+
+			String[] nodeIds = readStrings( in.readInt() );
+			double[] x = readDoubles( nodeIds.length );
+			double[] y = readDoubles( nodeIds.length );
+			double[] z = readDoubles( nodeIds.length );
+			Node[] nodes = new Node[nodeIds.length];
+			for ( int ii = 0; ii < nodes.length; ii++ ) {
+				Coord coord = Double.isNaN( z[ii] ) ? new Coord( x[ii], y[ii] ) : new Coord( x[ii], y[ii], z[ii] );
+				nodes[ii] = networkFactory.createNode( Id.createNodeId( nodeIds[ii] ), coord );
+				readAttributes( nodes[ii].getAttributes() );
+				network.addNode( nodes[ii] );
+			}
+
+			List<Set<String>> modeSets = new ArrayList<>();
+			for ( int ii = in.readInt(); ii > 0; ii-- ) {
+				modeSets.add( new HashSet<>( Arrays.asList( readStrings( in.readInt() ) ) ) );
+			}
+			String[] linkIds = readStrings( in.readInt() );
+			int[] from = readInts( linkIds.length );
+			int[] to = readInts( linkIds.length );
+			double[] length = readDoubles( linkIds.length );
+			double[] freespeed = readDoubles( linkIds.length );
+			double[] capacity = readDoubles( linkIds.length );
+			double[] lanes = readDoubles( linkIds.length );
+			int[] modes = readInts( linkIds.length );
+			for ( int ii = 0; ii < linkIds.length; ii++ ) {
+				Link link = networkFactory.createLink( Id.createLinkId( linkIds[ii] ), nodes[from[ii]], nodes[to[ii]] );
+				link.setLength( length[ii] );
+				link.setFreespeed( freespeed[ii] );
+				link.setCapacity( capacity[ii] );
+				link.setNumberOfLanes( lanes[ii] );
+				link.setAllowedModes( modeSets.get( modes[ii] ) );
+				readAttributes( link.getAttributes() );
+				network.addLink( link );
+			}
+
+			Population population = scenario.getPopulation();
+			PopulationFactory factory = population.getFactory();
+			readAttributes( population.getAttributes() );
+			for ( int pp = in.readInt(); pp > 0; pp-- ) {
+				Person person = factory.createPerson( Id.createPersonId( readString() ) );
+				readAttributes( person.getAttributes() );
+				for ( int ii = in.readInt(); ii > 0; ii-- ) {
+					person.addPlan( readPlan( factory ) );
+				}
+				int selected = in.readInt();
+				if ( selected >= 0 ) {
+					person.setSelectedPlan( person.getPlans().get( selected ) );
+				}
+				population.addPerson( person );
+			}
+		}
+
+		private Plan readPlan( PopulationFactory factory ) throws IOException {
+			Plan plan = factory.createPlan();
+			plan.setType( readString() );
+			if ( in.readBoolean() ) {
+				plan.setScore( in.readDouble() );
+			}
+			readAttributes( plan.getAttributes() );
+			for ( int ii = in.readInt(); ii > 0; ii-- ) {
+				byte kind = in.readByte();
+				if ( kind == ACTIVITY ) {
+					plan.addActivity( readActivity( factory ) );
+				} else if ( kind == LEG ) {
+					plan.addLeg( readLeg( factory ) );
+				} else {
+					throw new IOException( "Unknown plan element " + kind );
+				}
+			}
+			return plan;
+		}
+
+		private Activity readActivity( PopulationFactory factory ) throws IOException {
+			String type = readString();
+			Id<Link> linkId = readId( Link.class );
+			Id<ActivityFacility> facilityId = readId( ActivityFacility.class );
+			Coord coord = null;
+			if ( in.readBoolean() ) {
+				double x = in.readDouble();
+				double y = in.readDouble();
+				double z = in.readDouble();
+				coord = Double.isNaN( z ) ? new Coord( x, y ) : new Coord( x, y, z );
+			}
+			Activity activity;
+			if ( StageActivityTypeIdentifier.isStageActivity( type ) ) {
+				activity = coord != null ? factory.createInteractionActivityFromCoord( type, coord ) : factory.createInteractionActivityFromLinkId( type, linkId );
+			} else {
+				activity = coord != null ? factory.createActivityFromCoord( type, coord ) : factory.createActivityFromLinkId( type, linkId );
+			}
+			activity.setLinkId( linkId );
+			activity.setFacilityId( facilityId );
+			double startTime = in.readDouble();
+			double endTime = in.readDouble();
+			double maximumDuration = in.readDouble();
+			if ( !Double.isNaN( startTime ) ) {
+				activity.setStartTime( startTime );
+			}
+			if ( !Double.isNaN( endTime ) ) {
+				activity.setEndTime( endTime );
+			}
+			if ( !Double.isNaN( maximumDuration ) ) {
+				activity.setMaximumDuration( maximumDuration );
+			}
+			readAttributes( activity.getAttributes() );
+			return activity;
+		}
+
+		private Leg readLeg( PopulationFactory factory ) throws IOException {
+			Leg leg = factory.createLeg( readString() );
+			double departureTime = in.readDouble();
+			double travelTime = in.readDouble();
+			if ( !Double.isNaN( departureTime ) ) {
+				leg.setDepartureTime( departureTime );
+			}
+			if ( !Double.isNaN( travelTime ) ) {
+				leg.setTravelTime( travelTime );
+			}
+			readAttributes( leg.getAttributes() );
+			if ( !in.readBoolean() ) {
+				return leg;
+			}
+			String routeType = readString();
+			Id<Link> startLinkId = readId( Link.class );
+			Id<Link> endLinkId = readId( Link.class );
+			double routeTravelTime = in.readDouble();
+			double distance = in.readDouble();
+			RouteFactories routeFactories = factory.getRouteFactories();
+			Route route = routeFactories.createRoute( routeFactories.getRouteClassForType( routeType ), startLinkId, endLinkId );
+			if ( in.readBoolean() ) {
+				NetworkRoute networkRoute = (NetworkRoute) route;
+				Id<Vehicle> vehicleId = readId( Vehicle.class );
+				List<Id<Link>> linkIds = new ArrayList<>();
+				for ( int ii = in.readInt(); ii > 0; ii-- ) {
+					linkIds.add( readId( Link.class ) );
+				}
+				networkRoute.setLinkIds( startLinkId, linkIds, endLinkId );
+				networkRoute.setVehicleId( vehicleId );
+			} else {
+				String description = readString();
+				if ( description != null ) {
+					route.setRouteDescription( description );
+				}
+			}
+			if ( !Double.isNaN( routeTravelTime ) ) {
+				route.setTravelTime( routeTravelTime );
+			}
+			route.setDistance( distance );
+			leg.setRoute( route );
+			return leg;
+		}
+
+		private void readAttributes( Attributes attributes ) throws IOException {
+			for ( int ii = in.readInt(); ii > 0; ii-- ) {
+				String name = readString();
+				byte type = in.readByte();
+				switch ( type ) {
+					case STRING:
+						attributes.putAttribute( name, readString() );
+						break;
+					case DOUBLE:
+						attributes.putAttribute( name, in.readDouble() );
+						break;
+					case INTEGER:
+						attributes.putAttribute( name, in.readInt() );
+						break;
+					case LONG:
+						attributes.putAttribute( name, in.readLong() );
+						break;
+					case BOOLEAN:
+						attributes.putAttribute( name, in.readBoolean() );
+						break;
+					default:
+						throw new IOException( "Unknown attribute type " + type );
+				}
+			}
+		}
+
+		private <T> Id<T> readId( Class<T> type ) throws IOException {
+			String id = readString();
+			return id == null ? null : Id.create( id, type );
+		}
+
+		private String readString() throws IOException {
+			int number = in.readInt();
+			if ( number == -2 ) {
+				return null;
+			}
+			if ( number >= 0 ) {
+				return strings.get( number );
+			}
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully( bytes );
+			String string = new String( bytes, StandardCharsets.UTF_8 );
+			strings.add( string );
+			return string;
+		}
+
+		private String[] readStrings( int length ) throws IOException {
+			String[] array = new String[length];
+			for ( int ii = 0; ii < length; ii++ ) {
+				array[ii] = readString();
+			}
+			return array;
+		}
+
+		private int[] readInts( int length ) throws IOException {
+			int[] array = new int[length];
+			for ( int ii = 0; ii < length; ii++ ) {
+				array[ii] = in.readInt();
+			}
+			return array;
+		}
+
+		private double[] readDoubles( int length ) throws IOException {
+			double[] array = new double[length];
+			for ( int ii = 0; ii < length; ii++ ) {
+				array[ii] = in.readDouble();
+			}
+			return array;
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps local copies of http(s) inputs, so that repeated runs do not download them again.  The copies are stored
+ * uncompressed, so that they need not be inflated again either: <code>.../berlin-v5.5.3-1pct.output_network.xml.gz</code>
+ * becomes <code>&lt;checksum of the url&gt;-berlin-v5.5.3-1pct.output_network.xml</code> in the cache directory.
+ * <p>
+ * A copy is used as long as it exists; to get a new version of a file, delete its copy.  Copies are written under a
+ * temporary name and then moved into place, so several runs may share one cache directory.
+ */
+public final class UrlInputCache {
+	private static final Logger log = LogManager.getLogger( UrlInputCache.class );
+
+	private final Path directory;
+
+	public UrlInputCache( Path directory ) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the url of the local copy of an http(s) url, downloading it if there is none yet; other urls unchanged.
+	 */
+	public URL get( URL url ) {
+		if ( !"http".equals( url.getProtocol() ) && !"https".equals( url.getProtocol() ) ) {
+			return url;
+		}
+		Path copy = directory.resolve( localName( url ) );
+		if ( !Files.exists( copy ) ) {
+			download( url, copy );
+		} else {
+			log.info( "Using the local copy {} of {}", copy, url );
+		}
+		try {
+			return copy.toUri().toURL();
+		} catch ( MalformedURLException e ) {
+			throw new IllegalStateException( e );
+		}
+	}
+
+	static String localName( URL url ) {
+		CRC32 crc = new CRC32();
+		crc.update( url.toString().getBytes( StandardCharsets.UTF_8 ) );
+		String name = url.getPath().substring( url.getPath().lastIndexOf( '/' ) + 1 );
+		if ( name.endsWith( ".gz" ) ) {
+			name = name.substring( 0, name.length() - ".gz".length() );
+		}
+		return String.format( "%08x-%s", crc.getValue(), name );
+	}
+
+	private static void download( URL url, Path copy ) {
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories( copy.toAbsolutePath().getParent() );
+			Path temporary = Files.createTempFile( copy.toAbsolutePath().getParent(), copy.getFileName().toString(), ".tmp" );
+			try {
+				// IOUtils inflates .gz files:
+				try ( InputStream in = IOUtils.getInputStream( url ) ) {
+					Files.copy( in, temporary, StandardCopyOption.REPLACE_EXISTING );
+				}
+				try {
+					Files.move( temporary, copy, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+				} catch ( AtomicMoveNotSupportedException e ) {
+					Files.move( temporary, copy, StandardCopyOption.REPLACE_EXISTING );
+				}
+			} finally {
+				Files.deleteIfExists( temporary );
+			}
+		} catch ( IOException e ) {
+			throw new UncheckedIOException( "Could not download " + url, e );
+		}
+		log.info( "Downloaded {} to {} in {} s", url, copy, String.format( "%.1f", (System.nanoTime() - start) / 1e9 ) );
+	}
+
+}
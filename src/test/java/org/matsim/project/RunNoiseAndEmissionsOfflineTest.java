@@ -0,0 +1,85 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.emissions.LinkEmissionsAggregator;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+public class RunNoiseAndEmissionsOfflineTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSampleScenario() throws IOException {
+		String outputDirectory = utils.getOutputDirectory() + "run/";
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( outputDirectory );
+		RunNoiseAndEmissionsOffline.run( config, EVENTS_FILE );
+
+		// the emissions are the same as without noise:
+		Assert.assertEquals( Files.readAllLines( Paths.get( emissionsWithoutNoise() ) ),
+				Files.readAllLines( Paths.get( outputDirectory + "output.emissionsPerLink.csv" ) ) );
+		Path noiseDirectory = Paths.get( outputDirectory, "noise" );
+		try ( Stream<Path> files = Files.list( noiseDirectory ) ) {
+			Assert.assertTrue( "no noise output", files.findAny().isPresent() );
+		}
+	}
+
+	private String emissionsWithoutNoise() {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( utils.getOutputDirectory() );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		AbstractModule module = new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( eventsManager );
+				bind( EmissionModule.class ) ;
+			}
+		};
+		Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+		LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+		eventsManager.addHandler( aggregator );
+		EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+		String file = utils.getOutputDirectory() + "emissionsPerLink.csv";
+		aggregator.writeCsv( file );
+		return file;
+	}
+
+}
@@ -0,0 +1,47 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.utils.eventsfilecomparison.EventsFileComparator;
+
+import java.net.URL;
+
+public class RunParallelEventHandlingComparisonTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	@Test
+	public final void testSameEventsAsSerial() {
+		final URL baseUrl = ExamplesUtils.getTestScenarioURL( "equil" );
+		final String fullUrl = IOUtils.extendUrl( baseUrl, "config.xml" ).toString();
+		String [] args = {fullUrl,
+			  "--config:controler.outputDirectory", utils.getOutputDirectory(),
+			  "--config:controler.lastIteration", "1"
+		} ;
+		Assert.assertEquals( EventsFileComparator.Result.FILES_ARE_EQUAL, RunParallelEventHandlingComparison.compare( args, 2, false ) );
+		Assert.assertEquals( EventsFileComparator.Result.FILES_ARE_EQUAL, RunParallelEventHandlingComparison.compare( args, 2, true ) );
+	}
+
+}
@@ -0,0 +1,84 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.examples.ExamplesUtils;
+import org.matsim.project.scenario.ParallelScenarioLoaderTest;
+import org.matsim.testcases.MatsimTestUtils;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class RunScenarioSweepTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String CONFIG_FILE = "scenarios/equil/config.xml";
+
+	@Test
+	public final void testReadSweep() {
+		List<RunScenarioSweep.SweepRun> runs = RunScenarioSweep.readSweep( IOUtils.resolveFileOrResource( "scenarios/equil/sweep.csv" ) );
+		Assert.assertEquals( 3, runs.size() );
+		Assert.assertEquals( "base", runs.get( 0 ).name );
+		Assert.assertEquals( List.of(), runs.get( 0 ).overrides );
+		Assert.assertEquals( List.of( "--config:planCalcScore.BrainExpBeta", "1.0", "--config:planCalcScore.learningRate", "0.5" ), runs.get( 2 ).overrides );
+	}
+
+	@Test
+	public final void testSharedNetwork() {
+		Scenario expected = ScenarioUtils.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		RunScenarioSweep sweep = new RunScenarioSweep();
+		Scenario first = sweep.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		Scenario second = sweep.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+
+		Assert.assertSame( first.getNetwork(), second.getNetwork() );
+		// the routes of both are resolved in the shared network:
+		ParallelScenarioLoaderTest.assertSameRoutes( expected, first );
+		ParallelScenarioLoaderTest.assertSameRoutes( expected, second );
+	}
+
+	@Test
+	public final void testConcurrentRuns() throws IOException {
+		Path sweepFile = Paths.get( utils.getOutputDirectory(), "sweep.input.csv" );
+		Files.write( sweepFile, "run;controler.lastIteration;planCalcScore.BrainExpBeta\nfirst;0;\nsecond;1;1.0\n".getBytes( StandardCharsets.UTF_8 ) );
+		String config = IOUtils.extendUrl( ExamplesUtils.getTestScenarioURL( "equil" ), "config.xml" ).toString();
+
+		int exitCode = new CommandLine( new RunScenarioSweep() ).execute( sweepFile.toString(), "--config", config,
+				"--output", utils.getOutputDirectory() + "runs/", "--parallel-runs", "2", "--threads", "2" );
+
+		Assert.assertEquals( 0, exitCode );
+		Assert.assertTrue( Files.exists( Paths.get( utils.getOutputDirectory(), "runs/first/output_events.xml.gz" ) ) );
+		Assert.assertTrue( Files.exists( Paths.get( utils.getOutputDirectory(), "runs/second/output_events.xml.gz" ) ) );
+		Assert.assertTrue( Files.exists( Paths.get( utils.getOutputDirectory(), "runs/second/ITERS/it.1" ) ) );
+		Assert.assertEquals( 3, Files.readAllLines( Paths.get( utils.getOutputDirectory(), "runs/sweep.csv" ) ).size() );
+	}
+
+}
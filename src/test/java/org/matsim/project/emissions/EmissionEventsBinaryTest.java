@@ -0,0 +1,84 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class EmissionEventsBinaryTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	@Test
+	public final void testWriteAndReplay() {
+		// more events than fit into one block, so that the id dictionary has to carry over between blocks:
+		Random random = new Random( 4711 );
+		List<Event> expected = new ArrayList<>();
+		for ( int ii = 0; ii < 100_000; ii++ ) {
+			Map<Pollutant, Double> emissions = new EnumMap<>( Pollutant.class );
+			emissions.put( Pollutant.CO2_TOTAL, random.nextDouble() );
+			emissions.put( Pollutant.NOx, 0. );
+			if ( ii % 3 == 0 ) {
+				emissions.put( Pollutant.PM, random.nextDouble() );
+				expected.add( new ColdEmissionEvent( ii, Id.createLinkId( "l" + random.nextInt( 1000 ) ), Id.createVehicleId( "v" + ii % 777 ), emissions ) );
+			} else {
+				expected.add( new WarmEmissionEvent( ii, Id.createLinkId( "l" + random.nextInt( 1000 ) ), Id.createVehicleId( "v" + ii % 777 ), emissions ) );
+			}
+		}
+
+		String filename = utils.getOutputDirectory() + "emission.events.bin";
+		try ( EmissionEventsBinaryWriter writer = new EmissionEventsBinaryWriter( filename ) ) {
+			for ( Event event : expected ) {
+				if ( event instanceof WarmEmissionEvent ) {
+					writer.handleEvent( (WarmEmissionEvent) event );
+				} else {
+					writer.handleEvent( (ColdEmissionEvent) event );
+				}
+			}
+		}
+
+		List<Event> actual = new ArrayList<>();
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler( (BasicEventHandler) actual::add );
+		new EmissionEventsBinaryReader( eventsManager ).readFile( filename );
+
+		Assert.assertEquals( expected.size(), actual.size() );
+		for ( int ii = 0; ii < expected.size(); ii++ ) {
+			Assert.assertEquals( expected.get( ii ).getClass(), actual.get( ii ).getClass() );
+			Assert.assertEquals( expected.get( ii ).getAttributes(), actual.get( ii ).getAttributes() );
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup;
+import org.matsim.contrib.emissions.utils.EmissionsConfigGroup.EmissionsComputationMethod;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.List;
+
+public class EmissionsComparisonTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testVariantsSameAsSingleMethodRuns() {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( utils.getOutputDirectory() );
+		ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class ).setComparisonMethods( "AverageSpeed,StopAndGoFraction" );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+
+		List<EmissionsComparison.Variant> variants = EmissionsComparison.getVariants( config );
+		Assert.assertEquals( 2, variants.size() );
+		EmissionsComparison comparison = new EmissionsComparison( config, scenario, variants );
+		comparison.readFile( EVENTS_FILE );
+
+		for ( int vv = 0; vv < variants.size(); vv++ ) {
+			EmissionsComputationMethod method = variants.get( vv ).getMethod();
+			LinkEmissionsAggregator expected = runSingleMethod( config, scenario, method );
+			LinkEmissionsAggregator actual = comparison.getLinkEmissionsAggregator( vv );
+			Assert.assertTrue( expected.getNumberOfLinksWithEmissions() > 0 );
+			Assert.assertEquals( method.toString(), expected.getLinksWithEmissions(), actual.getLinksWithEmissions() );
+			for ( Pollutant pollutant : Pollutant.values() ) {
+				Assert.assertEquals( method + " " + pollutant, expected.getTotal( pollutant ), actual.getTotal( pollutant ), MatsimTestUtils.EPSILON );
+				for ( int linkIndex = expected.getLinksWithEmissions().nextSetBit( 0 ); linkIndex >= 0;
+					  linkIndex = expected.getLinksWithEmissions().nextSetBit( linkIndex + 1 ) ) {
+					Id<Link> linkId = Id.get( linkIndex, Link.class );
+					Assert.assertEquals( method + " " + linkId + " " + pollutant, expected.getEmission( linkId, pollutant ),
+							actual.getEmission( linkId, pollutant ), MatsimTestUtils.EPSILON );
+				}
+			}
+		}
+	}
+
+	/**
+	 * the emissions as the runners compute them, with the method set in the config of the scenario:
+	 */
+	private static LinkEmissionsAggregator runSingleMethod( Config config, Scenario scenario, EmissionsComputationMethod method ) {
+		ConfigUtils.addOrGetModule( config, EmissionsConfigGroup.class ).setEmissionsComputationMethod( method );
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		AbstractModule module = new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( eventsManager );
+				bind( EmissionModule.class ) ;
+			}
+		};
+		Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+		LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+		eventsManager.addHandler( aggregator );
+		EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+		return aggregator;
+	}
+
+}
@@ -0,0 +1,136 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class EmissionsRasterTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final List<Pollutant> POLLUTANTS = Arrays.asList( Pollutant.CO2_TOTAL, Pollutant.NOx );
+
+	@Test
+	public final void testLinkCellWeights() {
+		Network network = createNetwork();
+		Id<Link> ab = Id.createLinkId( "raster-ab" );
+
+		LinkCellWeights weights = LinkCellWeights.build( network, 100., 0. );
+		// the link from (50, 50) to (350, 50) crosses four cells:
+		Map<Integer, Double> abWeights = weights.getWeights( ab );
+		Assert.assertEquals( 4, abWeights.size() );
+		Assert.assertEquals( 1. / 6, abWeights.get( weights.getCell( new Coord( 75., 50. ) ) ), 1e-6 );
+		Assert.assertEquals( 1. / 3, abWeights.get( weights.getCell( new Coord( 150., 50. ) ) ), 1e-6 );
+		Assert.assertEquals( 1. / 3, abWeights.get( weights.getCell( new Coord( 250., 50. ) ) ), 1e-6 );
+		Assert.assertEquals( 1. / 6, abWeights.get( weights.getCell( new Coord( 325., 50. ) ) ), 1e-6 );
+
+		// smoothing spreads the weights, but keeps their sum:
+		LinkCellWeights smoothed = LinkCellWeights.build( network, 100., 250. );
+		for ( Id<Link> linkId : network.getLinks().keySet() ) {
+			Map<Integer, Double> linkWeights = smoothed.getWeights( linkId );
+			Assert.assertTrue( linkWeights.size() > weights.getWeights( linkId ).size() );
+			Assert.assertEquals( 1., linkWeights.values().stream().mapToDouble( Double::doubleValue ).sum(), 1e-6 );
+		}
+	}
+
+	@Test
+	public final void testRasterize() {
+		Network network = createNetwork();
+		Id<Link> ab = Id.createLinkId( "raster-ab" );
+		Id<Link> ca = Id.createLinkId( "raster-ca" );
+		Id<Vehicle> vehicleId = Id.createVehicleId( "raster-vehicle" );
+
+		LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+		aggregator.handleEvent( new WarmEmissionEvent( 10., ab, vehicleId, emissions( 6., 0.6 ) ) );
+		aggregator.handleEvent( new WarmEmissionEvent( 1000., ca, vehicleId, emissions( 10., 1. ) ) );
+		Path cubeFile = Paths.get( utils.getOutputDirectory(), "cube.bin" );
+		try ( LinkEmissionsCubeWriter writer = new LinkEmissionsCubeWriter( cubeFile, network, 900., 1800., POLLUTANTS ) ) {
+			writer.handleEvent( new WarmEmissionEvent( 10., ab, vehicleId, emissions( 6., 0.6 ) ) );
+			writer.handleEvent( new WarmEmissionEvent( 1000., ca, vehicleId, emissions( 10., 1. ) ) );
+		}
+
+		LinkCellWeights weights = LinkCellWeights.build( network, 100., 0. );
+		EmissionsRaster totals = EmissionsRaster.rasterize( weights, aggregator, POLLUTANTS );
+		Assert.assertEquals( 1, totals.getNumberOfTimeBins() );
+		Assert.assertEquals( 16., totals.getTotal( Pollutant.CO2_TOTAL ), 1e-4 );
+		Assert.assertEquals( 1.6, totals.getTotal( Pollutant.NOx ), 1e-5 );
+		Assert.assertEquals( 0., totals.getTotal( Pollutant.CO ), 0. );
+		// only link ab crosses the cell from (200, 0) to (300, 100):
+		int cell = weights.getCell( new Coord( 250., 50. ) );
+		int column = cell % weights.getNumberOfColumns();
+		int row = cell / weights.getNumberOfColumns();
+		Assert.assertEquals( 2., totals.get( 0, Pollutant.CO2_TOTAL, column, row ), 1e-5 );
+
+		String file = utils.getOutputDirectory() + "raster.bin.gz";
+		totals.write( file );
+		EmissionsRaster read = EmissionsRaster.read( file );
+		Assert.assertEquals( POLLUTANTS, read.getPollutants() );
+		Assert.assertEquals( totals.getNumberOfColumns(), read.getNumberOfColumns() );
+		Assert.assertEquals( totals.getMinX(), read.getMinX(), 0. );
+		Assert.assertEquals( 2., read.get( 0, Pollutant.CO2_TOTAL, column, row ), 1e-5 );
+		Assert.assertEquals( totals.getTotal( Pollutant.NOx ), read.getTotal( Pollutant.NOx ), 0. );
+
+		// from the cube, with its time bins and smoothing:
+		try ( LinkEmissionsCube cube = LinkEmissionsCube.open( cubeFile ) ) {
+			EmissionsRaster binned = EmissionsRaster.rasterize( LinkCellWeights.build( network, 100., 250. ), cube, Arrays.asList( Pollutant.NOx ) );
+			Assert.assertEquals( 2, binned.getNumberOfTimeBins() );
+			Assert.assertEquals( 900., binned.getTimeBinSize(), 0. );
+			Assert.assertEquals( Arrays.asList( Pollutant.NOx ), binned.getPollutants() );
+			Assert.assertEquals( 1.6, binned.getTotal( Pollutant.NOx ), 1e-5 );
+		}
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node a = NetworkUtils.createAndAddNode( network, Id.createNodeId( "raster-a" ), new Coord( 50., 50. ) );
+		Node b = NetworkUtils.createAndAddNode( network, Id.createNodeId( "raster-b" ), new Coord( 350., 50. ) );
+		Node c = NetworkUtils.createAndAddNode( network, Id.createNodeId( "raster-c" ), new Coord( 350., 350. ) );
+		NetworkUtils.createAndAddLink( network, Id.createLinkId( "raster-ab" ), a, b, 300., 13.89, 1800., 1. );
+		NetworkUtils.createAndAddLink( network, Id.createLinkId( "raster-bc" ), b, c, 300., 13.89, 1800., 1. );
+		NetworkUtils.createAndAddLink( network, Id.createLinkId( "raster-ca" ), c, a, 424.26, 13.89, 1800., 1. );
+		return network;
+	}
+
+	private static Map<Pollutant, Double> emissions( double co2, double nox ) {
+		Map<Pollutant, Double> emissions = new EnumMap<>( Pollutant.class );
+		emissions.put( Pollutant.CO2_TOTAL, co2 );
+		emissions.put( Pollutant.NOx, nox );
+		return emissions;
+	}
+
+}
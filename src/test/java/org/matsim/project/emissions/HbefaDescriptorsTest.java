@@ -0,0 +1,92 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.emissions.EmissionUtils;
+import org.matsim.contrib.emissions.HbefaVehicleCategory;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+public class HbefaDescriptorsTest {
+
+	private static final String WARM_FILE = "scenarios/sampleScenario/EFA_HOT_Vehcat_avg_demo_all_gradients.csv";
+	private static final String COLD_FILE = "scenarios/sampleScenario/sample_41_EFA_ColdStart_vehcat_2020average.csv";
+
+	@Test
+	public final void testGradients() {
+		HbefaEmissionFactorIndex index = HbefaEmissionFactorIndex.readFiles( WARM_FILE, COLD_FILE );
+
+		Network network = NetworkUtils.createNetwork();
+		Node node1 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "grade_1" ), new Coord( 0., 0. ) );
+		Node node2 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "grade_2" ), new Coord( 1000., 0. ) );
+		Object[] grades = { null, "+/-2%", -5.2, "3%", "steep" };
+		String[] expectedGradients = { "0%", "+/-2%", "-6%", "+4%", "0%" };
+		Link[] links = new Link[grades.length];
+		for ( int ii = 0; ii < grades.length; ii++ ) {
+			links[ii] = NetworkUtils.createAndAddLink( network, Id.createLinkId( "grade_" + ii ), node1, node2, 1000., 27.78, 1800., 1. );
+			EmissionUtils.setHbefaRoadType( links[ii], "RUR/Trunk/80" );
+			if ( grades[ii] != null ) {
+				links[ii].getAttributes().putAttribute( RoadTypeClassifier.ROAD_GRADE, grades[ii] );
+			}
+		}
+
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		VehicleType car = VehicleUtils.createVehicleType( Id.create( "grade_car", VehicleType.class ) );
+		VehicleUtils.setHbefaVehicleCategory( car.getEngineInformation(), HbefaVehicleCategory.PASSENGER_CAR.toString() );
+		VehicleUtils.setHbefaTechnology( car.getEngineInformation(), "average" );
+		VehicleUtils.setHbefaSizeClass( car.getEngineInformation(), "average" );
+		VehicleUtils.setHbefaEmissionsConcept( car.getEngineInformation(), "average" );
+		vehicles.addVehicleType( car );
+		Vehicle vehicle = VehicleUtils.createVehicle( Id.createVehicleId( "grade_v" ), car );
+		vehicles.addVehicle( vehicle );
+
+		HbefaDescriptors descriptors = HbefaDescriptors.resolve( index, network, vehicles );
+		for ( int ii = 0; ii < links.length; ii++ ) {
+			Assert.assertEquals( String.valueOf( grades[ii] ), index.getGradientCode( expectedGradients[ii] ), descriptors.getGradient( links[ii].getId().index() ) );
+		}
+		Assert.assertEquals( index.getAverageSegmentCode( "pass. car" ), descriptors.getSegment( vehicle.getId().index() ) );
+
+		// links that were created after the descriptors:
+		int later = Integer.MAX_VALUE / 2;
+		Assert.assertEquals( HbefaDescriptors.UNKNOWN, descriptors.getRoadType( later ) );
+		Assert.assertEquals( HbefaDescriptors.UNKNOWN, descriptors.getGradient( later ) );
+		Assert.assertEquals( 0., descriptors.getLength( later ), 0. );
+	}
+
+	@Test
+	public final void testParseGrade() {
+		Assert.assertEquals( -6., HbefaDescriptors.parseGrade( "-6%" ), 0. );
+		Assert.assertEquals( 2., HbefaDescriptors.parseGrade( "+/-2%" ), 0. );
+		Assert.assertEquals( 2.5, HbefaDescriptors.parseGrade( " 2.5 " ), 0. );
+		Assert.assertEquals( -1., HbefaDescriptors.parseGrade( -1 ), 0. );
+		Assert.assertTrue( Double.isNaN( HbefaDescriptors.parseGrade( "steep" ) ) );
+		Assert.assertTrue( Double.isNaN( HbefaDescriptors.parseGrade( null ) ) );
+	}
+
+}
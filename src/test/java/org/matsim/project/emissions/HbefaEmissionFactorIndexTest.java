@@ -0,0 +1,69 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.testcases.MatsimTestUtils;
+
+public class HbefaEmissionFactorIndexTest {
+
+	private static final String WARM_FILE = "scenarios/sampleScenario/EFA_HOT_Vehcat_avg_demo_all_gradients.csv";
+	private static final String COLD_FILE = "scenarios/sampleScenario/sample_41_EFA_ColdStart_vehcat_2020average.csv";
+	private static final String DETAILED_WARM_FILE = "scenarios/sampleScenario/sample_41_EFA_HOT_SubSegm_2020detailed.csv";
+
+	@Test
+	public final void testAverageTables() {
+		HbefaEmissionFactorIndex index = HbefaEmissionFactorIndex.readFiles( WARM_FILE, COLD_FILE );
+
+		int passengerCar = index.getAverageSegmentCode( "pass. car" );
+		int hc = index.getComponentCode( "HC" );
+		int trunk80 = index.getRoadTypeCode( "RUR/Trunk/80" );
+		int freeflow = index.getTrafficSituationCode( "Freeflow" );
+		Assert.assertTrue( passengerCar >= 0 && hc >= 0 && trunk80 >= 0 && freeflow >= 0 );
+
+		int flat = index.getWarmRow( passengerCar, trunk80, index.getGradientCode( "0%" ) );
+		Assert.assertEquals( 79.04334259, index.getWarmSpeed( flat, freeflow ), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( 0.007471068, index.getWarmFactor( flat, freeflow, hc ), MatsimTestUtils.EPSILON );
+		int hilly = index.getWarmRow( passengerCar, trunk80, index.getGradientCode( "+/-2%" ) );
+		Assert.assertEquals( 0.008247676, index.getWarmFactor( hilly, freeflow, hc ), MatsimTestUtils.EPSILON );
+
+		int coldStart = index.getAmbientConditionCode( "TØ,0-1h,0-1km" );
+		Assert.assertEquals( 5.043848991, index.getColdFactor( passengerCar, index.getComponentCode( "CO2(total)" ), coldStart ), MatsimTestUtils.EPSILON );
+
+		// unknown keys:
+		Assert.assertEquals( -1, index.getAverageSegmentCode( "tram" ) );
+		Assert.assertEquals( -1, index.getWarmRow( passengerCar, index.getRoadTypeCode( "MW/Nat./130" ), 0 ) );
+	}
+
+	@Test
+	public final void testDetailedTable() {
+		HbefaEmissionFactorIndex index = HbefaEmissionFactorIndex.readFiles( DETAILED_WARM_FILE, null );
+
+		int segment = index.getSegmentCode( "pass. car", "petrol (4S)", "not specified", "PC P Euro-1" );
+		Assert.assertTrue( segment >= 0 );
+		Assert.assertEquals( -1, index.getAverageSegmentCode( "pass. car" ) );
+
+		int row = index.getWarmRow( segment, index.getRoadTypeCode( "URB/Local/50" ), index.getGradientCode( "0%" ) );
+		int freeflow = index.getTrafficSituationCode( "Freeflow" );
+		Assert.assertEquals( 41.6627655, index.getWarmSpeed( row, freeflow ), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( 0.131132901, index.getWarmFactor( row, freeflow, index.getComponentCode( "HC" ) ), MatsimTestUtils.EPSILON );
+	}
+
+}
@@ -0,0 +1,83 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.analysis.EmissionsOnLinkEventHandler;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.Map;
+
+public class LinkEmissionsAggregatorTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSameAsEmissionsOnLinkEventHandler() {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( utils.getOutputDirectory() );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		AbstractModule module = new AbstractModule(){
+			@Override
+			public void install(){
+				bind( Scenario.class ).toInstance( scenario );
+				bind( EventsManager.class ).toInstance( eventsManager );
+				bind( EmissionModule.class ) ;
+			}
+		};
+		Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+		EmissionsOnLinkEventHandler expected = new EmissionsOnLinkEventHandler( 10. );
+		eventsManager.addHandler( expected );
+		LinkEmissionsAggregator actual = new LinkEmissionsAggregator();
+		eventsManager.addHandler( actual );
+		EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+
+		Map<Id<Link>, Map<Pollutant, Double>> link2pollutants = expected.getLink2pollutants();
+		Assert.assertFalse( link2pollutants.isEmpty() );
+		Assert.assertEquals( link2pollutants.size(), actual.getNumberOfLinksWithEmissions() );
+		for ( Pollutant pollutant : Pollutant.values() ) {
+			double total = 0.;
+			for ( Map.Entry<Id<Link>, Map<Pollutant, Double>> entry : link2pollutants.entrySet() ) {
+				double emission = entry.getValue().getOrDefault( pollutant, 0. );
+				Assert.assertEquals( entry.getKey() + " " + pollutant, emission, actual.getEmission( entry.getKey(), pollutant ), MatsimTestUtils.EPSILON );
+				total += emission;
+			}
+			Assert.assertEquals( pollutant.toString(), total, actual.getTotal( pollutant ), 1e-6 );
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class LinkEmissionsCubeTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	@Test
+	public final void testWriteAndRead() {
+		Network network = NetworkUtils.createNetwork();
+		Node node1 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "1" ), new Coord( 0., 0. ) );
+		Node node2 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "2" ), new Coord( 1000., 0. ) );
+		Id<Link> link12 = Id.createLinkId( "12" );
+		Id<Link> link21 = Id.createLinkId( "21" );
+		NetworkUtils.createAndAddLink( network, link12, node1, node2, 1000., 13.89, 1800., 1. );
+		NetworkUtils.createAndAddLink( network, link21, node2, node1, 1000., 13.89, 1800., 1. );
+		Id<Vehicle> vehicleId = Id.createVehicleId( "v" );
+
+		Path file = Paths.get( utils.getOutputDirectory(), "cube.bin" );
+		try ( LinkEmissionsCubeWriter writer = new LinkEmissionsCubeWriter( file, network, 900., 3600., Arrays.asList( Pollutant.CO2_TOTAL, Pollutant.NOx ) ) ) {
+			writer.handleEvent( new WarmEmissionEvent( 10., link12, vehicleId, emissions( 1., 0.1 ) ) );
+			writer.handleEvent( new WarmEmissionEvent( 20., link12, vehicleId, emissions( 2., 0.2 ) ) );
+			writer.handleEvent( new ColdEmissionEvent( 1000., link21, vehicleId, emissions( 4., 0.4 ) ) );
+			// after the end time, goes into the last bin:
+			writer.handleEvent( new WarmEmissionEvent( 5000., link21, vehicleId, emissions( 8., 0.8 ) ) );
+		}
+
+		try ( LinkEmissionsCube cube = LinkEmissionsCube.open( file ) ) {
+			Assert.assertEquals( 4, cube.getNumberOfTimeBins() );
+			Assert.assertEquals( 900., cube.getTimeBinSize(), 0. );
+			Assert.assertEquals( Arrays.asList( Pollutant.CO2_TOTAL, Pollutant.NOx ), cube.getPollutants() );
+			Assert.assertEquals( 2, cube.getLinkIds().size() );
+
+			Assert.assertEquals( 3., cube.get( link12, 0, Pollutant.CO2_TOTAL ), MatsimTestUtils.EPSILON );
+			Assert.assertEquals( 0.3, cube.get( link12, 0, Pollutant.NOx ), MatsimTestUtils.EPSILON );
+			Assert.assertEquals( 4., cube.get( link21, 1, Pollutant.CO2_TOTAL ), MatsimTestUtils.EPSILON );
+			Assert.assertEquals( 8., cube.get( link21, 3, Pollutant.CO2_TOTAL ), MatsimTestUtils.EPSILON );
+			Assert.assertEquals( 0., cube.get( link21, 0, Pollutant.CO2_TOTAL ), MatsimTestUtils.EPSILON );
+			// not kept:
+			Assert.assertEquals( 0., cube.get( link12, 0, Pollutant.CO ), MatsimTestUtils.EPSILON );
+
+			Assert.assertArrayEquals( new double[]{ 0., 0.4, 0., 0.8 }, cube.getTimeSeries( link21, Pollutant.NOx ), MatsimTestUtils.EPSILON );
+			double[] slice = cube.getTimeSlice( 0, Pollutant.CO2_TOTAL );
+			Assert.assertEquals( 3., slice[cube.getLinkIds().indexOf( link12 )], MatsimTestUtils.EPSILON );
+			Assert.assertEquals( 0., slice[cube.getLinkIds().indexOf( link21 )], MatsimTestUtils.EPSILON );
+		}
+	}
+
+	@Test
+	public final void testOpenOtherFile() throws IOException {
+		Path file = Paths.get( utils.getOutputDirectory(), "notACube.bin" );
+		Files.write( file, "no cube".getBytes( StandardCharsets.UTF_8 ) );
+		Assert.assertThrows( UncheckedIOException.class, () -> LinkEmissionsCube.open( file ) );
+		// the channel is closed on the failure, so the file can be replaced:
+		Files.delete( file );
+	}
+
+	private static Map<Pollutant, Double> emissions( double co2, double nox ) {
+		Map<Pollutant, Double> emissions = new EnumMap<>( Pollutant.class );
+		emissions.put( Pollutant.CO2_TOTAL, co2 );
+		emissions.put( Pollutant.NOx, nox );
+		emissions.put( Pollutant.CO, 99. );
+		return emissions;
+	}
+
+}
@@ -0,0 +1,120 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+public class OfflineEmissionsCheckpointsTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testResumeGivesSameOutputs() throws IOException {
+		OfflineEmissionsConfigGroup oecg = new OfflineEmissionsConfigGroup();
+
+		String uninterruptedFile = utils.getOutputDirectory() + "uninterrupted.emission.events.bin";
+		OfflineEmissionsCheckpoints uninterrupted = new OfflineEmissionsCheckpoints( Paths.get( utils.getOutputDirectory(), "checkpoints-1" ),
+				3600., EVENTS_FILE, uninterruptedFile );
+		run( oecg, uninterrupted, Long.MAX_VALUE );
+
+		// killed after 200 events, and started again:
+		String resumedFile = utils.getOutputDirectory() + "resumed.emission.events.bin";
+		Path checkpointDirectory = Paths.get( utils.getOutputDirectory(), "checkpoints-2" );
+		OfflineEmissionsCheckpoints killed = new OfflineEmissionsCheckpoints( checkpointDirectory, 3600., EVENTS_FILE, resumedFile );
+		Assert.assertThrows( IllegalStateException.class, () -> run( oecg, killed, 200 ) );
+		Assert.assertTrue( Files.exists( checkpointDirectory.resolve( "checkpoint.bin" ) ) );
+		OfflineEmissionsCheckpoints resumed = new OfflineEmissionsCheckpoints( checkpointDirectory, 3600., EVENTS_FILE, resumedFile );
+		run( oecg, resumed, Long.MAX_VALUE );
+
+		Assert.assertTrue( uninterrupted.getLinkEmissionsAggregator().getTotal( Pollutant.CO2_TOTAL ) > 0. );
+		Assert.assertEquals( uninterrupted.getLinkEmissionsAggregator().getTotal( Pollutant.CO2_TOTAL ),
+				resumed.getLinkEmissionsAggregator().getTotal( Pollutant.CO2_TOTAL ), 0. );
+		Assert.assertEquals( uninterrupted.getLinkEmissionsAggregator().getNumberOfLinksWithEmissions(),
+				resumed.getLinkEmissionsAggregator().getNumberOfLinksWithEmissions() );
+		Assert.assertArrayEquals( Files.readAllBytes( Paths.get( uninterruptedFile ) ), Files.readAllBytes( Paths.get( resumedFile ) ) );
+		Assert.assertFalse( Files.exists( checkpointDirectory.resolve( "checkpoint.bin" ) ) );
+	}
+
+	/**
+	 * Stands in for the emission module: the warm emissions of a link are its travel time, so they depend on the link
+	 * enter event before the checkpoint when a vehicle is on a link at the checkpoint.
+	 */
+	private static void run( OfflineEmissionsConfigGroup oecg, OfflineEmissionsCheckpoints checkpoints, long killAfter ) {
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		eventsManager.addHandler( new TravelTimeEmissions( eventsManager ) );
+		eventsManager.addHandler( checkpoints );
+		long[] numberOfEvents = { 0 };
+		try {
+			checkpoints.readFile( oecg, EVENTS_FILE, event -> {
+				if ( ++numberOfEvents[0] > killAfter ) {
+					throw new IllegalStateException( "killed" );
+				}
+				eventsManager.processEvent( event );
+			}, () -> {} );
+		} finally {
+			checkpoints.getBinaryWriter().close();
+		}
+	}
+
+	private static final class TravelTimeEmissions implements LinkEnterEventHandler, LinkLeaveEventHandler {
+		private final EventsManager eventsManager;
+		private final Map<Id<Vehicle>, Double> enterTimes = new HashMap<>();
+
+		TravelTimeEmissions( EventsManager eventsManager ) {
+			this.eventsManager = eventsManager;
+		}
+
+		@Override
+		public void handleEvent( LinkEnterEvent event ) {
+			enterTimes.put( event.getVehicleId(), event.getTime() );
+		}
+
+		@Override
+		public void handleEvent( LinkLeaveEvent event ) {
+			Double enterTime = enterTimes.remove( event.getVehicleId() );
+			if ( enterTime != null ) {
+				Map<Pollutant, Double> emissions = Map.of( Pollutant.CO2_TOTAL, event.getTime() - enterTime );
+				eventsManager.processEvent( new WarmEmissionEvent( event.getTime(), event.getLinkId(), event.getVehicleId(), emissions ) );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+public class OfflineEmissionsMetricsTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testInstrumentationDoesNotChangeOutputs() throws IOException {
+		Config config = ConfigUtils.createConfig( new OfflineEmissionsConfigGroup() );
+
+		double plain = run( config, utils.getOutputDirectory() + "plain/" );
+
+		ConfigUtils.addOrGetModule( config, OfflineEmissionsConfigGroup.class ).setMetricsInterval( 0.01 );
+		String outputDirectory = utils.getOutputDirectory() + "instrumented/";
+		double instrumented = run( config, outputDirectory );
+
+		Assert.assertTrue( plain > 0. );
+		Assert.assertEquals( plain, instrumented, 0. );
+		Assert.assertFalse( Files.exists( Paths.get( utils.getOutputDirectory() + "plain/output.metrics.csv" ) ) );
+
+		List<String> timeSeries = Files.readAllLines( Paths.get( outputDirectory + "output.metrics.csv" ) );
+		Assert.assertTrue( timeSeries.get( 0 ).startsWith( "wallTime_s;inputEvents;inputEventsPerSecond;emissionEvents;EmissionModule_s;LinkEmissionsAggregator_s;" ) );
+		Assert.assertTrue( timeSeries.size() >= 2 );
+		List<String> summary = Files.readAllLines( Paths.get( outputDirectory + "output.metrics.summary.csv" ) );
+		Assert.assertTrue( summary.contains( "inputEvents;" + countEvents() ) );
+	}
+
+	private static double run( Config config, String outputDirectory ) throws IOException {
+		Files.createDirectories( Paths.get( outputDirectory ) );
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		OfflineEmissionsMetrics metrics = new OfflineEmissionsMetrics( config, eventsManager, outputDirectory );
+		new LinkLengthEmissions( metrics.instrumentEmissionModule( eventsManager ) );
+		LinkEmissionsAggregator aggregator = new LinkEmissionsAggregator();
+		eventsManager.addHandler( metrics.timed( "LinkEmissionsAggregator", aggregator ) );
+		new MatsimEventsReader( eventsManager ).readFile( EVENTS_FILE );
+		metrics.close();
+		return aggregator.getTotal( Pollutant.CO2_TOTAL );
+	}
+
+	private static long countEvents() {
+		EventsManager eventsManager = EventsUtils.createEventsManager();
+		long[] count = { 0 };
+		eventsManager.addHandler( (BasicEventHandler) event -> count[0]++ );
+		new MatsimEventsReader( eventsManager ).readFile( EVENTS_FILE );
+		return count[0];
+	}
+
+	/**
+	 * Stands in for the emission module, which is registered on the events manager it emits to.
+	 */
+	private static final class LinkLengthEmissions implements LinkLeaveEventHandler {
+		private final EventsManager eventsManager;
+
+		LinkLengthEmissions( EventsManager eventsManager ) {
+			this.eventsManager = eventsManager;
+			eventsManager.addHandler( this );
+		}
+
+		@Override
+		public void handleEvent( LinkLeaveEvent event ) {
+			Map<Pollutant, Double> emissions = Map.of( Pollutant.CO2_TOTAL, 1. );
+			eventsManager.processEvent( new WarmEmissionEvent( event.getTime(), event.getLinkId(), event.getVehicleId(), emissions ) );
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class OnlineEmissionsTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSameAsOffline() {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( utils.getOutputDirectory() );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+
+		// offline, as in RunAverageEmissionToolOfflineExample:
+		LinkEmissionsAggregator offline = new LinkEmissionsAggregator();
+		{
+			EventsManager eventsManager = EventsUtils.createEventsManager();
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( eventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+			eventsManager.addHandler( offline );
+			EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+		}
+
+		// online, with the events as the mobsim would hand them out:
+		OnlineEmissions online = new OnlineEmissions( scenario );
+		String emissionEventsFile = utils.getOutputDirectory() + "emission.events.xml.gz";
+		String linkEmissionsFile = utils.getOutputDirectory() + "emissionsPerLink.csv";
+		{
+			EventsManager eventsManager = EventsUtils.createEventsManager();
+			eventsManager.addHandler( online );
+			online.start( 5, emissionEventsFile );
+			EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+			online.finish( linkEmissionsFile );
+		}
+
+		Assert.assertTrue( offline.getTotal( Pollutant.CO2_TOTAL ) > 0. );
+		for ( Pollutant pollutant : new Pollutant[]{ Pollutant.CO2_TOTAL, Pollutant.NOx, Pollutant.PM } ) {
+			Assert.assertEquals( offline.getTotal( pollutant ), online.getLinkEmissions().getTotal( pollutant ), MatsimTestUtils.EPSILON );
+		}
+		for ( Link link : scenario.getNetwork().getLinks().values() ) {
+			Assert.assertEquals( offline.getEmission( link.getId(), Pollutant.CO2_TOTAL ),
+					online.getLinkEmissions().getEmission( link.getId(), Pollutant.CO2_TOTAL ), MatsimTestUtils.EPSILON );
+		}
+		Assert.assertTrue( Files.exists( Paths.get( emissionEventsFile ) ) );
+		Assert.assertTrue( Files.exists( Paths.get( linkEmissionsFile ) ) );
+	}
+
+	@Test
+	public final void testIterations() {
+		OnlineEmissionsConfigGroup config = new OnlineEmissionsConfigGroup();
+		config.setIterations( " 0, 10 ,last" );
+		Assert.assertTrue( config.isEmissionsIteration( 0, 20 ) );
+		Assert.assertTrue( config.isEmissionsIteration( 10, 20 ) );
+		Assert.assertTrue( config.isEmissionsIteration( 20, 20 ) );
+		Assert.assertFalse( config.isEmissionsIteration( 5, 20 ) );
+		Assert.assertFalse( new OnlineEmissionsConfigGroup().isEmissionsIteration( 0, 0 ) );
+		Assert.assertThrows( IllegalArgumentException.class, () -> config.setIterations( "first" ) );
+	}
+
+}
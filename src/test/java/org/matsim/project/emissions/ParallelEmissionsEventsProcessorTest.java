@@ -0,0 +1,102 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.emissions.EmissionModule;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.project.RunAverageEmissionToolOfflineExample;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ParallelEmissionsEventsProcessorTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSameAsSequential() {
+		Config config = RunAverageEmissionToolOfflineExample.prepareConfig( null );
+		config.controler().setOutputDirectory( utils.getOutputDirectory() );
+		Scenario scenario = ScenarioUtils.loadScenario( config );
+
+		// sequential, as in the runners with one worker: the emission module is registered before the other handlers
+		List<Map<String, String>> expectedEvents = new ArrayList<>();
+		LinkEmissionsAggregator expectedSums = new LinkEmissionsAggregator();
+		{
+			EventsManager eventsManager = EventsUtils.createEventsManager();
+			AbstractModule module = new AbstractModule(){
+				@Override
+				public void install(){
+					bind( Scenario.class ).toInstance( scenario );
+					bind( EventsManager.class ).toInstance( eventsManager );
+					bind( EmissionModule.class ) ;
+				}
+			};
+			Injector.createInjector( config, module ).getInstance( EmissionModule.class );
+			eventsManager.addHandler( (BasicEventHandler) event -> expectedEvents.add( event.getAttributes() ) );
+			eventsManager.addHandler( expectedSums );
+			EventsUtils.readEvents( eventsManager, EVENTS_FILE );
+		}
+		long emissionEvents = expectedEvents.stream()
+				.filter( attributes -> attributes.get( "type" ).equals( WarmEmissionEvent.EVENT_TYPE ) || attributes.get( "type" ).equals( ColdEmissionEvent.EVENT_TYPE ) )
+				.count();
+		Assert.assertTrue( emissionEvents > 0 );
+
+		// one worker, several workers, and several workers with blocks that end in the middle of the vehicles' trips:
+		int[][] setups = { { 1, 100_000 }, { 3, 100_000 }, { 3, 17 } };
+		for ( int[] setup : setups ) {
+			List<Map<String, String>> actualEvents = new ArrayList<>();
+			LinkEmissionsAggregator actualSums = new LinkEmissionsAggregator();
+			EventsManager eventsManager = EventsUtils.createEventsManager();
+			eventsManager.addHandler( (BasicEventHandler) event -> actualEvents.add( event.getAttributes() ) );
+			eventsManager.addHandler( actualSums );
+			new ParallelEmissionsEventsProcessor( config, scenario, eventsManager, setup[0], setup[1] ).readFile( EVENTS_FILE );
+
+			String message = setup[0] + " workers, blocks of " + setup[1];
+			// the same events, with the emission events right before the events that trigger them:
+			Assert.assertEquals( message, expectedEvents, actualEvents );
+			for ( Pollutant pollutant : Pollutant.values() ) {
+				Assert.assertEquals( message, expectedSums.getTotal( pollutant ), actualSums.getTotal( pollutant ), 0. );
+			}
+			for ( Link link : scenario.getNetwork().getLinks().values() ) {
+				Assert.assertEquals( message, expectedSums.getEmission( link.getId(), Pollutant.CO2_TOTAL ),
+						actualSums.getEmission( link.getId(), Pollutant.CO2_TOTAL ), 0. );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.emissions.EmissionUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+
+public class RoadTypeClassifierTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String DEMO_RULES = "scenarios/sampleScenario/hbefa_road_type_rules_demo.csv";
+
+	private Network network;
+	private Node from;
+	private Node to;
+
+	private Link createLink( String id, double freespeed_kmh, String osmType, Object grade ) {
+		if ( network == null ) {
+			network = NetworkUtils.createNetwork();
+			from = NetworkUtils.createAndAddNode( network, Id.createNodeId( "rules_1" ), new Coord( 0., 0. ) );
+			to = NetworkUtils.createAndAddNode( network, Id.createNodeId( "rules_2" ), new Coord( 1000., 0. ) );
+		}
+		Link link = NetworkUtils.createAndAddLink( network, Id.createLinkId( "rules_" + id ), from, to, 1000., freespeed_kmh / 3.6, 1800., 1. );
+		if ( osmType != null ) {
+			NetworkUtils.setType( link, osmType );
+		}
+		if ( grade != null ) {
+			link.getAttributes().putAttribute( RoadTypeClassifier.ROAD_GRADE, grade );
+		}
+		return link;
+	}
+
+	@Test
+	public final void testDemoRules() {
+		Link motorway = createLink( "motorway", 50., "highway.motorway", null );
+		Link fast = createLink( "fast", 80., "highway.residential", null );
+		Link slow = createLink( "slow", 50., null, null );
+
+		Map<String, Integer> counts = RoadTypeClassifier.readRules( IOUtils.resolveFileOrResource( DEMO_RULES ) ).classify( network );
+
+		Assert.assertEquals( "RUR/Trunk/80", EmissionUtils.getHbefaRoadType( motorway ) );
+		Assert.assertEquals( "RUR/Trunk/80", EmissionUtils.getHbefaRoadType( fast ) );
+		Assert.assertEquals( "URB/Local/50", EmissionUtils.getHbefaRoadType( slow ) );
+		Assert.assertEquals( 2, (int) counts.get( "RUR/Trunk/80" ) );
+		Assert.assertEquals( 1, (int) counts.get( "URB/Local/50" ) );
+	}
+
+	@Test
+	public final void testReadRules() throws IOException {
+		Path file = Paths.get( utils.getOutputDirectory(), "rules.csv" );
+		Files.write( file, Arrays.asList(
+				"# comment",
+				"roadType;osmTypes;minFreespeed_kmh;maxFreespeed_kmh;minCapacity;maxCapacity;minLanes;maxLanes;minGrade;maxGrade",
+				"",
+				"MW;motorway | trunk;;;;;2;;;",
+				"steep;;;;;;;;3;",
+				"rest" ), StandardCharsets.UTF_8 );
+		RoadTypeClassifier classifier = RoadTypeClassifier.readRules( file.toUri().toURL() );
+
+		Assert.assertEquals( 0, classifier.match( lanes( createLink( "mw", 100., "highway.trunk", null ), 2. ) ) );
+		// too few lanes:
+		Assert.assertEquals( 2, classifier.match( lanes( createLink( "mw1", 100., "highway.trunk", null ), 1. ) ) );
+		Assert.assertEquals( 1, classifier.match( createLink( "steep", 50., null, 4. ) ) );
+		Assert.assertEquals( 1, classifier.match( createLink( "steep%", 50., null, "+6%" ) ) );
+		Assert.assertEquals( 2, classifier.match( createLink( "flat", 50., null, "2%" ) ) );
+
+		Files.write( file, Arrays.asList( "type;osmTypes", "rest" ), StandardCharsets.UTF_8 );
+		Assert.assertThrows( IllegalArgumentException.class, () -> RoadTypeClassifier.readRules( file.toUri().toURL() ) );
+	}
+
+	@Test
+	public final void testGradeConditions() {
+		RoadTypeClassifier classifier = new RoadTypeClassifier( Arrays.asList(
+				new RoadTypeClassifier.Rule( "downhill" ).setGrade( Double.NEGATIVE_INFINITY, -3. ),
+				new RoadTypeClassifier.Rule( "uphill" ).setGrade( 3., Double.POSITIVE_INFINITY ),
+				new RoadTypeClassifier.Rule( "other" ) ) );
+
+		Assert.assertEquals( 0, classifier.match( createLink( "down", 50., null, "-6%" ) ) );
+		Assert.assertEquals( 1, classifier.match( createLink( "up", 50., null, 4 ) ) );
+		// undirected HBEFA gradients count with their magnitude:
+		Assert.assertEquals( 1, classifier.match( createLink( "hilly", 50., null, "+/-4%" ) ) );
+		Assert.assertEquals( 2, classifier.match( createLink( "gentle", 50., null, "+/-2%" ) ) );
+		// without a grade, or with one that is no number, only rules without a grade condition match:
+		Assert.assertEquals( 2, classifier.match( createLink( "none", 50., null, null ) ) );
+		Assert.assertEquals( 2, classifier.match( createLink( "invalid", 50., null, "steep" ) ) );
+
+		// and the classification does not fail on them:
+		Map<String, Integer> counts = classifier.classify( network );
+		Assert.assertEquals( 3, (int) counts.get( "other" ) );
+	}
+
+	private static Link lanes( Link link, double lanes ) {
+		link.setNumberOfLanes( lanes );
+		return link;
+	}
+
+}
@@ -0,0 +1,130 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.emissions;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.project.events.EventsFileStreamComparator;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.MatsimVehicleReader;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleUtils;
+import org.matsim.vehicles.Vehicles;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class SyntheticEventsGeneratorTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String NETWORK_FILE = "scenarios/sampleScenario/sample_network.xml";
+	private static final String VEHICLES_FILE = "scenarios/sampleScenario/testv2_Vehv2/sample_emissionVehicles_v2.xml";
+	private static final String WARM_FILE = "scenarios/sampleScenario/EFA_HOT_Vehcat_avg_demo_all_gradients.csv";
+	private static final String COLD_FILE = "scenarios/sampleScenario/sample_41_EFA_ColdStart_vehcat_2020average.csv";
+
+	@Test
+	public final void testValidAndDeterministic() {
+		Network network = NetworkUtils.readNetwork( NETWORK_FILE );
+		Vehicles vehicles = VehicleUtils.createVehiclesContainer();
+		new MatsimVehicleReader( vehicles ).readFile( VEHICLES_FILE );
+		HbefaEmissionFactorIndex index = HbefaEmissionFactorIndex.readFiles( WARM_FILE, COLD_FILE );
+
+		SyntheticEventsGenerator generator = new SyntheticEventsGenerator( network, vehicles, index, 4711 )
+				.setNumberOfVehicles( 50 )
+				.setTripsPerVehicle( 3 )
+				.setLinksPerTrip( 2, 10 );
+
+		// the events are in time order, and every vehicle drives on connected links:
+		Validator validator = new Validator( network );
+		long events = generator.generate( validator );
+		Assert.assertEquals( events, validator.events );
+		Assert.assertEquals( 150, validator.trips );
+		Assert.assertTrue( validator.vehiclesInTraffic.isEmpty() );
+
+		// the synthetic vehicles are known to the emissions:
+		Vehicles synthetic = generator.createVehicles();
+		Assert.assertEquals( 50, synthetic.getVehicles().size() );
+		HbefaDescriptors descriptors = HbefaDescriptors.resolve( index, network, synthetic );
+		for ( Vehicle vehicle : synthetic.getVehicles().values() ) {
+			Assert.assertTrue( vehicle.getId().toString(), descriptors.getSegment( vehicle.getId().index() ) >= 0 );
+		}
+
+		// the same seed gives the same file, another seed does not:
+		String first = utils.getOutputDirectory() + "first.events.xml.gz";
+		String second = utils.getOutputDirectory() + "second.events.xml.gz";
+		String other = utils.getOutputDirectory() + "other.events.xml.gz";
+		Assert.assertEquals( events, generator.writeFile( first ) );
+		new SyntheticEventsGenerator( network, vehicles, index, 4711 ).setNumberOfVehicles( 50 ).setTripsPerVehicle( 3 ).setLinksPerTrip( 2, 10 )
+				.writeFile( second );
+		new SyntheticEventsGenerator( network, vehicles, index, 4712 ).setNumberOfVehicles( 50 ).setTripsPerVehicle( 3 ).setLinksPerTrip( 2, 10 )
+				.writeFile( other );
+		Assert.assertTrue( EventsFileStreamComparator.compare( first, second ).isEqual() );
+		Assert.assertFalse( EventsFileStreamComparator.compare( first, other ).isEqual() );
+	}
+
+	private static final class Validator implements Consumer<Event> {
+		private final Network network;
+		private final Map<Id<Vehicle>, Id<Link>> vehiclesInTraffic = new HashMap<>();
+		private double time = Double.NEGATIVE_INFINITY;
+		private long events = 0;
+		private long trips = 0;
+
+		Validator( Network network ) {
+			this.network = network;
+		}
+
+		@Override
+		public void accept( Event event ) {
+			Assert.assertTrue( event.getTime() >= time );
+			time = event.getTime();
+			events++;
+			if ( event instanceof VehicleEntersTrafficEvent ) {
+				VehicleEntersTrafficEvent enters = (VehicleEntersTrafficEvent) event;
+				Assert.assertNull( vehiclesInTraffic.put( enters.getVehicleId(), enters.getLinkId() ) );
+				trips++;
+			} else if ( event instanceof LinkLeaveEvent ) {
+				LinkLeaveEvent leave = (LinkLeaveEvent) event;
+				Assert.assertEquals( vehiclesInTraffic.get( leave.getVehicleId() ), leave.getLinkId() );
+			} else if ( event instanceof LinkEnterEvent ) {
+				LinkEnterEvent enter = (LinkEnterEvent) event;
+				Link previous = network.getLinks().get( vehiclesInTraffic.get( enter.getVehicleId() ) );
+				Assert.assertSame( previous.getToNode(), network.getLinks().get( enter.getLinkId() ).getFromNode() );
+				vehiclesInTraffic.put( enter.getVehicleId(), enter.getLinkId() );
+			} else if ( event instanceof VehicleLeavesTrafficEvent ) {
+				VehicleLeavesTrafficEvent leaves = (VehicleLeavesTrafficEvent) event;
+				Assert.assertEquals( vehiclesInTraffic.remove( leaves.getVehicleId() ), leaves.getLinkId() );
+			} else {
+				Assert.fail( "Unexpected event " + event );
+			}
+		}
+	}
+
+}
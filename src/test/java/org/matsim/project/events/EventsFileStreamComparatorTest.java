@@ -0,0 +1,121 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.events;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.utils.eventsfilecomparison.EventsFileComparator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class EventsFileStreamComparatorTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSameResultsAsEventsFileComparator() throws IOException {
+		List<String> lines = readLines();
+		String same = write( "same.events.xml.gz", lines );
+		Assert.assertEquals( EventsFileComparator.Result.FILES_ARE_EQUAL, EventsFileStreamComparator.compare( EVENTS_FILE, same ).getCode() );
+
+		// the order of the events within a time step does not matter:
+		int first = firstEventLine( lines );
+		List<String> reordered = new ArrayList<>( lines );
+		Collections.swap( reordered, first, first + 1 );
+		String reorderedFile = write( "reordered.events.xml.gz", reordered );
+		Assert.assertEquals( EventsUtils.compareEventsFiles( EVENTS_FILE, reorderedFile ),
+				EventsFileStreamComparator.compare( EVENTS_FILE, reorderedFile ).getCode() );
+		Assert.assertTrue( EventsFileStreamComparator.compare( EVENTS_FILE, reorderedFile ).isEqual() );
+
+		List<String> missing = new ArrayList<>( lines );
+		String removed = missing.remove( first + 5 );
+		String missingFile = write( "missing.events.xml.gz", missing );
+		EventsFileStreamComparator.Result result = EventsFileStreamComparator.compare( EVENTS_FILE, missingFile );
+		Assert.assertEquals( EventsUtils.compareEventsFiles( EVENTS_FILE, missingFile ), result.getCode() );
+		Assert.assertEquals( 10999., result.getTime(), 0. );
+
+		List<String> changed = new ArrayList<>( lines );
+		changed.set( first + 5, removed.replace( "link=\"", "link=\"other" ) );
+		String changedFile = write( "changed.events.xml.gz", changed );
+		result = EventsFileStreamComparator.compare( EVENTS_FILE, changedFile );
+		Assert.assertEquals( EventsUtils.compareEventsFiles( EVENTS_FILE, changedFile ), result.getCode() );
+		Assert.assertTrue( result.getMessage().contains( "link=other" ) );
+	}
+
+	@Test
+	public final void testDigest() throws IOException {
+		String digest = utils.getOutputDirectory() + "reference.digest.csv";
+		EventsFileStreamComparator.writeDigest( EVENTS_FILE, 3600., digest );
+		Assert.assertTrue( EventsFileStreamComparator.compareToDigest( EVENTS_FILE, digest ).isEqual() );
+
+		List<String> lines = readLines();
+		int last = lines.size() - 1;
+		while ( !lines.get( last ).contains( "<event " ) ) {
+			last--;
+		}
+		List<String> changed = new ArrayList<>( lines );
+		changed.set( last, lines.get( last ).replace( "person=\"", "person=\"other" ) );
+		EventsFileStreamComparator.Result result = EventsFileStreamComparator.compareToDigest( write( "changed.events.xml.gz", changed ), digest );
+		Assert.assertEquals( EventsFileComparator.Result.MISSING_EVENT, result.getCode() );
+		Assert.assertEquals( 82800., result.getTime(), 0. );
+	}
+
+	private static List<String> readLines() throws IOException {
+		List<String> lines = new ArrayList<>();
+		try ( BufferedReader reader = IOUtils.getBufferedReader( EVENTS_FILE ) ) {
+			String line;
+			while ( (line = reader.readLine()) != null ) {
+				lines.add( line );
+			}
+		}
+		return lines;
+	}
+
+	private static int firstEventLine( List<String> lines ) {
+		for ( int ii = 0; ii < lines.size(); ii++ ) {
+			if ( lines.get( ii ).contains( "<event " ) ) {
+				return ii;
+			}
+		}
+		throw new IllegalStateException( "no events" );
+	}
+
+	private String write( String name, List<String> lines ) throws IOException {
+		String file = utils.getOutputDirectory() + name;
+		try ( BufferedWriter writer = IOUtils.getBufferedWriter( file ) ) {
+			for ( String line : lines ) {
+				writer.write( line );
+				writer.newLine();
+			}
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,114 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.events;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.events.MatsimEventsReader;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PipelinedEventsReaderTest {
+
+	private static final String EVENTS_FILE = "scenarios/sampleScenario/5.events.xml.gz";
+
+	@Test
+	public final void testSameEventsAsMatsimEventsReader() {
+		List<Event> expected = readWithMatsimEventsReader();
+		List<Event> actual = new ArrayList<>();
+		EventsManager actualEventsManager = EventsUtils.createEventsManager();
+		actualEventsManager.addHandler( (BasicEventHandler) actual::add );
+		PipelinedEventsReader reader = new PipelinedEventsReader( actualEventsManager, 2 );
+		reader.readFile( EVENTS_FILE );
+
+		Assert.assertEquals( expected.size(), reader.getNumberOfEvents() );
+		assertSameEvents( expected, actual, "default chunk size" );
+	}
+
+	@Test
+	public final void testChunkBoundaries() throws IOException {
+		List<Event> expected = readWithMatsimEventsReader();
+		byte[] content;
+		try ( InputStream in = IOUtils.getInputStream( IOUtils.resolveFileOrResource( EVENTS_FILE ) ) ) {
+			content = in.readAllBytes();
+		}
+
+		// the whole file in one chunk, with and without room to spare; many small chunks; and all chunk sizes where the
+		// rest of the file fills the last chunk exactly, so that the end of the file is only noticed by an empty read:
+		List<Integer> chunkSizes = new ArrayList<>( Arrays.asList( content.length + 1, content.length, 400, 1000, 4096 ) );
+		int exactFills = 0;
+		for ( int chunkSize = 400; chunkSize < content.length; chunkSize++ ) {
+			if ( restFillsLastChunk( content, chunkSize ) ) {
+				chunkSizes.add( chunkSize );
+				exactFills++;
+			}
+		}
+		Assert.assertTrue( exactFills > 0 );
+
+		for ( int chunkSize : chunkSizes ) {
+			List<Event> actual = new ArrayList<>();
+			EventsManager actualEventsManager = EventsUtils.createEventsManager();
+			actualEventsManager.addHandler( (BasicEventHandler) actual::add );
+			new PipelinedEventsReader( actualEventsManager, 2, chunkSize ).readFile( EVENTS_FILE );
+			assertSameEvents( expected, actual, "chunk size " + chunkSize );
+		}
+	}
+
+	/**
+	 * Follows the cuts of the reader: after the last line break within a chunk, until the rest fits.
+	 */
+	private static boolean restFillsLastChunk( byte[] content, int chunkSize ) {
+		int position = 0;
+		while ( content.length - position > chunkSize ) {
+			int cut = position + chunkSize;
+			while ( content[cut - 1] != '\n' ) {
+				cut--;
+			}
+			position = cut;
+		}
+		return position > 0 && content.length - position == chunkSize;
+	}
+
+	private static List<Event> readWithMatsimEventsReader() {
+		List<Event> expected = new ArrayList<>();
+		EventsManager expectedEventsManager = EventsUtils.createEventsManager();
+		expectedEventsManager.addHandler( (BasicEventHandler) expected::add );
+		new MatsimEventsReader( expectedEventsManager ).readFile( EVENTS_FILE );
+		Assert.assertFalse( expected.isEmpty() );
+		return expected;
+	}
+
+	private static void assertSameEvents( List<Event> expected, List<Event> actual, String message ) {
+		Assert.assertEquals( message, expected.size(), actual.size() );
+		for ( int ii = 0; ii < expected.size(); ii++ ) {
+			Assert.assertEquals( message, expected.get( ii ).getClass(), actual.get( ii ).getClass() );
+			Assert.assertEquals( message, expected.get( ii ).getAttributes(), actual.get( ii ).getAttributes() );
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.pricing;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.emissions.Pollutant;
+import org.matsim.contrib.emissions.events.ColdEmissionEvent;
+import org.matsim.contrib.emissions.events.WarmEmissionEvent;
+import org.matsim.contrib.roadpricing.RoadPricingSchemeImpl;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.Vehicle;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class EmissionTollTableTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	@Test
+	public final void testTollsFromEmissions() {
+		Network network = NetworkUtils.createNetwork();
+		Node node1 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "toll_1" ), new Coord( 0., 0. ) );
+		Node node2 = NetworkUtils.createAndAddNode( network, Id.createNodeId( "toll_2" ), new Coord( 1000., 0. ) );
+		Id<Link> link12 = Id.createLinkId( "toll_12" );
+		Id<Link> link21 = Id.createLinkId( "toll_21" );
+		NetworkUtils.createAndAddLink( network, link12, node1, node2, 1000., 13.89, 1800., 1. );
+		NetworkUtils.createAndAddLink( network, link21, node2, node1, 1000., 13.89, 1800., 1. );
+		Id<Vehicle> vehicle1 = Id.createVehicleId( "toll_v1" );
+		Id<Vehicle> vehicle2 = Id.createVehicleId( "toll_v2" );
+
+		EmissionPricingConfigGroup config = new EmissionPricingConfigGroup();
+		config.setTimeBinSize( 900. );
+		config.setEndTime( 3600. );
+		config.setCostRates( "CO2_TOTAL=0.001,NOx=0.1" );
+		config.setLearningRate( 0.5 );
+		EmissionTollTable table = new EmissionTollTable( config );
+
+		// first iteration: emission costs of 0.1 + 0.1 + 0.1, shared by two vehicles:
+		table.handleEvent( new WarmEmissionEvent( 100., link12, vehicle1, emissions( 100., 1. ) ) );
+		table.handleEvent( new ColdEmissionEvent( 100., link12, vehicle1, emissions( 100., 0. ) ) );
+		table.handleEvent( new LinkLeaveEvent( 100., vehicle1, link12 ) );
+		table.handleEvent( new LinkLeaveEvent( 200., vehicle2, link12 ) );
+		// traffic after the end time, which is not counted:
+		table.handleEvent( new WarmEmissionEvent( 5000., link21, vehicle1, emissions( 100., 1. ) ) );
+		table.handleEvent( new LinkLeaveEvent( 5000., vehicle1, link21 ) );
+		table.update();
+
+		Assert.assertEquals( 0.5 * 0.15, table.getToll( link12, 0. ), MatsimTestUtils.EPSILON );
+		RoadPricingSchemeImpl.Cost cost = table.getLinkCostInfo( link12, 899., null, vehicle1 );
+		Assert.assertEquals( 0., cost.startTime, 0. );
+		Assert.assertEquals( 900., cost.endTime, 0. );
+		Assert.assertEquals( 0.5 * 0.15, cost.amount, MatsimTestUtils.EPSILON );
+		// the same object for every query:
+		Assert.assertSame( cost, table.getTypicalLinkCostInfo( link12, 0. ) );
+		Assert.assertNull( table.getTypicalLinkCostInfo( link12, 900. ) );
+		Assert.assertNull( table.getTypicalLinkCostInfo( link21, 5000. ) );
+		Assert.assertEquals( 0., table.getToll( link21, 3000. ), 0. );
+		Assert.assertEquals( 0., table.getToll( link12, 5000. ), 0. );
+		Assert.assertNull( table.getTypicalLinkCostInfo( link12, 3600. ) );
+		Assert.assertEquals( Collections.singleton( link12 ), table.getTolledLinkIds() );
+		Assert.assertEquals( 1, table.getTypicalCostsForLink().get( link12 ).size() );
+
+		// second iteration: no traffic in the first bin any more, but in the second:
+		table.handleEvent( new WarmEmissionEvent( 1000., link12, vehicle1, emissions( 200., 0. ) ) );
+		table.handleEvent( new LinkLeaveEvent( 1000., vehicle1, link12 ) );
+		table.update();
+
+		Assert.assertEquals( 0.25 * 0.15, table.getToll( link12, 0. ), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( 0.5 * 0.2, table.getToll( link12, 1000. ), MatsimTestUtils.EPSILON );
+		Assert.assertEquals( 900., table.getTypicalLinkCostInfo( link12, 1000. ).startTime, 0. );
+		Assert.assertEquals( 2, table.getTypicalCostsForLink().get( link12 ).size() );
+
+		// without traffic, the tolls decay until they are dropped:
+		for ( int iteration = 0; iteration < 30; iteration++ ) {
+			table.update();
+		}
+		Assert.assertEquals( 0., table.getToll( link12, 0. ), 0. );
+		Assert.assertNull( table.getTypicalLinkCostInfo( link12, 1000. ) );
+		Assert.assertTrue( table.getTolledLinkIds().isEmpty() );
+	}
+
+	private static Map<Pollutant, Double> emissions( double co2, double nox ) {
+		Map<Pollutant, Double> emissions = new EnumMap<>( Pollutant.class );
+		emissions.put( Pollutant.CO2_TOTAL, co2 );
+		emissions.put( Pollutant.NOx, nox );
+		return emissions;
+	}
+
+}
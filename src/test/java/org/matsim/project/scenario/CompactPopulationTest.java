@@ -0,0 +1,90 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.File;
+
+public class CompactPopulationTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String CONFIG_FILE = "scenarios/equil/config.xml";
+
+	@Test
+	public final void testSamePlansAsObjects() {
+		Scenario expected = ScenarioUtils.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		addPlans( expected );
+		String plansFile = utils.getOutputDirectory() + "plans.xml.gz";
+		PopulationUtils.writePopulation( expected.getPopulation(), plansFile );
+
+		Config config = ConfigUtils.loadConfig( CONFIG_FILE );
+		config.plans().setInputFile( new File( plansFile ).getAbsolutePath() );
+		ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).setCompactPopulation( true );
+		Population population = ParallelScenarioLoader.loadScenario( config ).getPopulation();
+
+		Assert.assertTrue( population instanceof CompactPopulation );
+		Assert.assertEquals( 2 * expected.getPopulation().getPersons().size(), ((CompactPopulation) population).getNumberOfPackedPlans() );
+		Assert.assertTrue( ((CompactPopulation) population).getPackedBytes() < ((CompactPopulation) population).getEstimatedObjectBytes() );
+		for ( Person person : population.getPersons().values() ) {
+			Assert.assertTrue( CompactPopulation.isPacked( person ) );
+			Assert.assertEquals( 3, CompactPopulation.getPlansWithoutExpanding( person ).size() );
+			Assert.assertTrue( CompactPopulation.isPacked( person ) );
+		}
+
+		Assert.assertTrue( PopulationUtils.equalPopulation( expected.getPopulation(), population ) );
+		for ( Person person : population.getPersons().values() ) {
+			Assert.assertFalse( CompactPopulation.isPacked( person ) );
+			Assert.assertEquals( 1, person.getPlans().indexOf( person.getSelectedPlan() ) );
+			for ( Plan plan : person.getPlans() ) {
+				Assert.assertSame( person, plan.getPerson() );
+			}
+		}
+	}
+
+	/**
+	 * Makes every person have three plans, with the second one selected.
+	 */
+	private static void addPlans( Scenario scenario ) {
+		for ( Person person : scenario.getPopulation().getPersons().values() ) {
+			Plan first = person.getSelectedPlan();
+			first.setScore( 12.5 );
+			Plan second = person.createCopyOfSelectedPlanAndMakeSelected();
+			second.setScore( null );
+			second.getAttributes().putAttribute( "origin", "copy" );
+			Plan third = PopulationUtils.createPlan( person );
+			PopulationUtils.copyFromTo( first, third );
+			third.setType( "alternative" );
+			person.addPlan( third );
+		}
+	}
+
+}
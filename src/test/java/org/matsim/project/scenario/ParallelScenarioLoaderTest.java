@@ -0,0 +1,107 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.api.core.v01.population.Route;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.util.List;
+
+public class ParallelScenarioLoaderTest {
+
+	private static final String CONFIG_FILE = "scenarios/equil/config.xml";
+
+	@Test
+	public final void testSameScenarioAsScenarioUtils() {
+		Scenario expected = ScenarioUtils.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		Config config = ConfigUtils.loadConfig( CONFIG_FILE );
+		Scenario actual = ParallelScenarioLoader.loadScenario( config );
+
+		Assert.assertFalse( expected.getNetwork().getLinks().isEmpty() );
+		Assert.assertEquals( expected.getNetwork().getNodes().keySet(), actual.getNetwork().getNodes().keySet() );
+		Assert.assertEquals( expected.getNetwork().getLinks().keySet(), actual.getNetwork().getLinks().keySet() );
+		Assert.assertEquals( expected.getPopulation().getPersons().keySet(), actual.getPopulation().getPersons().keySet() );
+		Assert.assertTrue( PopulationUtils.equalPopulation( expected.getPopulation(), actual.getPopulation() ) );
+		assertSameRoutes( expected, actual );
+		Assert.assertEquals( 0, ParallelScenarioLoader.checkReferences( actual ) );
+	}
+
+	@Test
+	public final void testGivenNetwork() {
+		Scenario expected = ScenarioUtils.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		for ( boolean parallel : new boolean[]{ true, false } ) {
+			Config config = ConfigUtils.loadConfig( CONFIG_FILE );
+			ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).setParallel( parallel );
+			Scenario actual = ParallelScenarioLoader.loadScenario( config, expected.getNetwork() );
+
+			Assert.assertSame( expected.getNetwork(), actual.getNetwork() );
+			Assert.assertTrue( PopulationUtils.equalPopulation( expected.getPopulation(), actual.getPopulation() ) );
+			assertSameRoutes( expected, actual );
+		}
+	}
+
+	/**
+	 * The plans of equil are in the v4 format, with routes as node sequences that the reader turns into links through the
+	 * network.
+	 */
+	public static void assertSameRoutes( Scenario expected, Scenario actual ) {
+		int networkRoutes = 0;
+		for ( Person person : expected.getPopulation().getPersons().values() ) {
+			List<Plan> actualPlans = actual.getPopulation().getPersons().get( person.getId() ).getPlans();
+			for ( int pp = 0; pp < person.getPlans().size(); pp++ ) {
+				List<PlanElement> expectedElements = person.getPlans().get( pp ).getPlanElements();
+				List<PlanElement> actualElements = actualPlans.get( pp ).getPlanElements();
+				for ( int ee = 0; ee < expectedElements.size(); ee++ ) {
+					if ( expectedElements.get( ee ) instanceof Leg ) {
+						Route expectedRoute = ((Leg) expectedElements.get( ee )).getRoute();
+						Route actualRoute = ((Leg) actualElements.get( ee )).getRoute();
+						String message = person.getId() + ", element " + ee;
+						if ( expectedRoute == null ) {
+							Assert.assertNull( message, actualRoute );
+							continue;
+						}
+						Assert.assertEquals( message, expectedRoute.getStartLinkId(), actualRoute.getStartLinkId() );
+						Assert.assertEquals( message, expectedRoute.getEndLinkId(), actualRoute.getEndLinkId() );
+						Assert.assertEquals( message, expectedRoute.getDistance(), actualRoute.getDistance(), 0. );
+						if ( expectedRoute instanceof NetworkRoute ) {
+							List<Id<Link>> expectedLinks = ((NetworkRoute) expectedRoute).getLinkIds();
+							Assert.assertEquals( message, expectedLinks, ((NetworkRoute) actualRoute).getLinkIds() );
+							networkRoutes++;
+						}
+					}
+				}
+			}
+		}
+		Assert.assertTrue( networkRoutes > 0 );
+	}
+
+}
@@ -0,0 +1,104 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2023 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.project.scenario;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.testcases.MatsimTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+public class ScenarioSnapshotTest {
+
+	@Rule public MatsimTestUtils utils = new MatsimTestUtils() ;
+
+	private static final String CONFIG_FILE = "scenarios/equil/config.xml";
+
+	@Test
+	public final void testSameScenarioAsXml() throws IOException {
+		Scenario expected = ScenarioUtils.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ) );
+		Path snapshot = Paths.get( utils.getOutputDirectory(), "equil.snapshot" );
+
+		Scenario written = ScenarioSnapshot.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ), snapshot );
+		Assert.assertTrue( Files.exists( snapshot ) );
+		long modified = Files.getLastModifiedTime( snapshot ).toMillis();
+		assertSameScenario( expected, written );
+
+		Scenario read = ScenarioSnapshot.loadScenario( ConfigUtils.loadConfig( CONFIG_FILE ), snapshot );
+		Assert.assertEquals( modified, Files.getLastModifiedTime( snapshot ).toMillis() );
+		assertSameScenario( expected, read );
+	}
+
+	@Test
+	public final void testKey() throws IOException {
+		Path networkFile = Paths.get( utils.getOutputDirectory(), "network.xml" );
+		Files.copy( Paths.get( "scenarios/equil/network.xml" ), networkFile );
+		Config config = ConfigUtils.loadConfig( CONFIG_FILE );
+		config.network().setInputFile( networkFile.toUri().toString() );
+		String key = ScenarioSnapshot.key( config );
+		Assert.assertEquals( key, ScenarioSnapshot.key( config ) );
+
+		// a touched file is taken as changed, without reading it:
+		Files.setLastModifiedTime( networkFile, FileTime.fromMillis( Files.getLastModifiedTime( networkFile ).toMillis() - 60_000 ) );
+		String touchedKey = ScenarioSnapshot.key( config );
+		Assert.assertNotEquals( key, touchedKey );
+
+		// with the checksum, only the contents count:
+		ConfigUtils.addOrGetModule( config, ScenarioLoadingConfigGroup.class ).setSnapshotChecksum( true );
+		String checksumKey = ScenarioSnapshot.key( config );
+		Files.setLastModifiedTime( networkFile, FileTime.fromMillis( Files.getLastModifiedTime( networkFile ).toMillis() - 60_000 ) );
+		Assert.assertEquals( checksumKey, ScenarioSnapshot.key( config ) );
+		Assert.assertNotEquals( touchedKey, checksumKey );
+	}
+
+	private static void assertSameScenario( Scenario expected, Scenario actual ) {
+		Assert.assertFalse( expected.getNetwork().getLinks().isEmpty() );
+		Assert.assertEquals( expected.getNetwork().getNodes().keySet(), actual.getNetwork().getNodes().keySet() );
+		for ( Node node : expected.getNetwork().getNodes().values() ) {
+			Assert.assertEquals( node.getCoord(), actual.getNetwork().getNodes().get( node.getId() ).getCoord() );
+		}
+		Assert.assertEquals( expected.getNetwork().getLinks().keySet(), actual.getNetwork().getLinks().keySet() );
+		for ( Link link : expected.getNetwork().getLinks().values() ) {
+			Link other = actual.getNetwork().getLinks().get( link.getId() );
+			Assert.assertEquals( link.getFromNode().getId(), other.getFromNode().getId() );
+			Assert.assertEquals( link.getToNode().getId(), other.getToNode().getId() );
+			Assert.assertEquals( link.getLength(), other.getLength(), 0. );
+			Assert.assertEquals( link.getFreespeed(), other.getFreespeed(), 0. );
+			Assert.assertEquals( link.getCapacity(), other.getCapacity(), 0. );
+			Assert.assertEquals( link.getNumberOfLanes(), other.getNumberOfLanes(), 0. );
+			Assert.assertEquals( link.getAllowedModes(), other.getAllowedModes() );
+			Assert.assertEquals( link.getAttributes().getAsMap(), other.getAttributes().getAsMap() );
+		}
+		Assert.assertEquals( expected.getNetwork().getCapacityPeriod(), actual.getNetwork().getCapacityPeriod(), 0. );
+		Assert.assertTrue( PopulationUtils.equalPopulation( expected.getPopulation(), actual.getPopulation() ) );
+	}
+
+}